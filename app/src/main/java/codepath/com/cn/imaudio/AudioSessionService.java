@@ -0,0 +1,586 @@
+package codepath.com.cn.imaudio;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Binder;
+import android.os.IBinder;
+import android.support.annotation.MainThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.DecodedPcmCache;
+import codepath.com.cn.imaudio.audio.PipelineMetrics;
+import codepath.com.cn.imaudio.audio.transcode.BatchTranscoder;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmCodec;
+import codepath.com.cn.imaudio.engine.AudioCodecs;
+import codepath.com.cn.imaudio.engine.AudioScheduler;
+import codepath.com.cn.imaudio.engine.LegacyRecordingMigration;
+import codepath.com.cn.imaudio.engine.PlaybackEngine;
+import codepath.com.cn.imaudio.engine.StreamRecorder;
+import codepath.com.cn.imaudio.upload.ChunkTransport;
+import codepath.com.cn.imaudio.upload.LoopbackTransport;
+import codepath.com.cn.imaudio.utils.BoundedLog;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+import codepath.com.cn.imaudio.utils.ResourceTracker;
+import codepath.com.cn.imaudio.utils.UiThreadUtils;
+
+/**
+ * 录音和播放的会话，不随界面销毁
+ *
+ * 持有任务队列、{@link StreamRecorder}、{@link PlaybackEngine}、解码缓存、日志和未读录音列表，
+ * 界面通过 {@link Connection} 绑定后用 {@link #attach(Callbacks)} 接收状态变化，旋转屏幕或重新打开的
+ * 界面重新绑定即可接上进行中的录音和播放。录音或播放期间服务自己启动并转为前台服务，界面解绑后也不会被
+ * 销毁；两者都结束后停止前台，没有界面绑定时随即销毁。
+ *
+ * 销毁时结束录音和播放，等待各队列退出，保证 AudioRecord、AudioTrack 和录音文件都已释放；
+ * 所有原生资源和注册的界面回调记入 {@link #getResourceTracker()}，销毁后仍未释放的会打印出来。
+ *
+ * 录音和播放管线的计数和耗时记入 {@link #getMetrics()}，每次录音、每轮播放结束时把这一次的汇总写入日志。
+ */
+public class AudioSessionService extends Service {
+
+    private static final String TAG = AudioSessionService.class.getSimpleName();
+
+    /** {@link ResourceTracker} 中的资源种类 */
+    public static final String RESOURCE_CALLBACKS = "ui callbacks";
+
+    // 录音编码格式，见 AudioCodecs：PcmWavCodec.NAME 为不压缩的WAV，ImaAdpcmCodec.NAME 为
+    // 4:1 压缩的WAV，AacCodec 为边录边编码的AAC（播放引擎不能播放）
+    private static final String RECORD_CODEC_NAME = ImaAdpcmCodec.NAME;
+    // 边录边上传：录音达到最短时长后把已编码的数据分块发出，松开时只剩最后一块和文件头。
+    // 演示时上传到本地的 outbox 目录，接入即时通讯的网络层时替换 ChunkTransport
+    private static final boolean UPLOAD_ENABLED = false;
+    // 升级后把旧版本留下的裸PCM录音在后台批量转为录音编码格式，服务销毁时中断，下次从断点继续
+    private static final boolean LEGACY_TRANSCODE_ENABLED = true;
+    // 日志最多保留的行数
+    private static final int LOG_MAX_LINES = 100;
+    // 解码缓存：共 4MB，30秒以内（16kHz单声道约 1MB）的语音整段缓存，更长的只缓存开头1秒
+    private static final long DECODED_CACHE_BYTES = 4L * 1024 * 1024;
+    private static final long DECODED_CACHE_ENTRY_BYTES = 1L * 1024 * 1024;
+    private static final int DECODED_CACHE_PREFIX_MILLIS = 1000;
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * 会话状态变化，可能在任意线程回调，界面需自行切换到主线程
+     */
+    public interface Callbacks {
+
+        /** 录音或播放开始、结束 */
+        void onStateChanged();
+
+        /** 录音电平更新 */
+        void onLevelChanged();
+
+        /** 日志追加了新行 */
+        void onLogChanged();
+    }
+
+    /**
+     * 本进程内的绑定，直接返回服务对象
+     */
+    public final class LocalBinder extends Binder {
+        public AudioSessionService getService() {
+            return AudioSessionService.this;
+        }
+    }
+
+    /**
+     * 界面与服务之间的连接，不持有界面：旋转屏幕时通过 onRetainCustomNonConfigurationInstance()
+     * 交给新的界面，只在界面真正退出时解绑，服务不会因为旋转而重建。在主线程中使用。
+     */
+    public static final class Connection implements ServiceConnection {
+
+        public interface OnConnectedListener {
+            void onConnected(AudioSessionService service);
+        }
+
+        private final Context mContext;
+        private AudioSessionService mService;
+        private OnConnectedListener mListener;
+
+        private Connection(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        /**
+         * 以 Application 绑定，连接的生命周期与界面无关
+         */
+        @MainThread
+        public static Connection bind(Context context) {
+            Connection connection = new Connection(context);
+            connection.mContext.bindService(new Intent(connection.mContext, AudioSessionService.class),
+                    connection, Context.BIND_AUTO_CREATE);
+            return connection;
+        }
+
+        /**
+         * 已连接时立即回调，否则在连接后回调；传入null取消
+         */
+        @MainThread
+        public void setOnConnectedListener(OnConnectedListener listener) {
+            mListener = listener;
+            if (listener != null && mService != null) {
+                listener.onConnected(mService);
+            }
+        }
+
+        /**
+         * 还没有连接时为null
+         */
+        @MainThread
+        public AudioSessionService getService() {
+            return mService;
+        }
+
+        @MainThread
+        public void unbind() {
+            mListener = null;
+            mService = null;
+            mContext.unbindService(this);
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((LocalBinder) binder).getService();
+            if (mListener != null) {
+                mListener.onConnected(mService);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private final ResourceTracker mTracker = new ResourceTracker();
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    // 本次录音、本轮播放开始时的计数，结束时求差得到这一次的汇总
+    private volatile PipelineMetrics.Snapshot mRecordBaseline;
+    private volatile PipelineMetrics.Snapshot mPlaybackBaseline;
+
+    // 采集循环在 capture 队列，播放在 render 队列，两者可以同时进行；
+    // 录音数据在 io 队列中编码落盘
+    private AudioScheduler mScheduler;
+    private AudioCodec mRecordCodec;
+    private StreamRecorder mRecorder;
+    // 一直复用同一个 AudioTrack，未读的录音连续播放，中间不重新初始化
+    private PlaybackEngine mEngine;
+    // 重复播放同一条语音时不再解码
+    private DecodedPcmCache mDecodedCache;
+    // 旧录音的批量转码，没有开始时为null
+    private volatile LegacyRecordingMigration mMigration;
+
+    // 日志只保留最近的若干行，重新绑定的界面可以看到之前的日志
+    private final BoundedLog mLog = new BoundedLog(LOG_MAX_LINES);
+    private volatile Callbacks mCallbacks;
+    // 最近一条录音
+    private volatile File mAudioFile;
+    // 还没有播放过的录音，按录制的先后顺序；开始播放时标记为已读
+    private final List<File> mUnreadFiles = new ArrayList<>();
+    // 是否已转为前台服务，只在主线程中访问
+    private boolean mForeground;
+    private volatile boolean mDestroyed;
+
+    private final Runnable mUpdateForeground = new Runnable() {
+        @Override
+        public void run() {
+            updateForeground();
+        }
+    };
+
+    private final StreamRecorder.Listener mRecorderListener = new StreamRecorder.Listener() {
+        @Override
+        public void onLevel(StreamRecorder recorder) {
+            Callbacks callbacks = mCallbacks;
+            if (callbacks != null) {
+                callbacks.onLevelChanged();
+            }
+        }
+
+        @Override
+        public void onRecorded(final File file, final long durationMillis, long trimmedMillis,
+                               final byte[] waveform, int gainMillibels) {
+            mAudioFile = file;
+            synchronized (mUnreadFiles) {
+                mUnreadFiles.add(file);
+            }
+            commitRecording(file, durationMillis, waveform, gainMillibels);
+            appendLog("录音时长：" + durationMillis + "毫秒，裁掉静音" + trimmedMillis + "毫秒!");
+        }
+
+        @Override
+        public void onStopped(boolean recorded) {
+            logSessionMetrics("录音", mRecordBaseline);
+            onSessionStateChanged();
+        }
+
+        @Override
+        public void onFailed() {
+            UiThreadUtils.showToast(getApplicationContext(), "录音失败");
+            logSessionMetrics("录音失败", mRecordBaseline);
+            onSessionStateChanged();
+        }
+
+        @Override
+        public void onLog(String line) {
+            appendLog(line);
+        }
+    };
+
+    private final PlaybackEngine.Listener mPlaybackListener = new PlaybackEngine.Listener() {
+        @Override
+        public void onItemStarted(File file) {
+            RecordAudioUtils.beginPlayback(file);
+            synchronized (mUnreadFiles) {
+                mUnreadFiles.remove(file);
+            }
+            onSessionStateChanged();
+        }
+
+        @Override
+        public void onItemEnded(File file, boolean completed) {
+            RecordAudioUtils.endPlayback(file);
+        }
+
+        @Override
+        public void onQueueFinished() {
+            onSessionStateChanged();
+            logSessionMetrics("播放", mPlaybackBaseline);
+            Log.d(TAG, mDecodedCache.dumpStats());
+        }
+
+        @Override
+        public void onError(File file, Exception e) {
+            UiThreadUtils.showToast(getApplicationContext(), "插放录音失败");
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mScheduler = new AudioScheduler();
+
+        mRecordCodec = AudioCodecs.getRegistry().get(RECORD_CODEC_NAME);
+        ChunkTransport uploadTransport = null;
+        if (UPLOAD_ENABLED) {
+            uploadTransport = new LoopbackTransport(RecordAudioUtils.getOutboxDirectory());
+        }
+        mRecorder = new StreamRecorder(mScheduler, mRecordCodec, uploadTransport, mTracker,
+                mMetrics, mRecorderListener);
+
+        // 以设备的原生采样率播放，16kHz 的录音由播放器转换，不经过系统的重采样；
+        // 播放直接读取映射内存，不需要额外的缓冲区
+        int playRateHz = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        BufferSizePolicy playBufferPolicy =
+                new BufferSizePolicy(BufferSizePolicy.Mode.BALANCED, playRateHz, 1, 2);
+        mEngine = new PlaybackEngine(playRateHz, AudioFormat.CHANNEL_OUT_MONO, playBufferPolicy,
+                mScheduler.render());
+        mDecodedCache = new DecodedPcmCache(DECODED_CACHE_BYTES, DECODED_CACHE_ENTRY_BYTES,
+                DECODED_CACHE_PREFIX_MILLIS);
+        mEngine.setDecodedCache(mDecodedCache);
+        mEngine.setResourceTracker(mTracker);
+        mEngine.setMetrics(mMetrics);
+        // 按录音时测得的响度调整音量，安静的录音不再以原始音量播放
+        mEngine.setGainProvider(new PlaybackEngine.GainProvider() {
+            @Override
+            public float getGainDb(File file) {
+                return RecordAudioUtils.getPlaybackGainDb(file);
+            }
+        });
+        mEngine.setListener(mPlaybackListener);
+
+        // 读取录音索引，修复上次录音时进程被杀死而没有写完文件头的录音文件
+        mScheduler.io().submit(new Runnable() {
+            @Override
+            public void run() {
+                RecordAudioUtils.openStore();
+                RecordAudioUtils.repairWavFiles();
+                if (LEGACY_TRANSCODE_ENABLED && !mDestroyed) {
+                    startLegacyMigration();
+                }
+            }
+        });
+    }
+
+    /**
+     * 在 control 队列中等待批量转码，转码本身在 BatchTranscoder 的工作线程中进行，不占用 io 队列；
+     * 服务中没有其他任务使用 control 队列。转码中的未检查异常由队列记录，不会结束进程
+     */
+    private void startLegacyMigration() {
+        final LegacyRecordingMigration migration = new LegacyRecordingMigration(this, mRecordCodec,
+                StreamRecorder.STORE_FORMAT);
+        mMigration = migration;
+        // 与 onDestroy() 先后设置、检查，两者交错时由这里取消
+        if (mDestroyed) {
+            migration.cancel();
+        }
+        mScheduler.control().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BatchTranscoder.Report report = migration.run();
+                    if (report != null) {
+                        appendLog("旧录音转码：" + report);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "旧录音转码失败。", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // 只在录音或播放期间保持启动状态，进程被杀死后不需要重建
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * 结束录音和播放，等待各队列退出，检查所有资源都已释放
+     */
+    @Override
+    public void onDestroy() {
+        mDestroyed = true;
+        mCallbacks = null;
+        LegacyRecordingMigration migration = mMigration;
+        if (migration != null) {
+            migration.cancel();
+        }
+        mRecorder.release();
+        mEngine.release();
+        // 排在录音任务之后：录音任务退出前已释放 AudioRecord，并等写文件线程写完文件头
+        mScheduler.capture().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mTracker.getOpenCount() > 0) {
+                    Log.w(TAG, "服务销毁后仍未释放的资源：" + mTracker.getOpenResources());
+                }
+                Log.d(TAG, mTracker.dumpStats());
+            }
+        });
+        // 不在主线程中等待，也不中断写文件线程；各队列执行完已提交的任务后自行退出
+        mScheduler.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * 界面不可见或系统内存紧张时释放解码缓存，正在播放的录音仍持有自己的那一段
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mDecodedCache.clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mDecodedCache.trimToSize(mDecodedCache.getMaxBytes() / 2);
+        }
+    }
+
+    /**
+     * 注册界面回调，替换之前注册的；界面销毁时必须 {@link #detach(Callbacks)}
+     */
+    @MainThread
+    public void attach(Callbacks callbacks) {
+        Callbacks previous = mCallbacks;
+        if (previous != null) {
+            mTracker.onClosed(previous);
+        }
+        mTracker.onOpened(callbacks, RESOURCE_CALLBACKS);
+        mCallbacks = callbacks;
+    }
+
+    @MainThread
+    public void detach(Callbacks callbacks) {
+        mTracker.onClosed(callbacks);
+        if (mCallbacks == callbacks) {
+            mCallbacks = null;
+        }
+    }
+
+    /**
+     * 开始录音，已在录音时返回false
+     */
+    @MainThread
+    public boolean startRecording() {
+        PipelineMetrics.Snapshot baseline = mMetrics.snapshot();
+        if (!mRecorder.start()) {
+            return false;
+        }
+        mRecordBaseline = baseline;
+        onSessionStateChanged();
+        return true;
+    }
+
+    @MainThread
+    public void stopRecording() {
+        mRecorder.stop();
+    }
+
+    public boolean isRecording() {
+        return mRecorder.isRecording();
+    }
+
+    /**
+     * 当前输入电平，0~1
+     */
+    public float getMeterLevel() {
+        return mRecorder.getMeterLevel();
+    }
+
+    /**
+     * 播放中时停止；否则连续播放所有未读的录音，没有未读时重播最近一条
+     *
+     * @return 还没有录音、没有可播放的内容时返回false
+     */
+    @MainThread
+    public boolean playOrStop() {
+        if (mEngine.isActive()) {
+            mEngine.stop();
+            return true;
+        }
+
+        List<File> unread;
+        synchronized (mUnreadFiles) {
+            unread = new ArrayList<>(mUnreadFiles);
+        }
+        File audioFile = mAudioFile;
+        mPlaybackBaseline = mMetrics.snapshot();
+        if (!unread.isEmpty()) {
+            mEngine.enqueueAll(unread);
+        } else if (audioFile != null) {
+            mEngine.play(audioFile);
+        } else {
+            return false;
+        }
+        onSessionStateChanged();
+        return true;
+    }
+
+    /**
+     * 暂停、继续、定位和倍速直接使用播放引擎
+     */
+    public PlaybackEngine getPlaybackEngine() {
+        return mEngine;
+    }
+
+    public CharSequence getLogText() {
+        return mLog.getText();
+    }
+
+    public ResourceTracker getResourceTracker() {
+        return mTracker;
+    }
+
+    /**
+     * 服务创建以来的管线计数，取 {@link PipelineMetrics#snapshot()} 查看
+     */
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 把从 baseline 到现在的管线汇总写入日志，baseline 为null时不写
+     */
+    private void logSessionMetrics(String session, PipelineMetrics.Snapshot baseline) {
+        if (baseline == null) {
+            return;
+        }
+        String summary = mMetrics.snapshot().minus(baseline).toString().trim();
+        Log.i(TAG, session + "汇总：\n" + summary);
+        appendLog(session + "汇总：" + summary.replace('\n', '，'));
+    }
+
+    /**
+     * 追加一行日志，可在任意线程调用
+     */
+    private void appendLog(String line) {
+        mLog.append(line);
+        Callbacks callbacks = mCallbacks;
+        if (callbacks != null) {
+            callbacks.onLogChanged();
+        }
+    }
+
+    /**
+     * 在 io 队列中保存录音的波形缩略图，并把录音连同播放增益记入索引，超过配额时淘汰旧录音；
+     * 新录音随即提前解码放入缓存
+     */
+    private void commitRecording(final File audioFile, final long durationMillis,
+                                 final byte[] waveform, final int gainMillibels) {
+        final String codecName = mRecordCodec.getName();
+        mScheduler.io().submit(new Runnable() {
+            @Override
+            public void run() {
+                RecordAudioUtils.saveWaveform(audioFile, waveform);
+                RecordAudioUtils.addAudioFile(audioFile, codecName, durationMillis, gainMillibels);
+                mEngine.prefetch(audioFile);
+            }
+        });
+    }
+
+    private void onSessionStateChanged() {
+        Callbacks callbacks = mCallbacks;
+        if (callbacks != null) {
+            callbacks.onStateChanged();
+        }
+        UiThreadUtils.runInUIThread(mUpdateForeground);
+    }
+
+    /**
+     * 录音或播放期间启动自己并转为前台服务，界面解绑后继续运行；都结束后停止，
+     * 没有界面绑定时随即销毁
+     */
+    @MainThread
+    private void updateForeground() {
+        if (mDestroyed) {
+            return;
+        }
+        boolean recording = mRecorder.isBusy();
+        boolean busy = recording || mEngine.isActive();
+        if (busy && !mForeground) {
+            startService(new Intent(this, AudioSessionService.class));
+            startForeground(NOTIFICATION_ID, buildNotification(recording));
+            mForeground = true;
+        } else if (!busy && mForeground) {
+            stopForeground(true);
+            stopSelf();
+            mForeground = false;
+        }
+    }
+
+    private Notification buildNotification(boolean recording) {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, RecordAudioByStreamActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        return new Notification.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(recording
+                        ? R.string.audio_session_recording : R.string.audio_session_playing))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+}
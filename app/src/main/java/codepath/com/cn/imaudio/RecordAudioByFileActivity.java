@@ -1,31 +1,60 @@
 package codepath.com.cn.imaudio;
 
 import android.media.MediaPlayer;
-import android.media.MediaRecorder;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
+import codepath.com.cn.imaudio.audio.LevelAnalyzer;
+import codepath.com.cn.imaudio.audio.MinimumLengthSink;
+import codepath.com.cn.imaudio.audio.PcmDurationTracker;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.ResamplingSink;
+import codepath.com.cn.imaudio.audio.WaveformBuilder;
+import codepath.com.cn.imaudio.engine.AacCodec;
+import codepath.com.cn.imaudio.engine.AudioCodecs;
+import codepath.com.cn.imaudio.engine.AudioScheduler;
+import codepath.com.cn.imaudio.engine.PreRollRecorder;
+import codepath.com.cn.imaudio.engine.RecorderSessionManager;
+import codepath.com.cn.imaudio.utils.BoundedLog;
 import codepath.com.cn.imaudio.utils.RecordAudioUtils;
 import codepath.com.cn.imaudio.utils.UiThreadUtils;
 
 public class RecordAudioByFileActivity extends AppCompatActivity {
 
     private static final String TAG = RecordAudioByFileActivity.class.getSimpleName();
+    // MediaRecorder 只能使用系统编码器，可选 AacCodec.NAME_M4A 或 AacCodec.NAME_ADTS
+    private static final String RECORD_CODEC_NAME = AacCodec.NAME_M4A;
+    // 预先准备好下一次录音的 MediaRecorder，改为false可对比冷启动的延迟
+    private static final boolean PREWARM_RECORDER = true;
+    // 页面可见时麦克风常开，录音包含按下之前的 PRE_ROLL_MILLIS，不会丢掉第一个字。
+    // 改用 AudioRecord + MediaCodec 编码，输出格式不变；会一直占用麦克风，默认关闭
+    private static final boolean PRE_ROLL_ENABLED = false;
+    private static final int PRE_ROLL_MILLIS = 500;
+    // 录音保存为 16kHz 宽带语音；预录模式以所有设备都支持的 44.1kHz 采集，写文件时转换
+    private static final PcmFormat RECORD_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    private static final PcmFormat PRE_ROLL_CAPTURE_FORMAT = PcmFormat.CD_MONO;
+    // 随语音消息保存的波形缩略图的桶数
+    private static final int WAVEFORM_BUCKETS = 64;
+    // 日志最多保留的行数
+    private static final int LOG_MAX_LINES = 100;
 
     @BindView(R.id.tvLog)
     TextView mTvLog;
@@ -33,17 +62,67 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
     Button mTvPressToSay;
     @BindView(R.id.btnPlayAudio)
     Button mBtnPlayAudio;
-
-    private ExecutorService mExecutorService;
-    private MediaRecorder mMediaRecorder;
+    @BindView(R.id.pbInputLevel)
+    ProgressBar mPbInputLevel;
+
+    // MediaRecorder 的调用都在 control 队列中顺序执行，播放在 render 队列，清理文件在 io 队列
+    private AudioScheduler mScheduler;
+    private AacCodec mRecordCodec;
+    // 只在录音线程中访问
+    private RecorderSessionManager mRecorderSessions;
+    private RecorderSessionManager.Session mSession;
     private File mAudioFile;
-
-    private long mBeginRecordInMillis, mEndRecordInMillis;
+    // 日志只保留最近的若干行，每帧最多刷新一次
+    private final BoundedLog mLog = new BoundedLog(LOG_MAX_LINES);
+    private final Runnable mShowLog = new Runnable() {
+        @Override
+        public void run() {
+            mTvLog.setText(mLog.getText());
+        }
+    };
+    // 预录模式，只在录音线程中访问会话相关的字段
+    private PreRollRecorder mPreRollRecorder;
+    private PreRollRecorder.Session mPreRollSession;
+    private MinimumLengthSink mPreRollGate;
+    private File mPreRollFile;
+    // 电平和波形只在预录模式下可用，MediaRecorder 不提供PCM数据
+    private LevelAnalyzer mLevelAnalyzer;
+    private volatile boolean mMetering;
+    private final Runnable mShowLevel = new Runnable() {
+        @Override
+        public void run() {
+            mPbInputLevel.setProgress(mMetering
+                    ? Math.round(mLevelAnalyzer.getMeterLevel() * mPbInputLevel.getMax()) : 0);
+        }
+    };
 
 
     // 播放状态
     private volatile boolean mIsplaying;
+    // 播放结束后保留已准备好的 MediaPlayer，重复播放同一条录音时不再重新打开和解析文件；
+    // 以下三个字段只在 render 队列中访问
     private MediaPlayer mMediaPlayer;
+    private File mPreparedFile;
+    // 正在播放的录音，播放期间不会被淘汰
+    private File mPlayingFile;
+    private final Runnable mReleasePlayer = new Runnable() {
+        @Override
+        public void run() {
+            releasePlayer();
+        }
+    };
+    private final Runnable mStopPlay = new Runnable() {
+        @Override
+        public void run() {
+            stopPlay();
+        }
+    };
+    private final Runnable mShowPlayStopped = new Runnable() {
+        @Override
+        public void run() {
+            setIsplaying(false);
+        }
+    };
 
     public void setIsplaying(boolean isplaying) {
         mIsplaying = isplaying;
@@ -54,7 +133,7 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
         if (mIsplaying) {
 
             if (mAudioFile != null) {
-                mExecutorService.submit(new Runnable() {
+                mScheduler.render().submit(new Runnable() {
                     @Override
                     public void run() {
                         doPlayAudio(mAudioFile);
@@ -76,20 +155,108 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
         setContentView(R.layout.activity_record_audio_by_file);
         ButterKnife.bind(this);
 
-        // 录音JNI函数不具备线程安全性，所以要用单线程
-        mExecutorService = Executors.newSingleThreadExecutor();
+        // 录音JNI函数不具备线程安全性，所以都提交到 control 队列；只有预录模式需要采集队列，不上传
+        mScheduler = PRE_ROLL_ENABLED
+                ? new AudioScheduler(AudioScheduler.Lane.CONTROL, AudioScheduler.Lane.RENDER,
+                        AudioScheduler.Lane.IO, AudioScheduler.Lane.CAPTURE)
+                : new AudioScheduler(AudioScheduler.Lane.CONTROL, AudioScheduler.Lane.RENDER,
+                        AudioScheduler.Lane.IO);
+        mRecordCodec = (AacCodec) AudioCodecs.getRegistry().get(RECORD_CODEC_NAME);
+        // 预录模式下不使用 MediaRecorder，也不需要预热；第一个采样的探测只在调试时启用
+        mRecorderSessions = new RecorderSessionManager(mRecordCodec, RECORD_FORMAT.getSampleRateHz(),
+                PREWARM_RECORDER && !PRE_ROLL_ENABLED, BuildConfig.DEBUG ? mScheduler.control() : null);
+        if (PRE_ROLL_ENABLED) {
+            mPreRollRecorder = new PreRollRecorder(mScheduler,
+                    PRE_ROLL_CAPTURE_FORMAT.getSampleRateHz(), PRE_ROLL_MILLIS);
+            mLevelAnalyzer = new LevelAnalyzer(PRE_ROLL_CAPTURE_FORMAT.getSampleRateHz(),
+                    PRE_ROLL_CAPTURE_FORMAT.getChannelCount(), LevelAnalyzer.DEFAULT_WINDOW_MILLIS,
+                    new WaveformBuilder(WAVEFORM_BUCKETS));
+            mLevelAnalyzer.setListener(new LevelAnalyzer.Listener() {
+                @Override
+                public void onLevel(LevelAnalyzer analyzer) {
+                    UiThreadUtils.postLatest(mPbInputLevel, mShowLevel);
+                }
+            });
+            mPreRollRecorder.setAnalyzer(mLevelAnalyzer);
+        } else {
+            mPbInputLevel.setVisibility(View.GONE);
+        }
+
+        // 读取录音索引、清理上次没有用到的预创建文件，之后再为第一次录音做好准备，不会删掉新准备的文件
+        mScheduler.io().submit(new Runnable() {
+            @Override
+            public void run() {
+                RecordAudioUtils.openStore();
+                RecordAudioUtils.deletePendingAudioFiles();
+                mScheduler.control().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRecorderSessions.prewarm();
+                    }
+                });
+            }
+        });
 
         initUIControlerEventHandlers();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mPreRollRecorder != null) {
+            mPreRollRecorder.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        // 不可见时释放麦克风，进行中的录音会正常结束
+        if (mPreRollRecorder != null) {
+            mPreRollRecorder.stop();
+        }
+        super.onPause();
+    }
+
     @Override
     protected void onDestroy() {
-        mExecutorService.shutdownNow();
-        releaseRecorder();
-        stopPlay();
+        // 在 control 队列中释放录音器，之后不再接受新的任务
+        mScheduler.control().submit(new Runnable() {
+            @Override
+            public void run() {
+                releaseRecorder();
+                mRecorderSessions.release();
+                Log.d(TAG, mScheduler.dumpStats());
+            }
+        });
+        // 播放器只在 render 队列中访问，排在进行中的准备和播放之后释放
+        runOnRenderLane(mStopPlay);
+        runOnRenderLane(mReleasePlayer);
+        mScheduler.shutdown();
         super.onDestroy();
     }
 
+    /**
+     * 界面不可见或系统内存紧张时释放保留的 MediaPlayer
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            runOnRenderLane(mReleasePlayer);
+        }
+    }
+
+    /**
+     * 把访问播放器的任务交给 render 队列；界面销毁后队列已关闭，播放器已经释放，不再需要处理
+     */
+    private void runOnRenderLane(Runnable task) {
+        try {
+            mScheduler.render().submit(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "render 队列已关闭，忽略播放器任务。");
+        }
+    }
+
 
     @OnClick(R.id.btnPlayAudio)
     void playAudioHandler() {
@@ -102,7 +269,7 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
             public boolean onTouch(View v, MotionEvent event) {
                 switch (event.getAction()) {
                     case MotionEvent.ACTION_DOWN:
-                        startRecordAudio();
+                        startRecordAudio(event.getEventTime());
                         break;
 
                     case MotionEvent.ACTION_UP:
@@ -122,16 +289,19 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
 
     /**
      * 开始录音
+     *
+     * @param touchDownUptimeMillis 按下的时间，用于统计启动延迟
      */
-    private void startRecordAudio() {
+    private void startRecordAudio(final long touchDownUptimeMillis) {
         mTvPressToSay.setText(R.string.record_audio_speaking);
+        mMetering = true;
 
-        mExecutorService.submit(new Runnable() {
+        mScheduler.control().submit(new Runnable() {
             @Override
             public void run() {
                 releaseRecorder();
 
-                if (!doStartRecordAudio()) {
+                if (!doStartRecordAudio(touchDownUptimeMillis)) {
                     echoFail();
                 }
             }
@@ -144,8 +314,10 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
      */
     private void stopRecordAudio() {
         mTvPressToSay.setText(R.string.record_audio_press_to_say);
+        mMetering = false;
+        UiThreadUtils.postLatest(mPbInputLevel, mShowLevel);
 
-        mExecutorService.submit(new Runnable() {
+        mScheduler.control().submit(new Runnable() {
             @Override
             public void run() {
                 if (!doStopRecordAudio()) {
@@ -153,73 +325,174 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
                 }
 
                 releaseRecorder();
+                // 在后台为下一次录音准备好录音器
+                mRecorderSessions.prewarm();
             }
         });
 
     }
 
-    private boolean doStartRecordAudio() {
-        mMediaRecorder = new MediaRecorder();
+    private boolean doStartRecordAudio(long touchDownUptimeMillis) {
+        if (mPreRollRecorder != null) {
+            return doStartPreRollRecording();
+        }
 
-        // 配置
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mMediaRecorder.setAudioSamplingRate(44100); //44.1kHz
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        mMediaRecorder.setAudioEncodingBitRate(96000); //96kbps
+        try {
+            // 有预热的录音器时这里只需 start()
+            mSession = mRecorderSessions.start(touchDownUptimeMillis);
+            mAudioFile = mSession.getFile();
+        } catch (IOException e) {
+            Log.e(TAG, "准备录音或启动录音时失败。", e);
+            return false;
+        }
+        return true;
+    }
 
-        // 创建录音文件
-        if (!createAudioFile()) return false;
+    /**
+     * 在停止时报告启动延迟，第一个采样的探测在录音队列中异步完成，此时已有结果
+     */
+    private void reportStartLatency(RecorderSessionManager.Session session) {
+        long firstSample = session.getFirstSampleLatencyMillis();
+        String report = "启动延迟（" + (session.isWarm() ? "预热" : "冷启动") + "）：start "
+                + session.getStartLatencyMillis() + "ms，首个采样 "
+                + (firstSample >= 0 ? firstSample + "ms" : "未检测到")
+                + "；start 中位数 预热 " + mRecorderSessions.getWarmStartLatency().getPercentile(50)
+                + "ms / 冷启动 " + mRecorderSessions.getColdStartLatency().getPercentile(50) + "ms";
+        if (BuildConfig.DEBUG) {
+            report += "；首个采样中位数 预热 " + mRecorderSessions.getWarmLatency().getPercentile(50)
+                    + "ms / 冷启动 " + mRecorderSessions.getColdLatency().getPercentile(50)
+                    + "ms，未检测到 " + mRecorderSessions.getFirstSampleMissCount() + " 次";
+        }
+        Log.i(TAG, report);
+        appendLog(report);
+    }
 
-        mMediaRecorder.setOutputFile(mAudioFile.getAbsolutePath());
+    private boolean doStopRecordAudio() {
+        if (mPreRollRecorder != null) {
+            return doStopPreRollRecording();
+        }
+
+        RecorderSessionManager.Session session = mSession;
+        mSession = null;
+        if (session == null) {
+            // 启动失败，已经反馈过
+            return true;
+        }
+
+        // MediaRecorder 不提供采集的帧数：从 start() 起算不足最短时长的录音，编码后只会更短，
+        // 直接丢弃，不再解析文件
+        long elapsedMillis = SystemClock.uptimeMillis() - session.getStartedUptimeMillis();
+        boolean tooShort = elapsedMillis < RecordAudioUtils.MIN_AUDIO_DURATION_MILLIS;
+        File pendingFile = session.getFile();
+        reportStartLatency(session);
 
         try {
-            mMediaRecorder.prepare();
-            mMediaRecorder.start();
-            mBeginRecordInMillis = System.currentTimeMillis();
-        } catch (IOException | IllegalStateException e) {
-            Log.e(TAG, "准备录音或启动录音时失败。", e);
+            mRecorderSessions.stop(session);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "停止录音时失败。", e);
+            pendingFile.delete();
             return false;
+        } catch (RuntimeException e) {
+            // 录音过短、还没有编码出数据时 stop() 会抛出 RuntimeException
+            if (!tooShort) {
+                Log.e(TAG, "停止录音时失败。", e);
+                pendingFile.delete();
+                return false;
+            }
+        }
+
+        // 按编码后文件的实际时长计算，不包含录音器的启动延迟
+        long durationMillis = tooShort ? elapsedMillis : RecordAudioUtils.readDurationMillis(pendingFile);
+        if (durationMillis < 0) {
+            durationMillis = elapsedMillis;
+        }
+
+        // 只接受超过最短时长的录音
+        if (durationMillis >= RecordAudioUtils.MIN_AUDIO_DURATION_MILLIS) {
+            mAudioFile = RecordAudioUtils.commitAudioFile(pendingFile, mRecordCodec.getFileExtension(),
+                    mRecordCodec.getName(), durationMillis);
+            appendLog("录音时长：" + durationMillis + "毫秒!");
+        } else {
+            pendingFile.delete();
+            mAudioFile = null;
         }
 
         return true;
     }
 
-    private boolean createAudioFile() {
+    /**
+     * 预录模式：预录内容和之后的数据依次转换为保存格式、经过最短时长判断后编码写入待提交的文件
+     */
+    private boolean doStartPreRollRecording() {
+        mPreRollFile = null;
+        PcmDurationTracker tracker = new PcmDurationTracker(RECORD_FORMAT.getSampleRateHz(),
+                RECORD_FORMAT.getChannelCount(), RecordAudioUtils.MIN_AUDIO_DURATION_MILLIS);
+        mPreRollGate = new MinimumLengthSink(new MinimumLengthSink.Opener() {
+            @Override
+            public PcmSink open() throws IOException {
+                // 在写文件线程中调用
+                mPreRollFile = RecordAudioUtils.createPendingAudioFile(mRecordCodec.getFileExtension());
+                return mRecordCodec.newEncoder(mPreRollFile, RECORD_FORMAT.getSampleRateHz(),
+                        RECORD_FORMAT.getChannelCount());
+            }
+        }, tracker, ByteBuffer.allocateDirect((int) tracker.getMinBytes()));
+
         try {
-            mAudioFile = RecordAudioUtils.createAudioFile(RecordAudioUtils.AUDIO_PCM);
-        } catch (IOException e) {
-            Log.e(TAG, "开始录音时，创建文件失败。", e);
+            mPreRollSession = mPreRollRecorder.beginRecording(
+                    new ResamplingSink(PRE_ROLL_CAPTURE_FORMAT, RECORD_FORMAT, mPreRollGate));
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "预录采集没有运行。", e);
+            mPreRollGate = null;
             return false;
         }
         return true;
     }
 
-    private boolean doStopRecordAudio() {
+    private boolean doStopPreRollRecording() {
+        PreRollRecorder.Session session = mPreRollSession;
+        MinimumLengthSink gate = mPreRollGate;
+        mPreRollSession = null;
+        mPreRollGate = null;
+        if (session == null) {
+            return true;
+        }
 
+        boolean succeeded;
         try {
-            mMediaRecorder.stop();
-            mEndRecordInMillis = System.currentTimeMillis();
-
-            final int recordPeriodInSecond = (int) ((mEndRecordInMillis - mBeginRecordInMillis) / 1000);
+            succeeded = mPreRollRecorder.endRecording(session);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            succeeded = false;
+        }
 
-            // 只接受超过3秒的录音
-            if (recordPeriodInSecond >= 3) {
-                UiThreadUtils.runInUIThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mTvLog.setText(mTvLog.getText() + "\n录音时长：" + recordPeriodInSecond + "秒!");
-                    }
-                });
-            } else {
-                mAudioFile.delete();
+        // endRecording() 返回后写文件线程已结束，mPreRollFile 可见
+        File pendingFile = mPreRollFile;
+        mPreRollFile = null;
+        if (!succeeded || !gate.isAccepted()) {
+            if (pendingFile != null) {
+                pendingFile.delete();
             }
-
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "停止录音时失败。", e);
-            return false;
+            mAudioFile = null;
+            return succeeded;
         }
 
+        mAudioFile = RecordAudioUtils.commitAudioFile(pendingFile, mRecordCodec.getFileExtension(),
+                mRecordCodec.getName(), gate.getTracker().getDurationMillis());
+        // 录音已结束，采集线程不再写入波形
+        final File audioFile = mAudioFile;
+        final byte[] waveform = new byte[WAVEFORM_BUCKETS];
+        mLevelAnalyzer.getWaveform().getWaveform(waveform);
+        mScheduler.io().submit(new Runnable() {
+            @Override
+            public void run() {
+                RecordAudioUtils.saveWaveform(audioFile, waveform);
+            }
+        });
+        long preRollMillis = PcmDurationTracker.framesToMillis(
+                session.getPreRollBytes() / PRE_ROLL_CAPTURE_FORMAT.getFrameBytes(),
+                PRE_ROLL_CAPTURE_FORMAT.getSampleRateHz());
+        appendLog("录音时长：" + gate.getTracker().getDurationMillis()
+                + "毫秒（含预录 " + preRollMillis + "毫秒）!");
         return true;
     }
 
@@ -231,18 +504,52 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
         UiThreadUtils.showToast(RecordAudioByFileActivity.this, "录音失败");
     }
 
+    /**
+     * 释放没有正常停止的录音并删除它的文件
+     */
     private void releaseRecorder() {
-        if (mMediaRecorder != null) {
-            mMediaRecorder.release();
-            mMediaRecorder = null;
+        if (mPreRollSession != null) {
+            try {
+                mPreRollRecorder.endRecording(mPreRollSession);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mPreRollSession = null;
+            mPreRollGate = null;
+            if (mPreRollFile != null) {
+                mPreRollFile.delete();
+                mPreRollFile = null;
+            }
+        }
+        if (mSession != null) {
+            try {
+                mRecorderSessions.stop(mSession);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "释放录音器时停止失败。", e);
+            }
+            mSession.getFile().delete();
+            mSession = null;
         }
     }
 
     /**
-     * running in background thread
+     * running in render lane
      */
     private void doPlayAudio(File audioFile) {
 
+        mPlayingFile = audioFile;
+        RecordAudioUtils.beginPlayback(audioFile);
+        if (mMediaPlayer != null && audioFile.equals(mPreparedFile)) {
+            try {
+                mMediaPlayer.seekTo(0);
+                mMediaPlayer.start();
+                return;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "复用播放器失败，重新创建。", e);
+            }
+        }
+
+        releasePlayer();
         mMediaPlayer = new MediaPlayer();
         try {
             mMediaPlayer.setDataSource(audioFile.getAbsolutePath());
@@ -252,7 +559,8 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
             mMediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
                 @Override
                 public void onCompletion(MediaPlayer mp) {
-                  stopPlay();
+                    // 回调在主线程中执行
+                    runOnRenderLane(mStopPlay);
                 }
             });
 
@@ -260,17 +568,20 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
                 @Override
                 public boolean onError(MediaPlayer mp, int what, int extra) {
                     echoPayFail();
-                    stopPlay();
+                    runOnRenderLane(mReleasePlayer);
+                    runOnRenderLane(mStopPlay);
                     return true;
                 }
             });
 
             mMediaPlayer.prepare();
+            mPreparedFile = audioFile;
             mMediaPlayer.start();
 
         } catch (RuntimeException | IOException e) {
             Log.e(TAG, "播放失败.", e);
             echoPayFail();
+            releasePlayer();
             stopPlay();
         }
 
@@ -283,9 +594,28 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
         UiThreadUtils.showToast(RecordAudioByFileActivity.this, "插放失败");
     }
 
+    /**
+     * running in render lane
+     *
+     * 停止播放，保留已准备好的播放器供下次播放同一条录音
+     */
     private void stopPlay() {
-        setIsplaying(false);
+        UiThreadUtils.runInUIThread(mShowPlayStopped);
+
+        if (mMediaPlayer != null && mPreparedFile != null && mMediaPlayer.isPlaying()) {
+            mMediaPlayer.pause();
+        }
+        if (mPlayingFile != null) {
+            RecordAudioUtils.endPlayback(mPlayingFile);
+            mPlayingFile = null;
+        }
+    }
 
+    /**
+     * running in render lane
+     */
+    private void releasePlayer() {
+        mPreparedFile = null;
         if (mMediaPlayer != null) {
             mMediaPlayer.setOnErrorListener(null);
             mMediaPlayer.setOnCompletionListener(null);
@@ -296,4 +626,12 @@ public class RecordAudioByFileActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * 追加一行日志，可在任意线程调用
+     */
+    private void appendLog(String line) {
+        mLog.append(line);
+        UiThreadUtils.postLatest(mTvLog, mShowLog);
+    }
+
 }
@@ -1,36 +1,29 @@
 package codepath.com.cn.imaudio;
 
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioRecord;
-import android.media.AudioTrack;
-import android.media.MediaRecorder;
 import android.os.Bundle;
-import android.os.Environment;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
-import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+import codepath.com.cn.imaudio.engine.PlaybackEngine;
 import codepath.com.cn.imaudio.utils.UiThreadUtils;
 
+/**
+ * 字节流模式的录音和播放界面
+ *
+ * 录音和播放都在 {@link AudioSessionService} 中进行，本界面只负责显示和转发操作：旋转屏幕时连接交给
+ * 新的界面，进行中的录音和播放不受影响；界面销毁时注销回调，服务不持有已销毁的界面。
+ */
 public class RecordAudioByStreamActivity extends AppCompatActivity {
 
     private static final String TAG = RecordAudioByStreamActivity.class.getSimpleName();
-    private static final int BUFFER_SIZE = 2048;
+    // 播放倍速按钮依次切换的倍速，变速不变调
+    private static final float[] PLAY_SPEEDS = {1f, 1.5f, 2f};
 
     @BindView(R.id.tvLog)
     TextView mTvLog;
@@ -38,42 +31,84 @@ public class RecordAudioByStreamActivity extends AppCompatActivity {
     Button mBtnRecordAudio;
     @BindView(R.id.btnPlayAudio)
     Button mBtnPlayAudio;
+    @BindView(R.id.btnPauseAudio)
+    Button mBtnPauseAudio;
+    @BindView(R.id.btnPlaySpeed)
+    Button mBtnPlaySpeed;
+    @BindView(R.id.pbInputLevel)
+    ProgressBar mPbInputLevel;
+
+    // 旋转屏幕时保留，只在界面真正退出时解绑
+    private AudioSessionService.Connection mConnection;
+    // 连接之前为null
+    private AudioSessionService mService;
+
+    // 日志、电平表和按钮状态每帧最多刷新一次
+    private final Runnable mShowLog = new Runnable() {
+        @Override
+        public void run() {
+            if (mService != null) {
+                mTvLog.setText(mService.getLogText());
+            }
+        }
+    };
+    private final Runnable mShowLevel = new Runnable() {
+        @Override
+        public void run() {
+            if (mService != null) {
+                mPbInputLevel.setProgress(Math.round(mService.getMeterLevel() * mPbInputLevel.getMax()));
+            }
+        }
+    };
+    private final Runnable mShowState = new Runnable() {
+        @Override
+        public void run() {
+            if (mService == null) {
+                return;
+            }
+            mBtnRecordAudio.setText(mService.isRecording()
+                    ? R.string.record_audio_stop : R.string.record_audio_start);
+
+            PlaybackEngine engine = mService.getPlaybackEngine();
+            boolean active = engine.isActive();
+            mBtnPlayAudio.setText(
+                    active ? R.string.record_audio_stop_playing : R.string.record_audio_playing);
+            mBtnPauseAudio.setEnabled(active);
+            mBtnPauseAudio.setText(active && engine.isPaused()
+                    ? R.string.record_audio_resume : R.string.record_audio_pause);
+            mBtnPlaySpeed.setText(getString(R.string.record_audio_speed, engine.getSpeed()));
+            mShowLevel.run();
+        }
+    };
 
-    private ExecutorService mExecutorService;
-
-    private File mAudioFile;
-    private long mBeginRecordInMillis, mEndRecordInMillis;
-
-    private byte[] mBuffer;
-    private FileOutputStream mFileOutputStream;
-    private AudioRecord mAudioRecord;
-
-    // 录音状态
-    private volatile boolean mIsRecording = false;
-
-    // 播放状态
-    private volatile boolean mIsplaying = false;
-
-
+    private final AudioSessionService.Callbacks mCallbacks = new AudioSessionService.Callbacks() {
+        @Override
+        public void onStateChanged() {
+            UiThreadUtils.postLatest(mBtnRecordAudio, mShowState);
+        }
 
-    void setRecording(boolean recording) {
-        mIsRecording = recording;
+        @Override
+        public void onLevelChanged() {
+            UiThreadUtils.postLatest(mPbInputLevel, mShowLevel);
+        }
 
-        mBtnRecordAudio.setText(
-                mIsRecording ? R.string.record_audio_stop : R.string.record_audio_start);
+        @Override
+        public void onLogChanged() {
+            UiThreadUtils.postLatest(mTvLog, mShowLog);
+        }
+    };
 
-        if (mIsRecording) {
-            mExecutorService.submit(new Runnable() {
+    private final AudioSessionService.Connection.OnConnectedListener mOnConnected =
+            new AudioSessionService.Connection.OnConnectedListener() {
                 @Override
-                public void run() {
-                    if (!doStartRecordAudio()) {
-                        echoFail();
-                    }
+                public void onConnected(AudioSessionService service) {
+                    mService = service;
+                    service.attach(mCallbacks);
+                    // 接上已有的会话：恢复日志、录音和播放状态
+                    mShowLog.run();
+                    mShowState.run();
                 }
-            });
-        }
-
-    }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -81,199 +116,89 @@ public class RecordAudioByStreamActivity extends AppCompatActivity {
         setContentView(R.layout.activity_record_audio_by_stream);
         ButterKnife.bind(this);
 
-        mExecutorService = Executors.newSingleThreadExecutor();
+        mConnection = (AudioSessionService.Connection) getLastCustomNonConfigurationInstance();
+        if (mConnection == null) {
+            mConnection = AudioSessionService.Connection.bind(this);
+        }
+        mConnection.setOnConnectedListener(mOnConnected);
+    }
 
-        mBuffer = new byte[BUFFER_SIZE];
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mConnection;
     }
 
     @Override
     protected void onDestroy() {
-        mExecutorService.shutdownNow();
+        mConnection.setOnConnectedListener(null);
+        if (mService != null) {
+            mService.detach(mCallbacks);
+            mService = null;
+        }
+        // 旋转屏幕时连接交给新的界面；真正退出时解绑，没有在录音或播放的服务随即销毁
+        if (!isChangingConfigurations()) {
+            mConnection.unbind();
+        }
         super.onDestroy();
     }
 
     @OnClick(R.id.btnRecordAudio)
     void startRecordAudio() {
-        setRecording(!mIsRecording);
-    }
-
-    @OnClick(R.id.btnPlayAudio)
-    void playAudioHandler() {
-
-        if (! mIsplaying) {
-
-            if (mAudioFile != null) {
-                mExecutorService.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        doPlayAudio(mAudioFile);
-                    }
-                });
-            } else {
-                Toast.makeText(RecordAudioByStreamActivity.this, "请先录音...",
-                        Toast.LENGTH_SHORT).show();
-            }
-
-        }
-    }
-
-    private boolean doStartRecordAudio() {
-        // 创建录音文件
-        if (!createAudioFile()) return false;
-
-        try {
-            mFileOutputStream = new FileOutputStream(mAudioFile);
-
-            // 配置AudioRecord
-            int audioSource = MediaRecorder.AudioSource.MIC;
-            int simpleRateHz = 44100;
-            int channelConfig = AudioFormat.CHANNEL_IN_MONO;
-            int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-            int minBufferSize = AudioRecord.getMinBufferSize(simpleRateHz, channelConfig, audioFormat);
-
-            mAudioRecord = new AudioRecord(audioSource, simpleRateHz, channelConfig, audioFormat
-                    , Math.max(minBufferSize, BUFFER_SIZE));
-
-
-            mAudioRecord.startRecording();
-            mBeginRecordInMillis = System.currentTimeMillis();
-
-            while (mIsRecording) {
-                int readBytes = mAudioRecord.read(mBuffer, 0, BUFFER_SIZE);
-                if (readBytes > 0) {
-                    mFileOutputStream.write(mBuffer, 0, readBytes);
-                } else {
-                    return false;
-                }
-            }
-
-            return stopRecord();
-
-        } catch (IOException | RuntimeException e) {
-            Log.e(TAG, "录音失败。", e);
-            return false;
-        } finally {
-            if (mAudioRecord != null) {
-                mAudioRecord.stop();
-                mAudioRecord.release();
-                mAudioRecord = null;
-            }
+        if (mService == null) {
+            return;
         }
-
-    }
-
-    private boolean stopRecord() throws IOException {
-        mAudioRecord.stop();
-        mFileOutputStream.close();
-
-        mEndRecordInMillis = System.currentTimeMillis();
-
-        final int recordPeriodInSecond = (int) (mEndRecordInMillis - mBeginRecordInMillis) / 1000;
-
-        if (recordPeriodInSecond >= 3) {
-            UiThreadUtils.runInUIThread(new Runnable() {
-                @Override
-                public void run() {
-                    mTvLog.setText(mTvLog.getText() + "\n录音时长：" + recordPeriodInSecond + "秒!");
-                }
-            });
+        if (mService.isRecording()) {
+            mService.stopRecording();
         } else {
-            mAudioFile.delete();
-        }
-
-        return true;
-    }
-
-    private boolean createAudioFile() {
-        try {
-            mAudioFile = RecordAudioUtils.createAudioFile(RecordAudioUtils.AUDIO_M4A);
-        } catch (IOException e) {
-            Log.e(TAG, "开始录音时，创建文件失败。", e);
-            return false;
+            mService.startRecording();
         }
-        return true;
-    }
-
-    private void echoFail() {
-        UiThreadUtils.showToast(RecordAudioByStreamActivity.this, "录音失败");
+        mShowState.run();
     }
 
     /**
-     * running in background thread
-     * @param audioFile
+     * 播放中点击时停止；否则连续播放所有未读的录音，没有未读时重播最近一条
      */
-    private void doPlayAudio(File audioFile) {
-        mIsplaying = true;
-        int streamType = AudioManager.STREAM_MUSIC;
-        int sampleRateHz = 44100;
-        int channelConfig = AudioFormat.CHANNEL_OUT_MONO;
-        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-        int mode = AudioTrack.MODE_STREAM;
-        int minBufferSize = AudioTrack.getMinBufferSize(sampleRateHz, channelConfig, audioFormat);
-
-        AudioTrack audioTrack = new AudioTrack(streamType, sampleRateHz, channelConfig, audioFormat
-                ,Math.max(minBufferSize, BUFFER_SIZE), mode);
-
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(audioFile);
-
-            audioTrack.play() ;//开始
-
-            int readBytes = 0;
-            while ( (readBytes = fis.read(mBuffer)) > 0 ) {
-                int ret = audioTrack.write(mBuffer, 0, readBytes);
-                Log.i(TAG, "write bytes to audioTrack :" + readBytes);
-
-                switch (ret) {
-                    case AudioTrack.ERROR_INVALID_OPERATION:
-                    case AudioTrack.ERROR_BAD_VALUE:
-                    case AudioTrack.ERROR_DEAD_OBJECT:
-                        echoPlayFail();
-                        break;
-                    default:
-                        break;
-                }
-            }
-
-        } catch (RuntimeException | IOException e) {
-            Log.e(TAG, "播放录音失败。", e);
-            echoPlayFail();
-        } finally {
-            mIsplaying = false;
-            closeQuiety(fis);
-            releaseAudioTrackQuiety(audioTrack);
+    @OnClick(R.id.btnPlayAudio)
+    void playAudioHandler() {
+        if (mService == null) {
+            return;
         }
-    }
-
-    private void releaseAudioTrackQuiety(AudioTrack audioTrack) {
-        if (audioTrack == null) {
+        if (!mService.playOrStop()) {
+            Toast.makeText(RecordAudioByStreamActivity.this, "请先录音...",
+                    Toast.LENGTH_SHORT).show();
             return;
         }
-
-        audioTrack.stop();
-        audioTrack.release();
+        mShowState.run();
     }
 
-    private void closeQuiety(Closeable fis) {
-        mIsplaying = false;
-        
-        if (fis == null) {
+    @OnClick(R.id.btnPauseAudio)
+    void pauseAudioHandler() {
+        if (mService == null) {
             return;
         }
-
-        try {
-            fis.close();
-        } catch (IOException e) {
-            Log.e(TAG, "关闭失败。", e);
+        PlaybackEngine engine = mService.getPlaybackEngine();
+        if (engine.isPaused()) {
+            engine.resume();
+        } else {
+            engine.pause();
         }
+        mShowState.run();
     }
 
-    /**
-     * running in background thread
-     */
-    private void echoPlayFail() {
-        UiThreadUtils.showToast(RecordAudioByStreamActivity.this, "插放录音失败");
+    @OnClick(R.id.btnPlaySpeed)
+    void playSpeedHandler() {
+        if (mService == null) {
+            return;
+        }
+        PlaybackEngine engine = mService.getPlaybackEngine();
+        int next = 0;
+        for (int i = 0; i < PLAY_SPEEDS.length; i++) {
+            if (PLAY_SPEEDS[i] == engine.getSpeed()) {
+                next = (i + 1) % PLAY_SPEEDS.length;
+                break;
+            }
+        }
+        engine.setSpeed(PLAY_SPEEDS[next]);
+        mShowState.run();
     }
-
 }
@@ -0,0 +1,78 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.MediaRecorder;
+
+import java.io.File;
+import java.io.IOException;
+
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+
+/**
+ * 系统编码器提供的AAC-LC，封装为MP4（.m4a）或ADTS（.aac）
+ *
+ * 只用于录音，播放交给 MediaPlayer，{@link #canDecode(File)} 总是返回false。
+ */
+public final class AacCodec implements AudioCodec {
+
+    public static final String NAME_M4A = "aac";
+    public static final String NAME_ADTS = "aac-adts";
+
+    private final boolean mAdts;
+    private final int mBitRate;
+
+    /**
+     * @param adts 为true时输出ADTS，否则输出MP4
+     * @param bitRate 码率，如 96000
+     */
+    public AacCodec(boolean adts, int bitRate) {
+        mAdts = adts;
+        mBitRate = bitRate;
+    }
+
+    @Override
+    public String getName() {
+        return mAdts ? NAME_ADTS : NAME_M4A;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return mAdts ? RecordAudioUtils.AUDIO_AAC : RecordAudioUtils.AUDIO_M4A;
+    }
+
+    @Override
+    public PcmSink newEncoder(File file, int sampleRateHz, int channelCount) throws IOException {
+        return new AacEncoderSink(file, sampleRateHz, channelCount, mBitRate, mAdts);
+    }
+
+    /**
+     * ADTS 每帧自带头部，只追加；MP4 的 moov 在关闭时才写入，不能边录边上传
+     */
+    @Override
+    public int getMutableHeaderBytes() {
+        return mAdts ? 0 : -1;
+    }
+
+    /**
+     * 按本格式配置 MediaRecorder 的输出格式、编码器和码率，音频源需要已经设置
+     */
+    public void configure(MediaRecorder mediaRecorder, int sampleRateHz) {
+        mediaRecorder.setOutputFormat(mAdts
+                ? MediaRecorder.OutputFormat.AAC_ADTS : MediaRecorder.OutputFormat.MPEG_4);
+        mediaRecorder.setAudioSamplingRate(sampleRateHz);
+        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        mediaRecorder.setAudioEncodingBitRate(mBitRate);
+    }
+
+    @Override
+    public boolean canDecode(File file) {
+        return false;
+    }
+
+    @Override
+    public PcmSource newDecoder(File file) throws IOException {
+        throw new IOException("aac decoding is not supported: " + file);
+    }
+}
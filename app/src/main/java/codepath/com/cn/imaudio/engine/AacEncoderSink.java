@@ -0,0 +1,272 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import codepath.com.cn.imaudio.audio.AdtsHeader;
+import codepath.com.cn.imaudio.audio.PcmFrameBatcher;
+import codepath.com.cn.imaudio.audio.PcmSink;
+
+/**
+ * 边录边编码的AAC输出
+ *
+ * 录音数据通过 {@link PcmFrameBatcher} 直接拷贝进 MediaCodec 的输入缓冲区，编码后的AAC帧
+ * 立即写入 MP4（MediaMuxer，Android 4.3 及以上）或 ADTS 文件，不产生临时PCM文件。
+ * 96kbps 的AAC只有 44.1kHz 单声道PCM（705.6kbps）的约 1/7。
+ *
+ * 由写文件线程调用，非线程安全。
+ */
+public final class AacEncoderSink implements PcmSink {
+
+    private static final String TAG = AacEncoderSink.class.getSimpleName();
+
+    private static final String MIME_TYPE = "audio/mp4a-latm";
+    private static final long TIMEOUT_US = 10000;
+
+    private final MediaCodec mCodec;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final PcmFrameBatcher mBatcher;
+    private final int mSampleRateIndex;
+    private final int mChannelCount;
+
+    // MP4 输出
+    private MediaMuxer mMuxer;
+    private int mTrackIndex = -1;
+
+    // ADTS 输出，帧头与数据通过一次聚集写入（gathering write）落盘
+    private FileOutputStream mAdtsStream;
+    private FileChannel mAdtsChannel;
+    private ByteBuffer[] mAdtsFrame;
+
+    // Android 5.0 以下通过数组访问编解码器的缓冲区
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+
+    private int mInputIndex = -1;
+    private ByteBuffer mInputBuffer;
+    private long mEncodedBytes;
+    private boolean mClosed;
+
+    /**
+     * @param file 输出文件
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数
+     * @param bitRate 码率，如 96000
+     * @param adts 为true时输出ADTS（.aac），否则输出MP4（.m4a）；Android 4.3 以下总是输出ADTS
+     */
+    public AacEncoderSink(File file, int sampleRateHz, int channelCount, int bitRate, boolean adts)
+            throws IOException {
+        mBatcher = new PcmFrameBatcher(sampleRateHz, channelCount, PcmFrameBatcher.AAC_SAMPLES_PER_FRAME);
+        mSampleRateIndex = AdtsHeader.sampleRateIndex(sampleRateHz);
+        mChannelCount = channelCount;
+
+        MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, sampleRateHz, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, mBatcher.getFrameBytes());
+
+        mCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+
+            if (adts || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                mAdtsStream = new FileOutputStream(file);
+                mAdtsChannel = mAdtsStream.getChannel();
+                mAdtsFrame = new ByteBuffer[]{ByteBuffer.allocate(AdtsHeader.HEADER_BYTES), null};
+            } else {
+                mMuxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            }
+
+            mCodec.start();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                mInputBuffers = mCodec.getInputBuffers();
+                mOutputBuffers = mCodec.getOutputBuffers();
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseQuietly();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        while (pcm.hasRemaining()) {
+            if (!obtainInputBuffer(TIMEOUT_US)) {
+                // 编码器输入已满，先取走输出
+                drain(false);
+                continue;
+            }
+
+            mBatcher.transfer(pcm, mInputBuffer);
+            if (mBatcher.isFrameComplete()) {
+                queueInput(0);
+            }
+        }
+
+        drain(false);
+    }
+
+    /**
+     * 已写入文件的AAC数据字节数（不含容器开销）
+     */
+    public long getEncodedBytes() {
+        return mEncodedBytes;
+    }
+
+    /**
+     * 送入编码器的采样数（每声道）
+     */
+    public long getEncodedSamples() {
+        return mBatcher.getSubmittedSamples();
+    }
+
+    /**
+     * 提交最后一个不完整的帧和结束标志，写完所有编码数据后关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            while (!obtainInputBuffer(TIMEOUT_US)) {
+                drain(false);
+            }
+            queueInput(MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+
+            if (mMuxer != null && mTrackIndex >= 0) {
+                mMuxer.stop();
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("结束AAC编码失败。", e);
+        } finally {
+            releaseQuietly();
+        }
+    }
+
+    private boolean obtainInputBuffer(long timeoutUs) {
+        if (mInputIndex >= 0) {
+            return true;
+        }
+
+        int index = mCodec.dequeueInputBuffer(timeoutUs);
+        if (index < 0) {
+            return false;
+        }
+
+        mInputIndex = index;
+        mInputBuffer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? mCodec.getInputBuffer(index) : mInputBuffers[index];
+        mInputBuffer.clear();
+        return true;
+    }
+
+    private void queueInput(int flags) {
+        int size = mBatcher.getPendingBytes();
+        long presentationTimeUs = mBatcher.submitFrame();
+        mCodec.queueInputBuffer(mInputIndex, 0, size, presentationTimeUs, flags);
+        mInputIndex = -1;
+        mInputBuffer = null;
+    }
+
+    /**
+     * 取出编码器的全部输出
+     *
+     * @param endOfStream 为true时一直等到结束标志出现
+     */
+    private void drain(boolean endOfStream) throws IOException {
+        while (true) {
+            int index = mCodec.dequeueOutputBuffer(mBufferInfo, endOfStream ? TIMEOUT_US : 0);
+
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    return;
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (mMuxer != null) {
+                    mTrackIndex = mMuxer.addTrack(mCodec.getOutputFormat());
+                    mMuxer.start();
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                mOutputBuffers = mCodec.getOutputBuffers();
+            } else if (index >= 0) {
+                ByteBuffer output = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? mCodec.getOutputBuffer(index) : mOutputBuffers[index];
+
+                // 编解码器配置信息已包含在输出格式中
+                boolean config = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!config && mBufferInfo.size > 0) {
+                    output.limit(mBufferInfo.offset + mBufferInfo.size);
+                    output.position(mBufferInfo.offset);
+                    writeEncoded(output);
+                }
+                mCodec.releaseOutputBuffer(index, false);
+
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void writeEncoded(ByteBuffer frame) throws IOException {
+        int size = frame.remaining();
+        if (mMuxer != null) {
+            if (mTrackIndex < 0) {
+                throw new IOException("encoded data before output format");
+            }
+            mMuxer.writeSampleData(mTrackIndex, frame, mBufferInfo);
+        } else {
+            ByteBuffer header = mAdtsFrame[0];
+            header.clear();
+            AdtsHeader.write(header, AdtsHeader.PROFILE_AAC_LC, mSampleRateIndex, mChannelCount, size);
+            header.flip();
+            mAdtsFrame[1] = frame;
+            while (frame.hasRemaining()) {
+                mAdtsChannel.write(mAdtsFrame);
+            }
+            mAdtsFrame[1] = null;
+        }
+        mEncodedBytes += size;
+    }
+
+    private void releaseQuietly() {
+        try {
+            mCodec.stop();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "停止编码器失败。", e);
+        }
+        mCodec.release();
+
+        if (mMuxer != null) {
+            try {
+                mMuxer.release();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "释放MediaMuxer失败。", e);
+            }
+            mMuxer = null;
+        }
+
+        if (mAdtsStream != null) {
+            try {
+                mAdtsStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "关闭失败。", e);
+            }
+            mAdtsStream = null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package codepath.com.cn.imaudio.engine;
+
+import codepath.com.cn.imaudio.audio.codec.AudioCodecRegistry;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmCodec;
+import codepath.com.cn.imaudio.audio.codec.PcmWavCodec;
+
+/**
+ * 应用内可用的编解码器
+ */
+public final class AudioCodecs {
+
+    // 语音消息的AAC码率
+    public static final int AAC_BIT_RATE = 96000;
+
+    private static final AudioCodecRegistry REGISTRY = new AudioCodecRegistry()
+            .register(new PcmWavCodec())
+            .register(new ImaAdpcmCodec())
+            .register(new AacCodec(false, AAC_BIT_RATE))
+            .register(new AacCodec(true, AAC_BIT_RATE));
+
+    private AudioCodecs() {
+    }
+
+    public static AudioCodecRegistry getRegistry() {
+        return REGISTRY;
+    }
+}
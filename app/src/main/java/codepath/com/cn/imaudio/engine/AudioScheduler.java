@@ -0,0 +1,180 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.TaskLane;
+
+/**
+ * 按实时性分开的音频任务队列
+ *
+ * <ul>
+ *     <li>capture：采集循环，THREAD_PRIORITY_URGENT_AUDIO</li>
+ *     <li>render：播放循环，THREAD_PRIORITY_URGENT_AUDIO，录音时也可以播放</li>
+ *     <li>io：写文件、编码、清理文件，后台优先级，不和采集、播放争抢CPU</li>
+ *     <li>control：录音器的创建、启动、停止等不具备线程安全性的调用，逐个顺序执行</li>
+ *     <li>network：边录边上传，发送会阻塞在网络上，后台优先级；多条消息按提交顺序逐条上传</li>
+ * </ul>
+ *
+ * 每条队列都是单线程的 {@link TaskLane}，队列内先进先出，阻塞的采集或播放循环不会挡住其他队列的任务。
+ * 采集和播放各占一个线程，因为两者都是长时间阻塞的循环，放在同一个线程中就不能边录边播。
+ * 只用到部分队列的调用方在创建时指定需要的队列，访问没有创建的队列时抛出 IllegalStateException。
+ *
+ * 任务抛出的异常即使没有人读取 Future 也会记入日志。
+ */
+public final class AudioScheduler {
+
+    private static final String TAG = AudioScheduler.class.getSimpleName();
+
+    // io 队列的优先级：比普通后台任务稍高，保证写文件跟得上采集
+    private static final int IO_PRIORITY =
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+
+    /**
+     * 队列
+     */
+    public enum Lane {
+        CAPTURE, RENDER, IO, CONTROL, NETWORK
+    }
+
+    private static final TaskLane.FailureListener LOG_FAILURE = new TaskLane.FailureListener() {
+        @Override
+        public void onTaskFailed(TaskLane lane, Throwable error) {
+            Log.e(TAG, lane.getName() + " 队列中的任务失败。", error);
+        }
+    };
+
+    private final TaskLane mCapture;
+    private final TaskLane mRender;
+    private final TaskLane mIo;
+    private final TaskLane mControl;
+    private final TaskLane mNetwork;
+    // 已创建的队列
+    private final List<TaskLane> mLanes = new ArrayList<>();
+
+    /**
+     * 创建全部队列
+     */
+    public AudioScheduler() {
+        this(Lane.values());
+    }
+
+    /**
+     * 只创建指定的队列
+     */
+    public AudioScheduler(Lane... lanes) {
+        EnumSet<Lane> used = EnumSet.noneOf(Lane.class);
+        used.addAll(Arrays.asList(lanes));
+        mCapture = used.contains(Lane.CAPTURE)
+                ? newLane("audio-capture", Process.THREAD_PRIORITY_URGENT_AUDIO) : null;
+        mRender = used.contains(Lane.RENDER)
+                ? newLane("audio-render", Process.THREAD_PRIORITY_URGENT_AUDIO) : null;
+        mIo = used.contains(Lane.IO) ? newLane("audio-io", IO_PRIORITY) : null;
+        mControl = used.contains(Lane.CONTROL)
+                ? newLane("audio-control", Process.THREAD_PRIORITY_DEFAULT) : null;
+        mNetwork = used.contains(Lane.NETWORK)
+                ? newLane("audio-network", Process.THREAD_PRIORITY_BACKGROUND) : null;
+    }
+
+    public TaskLane capture() {
+        return require(mCapture, Lane.CAPTURE);
+    }
+
+    public TaskLane render() {
+        return require(mRender, Lane.RENDER);
+    }
+
+    public TaskLane io() {
+        return require(mIo, Lane.IO);
+    }
+
+    public TaskLane control() {
+        return require(mControl, Lane.CONTROL);
+    }
+
+    public TaskLane network() {
+        return require(mNetwork, Lane.NETWORK);
+    }
+
+    /**
+     * 各队列的排队深度和延迟，用于日志
+     */
+    public String dumpStats() {
+        StringBuilder stats = new StringBuilder();
+        for (TaskLane lane : mLanes) {
+            if (stats.length() > 0) {
+                stats.append('\n');
+            }
+            stats.append(lane);
+        }
+        return stats.toString();
+    }
+
+    /**
+     * 不再接受新任务，已提交的任务照常执行
+     */
+    public void shutdown() {
+        for (TaskLane lane : mLanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * 中断正在执行的任务并丢弃排队的任务
+     */
+    public void shutdownNow() {
+        for (TaskLane lane : mLanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    /**
+     * 等待所有队列结束，用于测试和退出前的清理
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (TaskLane lane : mLanes) {
+            long left = deadline - System.nanoTime();
+            if (!lane.awaitTermination(Math.max(0, left), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TaskLane require(TaskLane lane, Lane which) {
+        if (lane == null) {
+            throw new IllegalStateException(which + " lane was not created");
+        }
+        return lane;
+    }
+
+    private TaskLane newLane(final String name, final int priority) {
+        TaskLane lane = new TaskLane(name, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Process.setThreadPriority(priority);
+                        } catch (RuntimeException e) {
+                            Log.w(TAG, "设置 " + name + " 线程优先级失败。", e);
+                        }
+                        runnable.run();
+                    }
+                }, name);
+            }
+        });
+        lane.setFailureListener(LOG_FAILURE);
+        mLanes.add(lane);
+        return lane;
+    }
+}
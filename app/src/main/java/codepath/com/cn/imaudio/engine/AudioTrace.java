@@ -0,0 +1,35 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * systrace 区段，在 systrace/Perfetto 中与系统的 AudioFlinger 等轨道对齐查看
+ *
+ * {@link android.os.Trace} 从 API 18 开始提供，更低的系统上为空操作。区段名用常量字符串，不分配内存；
+ * begin 和 end 必须在同一线程中成对调用。
+ */
+public final class AudioTrace {
+
+    public static final String CAPTURE_READ = "audio.capture.read";
+    public static final String ENCODE_WRITE = "audio.encode.write";
+    public static final String PLAYBACK_WRITE = "audio.playback.write";
+
+    private static final boolean SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private AudioTrace() {
+    }
+
+    public static void begin(String section) {
+        if (SUPPORTED) {
+            Trace.beginSection(section);
+        }
+    }
+
+    public static void end() {
+        if (SUPPORTED) {
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.audio.transcode.BatchTranscoder;
+import codepath.com.cn.imaudio.storage.RecordingStore;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+
+/**
+ * 升级后把旧版本流式录音留下的裸PCM录音（44.1kHz 单声道）批量转为压缩格式并归一化音量
+ *
+ * 旧版本的扩展名是反的：流式录音的裸PCM存为 .m4a，MediaRecorder 的 MPEG-4/AAC 录音存为 .pcm，
+ * 现在的 MediaRecorder 录音也是 .m4a。所以两种扩展名都只按内容挑选，有容器文件头的一律跳过，
+ * 转码器也会拒绝（见 {@link BatchTranscoder#isRawPcm(File)}），不会删除它们。
+ *
+ * 工作线程数按CPU核数决定，留出一个核给界面和音频线程；电池温度偏高或处于省电模式时减少线程，
+ * 避免设备发热降频。转完的录音记入录音索引，源文件随之删除；进程被杀死后下次启动时从断点继续。
+ */
+public final class LegacyRecordingMigration {
+
+    private static final String TAG = LegacyRecordingMigration.class.getSimpleName();
+
+    /** 转码进度记录，以点开头，不会被当作录音 */
+    public static final String JOURNAL_FILE_NAME = ".transcode";
+
+    // 旧版本流式录音的格式
+    private static final PcmFormat LEGACY_FORMAT = PcmFormat.CD_MONO;
+    // 电池温度（0.1℃）达到此值时只用一个线程，达到较低的值时减半
+    private static final int HOT_BATTERY_TENTHS = 400;
+    private static final int WARM_BATTERY_TENTHS = 350;
+
+    private final Context mContext;
+    private final AudioCodec mCodec;
+    private final PcmFormat mOutputFormat;
+    private volatile BatchTranscoder mTranscoder;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param codec 目标编码格式
+     * @param outputFormat 目标格式，与新录音的保存格式一致
+     */
+    public LegacyRecordingMigration(Context context, AudioCodec codec, PcmFormat outputFormat) {
+        mContext = context.getApplicationContext();
+        mCodec = codec;
+        mOutputFormat = outputFormat;
+    }
+
+    /**
+     * 转码录音目录中所有的裸PCM录音，阻塞到全部完成或被取消
+     *
+     * @return 没有需要转码的录音时返回null
+     */
+    @WorkerThread
+    public BatchTranscoder.Report run() throws IOException, InterruptedException {
+        File directory = RecordAudioUtils.getAudioDirectory();
+        List<File> sources = BatchTranscoder.listRawPcmFiles(directory,
+                RecordAudioUtils.AUDIO_M4A, RecordAudioUtils.AUDIO_PCM);
+        // 进程退出时没有用到的预创建文件不是录音
+        for (Iterator<File> it = sources.iterator(); it.hasNext(); ) {
+            if (it.next().getName().startsWith(RecordingStore.PENDING_FILE_PREFIX)) {
+                it.remove();
+            }
+        }
+        if (sources.isEmpty()) {
+            return null;
+        }
+
+        int parallelism = chooseParallelism();
+        BatchTranscoder transcoder = new BatchTranscoder(mCodec, LEGACY_FORMAT, mOutputFormat,
+                parallelism, newThreadFactory());
+        transcoder.setListener(new BatchTranscoder.Listener() {
+            @Override
+            public void onFileTranscoded(File source, File output, long durationMillis) {
+                RecordAudioUtils.addAudioFile(output, mCodec.getName(), durationMillis);
+                RecordAudioUtils.deleteAudioFile(source);
+            }
+
+            @Override
+            public void onFileFailed(File source, Exception e) {
+                Log.e(TAG, "转码失败：" + source, e);
+            }
+        });
+        mTranscoder = transcoder;
+        if (mCancelled) {
+            transcoder.cancel();
+        }
+        Log.i(TAG, "开始转码 " + sources.size() + " 个旧录音，" + parallelism + " 个线程");
+        BatchTranscoder.Report report = transcoder.run(sources, new File(directory, JOURNAL_FILE_NAME));
+        Log.i(TAG, "转码结束：" + report);
+        return report;
+    }
+
+    /**
+     * 停止转码，已转完的保留，下次从断点继续
+     */
+    public void cancel() {
+        mCancelled = true;
+        BatchTranscoder transcoder = mTranscoder;
+        if (transcoder != null) {
+            transcoder.cancel();
+        }
+    }
+
+    private int chooseParallelism() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        // 电池温度是 Android 7.0 以下唯一普遍可用的温度，粘性广播不需要注册接收者
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int temperature = battery == null ? 0 : battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        if (temperature >= HOT_BATTERY_TENTHS) {
+            threads = 1;
+        } else if (temperature >= WARM_BATTERY_TENTHS) {
+            threads = Math.max(1, threads / 2);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (powerManager.isPowerSaveMode()) {
+                threads = 1;
+            }
+        }
+        return threads;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "transcode-" + count.getAndIncrement());
+            }
+        };
+    }
+}
@@ -0,0 +1,733 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.DecodedPcmCache;
+import codepath.com.cn.imaudio.audio.GainPcmSource;
+import codepath.com.cn.imaudio.audio.MappedPcmSource;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.PipelineMetrics;
+import codepath.com.cn.imaudio.audio.ResamplingPcmSource;
+import codepath.com.cn.imaudio.audio.TimeStretchPcmSource;
+import codepath.com.cn.imaudio.audio.WsolaTimeStretcher;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.utils.ResourceTracker;
+
+/**
+ * 可复用的播放引擎：暂停/继续、按采样定位、变速不变调，以及连续播放多条语音的无缝队列
+ *
+ * 只创建一个 AudioTrack 并一直复用，队列中的下一条语音直接接着写入，不重新初始化音频设备，
+ * 两条之间没有间隙；队列播完时 stop() 让剩余数据播完，下次播放时再 play()，直到 {@link #release()}。
+ *
+ * 每条语音的数据链：按文件内容选择解码器（无法识别的按裸PCM映射，设置了 {@link DecodedPcmCache}
+ * 时经过缓存）-> 采样率或声道数不同时经 {@link ResamplingPcmSource} 转换为播放器的格式 ->
+ * 有响度增益时经 {@link GainPcmSource} 调整音量 -> {@link TimeStretchPcmSource} 变速，1倍速时直接输出。
+ * 编码文件边解码边播放。
+ *
+ * 播放循环作为一个任务在传入的 Executor（render 队列）中运行，队列播完即退出，不长期占用线程；
+ * 暂停时在锁上等待。所有控制方法都可在任意线程调用，由播放循环在下一次写入前执行，
+ * {@link Listener} 的回调在播放线程中执行。
+ */
+public final class PlaybackEngine {
+
+    private static final String TAG = PlaybackEngine.class.getSimpleName();
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    /** {@link ResourceTracker} 中的资源种类 */
+    public static final String RESOURCE_AUDIO_TRACK = "AudioTrack";
+
+    /**
+     * 播放事件，在播放线程中回调
+     */
+    public interface Listener {
+
+        /** 开始播放队列中的一条 */
+        void onItemStarted(File file);
+
+        /**
+         * 开始播放的一条结束
+         *
+         * @param completed 播放到结尾时为true，被 stop()、play() 打断或出错时为false
+         */
+        void onItemEnded(File file, boolean completed);
+
+        /** 队列中没有可播放的内容，播放循环退出 */
+        void onQueueFinished();
+
+        /** 一条播放失败，之后继续播放队列中的下一条；已开始播放的随后回调 onItemEnded */
+        void onError(File file, Exception e);
+    }
+
+    /**
+     * 每条语音播放时施加的增益，在播放线程中打开文件时调用
+     */
+    public interface GainProvider {
+
+        /** 增益（dB），0 表示不调整 */
+        float getGainDb(File file);
+    }
+
+    private final int mSampleRateHz;
+    private final int mChannelConfig;
+    private final int mFrameBytes;
+    private final BufferSizePolicy mBufferPolicy;
+    private final Executor mExecutor;
+
+    private volatile DecodedPcmCache mDecodedCache;
+    private volatile ResourceTracker mTracker;
+    private volatile PipelineMetrics mMetrics;
+    private volatile GainProvider mGainProvider;
+    // 按文件内容选择解码器，供解码缓存在没有命中时打开文件
+    private final DecodedPcmCache.Opener mDecoderOpener = new DecodedPcmCache.Opener() {
+        @Override
+        public PcmSource open(File file) throws IOException {
+            AudioCodec codec = AudioCodecs.getRegistry().findDecoder(file);
+            if (codec == null) {
+                throw new IOException("no decoder for " + file);
+            }
+            return codec.newDecoder(file);
+        }
+    };
+
+    // 以下状态由 mLock 保护，播放循环在暂停时也在 mLock 上等待
+    private final Object mLock = new Object();
+    private final ArrayDeque<File> mQueue = new ArrayDeque<>();
+    private Listener mListener;
+    private boolean mLoopRunning;
+    private boolean mReleased;
+    private boolean mPaused;
+    // 放弃当前这一条，由 play() 和 stop() 设置
+    private boolean mSkipCurrent;
+    private long mPendingSeekFrame = -1;
+    private float mSpeed = 1f;
+
+    // 以下只在播放线程中访问；播放循环没有运行时由 mLock 保护
+    private AudioTrack mAudioTrack;
+    private int mMinBufferSize;
+    private int mInternalBufferBytes;
+    // play() 之前还能预写的字节数，0 表示 AudioTrack 正在播放
+    private int mPrimeRemaining;
+    private boolean mTrackPlaying;
+    // 当前 AudioTrack 已计入的欠载次数
+    private int mUnderrunCount;
+    // 仅供 Android 5.0 以下的 AudioTrack 使用
+    private byte[] mCompatBuffer;
+
+    // 请求播放的时间，第一块数据写入 AudioTrack 后清零
+    private volatile long mStartRequestNanos;
+
+    // 当前这一条及其位置，按播放器的采样率计
+    private volatile File mCurrentFile;
+    private volatile long mPositionFrames;
+    private volatile long mDurationFrames;
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            runQueue();
+        }
+    };
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelConfig AudioFormat.CHANNEL_OUT_MONO 或 AudioFormat.CHANNEL_OUT_STEREO
+     * @param bufferPolicy 播放缓冲区策略，声道数和采样率需与此处一致
+     * @param executor 运行播放循环的线程，即 {@link AudioScheduler#render()}
+     */
+    public PlaybackEngine(int sampleRateHz, int channelConfig, BufferSizePolicy bufferPolicy,
+                          Executor executor) {
+        mSampleRateHz = sampleRateHz;
+        mChannelConfig = channelConfig;
+        int channelCount = channelConfig == AudioFormat.CHANNEL_OUT_STEREO ? 2 : 1;
+        mFrameBytes = channelCount * BYTES_PER_SAMPLE;
+        mBufferPolicy = bufferPolicy;
+        mExecutor = executor;
+    }
+
+    public void setListener(Listener listener) {
+        synchronized (mLock) {
+            mListener = listener;
+        }
+    }
+
+    /**
+     * 记录 AudioTrack 的创建和释放，为null时不记录
+     */
+    public void setResourceTracker(ResourceTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * 记录写入耗时、欠载次数和启动耗时，为null时不记录
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 设置播放增益的来源，例如录音时测得的响度增益，为null时按原始音量播放
+     */
+    public void setGainProvider(GainProvider provider) {
+        mGainProvider = provider;
+    }
+
+    /**
+     * 设置解码缓存，为null时每次播放都重新解码；缓存在转换采样率之前，保存的是文件本身的格式
+     */
+    public void setDecodedCache(DecodedPcmCache cache) {
+        mDecodedCache = cache;
+    }
+
+    /**
+     * 提前解码文件放入解码缓存，例如即将播放的语音消息；没有设置缓存或不能解码的文件直接返回
+     *
+     * @return 缓存中已有或放入成功时返回true
+     */
+    @WorkerThread
+    public boolean prefetch(File audioFile) {
+        DecodedPcmCache cache = mDecodedCache;
+        if (cache == null || AudioCodecs.getRegistry().findDecoder(audioFile) == null) {
+            return false;
+        }
+        try {
+            return cache.prefetch(audioFile, mDecoderOpener);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "预解码失败：" + audioFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * 清空队列，立即从头播放指定文件
+     */
+    public void play(File audioFile) {
+        synchronized (mLock) {
+            checkNotReleased();
+            mQueue.clear();
+            mQueue.add(audioFile);
+            mSkipCurrent = true;
+            mPaused = false;
+            mPendingSeekFrame = -1;
+            mStartRequestNanos = System.nanoTime();
+            mLock.notifyAll();
+            startLoopLocked();
+        }
+    }
+
+    /**
+     * 加入队列末尾，当前没有播放时立即开始；与前一条之间没有间隙
+     */
+    public void enqueue(File audioFile) {
+        synchronized (mLock) {
+            checkNotReleased();
+            mQueue.add(audioFile);
+            startLoopLocked();
+        }
+    }
+
+    /**
+     * 依次加入队列末尾，见 {@link #enqueue(File)}
+     */
+    public void enqueueAll(Collection<File> audioFiles) {
+        synchronized (mLock) {
+            checkNotReleased();
+            mQueue.addAll(audioFiles);
+            if (!mQueue.isEmpty()) {
+                startLoopLocked();
+            }
+        }
+    }
+
+    /**
+     * 暂停，已写入 AudioTrack 的数据保留，继续时接着播放
+     */
+    public void pause() {
+        synchronized (mLock) {
+            mPaused = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (mLock) {
+            mPaused = false;
+            mLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (mLock) {
+            return mPaused;
+        }
+    }
+
+    /**
+     * 停止当前这一条并清空队列，丢弃已写入的数据；AudioTrack 保留，下次播放时不重新创建
+     */
+    public void stop() {
+        synchronized (mLock) {
+            mQueue.clear();
+            mSkipCurrent = true;
+            mPaused = false;
+            mPendingSeekFrame = -1;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 当前有语音在播放（包括暂停中）或队列不为空
+     */
+    public boolean isActive() {
+        synchronized (mLock) {
+            return mLoopRunning;
+        }
+    }
+
+    /**
+     * 定位到当前这一条的指定帧（按播放器的采样率），定位后的第一个采样就是该帧
+     */
+    public void seekToFrame(long frame) {
+        synchronized (mLock) {
+            mPendingSeekFrame = Math.max(0, frame);
+            mLock.notifyAll();
+        }
+    }
+
+    public void seekToMillis(long millis) {
+        seekToFrame(millis * mSampleRateHz / 1000);
+    }
+
+    /**
+     * 当前这一条已写入 AudioTrack 的位置，比实际听到的超前不到一个内部缓冲区；与倍速无关
+     */
+    public long getPositionMillis() {
+        return mPositionFrames * 1000 / mSampleRateHz;
+    }
+
+    public long getDurationMillis() {
+        return mDurationFrames * 1000 / mSampleRateHz;
+    }
+
+    /**
+     * 当前这一条，没有播放时为null
+     */
+    public File getCurrentFile() {
+        return mCurrentFile;
+    }
+
+    /**
+     * 修改倍速，音高不变，对当前这一条立即生效，之后的各条沿用
+     *
+     * @param speed {@link WsolaTimeStretcher#MIN_SPEED} 到 {@link WsolaTimeStretcher#MAX_SPEED}
+     */
+    public void setSpeed(float speed) {
+        if (!(speed >= WsolaTimeStretcher.MIN_SPEED && speed <= WsolaTimeStretcher.MAX_SPEED)) {
+            throw new IllegalArgumentException("speed out of range: " + speed);
+        }
+        synchronized (mLock) {
+            mSpeed = speed;
+        }
+    }
+
+    public float getSpeed() {
+        synchronized (mLock) {
+            return mSpeed;
+        }
+    }
+
+    /**
+     * 停止播放并释放 AudioTrack，之后不能再使用。播放循环正在运行时由它在退出前释放。
+     */
+    public void release() {
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mQueue.clear();
+            mSkipCurrent = true;
+            mPaused = false;
+            mLock.notifyAll();
+            if (!mLoopRunning) {
+                releaseTrack();
+            }
+        }
+    }
+
+    private void checkNotReleased() {
+        if (mReleased) {
+            throw new IllegalStateException("engine released");
+        }
+    }
+
+    private void startLoopLocked() {
+        if (mLoopRunning) {
+            return;
+        }
+        mLoopRunning = true;
+        mStartRequestNanos = System.nanoTime();
+        // 没有播放时的暂停不带到新的队列
+        mPaused = false;
+        try {
+            mExecutor.execute(mLoop);
+        } catch (RuntimeException e) {
+            mLoopRunning = false;
+            throw e;
+        }
+    }
+
+    /**
+     * running in render thread
+     *
+     * 逐条播放队列中的文件，队列为空时让 AudioTrack 播完剩余数据后退出
+     */
+    private void runQueue() {
+        while (true) {
+            File file;
+            Listener listener;
+            synchronized (mLock) {
+                file = mReleased ? null : mQueue.poll();
+                // 之前的 play()/stop() 针对的是已经结束的那一条
+                mSkipCurrent = false;
+                listener = mListener;
+            }
+
+            if (file != null) {
+                playItem(file, listener);
+                continue;
+            }
+
+            finishTrack();
+            synchronized (mLock) {
+                if (!mQueue.isEmpty() && !mReleased) {
+                    continue;
+                }
+                mLoopRunning = false;
+                if (mReleased) {
+                    releaseTrack();
+                }
+            }
+            // 回调时 isActive() 已返回false
+            if (listener != null) {
+                listener.onQueueFinished();
+            }
+            return;
+        }
+    }
+
+    private void playItem(File file, Listener listener) {
+        TimeStretchPcmSource source = null;
+        boolean started = false;
+        boolean completed = false;
+        mCurrentFile = file;
+        try {
+            source = openSource(file);
+            mPositionFrames = 0;
+            mDurationFrames = source.getFrameCount();
+            ensureTrack();
+            started = true;
+            if (listener != null) {
+                listener.onItemStarted(file);
+            }
+
+            while (true) {
+                long seekFrame;
+                float speed;
+                synchronized (mLock) {
+                    if (mPaused && !mSkipCurrent) {
+                        waitWhilePaused();
+                    }
+                    if (mSkipCurrent) {
+                        // 丢弃已写入但未播放的数据，AudioTrack 保留
+                        discardTrackData();
+                        return;
+                    }
+                    seekFrame = mPendingSeekFrame;
+                    mPendingSeekFrame = -1;
+                    speed = mSpeed;
+                }
+
+                if (seekFrame >= 0) {
+                    discardTrackData();
+                    source.seekToFrame(seekFrame);
+                }
+                // 变速从已写入的位置开始生效，已写入 AudioTrack 的部分仍按原来的倍速播放
+                source.setSpeed(speed);
+
+                ByteBuffer chunk = source.nextChunk(mTrackPlaying
+                        ? mBufferPolicy.getChunkBytes()
+                        : Math.min(mPrimeRemaining, mBufferPolicy.getChunkBytes()));
+                if (chunk == null) {
+                    mPositionFrames = source.getPositionFrames();
+                    completed = true;
+                    return;
+                }
+                if (write(chunk) < 0) {
+                    throw new IOException("写入AudioTrack失败");
+                }
+                mPositionFrames = source.getPositionFrames();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "播放录音失败：" + file, e);
+            PipelineMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.increment(PipelineMetrics.Counter.PLAYBACK_ERRORS);
+            }
+            // AudioTrack 可能已不可用，下一条重新创建
+            releaseTrack();
+            if (listener != null) {
+                listener.onError(file, e);
+            }
+        } finally {
+            mCurrentFile = null;
+            closeQuietly(source);
+            if (started && listener != null) {
+                listener.onItemEnded(file, completed);
+            }
+        }
+    }
+
+    /**
+     * 在 mLock 中调用，暂停 AudioTrack 并等待继续、定位之外的控制请求
+     */
+    private void waitWhilePaused() {
+        boolean wasPlaying = mTrackPlaying;
+        if (wasPlaying) {
+            mAudioTrack.pause();
+        }
+        try {
+            while (mPaused && !mSkipCurrent) {
+                mLock.wait();
+            }
+        } catch (InterruptedException e) {
+            // render 队列被关闭
+            Thread.currentThread().interrupt();
+            mSkipCurrent = true;
+            mQueue.clear();
+        }
+        if (wasPlaying && !mSkipCurrent) {
+            mAudioTrack.play();
+        }
+    }
+
+    /**
+     * 按文件内容选择解码器，无法识别的文件按裸PCM映射。
+     * 采样率或声道数与播放器不同的文件转换为播放器的格式，例如16kHz的语音以设备的原生采样率播放；
+     * 增益和变速在转换之后进行，与播放器的采样率一致。
+     */
+    private TimeStretchPcmSource openSource(File audioFile) throws IOException {
+        AudioCodec codec = AudioCodecs.getRegistry().findDecoder(audioFile);
+        DecodedPcmCache cache = mDecodedCache;
+        PcmSource source;
+        if (codec == null) {
+            source = MappedPcmSource.open(audioFile, mFrameBytes);
+        } else if (cache != null) {
+            source = cache.open(audioFile, mDecoderOpener);
+        } else {
+            source = codec.newDecoder(audioFile);
+        }
+
+        try {
+            int sourceRateHz = source.getSampleRateHz();
+            // 裸PCM的采样率未知，按播放器的格式播放
+            if (sourceRateHz > 0
+                    && (sourceRateHz != mSampleRateHz || source.getFrameBytes() != mFrameBytes)) {
+                source = new ResamplingPcmSource(source,
+                        new PcmFormat(mSampleRateHz, mFrameBytes / BYTES_PER_SAMPLE));
+            }
+            GainProvider gainProvider = mGainProvider;
+            float gainDb = gainProvider == null ? 0 : gainProvider.getGainDb(audioFile);
+            // 放大时的限幅器需要采样率，裸PCM只有旧版本的录音，不调整
+            if (gainDb != 0 && sourceRateHz > 0) {
+                source = new GainPcmSource(source, gainDb);
+            }
+            return new TimeStretchPcmSource(source, mSampleRateHz);
+        } catch (RuntimeException e) {
+            closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * 第一次播放或出错之后创建 AudioTrack，之后一直复用
+     */
+    private void ensureTrack() {
+        if (mAudioTrack != null && mAudioTrack.getState() == AudioTrack.STATE_INITIALIZED) {
+            return;
+        }
+        releaseTrack();
+
+        mMinBufferSize = AudioTrack.getMinBufferSize(mSampleRateHz, mChannelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        // 保留上次播放时根据欠载调整过的数据块大小
+        mBufferPolicy.resetCounters();
+        mInternalBufferBytes = mBufferPolicy.getInternalBufferBytes(mMinBufferSize);
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mSampleRateHz, mChannelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, mInternalBufferBytes, AudioTrack.MODE_STREAM);
+        mUnderrunCount = 0;
+        ResourceTracker tracker = mTracker;
+        if (tracker != null) {
+            tracker.onOpened(mAudioTrack, RESOURCE_AUDIO_TRACK);
+        }
+        if (mAudioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            releaseTrack();
+            throw new IllegalStateException("AudioTrack 初始化失败");
+        }
+        startPriming();
+    }
+
+    /**
+     * 在 play() 之前预先写入数据，避免启动时输出静音。预写量不超过内部缓冲区的一半，
+     * 未播放时的写入不会阻塞。
+     */
+    private void startPriming() {
+        mTrackPlaying = false;
+        mPrimeRemaining = mInternalBufferBytes / 2;
+    }
+
+    private int write(ByteBuffer chunk) {
+        int length = chunk.remaining();
+        int ret;
+        AudioTrace.begin(AudioTrace.PLAYBACK_WRITE);
+        long writeStart = System.nanoTime();
+        try {
+            ret = writeTrack(chunk, length);
+        } finally {
+            AudioTrace.end();
+        }
+        long writeEnd = System.nanoTime();
+
+        if (ret < 0) {
+            Log.e(TAG, "写入AudioTrack失败：" + ret);
+            return ret;
+        }
+
+        PipelineMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Timer.PLAYBACK_WRITE, writeEnd - writeStart);
+            metrics.add(PipelineMetrics.Counter.BYTES_PLAYED, ret);
+            long startRequest = mStartRequestNanos;
+            if (startRequest != 0) {
+                mStartRequestNanos = 0;
+                metrics.record(PipelineMetrics.Timer.PLAYBACK_START, writeEnd - startRequest);
+            }
+        }
+        if (PipelineMetrics.VERBOSE) {
+            Log.v(TAG, "wrote " + ret + "/" + length + " bytes in "
+                    + (writeEnd - writeStart) / 1000 + "us");
+        }
+
+        if (mTrackPlaying) {
+            adaptBuffer();
+        } else {
+            mPrimeRemaining -= ret;
+            if (mPrimeRemaining <= 0) {
+                mAudioTrack.play();
+                mTrackPlaying = true;
+            }
+        }
+        return ret;
+    }
+
+    private int writeTrack(ByteBuffer chunk, int length) {
+        int ret;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            ret = mAudioTrack.write(chunk, length, AudioTrack.WRITE_BLOCKING);
+        } else {
+            // 低版本的AudioTrack只接受数组
+            if (mCompatBuffer == null || mCompatBuffer.length < length) {
+                mCompatBuffer = new byte[Math.max(length, mBufferPolicy.getMaxChunkBytes())];
+            }
+            chunk.get(mCompatBuffer, 0, length);
+            ret = mAudioTrack.write(mCompatBuffer, 0, length);
+        }
+        return ret;
+    }
+
+    /**
+     * 统计欠载，出现欠载时加大数据块和AudioTrack内部缓冲区，Android 7.0 以下无法获取欠载计数
+     */
+    private void adaptBuffer() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+
+        int underrunCount = mAudioTrack.getUnderrunCount();
+        PipelineMetrics metrics = mMetrics;
+        if (metrics != null && underrunCount > mUnderrunCount) {
+            metrics.add(PipelineMetrics.Counter.UNDERRUNS, underrunCount - mUnderrunCount);
+        }
+        mUnderrunCount = underrunCount;
+        if (mBufferPolicy.onUnderrunCount(underrunCount)) {
+            mAudioTrack.setBufferSizeInFrames(mBufferPolicy.getInternalBufferFrames(mMinBufferSize));
+        }
+    }
+
+    /**
+     * 丢弃已写入但未播放的数据，之后重新预写
+     */
+    private void discardTrackData() {
+        if (mAudioTrack == null) {
+            return;
+        }
+        mAudioTrack.pause();
+        mAudioTrack.flush();
+        startPriming();
+    }
+
+    /**
+     * 队列播完：还在预写的短语音也要播出来，stop() 让剩余数据播完后停止
+     */
+    private void finishTrack() {
+        if (mAudioTrack == null) {
+            return;
+        }
+        if (!mTrackPlaying && mPrimeRemaining < mInternalBufferBytes / 2) {
+            mAudioTrack.play();
+        }
+        mAudioTrack.stop();
+        startPriming();
+    }
+
+    private void releaseTrack() {
+        if (mAudioTrack == null) {
+            return;
+        }
+
+        if (mAudioTrack.getState() == AudioTrack.STATE_INITIALIZED) {
+            mAudioTrack.stop();
+        }
+        mAudioTrack.release();
+        ResourceTracker tracker = mTracker;
+        if (tracker != null) {
+            tracker.onClosed(mAudioTrack);
+        }
+        mAudioTrack = null;
+    }
+
+    private static void closeQuietly(PcmSource source) {
+        if (source == null) {
+            return;
+        }
+
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭失败。", e);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.DirectBufferPool;
+import codepath.com.cn.imaudio.audio.LevelAnalyzer;
+import codepath.com.cn.imaudio.audio.PcmRingBuffer;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PreRollBuffer;
+
+/**
+ * 带预录的常开录音
+ *
+ * 录音页面可见期间 AudioRecord 一直在采集，数据只写入固定大小的 {@link PreRollBuffer}，
+ * 不做其他处理，也不写文件。{@link #beginRecording(PcmSink)} 之后，采集线程把预录内容的视图
+ * 交给写文件线程先写出，随后的数据经 {@link PcmRingBuffer} 送到同一个 PcmSink，
+ * 所以按下之前 preRollMillis 的语音也在录音中，且预录数据没有拷贝到新的数组。
+ *
+ * 采集循环在 {@link AudioScheduler#capture()} 中运行，写文件在 {@link AudioScheduler#io()} 中运行。
+ * 采集按 BufferSizePolicy.Mode.THROUGHPUT 的大数据块读取，减少唤醒次数。
+ * 内存占用固定：预录缓冲区 + 环形缓冲区的槽位，启动时一次分配。
+ */
+public final class PreRollRecorder {
+
+    private static final String TAG = PreRollRecorder.class.getSimpleName();
+
+    // 环形缓冲区需要吸收的写入卡顿时长
+    private static final int RING_STALL_MILLIS = 1000;
+    // 写文件线程没有数据可取时的等待时长
+    private static final long WRITER_PARK_NANOS = 5000000;
+
+    /**
+     * 一次录音，由 {@link #beginRecording(PcmSink)} 创建
+     */
+    public static final class Session {
+
+        private final PcmSink mSink;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mEndRequested;
+        private volatile boolean mSucceeded;
+        private volatile int mPreRollBytes;
+
+        private Session(PcmSink sink) {
+            mSink = sink;
+        }
+
+        /**
+         * 实际写入的预录字节数
+         */
+        public int getPreRollBytes() {
+            return mPreRollBytes;
+        }
+
+        private void finish(boolean succeeded) {
+            mSucceeded = succeeded;
+            mDone.countDown();
+        }
+    }
+
+    private final AudioScheduler mScheduler;
+    private final int mSampleRateHz;
+    private final BufferSizePolicy mBufferPolicy;
+    private final PreRollBuffer mPreRoll;
+    private final ByteBuffer mReadBuffer;
+    private final PcmRingBuffer mRingBuffer;
+    private final ByteBuffer[] mSnapshotViews = new ByteBuffer[2];
+
+    private final AtomicReference<Session> mPendingSession = new AtomicReference<>();
+    // 每次 start() 加1，采集循环发现与自己的不一致时退出；
+    // 之前的循环还没退出时，新的循环在 capture 队列中排在它之后
+    private volatile int mGeneration;
+    private volatile boolean mStarted;
+    private volatile LevelAnalyzer mAnalyzer;
+
+    /**
+     * @param sampleRateHz 采样率，单声道16位
+     * @param preRollMillis 预录时长
+     */
+    public PreRollRecorder(AudioScheduler scheduler, int sampleRateHz, int preRollMillis) {
+        mScheduler = scheduler;
+        mSampleRateHz = sampleRateHz;
+        mBufferPolicy = new BufferSizePolicy(BufferSizePolicy.Mode.THROUGHPUT, sampleRateHz, 1, 2);
+        mPreRoll = PreRollBuffer.forDuration(sampleRateHz, 1, preRollMillis);
+        mReadBuffer = ByteBuffer.allocateDirect(mBufferPolicy.getMaxChunkBytes());
+
+        int slotCount = mBufferPolicy.getRingSlotCount(RING_STALL_MILLIS);
+        mRingBuffer = new PcmRingBuffer(
+                new DirectBufferPool(slotCount + 1, mBufferPolicy.getMaxChunkBytes()), slotCount);
+    }
+
+    /**
+     * 开始常开采集，页面可见时在主线程调用
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+
+        mStarted = true;
+        final int generation = ++mGeneration;
+        mScheduler.capture().submit(new Runnable() {
+            @Override
+            public void run() {
+                capture(generation);
+            }
+        });
+    }
+
+    /**
+     * 停止采集并释放麦克风，页面不可见时在主线程调用。进行中的录音照常结束并写完。
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+
+        mStarted = false;
+        mGeneration++;
+    }
+
+    /**
+     * 录音期间（含预录内容）在采集线程中计算电平和波形，每次录音开始时 reset()
+     */
+    public void setAnalyzer(LevelAnalyzer analyzer) {
+        mAnalyzer = analyzer;
+    }
+
+    /**
+     * 开始录音，可在任意线程调用。预录内容和之后采集的数据依次写入 sink，录音结束时 sink 被关闭。
+     *
+     * @throws IllegalStateException 没有在采集，或上一次录音还没有被采集线程接收
+     */
+    public Session beginRecording(PcmSink sink) {
+        if (!mStarted) {
+            throw new IllegalStateException("pre-roll capture is not running");
+        }
+
+        Session session = new Session(sink);
+        if (!mPendingSession.compareAndSet(null, session)) {
+            throw new IllegalStateException("previous recording not started yet");
+        }
+        return session;
+    }
+
+    /**
+     * 结束录音并等待数据全部写入 sink
+     *
+     * @return 写入过程中没有出错时返回true
+     */
+    public boolean endRecording(Session session) throws InterruptedException {
+        session.mEndRequested = true;
+        session.mDone.await();
+        return session.mSucceeded;
+    }
+
+    /**
+     * running in capture thread
+     */
+    private void capture(int generation) {
+        AudioRecord audioRecord = null;
+        Session active = null;
+        try {
+            int minBufferSize = AudioRecord.getMinBufferSize(mSampleRateHz,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, mSampleRateHz,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    mBufferPolicy.getInternalBufferBytes(minBufferSize));
+            mBufferPolicy.resetCounters();
+            mPreRoll.clear();
+            audioRecord.startRecording();
+
+            while (generation == mGeneration || active != null) {
+                if (active == null) {
+                    active = mPendingSession.get();
+                    if (active != null) {
+                        startSession(active);
+                    }
+                } else if (active.mEndRequested || generation != mGeneration) {
+                    endSession(active);
+                    mPendingSession.set(null);
+                    active = null;
+                    continue;
+                }
+
+                int chunkBytes = mBufferPolicy.getChunkBytes();
+                ByteBuffer frame = active != null ? mRingBuffer.claim() : mReadBuffer;
+                int readBytes = audioRecord.read(frame, chunkBytes);
+                if (readBytes <= 0) {
+                    Log.e(TAG, "读取录音数据失败：" + readBytes);
+                    break;
+                }
+                mBufferPolicy.onRead(chunkBytes, readBytes);
+
+                if (active != null) {
+                    LevelAnalyzer analyzer = mAnalyzer;
+                    if (analyzer != null) {
+                        analyzer.process(frame, 0, readBytes);
+                    }
+                    mRingBuffer.publish(readBytes);
+                } else {
+                    frame.limit(readBytes).position(0);
+                    mPreRoll.write(frame);
+                    frame.clear();
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "预录采集失败。", e);
+        } finally {
+            if (active != null) {
+                endSession(active);
+            }
+            // 没有被接收的录音直接以失败结束
+            Session pending = mPendingSession.getAndSet(null);
+            if (pending != null && pending != active) {
+                closeQuietly(pending.mSink);
+                pending.finish(false);
+            }
+
+            if (audioRecord != null) {
+                if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                    audioRecord.stop();
+                }
+                audioRecord.release();
+            }
+        }
+    }
+
+    /**
+     * 冻结预录缓冲区，把它的视图交给写文件线程先写出
+     */
+    private void startSession(final Session session) {
+        final int viewCount = mPreRoll.snapshot(mSnapshotViews);
+        session.mPreRollBytes = mPreRoll.size();
+        LevelAnalyzer analyzer = mAnalyzer;
+        if (analyzer != null) {
+            analyzer.reset();
+            for (int i = 0; i < viewCount; i++) {
+                ByteBuffer view = mSnapshotViews[i];
+                analyzer.process(view, view.position(), view.remaining());
+            }
+        }
+        mRingBuffer.reset();
+
+        mScheduler.io().submit(new Runnable() {
+            @Override
+            public void run() {
+                session.finish(drain(session.mSink, viewCount));
+            }
+        });
+    }
+
+    /**
+     * 关闭环形缓冲区，等写文件线程写完之后预录缓冲区才能重新写入
+     */
+    private void endSession(Session session) {
+        mRingBuffer.close();
+        try {
+            session.mDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mPreRoll.clear();
+
+        if (mRingBuffer.getOverrunCount() > 0) {
+            Log.w(TAG, "写入过慢，丢弃了 " + mRingBuffer.getOverrunCount() + " 帧录音数据。");
+        }
+    }
+
+    /**
+     * running in writer thread
+     */
+    private boolean drain(PcmSink sink, int viewCount) {
+        boolean closed = false;
+        try {
+            for (int i = 0; i < viewCount; i++) {
+                sink.write(mSnapshotViews[i]);
+            }
+
+            while (true) {
+                // 必须先读取关闭状态再取数据，否则可能漏掉最后几帧
+                boolean ended = mRingBuffer.isClosed();
+                ByteBuffer frame = mRingBuffer.peek();
+                if (frame == null) {
+                    if (ended) {
+                        closed = true;
+                        sink.close();
+                        return true;
+                    }
+                    LockSupport.parkNanos(WRITER_PARK_NANOS);
+                    continue;
+                }
+
+                sink.write(frame);
+                mRingBuffer.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "写入录音文件失败。", e);
+            return false;
+        } finally {
+            if (!closed) {
+                closeQuietly(sink);
+            }
+        }
+    }
+
+    private static void closeQuietly(PcmSink sink) {
+        try {
+            sink.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭失败。", e);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.MediaRecorder;
+import android.os.SystemClock;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import codepath.com.cn.imaudio.audio.LatencyStats;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+
+/**
+ * 按住说话的 MediaRecorder 会话管理
+ *
+ * 始终保留一个已配置、已 prepare() 并创建好输出文件的 MediaRecorder，按下时只需 start()。
+ * 每次录音结束后由调用方在后台线程调用 {@link #prewarm()} 准备下一个。
+ *
+ * 同时统计从按下到 start() 返回、到第一个采样被采集的延迟，预热和冷启动分开统计，便于对比。
+ * 第一个采样只能轮询 getMaxAmplitude() 得到，探测只在调试时启用：每次轮询是录音队列中的一个短任务，
+ * 之后重新排队，不会挡住排在后面的停止；超时或录音已停止时记为未检测到，不计入延迟统计。
+ *
+ * MediaRecorder 不是线程安全的，所有方法都必须在同一个录音线程中调用。
+ */
+public final class RecorderSessionManager {
+
+    private static final String TAG = RecorderSessionManager.class.getSimpleName();
+
+    // 等待第一个采样的轮询间隔和上限
+    private static final long FIRST_SAMPLE_POLL_MILLIS = 2;
+    private static final long FIRST_SAMPLE_TIMEOUT_MILLIS = 500;
+    // 保留最近多少次的延迟
+    private static final int LATENCY_HISTORY = 64;
+
+    /**
+     * 一次录音
+     */
+    public static final class Session {
+
+        private final MediaRecorder mRecorder;
+        private final File mFile;
+        private final boolean mWarm;
+        private final long mTouchDownUptimeMillis;
+        private long mStartedUptimeMillis;
+        private long mFirstSampleUptimeMillis = -1;
+        private boolean mStopped;
+
+        private Session(MediaRecorder recorder, File file, boolean warm, long touchDownUptimeMillis) {
+            mRecorder = recorder;
+            mFile = file;
+            mWarm = warm;
+            mTouchDownUptimeMillis = touchDownUptimeMillis;
+        }
+
+        /**
+         * 输出文件，文件名为临时名称
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * 是否使用了预热的录音器
+         */
+        public boolean isWarm() {
+            return mWarm;
+        }
+
+        /**
+         * start() 返回时的 SystemClock.uptimeMillis()
+         */
+        public long getStartedUptimeMillis() {
+            return mStartedUptimeMillis;
+        }
+
+        /**
+         * 从按下到 start() 返回的延迟
+         */
+        public long getStartLatencyMillis() {
+            return mStartedUptimeMillis - mTouchDownUptimeMillis;
+        }
+
+        /**
+         * 从按下到采集到第一个采样的延迟，未启用探测、尚未或超时未检测到时返回-1
+         */
+        public long getFirstSampleLatencyMillis() {
+            return mFirstSampleUptimeMillis < 0 ? -1 : mFirstSampleUptimeMillis - mTouchDownUptimeMillis;
+        }
+    }
+
+    private final AacCodec mCodec;
+    private final int mSampleRateHz;
+    private final boolean mPrewarmEnabled;
+    // 执行第一个采样探测的录音队列，为null时不探测
+    private final Executor mProbeLane;
+
+    private MediaRecorder mPreparedRecorder;
+    private File mPreparedFile;
+
+    private final LatencyStats mWarmStartLatency = new LatencyStats(LATENCY_HISTORY);
+    private final LatencyStats mColdStartLatency = new LatencyStats(LATENCY_HISTORY);
+    private final LatencyStats mWarmLatency = new LatencyStats(LATENCY_HISTORY);
+    private final LatencyStats mColdLatency = new LatencyStats(LATENCY_HISTORY);
+    private long mFirstSampleMisses;
+
+    /**
+     * @param codec 录音格式
+     * @param sampleRateHz 采样率
+     * @param prewarmEnabled 为false时每次按下都冷启动（原有行为），用于对比延迟
+     * @param probeLane 调用本类方法的录音队列，在其中探测第一个采样；为null时不探测
+     */
+    public RecorderSessionManager(AacCodec codec, int sampleRateHz, boolean prewarmEnabled,
+                                  Executor probeLane) {
+        mCodec = codec;
+        mSampleRateHz = sampleRateHz;
+        mPrewarmEnabled = prewarmEnabled;
+        mProbeLane = probeLane;
+    }
+
+    /**
+     * 准备下一次录音用的 MediaRecorder 和输出文件，已准备好或未启用预热时直接返回
+     */
+    @WorkerThread
+    public void prewarm() {
+        if (!mPrewarmEnabled || mPreparedRecorder != null) {
+            return;
+        }
+
+        File file = null;
+        try {
+            file = RecordAudioUtils.createPendingAudioFile(mCodec.getFileExtension());
+            mPreparedRecorder = prepare(file);
+            mPreparedFile = file;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "预热录音器失败，下次录音时冷启动。", e);
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 开始录音：有预热的录音器时只需 start()，否则现场创建。启用探测时在录音队列中排入第一个采样的探测，
+     * 不等待它完成。
+     *
+     * @param touchDownUptimeMillis 按下的时间，即 MotionEvent.getEventTime()
+     */
+    @WorkerThread
+    public Session start(long touchDownUptimeMillis) throws IOException {
+        MediaRecorder recorder = mPreparedRecorder;
+        File file = mPreparedFile;
+        mPreparedRecorder = null;
+        mPreparedFile = null;
+
+        boolean warm = recorder != null;
+        if (!warm) {
+            file = RecordAudioUtils.createPendingAudioFile(mCodec.getFileExtension());
+            try {
+                recorder = prepare(file);
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+        }
+
+        Session session = new Session(recorder, file, warm, touchDownUptimeMillis);
+        try {
+            recorder.start();
+        } catch (RuntimeException e) {
+            recorder.release();
+            file.delete();
+            throw new IOException("启动录音失败。", e);
+        }
+        session.mStartedUptimeMillis = SystemClock.uptimeMillis();
+        (warm ? mWarmStartLatency : mColdStartLatency).add(session.getStartLatencyMillis());
+
+        if (mProbeLane != null) {
+            new FirstSampleProbe(session).schedule();
+        }
+        return session;
+    }
+
+    /**
+     * 停止录音并释放录音器，输出文件由调用方保留或删除
+     *
+     * @throws RuntimeException 与 MediaRecorder.stop() 相同，录音过短时没有有效数据
+     */
+    @WorkerThread
+    public void stop(Session session) {
+        session.mStopped = true;
+        try {
+            session.mRecorder.stop();
+        } finally {
+            session.mRecorder.release();
+        }
+    }
+
+    /**
+     * 预热后按下到 start() 返回的延迟统计
+     */
+    public LatencyStats getWarmStartLatency() {
+        return mWarmStartLatency;
+    }
+
+    /**
+     * 冷启动时按下到 start() 返回的延迟统计
+     */
+    public LatencyStats getColdStartLatency() {
+        return mColdStartLatency;
+    }
+
+    /**
+     * 预热后按下到第一个采样的延迟统计，只包含检测到的录音
+     */
+    public LatencyStats getWarmLatency() {
+        return mWarmLatency;
+    }
+
+    /**
+     * 冷启动时按下到第一个采样的延迟统计，只包含检测到的录音
+     */
+    public LatencyStats getColdLatency() {
+        return mColdLatency;
+    }
+
+    /**
+     * 启用探测后没有检测到第一个采样的录音次数（超时、录音已停止或队列已关闭）
+     */
+    public long getFirstSampleMissCount() {
+        return mFirstSampleMisses;
+    }
+
+    /**
+     * 释放预热的录音器并删除它的输出文件
+     */
+    @WorkerThread
+    public void release() {
+        if (mPreparedRecorder != null) {
+            mPreparedRecorder.release();
+            mPreparedRecorder = null;
+        }
+        if (mPreparedFile != null) {
+            mPreparedFile.delete();
+            mPreparedFile = null;
+        }
+    }
+
+    private MediaRecorder prepare(File file) throws IOException {
+        MediaRecorder recorder = new MediaRecorder();
+        try {
+            recorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+            mCodec.configure(recorder, mSampleRateHz);
+            recorder.setOutputFile(file.getAbsolutePath());
+            recorder.prepare();
+            return recorder;
+        } catch (IOException | RuntimeException e) {
+            recorder.release();
+            throw e;
+        }
+    }
+
+    /**
+     * MediaRecorder 不提供采集回调，以 getMaxAmplitude() 第一次返回非0值作为采集到第一个采样的时间。
+     * 每次运行只轮询一次，之后等待一个间隔再重新排队，与录音器的其他调用在同一条队列中顺序执行
+     */
+    private final class FirstSampleProbe implements Runnable {
+
+        private final Session mSession;
+        private final long mDeadlineUptimeMillis;
+        private boolean mArmed;
+
+        FirstSampleProbe(Session session) {
+            mSession = session;
+            mDeadlineUptimeMillis = session.mStartedUptimeMillis + FIRST_SAMPLE_TIMEOUT_MILLIS;
+        }
+
+        void schedule() {
+            try {
+                mProbeLane.execute(this);
+            } catch (RejectedExecutionException e) {
+                mFirstSampleMisses++;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mSession.mStopped) {
+                mFirstSampleMisses++;
+                return;
+            }
+            if (!mArmed) {
+                // 第一次调用只是清零
+                mSession.mRecorder.getMaxAmplitude();
+                mArmed = true;
+            } else if (mSession.mRecorder.getMaxAmplitude() > 0) {
+                mSession.mFirstSampleUptimeMillis = SystemClock.uptimeMillis();
+                (mSession.mWarm ? mWarmLatency : mColdLatency).add(mSession.getFirstSampleLatencyMillis());
+                return;
+            }
+            if (SystemClock.uptimeMillis() >= mDeadlineUptimeMillis) {
+                mFirstSampleMisses++;
+                return;
+            }
+            SystemClock.sleep(FIRST_SAMPLE_POLL_MILLIS);
+            schedule();
+        }
+    }
+}
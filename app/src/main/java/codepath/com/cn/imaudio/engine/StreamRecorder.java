@@ -0,0 +1,616 @@
+package codepath.com.cn.imaudio.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.DirectBufferPool;
+import codepath.com.cn.imaudio.audio.LevelAnalyzer;
+import codepath.com.cn.imaudio.audio.LoudnessStage;
+import codepath.com.cn.imaudio.audio.NoiseSuppressionStage;
+import codepath.com.cn.imaudio.audio.MinimumLengthSink;
+import codepath.com.cn.imaudio.audio.PcmDurationTracker;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmRingBuffer;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PipelineMetrics;
+import codepath.com.cn.imaudio.audio.ResamplingSink;
+import codepath.com.cn.imaudio.audio.SilenceTrimmer;
+import codepath.com.cn.imaudio.audio.VoiceActivityDetector;
+import codepath.com.cn.imaudio.audio.WaveformBuilder;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.upload.ChunkEmitter;
+import codepath.com.cn.imaudio.upload.ChunkTransport;
+import codepath.com.cn.imaudio.upload.ChunkedUploader;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+import codepath.com.cn.imaudio.utils.ResourceTracker;
+
+/**
+ * 基于 AudioRecord 的流式录音，不依赖界面的生命周期
+ *
+ * 采集循环在 capture 队列中读取 AudioRecord，写文件线程（io 队列）通过环形缓冲区取出数据，
+ * 经过录音管道：转换为保存格式 -> 降噪 -> 裁剪静音 -> 响度测量和AGC -> 生成波形 -> 最短时长判断 -> 编码写文件
+ * （-> 分块上传）。
+ * 一次录音过程中不再分配任何缓冲区。
+ *
+ * AudioRecord 和录音管道打开和关闭时记入 {@link ResourceTracker}；{@link #release()} 结束进行中的
+ * 录音，采集循环在读完当前数据块后释放 AudioRecord，写文件线程写完文件头后关闭文件。
+ *
+ * 读取、编码写盘的耗时和短读、溢出等计数记入 {@link PipelineMetrics}，并在 systrace 中标出区段。
+ */
+public final class StreamRecorder {
+
+    private static final String TAG = StreamRecorder.class.getSimpleName();
+
+    /** {@link ResourceTracker} 中的资源种类 */
+    public static final String RESOURCE_AUDIO_RECORD = "AudioRecord";
+    public static final String RESOURCE_PIPELINE = "record pipeline";
+
+    // 以所有设备都支持的 44.1kHz 采集，转换为 16kHz 宽带语音后处理和保存，数据量约为原来的 1/2.75
+    public static final PcmFormat CAPTURE_FORMAT = PcmFormat.CD_MONO;
+    public static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    // 随语音消息保存的波形缩略图的桶数
+    public static final int WAVEFORM_BUCKETS = 64;
+
+    // 环形缓冲区需要吸收的存储卡写入卡顿时长
+    private static final int RING_STALL_MILLIS = 1000;
+    // 写文件线程没有数据可取时的等待时长，小于一帧的时长
+    private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    // 静音裁剪：语音结束后保留的字尾、语音前保留的时长、停顿最长保留的时长
+    private static final int VAD_HANGOVER_MILLIS = 300;
+    private static final int TRIM_PRE_ROLL_MILLIS = 300;
+    private static final int TRIM_MAX_PAUSE_MILLIS = 700;
+    // 录音时实时调整增益；关闭时只测量响度，由播放时按记录的增益调整
+    private static final boolean AGC_ENABLED = true;
+    // 录音时抑制稳定的背景噪声（风扇、空调、街道）
+    private static final boolean NOISE_SUPPRESSION_ENABLED = true;
+
+    /**
+     * 采集数据的来源，默认是 AudioRecord，测试中替换为内存中的数据。只在采集线程中调用
+     */
+    interface Input {
+
+        void startRecording();
+
+        /** 与 AudioRecord.read(ByteBuffer, int) 相同，出错时返回负数 */
+        int read(ByteBuffer buffer, int sizeInBytes);
+
+        void stop();
+
+        /** 还在录音时先停止，再释放 */
+        void release();
+    }
+
+    interface InputFactory {
+
+        Input open(BufferSizePolicy policy);
+    }
+
+    private static final InputFactory AUDIO_RECORD = new InputFactory() {
+        @Override
+        public Input open(BufferSizePolicy policy) {
+            int audioSource = MediaRecorder.AudioSource.MIC;
+            int simpleRateHz = CAPTURE_FORMAT.getSampleRateHz();
+            int channelConfig = AudioFormat.CHANNEL_IN_MONO;
+            int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+            int minBufferSize = AudioRecord.getMinBufferSize(simpleRateHz, channelConfig, audioFormat);
+
+            final AudioRecord record = new AudioRecord(audioSource, simpleRateHz, channelConfig, audioFormat,
+                    policy.getInternalBufferBytes(minBufferSize));
+            return new Input() {
+                @Override
+                public void startRecording() {
+                    record.startRecording();
+                }
+
+                @Override
+                public int read(ByteBuffer buffer, int sizeInBytes) {
+                    return record.read(buffer, sizeInBytes);
+                }
+
+                @Override
+                public void stop() {
+                    record.stop();
+                }
+
+                @Override
+                public void release() {
+                    if (record.getState() == AudioRecord.STATE_INITIALIZED) {
+                        record.stop();
+                    }
+                    record.release();
+                }
+            };
+        }
+    };
+
+    /**
+     * 录音事件，在采集线程中回调
+     */
+    public interface Listener {
+
+        /** 电平更新，约每 {@link LevelAnalyzer#DEFAULT_WINDOW_MILLIS} 一次 */
+        void onLevel(StreamRecorder recorder);
+
+        /**
+         * 录音结束并超过最短时长，waveform 为 {@link #WAVEFORM_BUCKETS} 个桶的波形缩略图，
+         * gainMillibels 为播放时应施加的增益（0.01 dB）
+         */
+        void onRecorded(File file, long durationMillis, long trimmedMillis, byte[] waveform,
+                        int gainMillibels);
+
+        /** 录音结束，{@link #isBusy()} 已返回false；过短的录音没有文件，recorded 为false */
+        void onStopped(boolean recorded);
+
+        /** 录音失败，{@link #isBusy()} 已返回false */
+        void onFailed();
+
+        /** 一行运行日志 */
+        void onLog(String line);
+    }
+
+    private final AudioScheduler mScheduler;
+    private final AudioCodec mCodec;
+    private final ResourceTracker mTracker;
+    private final PipelineMetrics mMetrics;
+    private final Listener mListener;
+    private final InputFactory mInputFactory;
+
+    // 录音以落盘效率优先
+    private final BufferSizePolicy mBufferPolicy;
+    // 录音用的直接内存缓冲区池，一次录音过程中不再分配任何缓冲区
+    private final DirectBufferPool mBufferPool;
+    private final PcmRingBuffer mRingBuffer;
+    // 在写文件线程中裁掉首尾静音并压缩长停顿
+    private final VoiceActivityDetector mVoiceDetector;
+    private SilenceTrimmer mSilenceTrimmer;
+    private LoudnessStage mLoudnessStage;
+    private NoiseSuppressionStage mNoiseStage;
+    // 按写入编码器的帧数计算时长，未达到最短时长的录音不创建文件
+    private final PcmDurationTracker mDurationTracker;
+    private final ByteBuffer mLengthGateBuffer;
+    private MinimumLengthSink mLengthGate;
+    // 在采集线程中计算电平
+    private final LevelAnalyzer mLevelAnalyzer;
+    // 在写文件线程中对裁剪后的数据生成波形，与保存的录音一致
+    private final LevelAnalyzer mWaveformAnalyzer;
+
+    // 未开启上传时为null；mUploader 在写文件线程中创建，录音结束后由采集线程读取
+    private final ChunkTransport mUploadTransport;
+    private ChunkedUploader mUploader;
+    // 请求开始、停止录音的时间，用于统计启动、停止耗时和松开后多久上传完成
+    private volatile long mStartNanos;
+    private volatile long mStopNanos;
+    private final ChunkedUploader.Listener mUploadListener = new ChunkedUploader.Listener() {
+        @Override
+        public void onUploaded(ChunkedUploader uploader) {
+            mListener.onLog("上传完成：" + uploader.getFile().getName() + "，松开后 "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStopNanos) + "毫秒，重试 "
+                    + uploader.getRetryCount() + "次");
+        }
+
+        @Override
+        public void onUploadFailed(ChunkedUploader uploader, IOException e) {
+            Log.e(TAG, "上传失败。", e);
+            mListener.onLog("上传失败：" + uploader.getFile().getName());
+        }
+    };
+
+    // 本次录音的文件，达到最短时长时才在写文件线程中创建
+    private File mRecordingFile;
+    private Input mInput;
+
+    private volatile boolean mIsRecording;
+    // 采集任务从提交到结束，上一次录音的数据写完之前不能开始下一次
+    private boolean mCaptureRunning;
+    private volatile boolean mReleased;
+    // 本次录音超过了最短时长，只在采集线程中访问
+    private boolean mRecorded;
+
+    /**
+     * @param codec 录音编码格式
+     * @param uploadTransport 边录边上传的目标，为null时不上传
+     */
+    public StreamRecorder(AudioScheduler scheduler, AudioCodec codec, ChunkTransport uploadTransport,
+                          ResourceTracker tracker, PipelineMetrics metrics, Listener listener) {
+        this(scheduler, codec, uploadTransport, tracker, metrics, listener, AUDIO_RECORD);
+    }
+
+    StreamRecorder(AudioScheduler scheduler, AudioCodec codec, ChunkTransport uploadTransport,
+                   ResourceTracker tracker, PipelineMetrics metrics, Listener listener,
+                   InputFactory inputFactory) {
+        mInputFactory = inputFactory;
+        mScheduler = scheduler;
+        mCodec = codec;
+        mUploadTransport = uploadTransport;
+        mTracker = tracker;
+        mMetrics = metrics;
+        mListener = listener;
+
+        mBufferPolicy = new BufferSizePolicy(BufferSizePolicy.Mode.THROUGHPUT,
+                CAPTURE_FORMAT.getSampleRateHz(), CAPTURE_FORMAT.getChannelCount(), 2);
+        // 环形缓冲区槽位 + 溢出暂存区，按可能调整到的最大数据块分配
+        int ringSlotCount = mBufferPolicy.getRingSlotCount(RING_STALL_MILLIS);
+        mBufferPool = new DirectBufferPool(ringSlotCount + 1, mBufferPolicy.getMaxChunkBytes());
+        mRingBuffer = new PcmRingBuffer(mBufferPool, ringSlotCount);
+        // 采集线程中的电平按采集格式计算，写文件线程中的处理都按保存格式
+        mVoiceDetector = new VoiceActivityDetector(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), VAD_HANGOVER_MILLIS);
+        mDurationTracker = new PcmDurationTracker(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), RecordAudioUtils.MIN_AUDIO_DURATION_MILLIS);
+        mLengthGateBuffer = ByteBuffer.allocateDirect((int) mDurationTracker.getMinBytes());
+        mLevelAnalyzer = new LevelAnalyzer(CAPTURE_FORMAT.getSampleRateHz(),
+                CAPTURE_FORMAT.getChannelCount(), LevelAnalyzer.DEFAULT_WINDOW_MILLIS, null);
+        mWaveformAnalyzer = new LevelAnalyzer(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), LevelAnalyzer.DEFAULT_WINDOW_MILLIS,
+                new WaveformBuilder(WAVEFORM_BUCKETS));
+        mLevelAnalyzer.setListener(new LevelAnalyzer.Listener() {
+            @Override
+            public void onLevel(LevelAnalyzer analyzer) {
+                mListener.onLevel(StreamRecorder.this);
+            }
+        });
+    }
+
+    /**
+     * 开始录音；正在录音、上一次录音还没有写完或已释放时返回false
+     */
+    public synchronized boolean start() {
+        if (mCaptureRunning || mReleased) {
+            return false;
+        }
+        mCaptureRunning = true;
+        mIsRecording = true;
+        mStartNanos = System.nanoTime();
+        mScheduler.capture().submit(new Runnable() {
+            @Override
+            public void run() {
+                mRecorded = false;
+                boolean ok = false;
+                // doRecord 只处理 IOException 和 RuntimeException，Error 也要结束这次录音再抛给队列记录
+                try {
+                    ok = doRecord();
+                } finally {
+                    if (!ok) {
+                        discardRecording();
+                    }
+                    synchronized (StreamRecorder.this) {
+                        mIsRecording = false;
+                        mCaptureRunning = false;
+                    }
+                    if (ok) {
+                        mListener.onStopped(mRecorded);
+                    } else {
+                        mListener.onFailed();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 结束录音，采集循环读完当前数据块后退出，录音通过 {@link Listener} 交回
+     */
+    public synchronized void stop() {
+        if (mIsRecording) {
+            mStopNanos = System.nanoTime();
+        }
+        mIsRecording = false;
+    }
+
+    public boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * 正在录音或上一次录音还没有写完
+     */
+    public synchronized boolean isBusy() {
+        return mCaptureRunning;
+    }
+
+    /**
+     * 当前输入电平，0~1，没有录音时为0
+     */
+    public float getMeterLevel() {
+        return mIsRecording ? mLevelAnalyzer.getMeterLevel() : 0f;
+    }
+
+    /**
+     * 结束进行中的录音，之后不能再开始；AudioRecord 和文件由采集线程和写文件线程释放
+     */
+    public synchronized void release() {
+        mReleased = true;
+        if (mIsRecording) {
+            mStopNanos = System.nanoTime();
+        }
+        mIsRecording = false;
+    }
+
+    /**
+     * running in capture thread
+     */
+    private boolean doRecord() {
+        Future<Boolean> writerResult = null;
+        try {
+            mRecordingFile = null;
+            mUploader = null;
+            mDurationTracker.reset();
+            mLengthGate = new MinimumLengthSink(new MinimumLengthSink.Opener() {
+                @Override
+                public PcmSink open() throws IOException {
+                    mRecordingFile = RecordAudioUtils.createAudioFile(mCodec.getFileExtension());
+                    PcmSink encoder = mCodec.newEncoder(mRecordingFile,
+                            STORE_FORMAT.getSampleRateHz(), STORE_FORMAT.getChannelCount());
+                    if (mUploadTransport == null) {
+                        return encoder;
+                    }
+                    mUploader = new ChunkedUploader(mRecordingFile, mRecordingFile.getName(),
+                            mCodec.getMutableHeaderBytes(), ChunkedUploader.DEFAULT_CHUNK_BYTES,
+                            mUploadTransport, mScheduler.network(), mUploadListener);
+                    return new ChunkEmitter(encoder, mRecordingFile, mUploader);
+                }
+            }, mDurationTracker, mLengthGateBuffer);
+            mWaveformAnalyzer.reset();
+            final MinimumLengthSink lengthGate = mLengthGate;
+            PcmSink waveformStage = new PcmSink() {
+                @Override
+                public void write(ByteBuffer pcm) throws IOException {
+                    mWaveformAnalyzer.process(pcm, pcm.position(), pcm.remaining());
+                    lengthGate.write(pcm);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    lengthGate.close();
+                }
+            };
+            // 在裁剪之后测量，综合响度与保存的录音一致，AGC 也不会在被裁掉的静音中调整
+            mLoudnessStage = new LoudnessStage(waveformStage, STORE_FORMAT.getSampleRateHz(),
+                    STORE_FORMAT.getChannelCount(),
+                    AGC_ENABLED ? LoudnessStage.Mode.AGC : LoudnessStage.Mode.MEASURE);
+            mVoiceDetector.reset();
+            mSilenceTrimmer = new SilenceTrimmer(mLoudnessStage, mVoiceDetector,
+                    STORE_FORMAT.getSampleRateHz(), STORE_FORMAT.getChannelCount(),
+                    TRIM_PRE_ROLL_MILLIS, TRIM_MAX_PAUSE_MILLIS, true);
+            // 在裁剪之前降噪，静音检测和响度测量都作用于降噪后的信号
+            PcmSink trimInput = mSilenceTrimmer;
+            mNoiseStage = null;
+            if (NOISE_SUPPRESSION_ENABLED) {
+                mNoiseStage = new NoiseSuppressionStage(mSilenceTrimmer, STORE_FORMAT.getSampleRateHz(),
+                        STORE_FORMAT.getChannelCount());
+                trimInput = mNoiseStage;
+            }
+            final PcmSink pcmSink = new ResamplingSink(CAPTURE_FORMAT, STORE_FORMAT, trimInput);
+
+            // 启动写文件线程，管道由它关闭
+            mRingBuffer.reset();
+            mTracker.onOpened(pcmSink, RESOURCE_PIPELINE);
+            writerResult = mScheduler.io().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return drainRingBuffer(pcmSink);
+                }
+            });
+
+            // 配置AudioRecord
+            mInput = mInputFactory.open(mBufferPolicy);
+            mTracker.onOpened(mInput, RESOURCE_AUDIO_RECORD);
+
+            mBufferPolicy.resetCounters();
+            mLevelAnalyzer.reset();
+            mInput.startRecording();
+
+            // 录音线程只负责读取，落盘交给写文件线程
+            boolean firstRead = true;
+            while (mIsRecording) {
+                ByteBuffer frame = mRingBuffer.claim();
+                int chunkBytes = mBufferPolicy.getChunkBytes();
+                AudioTrace.begin(AudioTrace.CAPTURE_READ);
+                long readStart = System.nanoTime();
+                int readBytes = mInput.read(frame, chunkBytes);
+                long readEnd = System.nanoTime();
+                AudioTrace.end();
+                if (readBytes > 0 && !writerResult.isDone()) {
+                    mMetrics.record(PipelineMetrics.Timer.CAPTURE_READ, readEnd - readStart);
+                    mMetrics.add(PipelineMetrics.Counter.BYTES_CAPTURED, readBytes);
+                    if (readBytes < chunkBytes) {
+                        mMetrics.increment(PipelineMetrics.Counter.SHORT_READS);
+                    }
+                    if (firstRead) {
+                        firstRead = false;
+                        mMetrics.record(PipelineMetrics.Timer.RECORD_START, readEnd - mStartNanos);
+                    }
+                    if (PipelineMetrics.VERBOSE) {
+                        Log.v(TAG, "read " + readBytes + "/" + chunkBytes + " bytes in "
+                                + (readEnd - readStart) / 1000 + "us");
+                    }
+                    // 在交给写文件线程之前分析，槽位发布后就不能再访问
+                    mLevelAnalyzer.process(frame, 0, readBytes);
+                    mRingBuffer.publish(readBytes);
+                    mBufferPolicy.onRead(chunkBytes, readBytes);
+                } else {
+                    Log.e(TAG, "读取录音数据失败或写文件线程已退出：" + readBytes);
+                    mMetrics.increment(PipelineMetrics.Counter.CAPTURE_ERRORS);
+                    return false;
+                }
+            }
+
+            return stopRecord(writerResult);
+
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "录音失败。", e);
+            mMetrics.increment(PipelineMetrics.Counter.CAPTURE_ERRORS);
+            return false;
+        } finally {
+            // 保证写文件线程能够退出并关闭文件
+            mRingBuffer.close();
+            mListener.onLevel(this);
+
+            if (mInput != null) {
+                mInput.release();
+                mTracker.onClosed(mInput);
+                mInput = null;
+            }
+            // 失败时也要等写文件线程关闭管道，之后才能开始下一次录音、重置共用的缓冲区和统计
+            awaitWriter(writerResult);
+        }
+    }
+
+    /**
+     * running in capture thread
+     *
+     * 录音失败时删除已经创建的文件并解除固定，取消上传；不完整的文件不能留在配额之外，
+     * 下次启动时也不能被当作录音记入索引
+     */
+    private void discardRecording() {
+        if (mUploader != null) {
+            mUploader.cancel();
+            mUploader = null;
+        }
+        if (mRecordingFile != null) {
+            RecordAudioUtils.deleteAudioFile(mRecordingFile);
+            mRecordingFile = null;
+        }
+    }
+
+    /**
+     * running in capture thread
+     *
+     * 等待写文件线程结束，不响应中断：写文件线程在环形缓冲区关闭后很快就会退出
+     */
+    private static void awaitWriter(Future<Boolean> writerResult) {
+        if (writerResult == null) {
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    writerResult.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "写文件线程失败。", e.getCause());
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * running in writer thread
+     *
+     * 持续从环形缓冲区取出录音数据写入文件，直到录音线程关闭缓冲区且数据取完
+     */
+    private boolean drainRingBuffer(PcmSink pcmSink) {
+        try {
+            while (true) {
+                // 必须先读取关闭状态再取数据，否则可能漏掉最后几帧
+                boolean closed = mRingBuffer.isClosed();
+                ByteBuffer frame = mRingBuffer.peek();
+                if (frame == null) {
+                    if (closed) {
+                        // 写完文件头或编码器中剩余的数据
+                        pcmSink.close();
+                        return true;
+                    }
+                    LockSupport.parkNanos(WRITER_PARK_NANOS);
+                    continue;
+                }
+
+                AudioTrace.begin(AudioTrace.ENCODE_WRITE);
+                long writeStart = System.nanoTime();
+                try {
+                    pcmSink.write(frame);
+                } finally {
+                    AudioTrace.end();
+                }
+                mMetrics.record(PipelineMetrics.Timer.ENCODE_WRITE, System.nanoTime() - writeStart);
+                mRingBuffer.release();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "写入录音文件失败。", e);
+            mMetrics.increment(PipelineMetrics.Counter.WRITE_ERRORS);
+            return false;
+        } finally {
+            closeQuietly(pcmSink);
+            mTracker.onClosed(pcmSink);
+        }
+    }
+
+    private boolean stopRecord(Future<Boolean> writerResult) throws IOException {
+        mInput.stop();
+        mRingBuffer.close();
+
+        // 等待写文件线程写完剩余数据
+        try {
+            if (!writerResult.get()) {
+                return false;
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("等待录音数据写入完成时失败。", e);
+        }
+
+        mMetrics.record(PipelineMetrics.Timer.RECORD_STOP, System.nanoTime() - mStopNanos);
+        mMetrics.add(PipelineMetrics.Counter.OVERRUNS, mRingBuffer.getOverrunCount());
+        if (mRingBuffer.getOverrunCount() > 0) {
+            Log.w(TAG, "写入过慢，丢弃了 " + mRingBuffer.getOverrunCount() + " 帧（"
+                    + mRingBuffer.getDroppedBytes() + " 字节）录音数据。");
+        }
+        Log.d(TAG, mScheduler.dumpStats());
+
+        // 只接受超过最短时长的录音，过短的录音没有创建文件
+        mRecorded = mLengthGate.isAccepted();
+        if (mRecorded) {
+            mMetrics.add(PipelineMetrics.Counter.BYTES_WRITTEN, mRecordingFile.length());
+            byte[] waveform = new byte[WAVEFORM_BUCKETS];
+            mWaveformAnalyzer.getWaveform().getWaveform(waveform);
+            mListener.onRecorded(mRecordingFile, mDurationTracker.getDurationMillis(),
+                    mSilenceTrimmer.getTrimmedMillis(), waveform,
+                    mLoudnessStage.getPlaybackGainMillibels());
+            mListener.onLog(String.format(Locale.US, "响度 %.1f LUFS，AGC %.1f dB",
+                    mLoudnessStage.getIntegratedLufs(), mLoudnessStage.getGainDb()));
+            if (mNoiseStage != null) {
+                mListener.onLog(String.format(Locale.US, "降噪：噪声 %.1f dBFS，静音帧 %.0f%%",
+                        mNoiseStage.getSuppressor().getNoiseFloorDb(),
+                        mNoiseStage.getSuppressor().getSilentFraction() * 100));
+            }
+            if (mUploader != null) {
+                mListener.onLog("松开时已上传 " + mUploader.getSentBytes() + " 字节，剩余 "
+                        + mUploader.getBacklogBytes() + " 字节");
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(PcmSink sink) {
+        if (sink == null) {
+            return;
+        }
+
+        try {
+            sink.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭失败。", e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package codepath.com.cn.imaudio.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 录音文件的内存索引：文件名、大小、时长、编码格式、播放增益和最近访问时间，按最近访问排序（LRU）
+ *
+ * 总大小随增删实时维护，{@link #selectEvictions(long)} 不需要遍历文件系统。被固定（pin）的文件
+ * （正在录制或播放）不会被淘汰。可以序列化为紧凑的二进制快照，启动时不必逐个读取文件属性。
+ *
+ * 非线程安全，由 {@link RecordingStore} 加锁访问。
+ */
+public final class RecordingIndex {
+
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    // 版本2增加了播放增益，仍可读取版本1的快照
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_GAIN = 1;
+
+    /**
+     * 一条录音的记录
+     */
+    public static final class Entry {
+
+        private final String mName;
+        private final long mSizeBytes;
+        private final long mDurationMillis;
+        private final String mCodec;
+        private final int mGainMillibels;
+        private long mLastAccessMillis;
+
+        /**
+         * @param durationMillis 时长，未知时为-1
+         * @param codec 编码格式名称，如 AudioCodec.getName()
+         */
+        public Entry(String name, long sizeBytes, long durationMillis, String codec,
+                     long lastAccessMillis) {
+            this(name, sizeBytes, durationMillis, codec, 0, lastAccessMillis);
+        }
+
+        /**
+         * @param gainMillibels 播放时施加的增益（0.01 dB），0 表示不调整
+         */
+        public Entry(String name, long sizeBytes, long durationMillis, String codec,
+                     int gainMillibels, long lastAccessMillis) {
+            mName = name;
+            mSizeBytes = sizeBytes;
+            mDurationMillis = durationMillis;
+            mCodec = codec;
+            mGainMillibels = gainMillibels;
+            mLastAccessMillis = lastAccessMillis;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        public String getCodec() {
+            return mCodec;
+        }
+
+        public int getGainMillibels() {
+            return mGainMillibels;
+        }
+
+        public long getLastAccessMillis() {
+            return mLastAccessMillis;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " (" + mSizeBytes + "B, " + mDurationMillis + "ms, " + mCodec + ")";
+        }
+    }
+
+    private static final Comparator<Entry> BY_LAST_ACCESS = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.mLastAccessMillis < b.mLastAccessMillis ? -1
+                    : a.mLastAccessMillis > b.mLastAccessMillis ? 1 : 0;
+        }
+    };
+
+    // 按访问顺序排列，最久未访问的在前
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> mPinned = new HashSet<>();
+    private long mTotalBytes;
+
+    /**
+     * 加入或替换一条记录，作为最近访问的
+     */
+    public void put(Entry entry) {
+        Entry old = mEntries.remove(entry.mName);
+        if (old != null) {
+            mTotalBytes -= old.mSizeBytes;
+        }
+        mEntries.put(entry.mName, entry);
+        mTotalBytes += entry.mSizeBytes;
+    }
+
+    /**
+     * 标记为最近访问，例如播放
+     *
+     * @return 没有该记录时返回null
+     */
+    public Entry touch(String name, long nowMillis) {
+        Entry entry = mEntries.get(name);
+        if (entry != null) {
+            entry.mLastAccessMillis = nowMillis;
+        }
+        return entry;
+    }
+
+    public boolean contains(String name) {
+        return mEntries.containsKey(name);
+    }
+
+    public Entry remove(String name) {
+        Entry entry = mEntries.remove(name);
+        if (entry != null) {
+            mTotalBytes -= entry.mSizeBytes;
+        }
+        return entry;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * 固定后不会被淘汰，可重复调用
+     */
+    public void pin(String name) {
+        mPinned.add(name);
+    }
+
+    public void unpin(String name) {
+        mPinned.remove(name);
+    }
+
+    public boolean isPinned(String name) {
+        return mPinned.contains(name);
+    }
+
+    /**
+     * 按最久未访问的顺序移除记录，直到总大小不超过 maxTotalBytes，跳过被固定的文件
+     *
+     * @return 被移除的记录，调用方负责删除文件
+     */
+    public List<Entry> selectEvictions(long maxTotalBytes) {
+        List<Entry> evicted = new ArrayList<>();
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mTotalBytes > maxTotalBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (mPinned.contains(entry.mName)) {
+                continue;
+            }
+            it.remove();
+            mTotalBytes -= entry.mSizeBytes;
+            evicted.add(entry);
+        }
+        return evicted;
+    }
+
+    /**
+     * 从最久未访问到最近访问的全部记录
+     */
+    public List<Entry> entries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    /**
+     * 按记录的最近访问时间重新排序，用于加入了从文件属性得到的记录之后
+     */
+    public void sortByLastAccess() {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, BY_LAST_ACCESS);
+        mEntries.clear();
+        for (Entry entry : entries) {
+            mEntries.put(entry.mName, entry);
+        }
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mTotalBytes = 0;
+    }
+
+    /**
+     * 按访问顺序写出全部记录（不含固定状态）
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            out.writeUTF(entry.mName);
+            out.writeLong(entry.mSizeBytes);
+            out.writeLong(entry.mDurationMillis);
+            out.writeUTF(entry.mCodec);
+            out.writeInt(entry.mGainMillibels);
+            out.writeLong(entry.mLastAccessMillis);
+        }
+    }
+
+    /**
+     * 读取 {@link #writeTo(DataOutputStream)} 写出的快照，替换当前的全部记录
+     *
+     * @throws IOException 格式或版本不符，此时索引为空
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        clear();
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a recording index");
+        }
+        int version = in.readInt();
+        if (version != VERSION && version != VERSION_WITHOUT_GAIN) {
+            throw new IOException("unsupported index version: " + version);
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("corrupt index: " + count + " entries");
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long duration = in.readLong();
+                String codec = in.readUTF();
+                int gain = version == VERSION_WITHOUT_GAIN ? 0 : in.readInt();
+                long lastAccess = in.readLong();
+                put(new Entry(name, size, duration, codec, gain, lastAccess));
+            }
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package codepath.com.cn.imaudio.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 录音目录的管理：文件命名、磁盘配额和按最近访问淘汰
+ *
+ * <ul>
+ *     <li>目录只在 {@link #open()} 时创建一次，之后创建文件不再检查目录</li>
+ *     <li>文件名由时间戳加序号组成，先查内存索引，再用 createNewFile 原子地占位，
+ *     同一毫秒内或多个进程同时创建也不会重名</li>
+ *     <li>录音开始前按预计大小预留配额，必要时先淘汰旧录音，录音过程中不会因为淘汰而阻塞</li>
+ *     <li>录音完成后记入索引，总大小超过配额时删除最久未访问的录音及其附属文件（如波形缩略图），
+ *     正在录制或播放的文件被固定，不会被删除</li>
+ *     <li>索引保存在目录下的 {@value #INDEX_FILE_NAME} 文件中。启动时只列一次目录，
+ *     已在索引中的文件不再读取属性，几万个文件也能很快完成</li>
+ * </ul>
+ *
+ * 线程安全。除 {@link #touch(File)}、{@link #pin(File)}、{@link #unpin(File)} 外的方法会访问磁盘，
+ * 应在后台线程中调用。
+ */
+public final class RecordingStore {
+
+    /** 索引文件名，以点开头，不会被当作录音 */
+    public static final String INDEX_FILE_NAME = ".index";
+
+    /** 预创建录音文件的文件名前缀，这些文件不计入索引 */
+    public static final String PENDING_FILE_PREFIX = "pending-";
+
+    private final File mDirectory;
+    private final String mSidecarSuffix;
+    private final String[] mExtensions;
+    private final RecordingIndex mIndex = new RecordingIndex();
+    private long mQuotaBytes;
+
+    private boolean mOpened;
+    private boolean mDirty;
+    private long mScanNanos;
+    private int mStatCount;
+    private long mEvictedCount;
+    // 上一个文件名中的时间，保证递增：同一毫秒内刚被淘汰的文件名不会分给新录音
+    private long mLastNameMillis;
+
+    /**
+     * @param quotaBytes 录音文件总大小的上限
+     * @param sidecarSuffix 附属文件的后缀，与录音同名，随录音一起删除，没有时为null
+     * @param extensions 被当作录音的文件扩展名
+     */
+    public RecordingStore(File directory, long quotaBytes, String sidecarSuffix, String... extensions) {
+        mDirectory = directory;
+        mQuotaBytes = quotaBytes;
+        mSidecarSuffix = sidecarSuffix;
+        mExtensions = extensions.clone();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * 创建目录，读取索引并与目录中的实际文件核对，可重复调用
+     */
+    public synchronized void open() throws IOException {
+        if (mOpened) {
+            return;
+        }
+        long begin = System.nanoTime();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        loadIndex();
+        reconcile();
+        mOpened = true;
+        mScanNanos = System.nanoTime() - begin;
+        trimToQuota(0);
+        flush();
+    }
+
+    /**
+     * 创建一个新的录音文件并固定，录音完成后调用 {@link #add(File, String, long)}
+     *
+     * @param reserveBytes 预计的文件大小，先淘汰旧录音腾出这部分配额
+     */
+    public synchronized File createFile(String extension, long reserveBytes) throws IOException {
+        open();
+        trimToQuota(reserveBytes);
+        File file = newFile(extension);
+        mIndex.pin(file.getName());
+        return file;
+    }
+
+    /**
+     * 预先创建的录音文件，不计入索引，录音被接受后用
+     * {@link #commitPendingFile(File, String, String, long)} 改为正式文件名
+     */
+    public synchronized File createPendingFile(String extension) throws IOException {
+        open();
+        return File.createTempFile(PENDING_FILE_PREFIX, extension, mDirectory);
+    }
+
+    /**
+     * 把预先创建的录音文件改为正式文件名并记入索引
+     *
+     * @return 改名后的文件
+     */
+    public synchronized File commitPendingFile(File pendingFile, String extension, String codec,
+                                               long durationMillis) throws IOException {
+        open();
+        File file = newFile(extension);
+        // 在 POSIX 上 rename 会原子地替换刚创建的占位文件
+        if (!pendingFile.renameTo(file)) {
+            file.delete();
+            throw new IOException("cannot rename " + pendingFile + " to " + file);
+        }
+        add(file, codec, durationMillis);
+        return file;
+    }
+
+    /**
+     * 录音完成，记入索引并解除固定，超过配额时淘汰旧录音
+     *
+     * @param durationMillis 时长，未知时为-1
+     */
+    public synchronized void add(File file, String codec, long durationMillis) throws IOException {
+        add(file, codec, durationMillis, 0);
+    }
+
+    /**
+     * 同 {@link #add(File, String, long)}，并记录播放时施加的增益
+     *
+     * @param gainMillibels 录音时测得的播放增益（0.01 dB），0 表示不调整
+     */
+    public synchronized void add(File file, String codec, long durationMillis, int gainMillibels)
+            throws IOException {
+        open();
+        String name = file.getName();
+        mIndex.unpin(name);
+        mIndex.put(new RecordingIndex.Entry(name, file.length(), durationMillis, codec,
+                gainMillibels, System.currentTimeMillis()));
+        mDirty = true;
+        trimToQuota(0);
+    }
+
+    /**
+     * 删除录音及其附属文件
+     */
+    public synchronized void delete(File file) {
+        String name = file.getName();
+        mIndex.unpin(name);
+        if (mIndex.remove(name) != null) {
+            mDirty = true;
+        }
+        deleteFiles(name);
+    }
+
+    /**
+     * 标记为最近访问，例如开始播放
+     */
+    public synchronized void touch(File file) {
+        if (mIndex.touch(file.getName(), System.currentTimeMillis()) != null) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 播放增益（0.01 dB），同时标记为最近访问，在开始播放时调用
+     *
+     * @return 不在索引中或没有记录增益时返回0
+     */
+    public synchronized int getGainMillibels(File file) {
+        RecordingIndex.Entry entry = mIndex.touch(file.getName(), System.currentTimeMillis());
+        if (entry == null) {
+            return 0;
+        }
+        mDirty = true;
+        return entry.getGainMillibels();
+    }
+
+    /**
+     * 固定后不会被淘汰，例如正在播放
+     */
+    public synchronized void pin(File file) {
+        mIndex.pin(file.getName());
+    }
+
+    public synchronized void unpin(File file) {
+        mIndex.unpin(file.getName());
+    }
+
+    /**
+     * 修改配额，超出的部分立即淘汰
+     */
+    public synchronized void setQuotaBytes(long quotaBytes) throws IOException {
+        mQuotaBytes = quotaBytes;
+        if (mOpened) {
+            trimToQuota(0);
+        }
+    }
+
+    public synchronized long getQuotaBytes() {
+        return mQuotaBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return mIndex.getTotalBytes();
+    }
+
+    /**
+     * 从最久未访问到最近访问的全部录音
+     */
+    public synchronized List<RecordingIndex.Entry> getEntries() {
+        return mIndex.entries();
+    }
+
+    /**
+     * 删除进程退出时没有用到的预创建文件
+     */
+    public synchronized int deletePendingFiles() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (String name : names) {
+            if (name.startsWith(PENDING_FILE_PREFIX) && new File(mDirectory, name).delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 有修改时把索引写入磁盘：先写临时文件再改名，写到一半被杀死也不会损坏已有的索引
+     */
+    public synchronized void flush() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+        File temp = new File(mDirectory, INDEX_FILE_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        boolean written = false;
+        try {
+            mIndex.writeTo(out);
+            out.flush();
+            written = true;
+        } finally {
+            closeQuietly(out);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (!temp.renameTo(new File(mDirectory, INDEX_FILE_NAME))) {
+            temp.delete();
+            throw new IOException("cannot replace " + INDEX_FILE_NAME + " in " + mDirectory);
+        }
+        mDirty = false;
+    }
+
+    /**
+     * 上次 {@link #open()} 的耗时
+     */
+    public synchronized long getScanNanos() {
+        return mScanNanos;
+    }
+
+    /**
+     * 上次 {@link #open()} 时不在索引中、需要读取属性的文件数
+     */
+    public synchronized int getStatCount() {
+        return mStatCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    private void loadIndex() {
+        File indexFile = new File(mDirectory, INDEX_FILE_NAME);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            mIndex.readFrom(in);
+        } catch (FileNotFoundException e) {
+            mIndex.clear();
+        } catch (IOException e) {
+            // 损坏的索引按没有索引处理，由 reconcile 从文件属性重建
+            mIndex.clear();
+            mDirty = true;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void reconcile() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        Set<String> present = new HashSet<>(names.length * 2);
+        for (String name : names) {
+            if (isRecording(name)) {
+                present.add(name);
+            }
+        }
+
+        // 索引中有、目录中已经不存在的
+        for (RecordingIndex.Entry entry : mIndex.entries()) {
+            if (!present.contains(entry.getName())) {
+                mIndex.remove(entry.getName());
+                mDirty = true;
+            }
+        }
+
+        // 目录中有、索引中没有的：上次没来得及保存索引，或者被其他程序放进来
+        mStatCount = 0;
+        for (String name : present) {
+            if (mIndex.contains(name)) {
+                continue;
+            }
+            File file = new File(mDirectory, name);
+            mIndex.put(new RecordingIndex.Entry(name, file.length(), -1, codecOf(name),
+                    file.lastModified()));
+            mStatCount++;
+        }
+        if (mStatCount > 0) {
+            mIndex.sortByLastAccess();
+            mDirty = true;
+        }
+    }
+
+    private void trimToQuota(long reserveBytes) {
+        List<RecordingIndex.Entry> evicted = mIndex.selectEvictions(Math.max(0, mQuotaBytes - reserveBytes));
+        for (RecordingIndex.Entry entry : evicted) {
+            deleteFiles(entry.getName());
+        }
+        if (!evicted.isEmpty()) {
+            mEvictedCount += evicted.size();
+            mDirty = true;
+        }
+    }
+
+    private void deleteFiles(String name) {
+        new File(mDirectory, name).delete();
+        if (mSidecarSuffix != null) {
+            new File(mDirectory, name + mSidecarSuffix).delete();
+        }
+    }
+
+    private File newFile(String extension) throws IOException {
+        mLastNameMillis = Math.max(System.currentTimeMillis(), mLastNameMillis + 1);
+        String base = String.valueOf(mLastNameMillis);
+        for (int i = 0; ; i++) {
+            String name = (i == 0 ? base : base + "-" + i) + extension;
+            if (mIndex.contains(name) || mIndex.isPinned(name)) {
+                continue;
+            }
+            File file = new File(mDirectory, name);
+            if (file.createNewFile()) {
+                return file;
+            }
+        }
+    }
+
+    private boolean isRecording(String name) {
+        if (name.startsWith(".") || name.startsWith(PENDING_FILE_PREFIX)) {
+            return false;
+        }
+        for (String extension : mExtensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 不在索引中的文件只能从扩展名推断编码格式
+     */
+    private static String codecOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1) : "";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
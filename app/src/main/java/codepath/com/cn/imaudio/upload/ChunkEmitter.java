@@ -0,0 +1,101 @@
+package codepath.com.cn.imaudio.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import codepath.com.cn.imaudio.audio.FileSink;
+import codepath.com.cn.imaudio.audio.PcmSink;
+
+/**
+ * 录音管道的最后一级：写入编码器后把文件的新长度通知 {@link ChunkedUploader}（只在凑满一块时），
+ * 编码器关闭（文件完整）后通知上传剩余的数据
+ *
+ * 由写文件线程调用，非线程安全。
+ */
+public final class ChunkEmitter implements PcmSink {
+
+    private final PcmSink mEncoder;
+    private final File mFile;
+    private final ChunkedUploader mUploader;
+    // 编码器自己记录写入的字节数时为非null，不必查询文件长度
+    private final FileSink mFileSink;
+    // 否则按已观察到的压缩比估计文件长度：创建时和上次查询到的长度，写入编码器的PCM字节数
+    private final long mInitialBytes;
+    private long mStatBytes;
+    private long mPcmBytes;
+    private long mPcmBytesAtStat;
+    private boolean mClosed;
+
+    /**
+     * @param encoder 写入 file 的编码器，已经写好开头的文件头
+     */
+    public ChunkEmitter(PcmSink encoder, File file, ChunkedUploader uploader) {
+        mEncoder = encoder;
+        mFile = file;
+        mUploader = uploader;
+        mFileSink = encoder instanceof FileSink ? (FileSink) encoder : null;
+        mInitialBytes = mFileSink != null ? 0 : file.length();
+        mStatBytes = mInitialBytes;
+    }
+
+    /**
+     * 文件长度达到下一个块边界时才通知上传器。编码器不记录写入的字节数时，
+     * 只在估计的文件长度达到块边界时查询一次（stat），其余写入不访问文件系统；
+     * 估计偏小时在之后的写入或关闭时再发送，不影响上传的数据
+     */
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        int pcmBytes = pcm.remaining();
+        mEncoder.write(pcm);
+        if (mFileSink != null) {
+            long fileBytes = mFileSink.getFileBytes();
+            if (fileBytes >= mUploader.getNextNotifyBytes()) {
+                mUploader.onBytesWritten(fileBytes);
+            }
+            return;
+        }
+        mPcmBytes += pcmBytes;
+        if (estimateFileBytes() >= mUploader.getNextNotifyBytes()) {
+            mStatBytes = mFile.length();
+            mPcmBytesAtStat = mPcmBytes;
+            mUploader.onBytesWritten(mStatBytes);
+        }
+    }
+
+    /**
+     * 上次查询到的长度加上此后写入的PCM按平均压缩比编码后的长度；还没有查询过时按不压缩估计
+     */
+    private long estimateFileBytes() {
+        double ratio = mPcmBytesAtStat > 0
+                ? (double) (mStatBytes - mInitialBytes) / mPcmBytesAtStat : 1;
+        return mStatBytes + (long) ((mPcmBytes - mPcmBytesAtStat) * ratio);
+    }
+
+    /**
+     * 关闭编码器；文件不完整时取消上传
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        boolean closed = false;
+        try {
+            mEncoder.close();
+            closed = true;
+        } finally {
+            if (closed) {
+                mUploader.finish(mFile.length());
+            } else {
+                mUploader.cancel();
+            }
+        }
+    }
+
+    public ChunkedUploader getUploader() {
+        return mUploader;
+    }
+}
@@ -0,0 +1,28 @@
+package codepath.com.cn.imaudio.upload;
+
+import java.io.IOException;
+
+/**
+ * 上传通道，由即时通讯的网络层实现
+ *
+ * 所有方法都在上传线程中调用，可以阻塞；返回即表示接收方已确认，抛出 IOException 表示失败，
+ * {@link ChunkedUploader} 负责重试和断点续传。接收方只接受不超过已确认长度的偏移
+ * （追加或覆盖，不留空洞），同一块重复收到时应按偏移覆盖，结果不变。
+ */
+public interface ChunkTransport {
+
+    /**
+     * 接收方已连续确认的字节数，即下一块应从哪个偏移开始；从未收到过时返回0
+     */
+    long getCommittedOffset(String uploadId) throws IOException;
+
+    /**
+     * 发送一块数据，接收方需校验 CRC32
+     */
+    void send(UploadChunk chunk) throws IOException;
+
+    /**
+     * 所有数据都已发送，文件总长度为 totalBytes
+     */
+    void complete(String uploadId, long totalBytes) throws IOException;
+}
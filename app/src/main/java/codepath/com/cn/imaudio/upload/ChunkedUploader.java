@@ -0,0 +1,422 @@
+package codepath.com.cn.imaudio.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * 边录边上传：录音文件写入的同时把已写入的部分切成带序号和 CRC32 的块，交给 {@link ChunkTransport}
+ *
+ * 写文件线程每次写入后调用 {@link #onBytesWritten(long)}，上传在调用方提供的 Executor 中进行，
+ * 凑满一块才发送，录音结束（{@link #finish(long)}）后发送剩余的数据。松开按钮时大部分数据已经发出，
+ * 只剩最后不到一块和文件头。
+ *
+ * <ul>
+ *     <li>背压：只有上一块被确认后才读取下一块，未发送的数据留在文件中，网络慢时不占内存，
+ *     也不会阻塞录音；{@link #getBacklogBytes()} 为积压量</li>
+ *     <li>重试：发送失败后按指数退避重试，每次重试前向接收方查询已确认的偏移，从该处续传；
+ *     连续失败 {@link #DEFAULT_MAX_ATTEMPTS} 次后上传失败，之后可以用 {@link #resume()} 续传</li>
+ *     <li>文件头：WAV等格式在关闭时改写开头的长度字段（{@link codepath.com.cn.imaudio.audio.codec.AudioCodec#getMutableHeaderBytes()}），
+ *     开头的占位文件头先作为第0块发送，录音结束后再重新发送一次覆盖。
+ *     关闭时改写其他位置的格式只在录音结束后上传</li>
+ * </ul>
+ *
+ * 上传过程中只读取文件，读取缓冲区在各块之间复用。公开方法可在任意线程调用，Listener 在上传线程中回调。
+ */
+public final class ChunkedUploader {
+
+    /** 默认块大小，16kHz IMA ADPCM 约0.5秒 */
+    public static final int DEFAULT_CHUNK_BYTES = 4096;
+    /** 连续失败多少次后放弃 */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    /** 第一次重试前的等待时长，之后每次加倍 */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * 上传结束的回调，在上传线程中执行
+     */
+    public interface Listener {
+        void onUploaded(ChunkedUploader uploader);
+
+        void onUploadFailed(ChunkedUploader uploader, IOException e);
+    }
+
+    private enum State {
+        RUNNING, UPLOADED, FAILED, CANCELLED
+    }
+
+    private final File mFile;
+    private final String mUploadId;
+    private final int mHeaderBytes;
+    private final boolean mStreaming;
+    private final int mChunkBytes;
+    private final ChunkTransport mTransport;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+    // 写文件线程发布的已写入长度；录音结束后 mFinalBytes 为文件总长度
+    private volatile long mWrittenBytes;
+    private volatile long mFinalBytes = -1;
+    private volatile State mState = State.RUNNING;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final Runnable mPump = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+        }
+    };
+
+    // 以下只在上传任务中访问，由 mPumpLock 保护；退避等待时不持有锁
+    private final Object mPumpLock = new Object();
+    private final ByteBuffer mBuffer;
+    private final CRC32 mCrc = new CRC32();
+    private RandomAccessFile mInput;
+    // 下一块的偏移，失败后从接收方查询
+    private long mOffset;
+    private boolean mResyncNeeded;
+    private volatile long mSentBytes;
+    private volatile int mRetryCount;
+
+    /**
+     * @param uploadId 接收方识别本次上传的标识，续传时不变
+     * @param mutableHeaderBytes 关闭时会被改写的文件头字节数，-1 表示只在录音结束后上传
+     * @param chunkBytes 块大小
+     * @param executor 执行上传，发送会阻塞，不能使用采集或写文件的线程；
+     *                 同一个单线程 Executor 上的多次上传按顺序进行
+     */
+    public ChunkedUploader(File file, String uploadId, int mutableHeaderBytes, int chunkBytes,
+                           ChunkTransport transport, Executor executor, Listener listener) {
+        if (chunkBytes <= 0 || mutableHeaderBytes > chunkBytes) {
+            throw new IllegalArgumentException("invalid chunk config: header " + mutableHeaderBytes
+                    + ", chunk " + chunkBytes);
+        }
+        mFile = file;
+        mUploadId = uploadId;
+        mStreaming = mutableHeaderBytes >= 0;
+        mHeaderBytes = Math.max(0, mutableHeaderBytes);
+        mChunkBytes = chunkBytes;
+        mTransport = transport;
+        mExecutor = executor;
+        mListener = listener;
+        mBuffer = ByteBuffer.allocate(chunkBytes);
+    }
+
+    /**
+     * 修改重试策略，在开始上传前调用
+     */
+    public void setRetryPolicy(int maxAttempts, long initialBackoffMillis) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mInitialBackoffMillis = Math.max(0, initialBackoffMillis);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public String getUploadId() {
+        return mUploadId;
+    }
+
+    /**
+     * 写文件线程写入后调用
+     *
+     * @param fileBytes 当前文件长度，此前的数据已经写完
+     */
+    public void onBytesWritten(long fileBytes) {
+        if (fileBytes > mWrittenBytes) {
+            mWrittenBytes = fileBytes;
+        }
+        // 不足一块时不唤醒上传线程
+        if (mStreaming && fileBytes - mSentBytes >= mChunkBytes) {
+            schedule();
+        }
+    }
+
+    /**
+     * 文件长度达到多少时才需要再次调用 {@link #onBytesWritten(long)}：已通知的长度之后的下一个块边界。
+     * 写文件线程据此省去大部分查询文件长度的调用；只在录音结束后上传时不需要通知
+     */
+    public long getNextNotifyBytes() {
+        if (!mStreaming) {
+            return Long.MAX_VALUE;
+        }
+        long bodyBytes = Math.max(0, mWrittenBytes - mHeaderBytes);
+        return mHeaderBytes + (bodyBytes / mChunkBytes + 1) * mChunkBytes;
+    }
+
+    /**
+     * 文件已关闭，发送剩余的数据和文件头后完成上传
+     *
+     * @param fileBytes 文件总长度
+     */
+    public void finish(long fileBytes) {
+        mWrittenBytes = fileBytes;
+        mFinalBytes = fileBytes;
+        schedule();
+    }
+
+    /**
+     * 上传失败后从接收方已确认的位置继续
+     */
+    public void resume() {
+        synchronized (mPumpLock) {
+            if (mState != State.FAILED) {
+                return;
+            }
+            mState = State.RUNNING;
+            mResyncNeeded = true;
+        }
+        schedule();
+    }
+
+    /**
+     * 放弃上传，例如录音被丢弃
+     */
+    public void cancel() {
+        mState = State.CANCELLED;
+        schedule();
+    }
+
+    public boolean isUploaded() {
+        return mState == State.UPLOADED;
+    }
+
+    /**
+     * 已被确认的数据量（不含重发）
+     */
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    /**
+     * 已写入文件但尚未发送的数据量
+     */
+    public long getBacklogBytes() {
+        return Math.max(0, mWrittenBytes - mSentBytes);
+    }
+
+    /**
+     * 累计重试次数
+     */
+    public int getRetryCount() {
+        return mRetryCount;
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mPump);
+        }
+    }
+
+    private void pump() {
+        // 先清除标记再读取状态，之后的通知会再次调度
+        mScheduled.set(false);
+        // 在同一位置连续失败的次数，有进展后重新计数
+        int failures = 0;
+        long failedAt = -1;
+        while (true) {
+            IOException error;
+            long backoffMillis;
+            synchronized (mPumpLock) {
+                if (mState == State.CANCELLED) {
+                    closeInput();
+                    return;
+                }
+                if (mState != State.RUNNING) {
+                    return;
+                }
+                try {
+                    if (!sendAvailable()) {
+                        return;
+                    }
+                    mState = State.UPLOADED;
+                    closeInput();
+                    mListener.onUploaded(this);
+                    return;
+                } catch (IOException e) {
+                    if (mState == State.CANCELLED) {
+                        closeInput();
+                        return;
+                    }
+                    if (mSentBytes != failedAt) {
+                        failures = 0;
+                        failedAt = mSentBytes;
+                    }
+                    failures++;
+                    mRetryCount++;
+                    if (failures >= mMaxAttempts) {
+                        failLocked(e);
+                        return;
+                    }
+                    mResyncNeeded = true;
+                    error = e;
+                    backoffMillis = backoffMillis(failures);
+                }
+            }
+            // 退避期间不持有锁，resume()、cancel() 不必等待
+            if (!sleep(backoffMillis)) {
+                synchronized (mPumpLock) {
+                    if (mState == State.RUNNING) {
+                        failLocked(error);
+                    } else {
+                        closeInput();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void failLocked(IOException e) {
+        mState = State.FAILED;
+        closeInput();
+        mListener.onUploadFailed(this, e);
+    }
+
+    /**
+     * 发送所有已写入的完整块；录音已结束时发送全部剩余数据、文件头并完成上传
+     *
+     * @return 上传完成时返回true，需要等待更多数据时返回false
+     */
+    private boolean sendAvailable() throws IOException {
+        if (mResyncNeeded) {
+            long committed = mTransport.getCommittedOffset(mUploadId);
+            long finalBytes = mFinalBytes;
+            long limit = finalBytes >= 0 ? finalBytes : mWrittenBytes;
+            // 只在块边界上续传
+            mOffset = Math.min(alignToChunk(Math.max(0, committed)), limit);
+            mSentBytes = mOffset;
+            mResyncNeeded = false;
+        }
+
+        while (mState == State.RUNNING) {
+            long finalBytes = mFinalBytes;
+            if (!mStreaming && finalBytes < 0) {
+                return false;
+            }
+            long available = finalBytes >= 0 ? finalBytes : mWrittenBytes;
+
+            int length = nextChunkLength();
+            if (mOffset + length <= available) {
+                sendRange(mOffset, length, false);
+                mOffset += length;
+                mSentBytes = mOffset;
+                continue;
+            }
+            if (finalBytes < 0) {
+                return false;
+            }
+            if (mOffset < finalBytes) {
+                // 最后不完整的一块
+                sendRange(mOffset, (int) (finalBytes - mOffset), false);
+                mOffset = finalBytes;
+                mSentBytes = mOffset;
+                continue;
+            }
+
+            if (mStreaming && mHeaderBytes > 0) {
+                sendRange(0, (int) Math.min(mHeaderBytes, finalBytes), true);
+            }
+            mTransport.complete(mUploadId, finalBytes);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 从 mOffset 开始的一块的长度：边录边传时文件头单独作为第0块
+     */
+    private int nextChunkLength() {
+        if (mStreaming && mOffset < mHeaderBytes) {
+            return (int) (mHeaderBytes - mOffset);
+        }
+        return mChunkBytes;
+    }
+
+    /**
+     * 不超过 offset 的最近的块边界
+     */
+    private long alignToChunk(long offset) {
+        int base = mStreaming ? mHeaderBytes : 0;
+        if (offset <= base) {
+            return offset < base ? 0 : base;
+        }
+        return base + (offset - base) / mChunkBytes * mChunkBytes;
+    }
+
+    /**
+     * 块的序号只由偏移决定，重发时不变
+     */
+    private int sequenceOf(long offset) {
+        if (mStreaming && mHeaderBytes > 0) {
+            return offset < mHeaderBytes ? 0 : 1 + (int) ((offset - mHeaderBytes) / mChunkBytes);
+        }
+        return (int) (offset / mChunkBytes);
+    }
+
+    private void sendRange(long offset, int length, boolean headerPatch) throws IOException {
+        if (mInput == null) {
+            mInput = new RandomAccessFile(mFile, "r");
+        }
+        FileChannel channel = mInput.getChannel();
+        mBuffer.clear();
+        mBuffer.limit(length);
+        while (mBuffer.hasRemaining()) {
+            if (channel.read(mBuffer, offset + mBuffer.position()) < 0) {
+                throw new IOException("unexpected end of " + mFile + " at " + offset);
+            }
+        }
+        mBuffer.flip();
+
+        mCrc.reset();
+        mCrc.update(mBuffer.array(), mBuffer.arrayOffset(), length);
+        // 文件头补丁排在所有数据块之后
+        int sequence = headerPatch ? sequenceOf(mFinalBytes - 1) + 1 : sequenceOf(offset);
+        mTransport.send(new UploadChunk(mUploadId, sequence, offset, mBuffer.asReadOnlyBuffer(),
+                mCrc.getValue(), headerPatch));
+    }
+
+    /**
+     * 第 failures 次失败后的等待时长
+     */
+    private long backoffMillis(int failures) {
+        return Math.min(MAX_BACKOFF_MILLIS, mInitialBackoffMillis << (failures - 1));
+    }
+
+    /**
+     * 被中断时返回false
+     */
+    private static boolean sleep(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void closeInput() {
+        if (mInput == null) {
+            return;
+        }
+        try {
+            mInput.close();
+        } catch (IOException ignored) {
+            // 只读文件，关闭失败不影响结果
+        }
+        mInput = null;
+    }
+}
@@ -0,0 +1,204 @@
+package codepath.com.cn.imaudio.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 进程内的上传通道，按接收方的规则把收到的块写入目标目录中的同名文件，用于测试和演示
+ *
+ * 校验 CRC32 和序号，拒绝会留下空洞的偏移（乱序），重复的块按偏移覆盖。可以模拟每块的网络延迟和
+ * 周期性的失败：请求丢失（数据未写入）或确认丢失（数据已写入但发送方收到失败）。线程安全。
+ */
+public final class LoopbackTransport implements ChunkTransport {
+
+    private static final class Upload {
+        final File mFile;
+        long mCommitted;
+        long mTotalBytes = -1;
+        int mLastSequence = -1;
+
+        Upload(File file) {
+            mFile = file;
+        }
+    }
+
+    private final File mDirectory;
+    private final Map<String, Upload> mUploads = new HashMap<>();
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mScratch = new byte[0];
+
+    private long mLatencyMillis;
+    private int mFailEvery;
+    private boolean mLoseAck;
+    private long mSendCount;
+
+    private long mChunkCount;
+    private long mDuplicateCount;
+    private long mRejectedCount;
+    private long mReceivedBytes;
+
+    public LoopbackTransport(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * 每次发送的模拟延迟
+     */
+    public synchronized void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * 每 failEvery 次发送失败一次，0 表示不失败
+     *
+     * @param loseAck 为true时数据已写入、只是确认丢失，否则请求丢失
+     */
+    public synchronized void setFailEvery(int failEvery, boolean loseAck) {
+        mFailEvery = failEvery;
+        mLoseAck = loseAck;
+    }
+
+    /**
+     * 收到的文件，上传完成前也可以读取已收到的部分
+     */
+    public File getFile(String uploadId) {
+        return new File(mDirectory, uploadId);
+    }
+
+    public synchronized boolean isComplete(String uploadId) {
+        Upload upload = mUploads.get(uploadId);
+        return upload != null && upload.mTotalBytes >= 0;
+    }
+
+    @Override
+    public synchronized long getCommittedOffset(String uploadId) {
+        Upload upload = mUploads.get(uploadId);
+        return upload != null ? upload.mCommitted : 0;
+    }
+
+    @Override
+    public void send(UploadChunk chunk) throws IOException {
+        sleepLatency();
+        synchronized (this) {
+            mSendCount++;
+            boolean fail = mFailEvery > 0 && mSendCount % mFailEvery == 0;
+            if (fail && !mLoseAck) {
+                throw new IOException("simulated request loss: " + chunk);
+            }
+            receive(chunk);
+            if (fail) {
+                throw new IOException("simulated ack loss: " + chunk);
+            }
+        }
+    }
+
+    private void receive(UploadChunk chunk) throws IOException {
+        Upload upload = mUploads.get(chunk.getUploadId());
+        if (upload == null) {
+            mDirectory.mkdirs();
+            upload = new Upload(getFile(chunk.getUploadId()));
+            mUploads.put(chunk.getUploadId(), upload);
+        }
+
+        long end = chunk.getOffset() + chunk.getLength();
+        if (chunk.getOffset() > upload.mCommitted) {
+            mRejectedCount++;
+            throw new IOException("gap before " + chunk + ", committed " + upload.mCommitted);
+        }
+        if (end > upload.mCommitted && chunk.getSequence() != upload.mLastSequence + 1) {
+            mRejectedCount++;
+            throw new IOException("out of sequence: " + chunk + ", last " + upload.mLastSequence);
+        }
+
+        int length = chunk.getLength();
+        if (mScratch.length < length) {
+            mScratch = new byte[length];
+        }
+        ByteBuffer data = chunk.getData();
+        data.get(mScratch, 0, length);
+        mCrc.reset();
+        mCrc.update(mScratch, 0, length);
+        if (mCrc.getValue() != chunk.getCrc32()) {
+            mRejectedCount++;
+            throw new IOException("crc mismatch: " + chunk);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(upload.mFile, "rw");
+        try {
+            raf.seek(chunk.getOffset());
+            raf.write(mScratch, 0, length);
+        } finally {
+            raf.close();
+        }
+
+        if (end > upload.mCommitted) {
+            upload.mCommitted = end;
+            upload.mLastSequence = chunk.getSequence();
+        } else if (!chunk.isHeaderPatch()) {
+            mDuplicateCount++;
+        }
+        mChunkCount++;
+        mReceivedBytes += length;
+    }
+
+    @Override
+    public synchronized void complete(String uploadId, long totalBytes) throws IOException {
+        Upload upload = mUploads.get(uploadId);
+        long committed = upload != null ? upload.mCommitted : 0;
+        if (committed != totalBytes) {
+            throw new IOException("incomplete upload " + uploadId + ": " + committed + "/" + totalBytes);
+        }
+        upload.mTotalBytes = totalBytes;
+    }
+
+    /**
+     * 最近一次推进已确认长度的块的序号
+     */
+    public synchronized int getLastSequence(String uploadId) {
+        Upload upload = mUploads.get(uploadId);
+        return upload != null ? upload.mLastSequence : -1;
+    }
+
+    public synchronized long getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * 重复收到的数据块（确认丢失后的重发）
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * 因乱序或校验失败被拒绝的块
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    private void sleepLatency() throws IOException {
+        long latency;
+        synchronized (this) {
+            latency = mLatencyMillis;
+        }
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package codepath.com.cn.imaudio.upload;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 上传的一块数据：文件中 [offset, offset + length) 范围内的字节及其 CRC32
+ *
+ * 序号由偏移决定，重发同一块时序号不变，接收方可以据此去重。数据是上传线程复用的缓冲区上的
+ * 只读视图，只在 {@link ChunkTransport#send(UploadChunk)} 执行期间有效。
+ */
+public final class UploadChunk {
+
+    private final String mUploadId;
+    private final int mSequence;
+    private final long mOffset;
+    private final ByteBuffer mData;
+    private final long mCrc32;
+    private final boolean mHeaderPatch;
+
+    UploadChunk(String uploadId, int sequence, long offset, ByteBuffer data, long crc32,
+                boolean headerPatch) {
+        mUploadId = uploadId;
+        mSequence = sequence;
+        mOffset = offset;
+        mData = data;
+        mCrc32 = crc32;
+        mHeaderPatch = headerPatch;
+    }
+
+    public String getUploadId() {
+        return mUploadId;
+    }
+
+    public int getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * 在文件中的字节偏移
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public int getLength() {
+        return mData.remaining();
+    }
+
+    /**
+     * 每次调用返回新的只读视图，position 为0
+     */
+    public ByteBuffer getData() {
+        return mData.asReadOnlyBuffer();
+    }
+
+    public long getCrc32() {
+        return mCrc32;
+    }
+
+    /**
+     * 录音结束后重新发送的文件头，覆盖开头已发送的占位文件头
+     */
+    public boolean isHeaderPatch() {
+        return mHeaderPatch;
+    }
+
+    @Override
+    public String toString() {
+        return mUploadId + "#" + mSequence + "@" + mOffset + "+" + getLength()
+                + (mHeaderPatch ? " (header)" : "");
+    }
+}
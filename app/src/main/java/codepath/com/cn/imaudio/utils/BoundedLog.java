@@ -0,0 +1,87 @@
+package codepath.com.cn.imaudio.utils;
+
+/**
+ * 只追加、行数有上限的日志，代替 setText(getText() + ...) 的字符串累加
+ *
+ * 超过上限时丢弃最早的行。{@link #getText()} 只在内容变化后重新拼接，且复用同一个
+ * StringBuilder，拼接的长度不超过上限行数。可在任意线程追加。
+ */
+public final class BoundedLog {
+
+    private final String[] mLines;
+    private final StringBuilder mBuilder = new StringBuilder();
+    private int mStart;
+    private int mSize;
+    private long mVersion;
+    private long mTextVersion = -1;
+    private String mText = "";
+
+    /**
+     * @param maxLines 最多保留的行数
+     */
+    public BoundedLog(int maxLines) {
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException("maxLines must be positive: " + maxLines);
+        }
+        mLines = new String[maxLines];
+    }
+
+    public synchronized void append(String line) {
+        if (mSize < mLines.length) {
+            mLines[(mStart + mSize) % mLines.length] = line;
+            mSize++;
+        } else {
+            mLines[mStart] = line;
+            mStart = (mStart + 1) % mLines.length;
+        }
+        mVersion++;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * 第 index 行，0为保留的最早一行
+     */
+    public synchronized String getLine(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return mLines[(mStart + index) % mLines.length];
+    }
+
+    /**
+     * 每次追加加1，用于判断内容是否变化
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 全部保留的行，以换行分隔
+     */
+    public synchronized String getText() {
+        if (mTextVersion != mVersion) {
+            mBuilder.setLength(0);
+            for (int i = 0; i < mSize; i++) {
+                if (i > 0) {
+                    mBuilder.append('\n');
+                }
+                mBuilder.append(mLines[(mStart + i) % mLines.length]);
+            }
+            mText = mBuilder.toString();
+            mTextVersion = mVersion;
+        }
+        return mText;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mLines.length; i++) {
+            mLines[i] = null;
+        }
+        mStart = 0;
+        mSize = 0;
+        mVersion++;
+    }
+}
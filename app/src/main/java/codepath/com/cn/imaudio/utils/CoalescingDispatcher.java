@@ -0,0 +1,128 @@
+package codepath.com.cn.imaudio.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 合并UI更新的调度核心，与 Looper 无关，可在JVM中测试
+ *
+ * 任意线程提交的更新先暂存，每帧只向 {@link FrameScheduler} 请求一次回调，在回调中一起执行。
+ * 带 key 的更新在同一帧内只执行最后提交的那个（例如电平表只需要显示最新的值）；
+ * 不带 key 的更新全部执行。同一帧内按第一次提交的顺序执行。
+ *
+ * 执行过程中提交的更新留到下一帧。
+ */
+public final class CoalescingDispatcher {
+
+    /**
+     * 请求在下一帧（UI线程）执行回调，Android 上由 Choreographer 实现
+     */
+    public interface FrameScheduler {
+        void scheduleFrame(Runnable frame);
+    }
+
+    private final FrameScheduler mFrameScheduler;
+    private final Object mLock = new Object();
+
+    // 两份暂存交替使用，帧回调中不再分配
+    private LinkedHashMap<Object, Runnable> mPending = new LinkedHashMap<>();
+    private LinkedHashMap<Object, Runnable> mRunning = new LinkedHashMap<>();
+    private boolean mFrameScheduled;
+
+    private long mPostedCount;
+    private long mDeliveredCount;
+    private long mFrameCount;
+
+    private final Runnable mFrame = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    public CoalescingDispatcher(FrameScheduler frameScheduler) {
+        mFrameScheduler = frameScheduler;
+    }
+
+    /**
+     * 提交一次更新，全部执行
+     */
+    public void post(Runnable update) {
+        // 每个更新使用自己作为 key，不会被合并
+        enqueue(new Object(), update);
+    }
+
+    /**
+     * 提交带 key 的更新，同一帧内同一个 key 只执行最后一次提交的更新
+     */
+    public void postLatest(Object key, Runnable update) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        enqueue(key, update);
+    }
+
+    private void enqueue(Object key, Runnable update) {
+        boolean schedule;
+        synchronized (mLock) {
+            mPending.put(key, update);
+            mPostedCount++;
+            schedule = !mFrameScheduled;
+            mFrameScheduled = true;
+        }
+
+        if (schedule) {
+            mFrameScheduler.scheduleFrame(mFrame);
+        }
+    }
+
+    /**
+     * 帧回调：执行这一帧之前提交的所有更新
+     */
+    void doFrame() {
+        LinkedHashMap<Object, Runnable> running;
+        synchronized (mLock) {
+            running = mPending;
+            mPending = mRunning;
+            mRunning = running;
+            mFrameScheduled = false;
+            mFrameCount++;
+            mDeliveredCount += running.size();
+        }
+
+        try {
+            for (Map.Entry<Object, Runnable> entry : running.entrySet()) {
+                entry.getValue().run();
+            }
+        } finally {
+            running.clear();
+        }
+    }
+
+    /**
+     * 累计提交的更新数
+     */
+    public long getPostedCount() {
+        synchronized (mLock) {
+            return mPostedCount;
+        }
+    }
+
+    /**
+     * 累计执行的更新数，与提交数之差为被合并掉的更新
+     */
+    public long getDeliveredCount() {
+        synchronized (mLock) {
+            return mDeliveredCount;
+        }
+    }
+
+    /**
+     * 累计执行的帧回调数
+     */
+    public long getFrameCount() {
+        synchronized (mLock) {
+            return mFrameCount;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package codepath.com.cn.imaudio.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 提示消息去重：同一条消息在时间窗口内只显示一次
+ *
+ * 时间由调用方传入（SystemClock.uptimeMillis()），便于在JVM中测试。可在任意线程调用。
+ */
+public final class MessageDeduplicator {
+
+    private final long mWindowMillis;
+    // 消息 -> 上次显示的时间
+    private final Map<String, Long> mLastShown = new HashMap<>();
+
+    /**
+     * @param windowMillis 同一条消息的最短间隔，一般取 Toast 的显示时长
+     */
+    public MessageDeduplicator(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * 消息是否应该显示；返回true时记录本次显示
+     */
+    public synchronized boolean shouldShow(CharSequence message, long nowMillis) {
+        String key = message.toString();
+        Long last = mLastShown.get(key);
+        if (last != null && nowMillis - last < mWindowMillis) {
+            return false;
+        }
+
+        // 顺便清理过期的记录，避免无限增长
+        for (Iterator<Long> it = mLastShown.values().iterator(); it.hasNext(); ) {
+            if (nowMillis - it.next() >= mWindowMillis) {
+                it.remove();
+            }
+        }
+        mLastShown.put(key, nowMillis);
+        return true;
+    }
+}
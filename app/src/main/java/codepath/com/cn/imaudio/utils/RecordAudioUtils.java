@@ -1,16 +1,23 @@
 package codepath.com.cn.imaudio.utils;
 
+import android.media.MediaMetadataRetriever;
 import android.os.Environment;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringDef;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
-import codepath.com.cn.imaudio.BuildConfig;
+import codepath.com.cn.imaudio.audio.WavFileWriter;
+import codepath.com.cn.imaudio.storage.RecordingStore;
 
 
 /**
@@ -28,29 +35,289 @@ public final class RecordAudioUtils {
 
     public static final String AUDIO_M4A = ".m4a";
     public static final String AUDIO_PCM = ".pcm";
+    public static final String AUDIO_WAV = ".wav";
+    public static final String AUDIO_AAC = ".aac";
+
+    /** 波形缩略图文件的后缀，与录音文件同名，例如 demo.wav.wave */
+    public static final String WAVEFORM_SUFFIX = ".wave";
+
+    /** 语音消息的最短时长，更短的录音被丢弃 */
+    public static final int MIN_AUDIO_DURATION_MILLIS = 3000;
+
+    /** 录音文件占用磁盘的上限，超过后删除最久没有播放过的录音 */
+    public static final long AUDIO_QUOTA_BYTES = 200L * 1024 * 1024;
+
+    /** 开始录音前预留的配额，约为16kHz单声道PCM一分钟的大小 */
+    private static final long RECORDING_RESERVE_BYTES = 2L * 1024 * 1024;
+
+    private static RecordingStore sStore;
 
     /** @hide */
-    @StringDef({AUDIO_M4A, AUDIO_PCM})
+    @StringDef({AUDIO_M4A, AUDIO_PCM, AUDIO_WAV, AUDIO_AAC})
     @Retention(RetentionPolicy.SOURCE)
     @interface AudioFileExtType {}
 
-    @Nullable
+    /**
+     * 录音文件所在目录
+     */
+    public static File getAudioDirectory() {
+        return new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/imooc/audio/");
+    }
+
+    /**
+     * 演示边录边上传时 LoopbackTransport 的接收目录
+     */
+    public static File getOutboxDirectory() {
+        return new File(getAudioDirectory(), "outbox");
+    }
+
+    /**
+     * 录音目录的索引和配额管理，首次调用时不访问磁盘
+     */
+    public static synchronized RecordingStore getStore() {
+        if (sStore == null) {
+            sStore = new RecordingStore(getAudioDirectory(), AUDIO_QUOTA_BYTES, WAVEFORM_SUFFIX,
+                    AUDIO_M4A, AUDIO_PCM, AUDIO_WAV, AUDIO_AAC);
+        }
+        return sStore;
+    }
+
+    /**
+     * 替换录音目录，测试中使用临时目录
+     */
+    @VisibleForTesting
+    public static synchronized void setStore(RecordingStore store) {
+        sStore = store;
+    }
+
+    /**
+     * 读取录音索引并与目录核对，淘汰超出配额的录音，应在启动时于后台线程中调用
+     *
+     * @return 失败时返回false，之后创建文件时会重试
+     */
+    public static boolean openStore() {
+        RecordingStore store = getStore();
+        try {
+            store.open();
+            Log.i(TAG, "录音索引：" + store.getEntries().size() + " 个文件，" + store.getTotalBytes()
+                    + " 字节，扫描 " + store.getScanNanos() / 1000000 + "ms，读取属性 "
+                    + store.getStatCount() + " 个");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "打开录音目录失败。", e);
+            return false;
+        }
+    }
+
+    /**
+     * 创建正式文件名的录音文件，录音完成后用 {@link #addAudioFile(File, String, long)} 记入索引
+     */
     public static File createAudioFile(@AudioFileExtType String fileExtType) throws IOException {
-        File audioFile = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
-                + "/imooc/audio/" + obtainFileName() + fileExtType);
+        return getStore().createFile(fileExtType, RECORDING_RESERVE_BYTES);
+    }
+
+    /**
+     * 预先创建的录音文件，文件名唯一，录音被接受后用
+     * {@link #commitAudioFile(File, String, String, long)} 改为正式文件名
+     */
+    public static File createPendingAudioFile(@AudioFileExtType String fileExtType) throws IOException {
+        return getStore().createPendingFile(fileExtType);
+    }
+
+    /**
+     * 把预先创建的录音文件改为正式文件名并记入索引，应在后台线程中调用
+     *
+     * @param codecName 编码格式名称
+     * @param durationMillis 时长，未知时为-1
+     * @return 改名后的文件，改名失败时返回原文件
+     */
+    public static File commitAudioFile(File pendingFile, @AudioFileExtType String fileExtType,
+                                       String codecName, long durationMillis) {
+        RecordingStore store = getStore();
+        try {
+            File audioFile = store.commitPendingFile(pendingFile, fileExtType, codecName, durationMillis);
+            store.flush();
+            return audioFile;
+        } catch (IOException e) {
+            Log.w(TAG, "录音文件改名失败：" + pendingFile, e);
+            return pendingFile;
+        }
+    }
+
+    /**
+     * 录音完成，记入索引，超过配额时删除最久没有播放过的录音，应在后台线程中调用
+     */
+    public static void addAudioFile(File audioFile, String codecName, long durationMillis) {
+        addAudioFile(audioFile, codecName, durationMillis, 0);
+    }
+
+    /**
+     * 同 {@link #addAudioFile(File, String, long)}，并记录录音时测得的播放增益（0.01 dB）
+     */
+    public static void addAudioFile(File audioFile, String codecName, long durationMillis,
+                                    int gainMillibels) {
+        RecordingStore store = getStore();
+        try {
+            store.add(audioFile, codecName, durationMillis, gainMillibels);
+            store.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "更新录音索引失败：" + audioFile, e);
+        }
+    }
+
+    /**
+     * 删除录音及其波形缩略图，应在后台线程中调用
+     */
+    public static void deleteAudioFile(File audioFile) {
+        getStore().delete(audioFile);
+    }
+
+    /**
+     * 开始播放：标记为最近访问并在播放期间固定，不访问磁盘，随下一次索引更新保存
+     */
+    public static void beginPlayback(File audioFile) {
+        RecordingStore store = getStore();
+        store.touch(audioFile);
+        store.pin(audioFile);
+    }
+
+    /**
+     * 录音时测得的播放增益（dB），没有记录时返回0；不访问磁盘
+     */
+    public static float getPlaybackGainDb(File audioFile) {
+        return getStore().getGainMillibels(audioFile) / 100f;
+    }
+
+    /**
+     * 播放结束，录音可以再被淘汰
+     */
+    public static void endPlayback(File audioFile) {
+        getStore().unpin(audioFile);
+    }
 
-        File parentPath = audioFile.getParentFile();
-        if (!parentPath.exists()) {
-            parentPath.mkdirs();
+    /**
+     * 删除进程退出时没有用到的预创建文件，应在后台线程中调用
+     */
+    public static void deletePendingAudioFiles() {
+        getStore().deletePendingFiles();
+    }
+
+    /**
+     * 修复上次录音过程中进程被杀死而没有写入正确长度的WAV文件，应在后台线程中调用
+     *
+     * @return 被修复的文件数
+     */
+    public static int repairWavFiles() {
+        File[] wavFiles = getAudioDirectory().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(AUDIO_WAV);
+            }
+        });
+        if (wavFiles == null) {
+            return 0;
         }
 
-        audioFile.createNewFile();
+        int repaired = 0;
+        for (File wavFile : wavFiles) {
+            try {
+                if (WavFileWriter.repair(wavFile)) {
+                    repaired++;
+                    Log.w(TAG, "已修复未正常结束的录音文件：" + wavFile);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "修复录音文件失败：" + wavFile, e);
+            }
+        }
+        return repaired;
+    }
 
-        return audioFile;
+    /**
+     * 读取编码后音频文件的实际时长，应在后台线程中调用
+     *
+     * @return 时长（毫秒），无法解析时返回-1
+     */
+    public static long readDurationMillis(File audioFile) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(audioFile.getAbsolutePath());
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration != null ? Long.parseLong(duration) : -1;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "读取录音时长失败：" + audioFile, e);
+            return -1;
+        } finally {
+            retriever.release();
+        }
     }
 
-    private static String obtainFileName() {
-        return BuildConfig.DEBUG ? "demo" : String.valueOf(System.currentTimeMillis());
+    /**
+     * 录音文件对应的波形缩略图文件
+     */
+    public static File getWaveformFile(File audioFile) {
+        return new File(audioFile.getPath() + WAVEFORM_SUFFIX);
+    }
 
+    /**
+     * 保存录音时生成的波形缩略图（每个桶一个字节），应在后台线程中调用
+     *
+     * @return 保存成功时返回true
+     */
+    public static boolean saveWaveform(File audioFile, byte[] waveform) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(getWaveformFile(audioFile));
+            out.write(waveform);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "保存波形失败：" + audioFile, e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * 读取录音的波形缩略图，应在后台线程中调用
+     *
+     * @return 没有波形文件或读取失败时返回null
+     */
+    @Nullable
+    public static byte[] readWaveform(File audioFile) {
+        File waveformFile = getWaveformFile(audioFile);
+        if (!waveformFile.isFile()) {
+            return null;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(waveformFile);
+            byte[] waveform = new byte[(int) waveformFile.length()];
+            int read = 0;
+            while (read < waveform.length) {
+                int count = in.read(waveform, read, waveform.length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+            return waveform;
+        } catch (IOException e) {
+            Log.e(TAG, "读取波形失败：" + audioFile, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭失败。", e);
+        }
     }
 }
@@ -0,0 +1,121 @@
+package codepath.com.cn.imaudio.utils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原生资源的账本：AudioRecord、AudioTrack、打开的录音文件、注册到服务上的界面回调等
+ *
+ * 打开时 {@link #onOpened(Object, String)}，关闭时 {@link #onClosed(Object)}，按对象本身（而不是
+ * equals）记录。{@link #checkAllClosed()} 在服务销毁后或测试中检查是否有没有释放的资源，
+ * 列出每个资源的种类和已打开的时长。可在任意线程调用。
+ */
+public final class ResourceTracker {
+
+    private static final class Record {
+        final String kind;
+        final long openedNanos;
+
+        Record(String kind, long openedNanos) {
+            this.kind = kind;
+            this.openedNanos = openedNanos;
+        }
+    }
+
+    private final Map<Object, Record> mOpen = new IdentityHashMap<>();
+    private long mOpenedCount;
+    private long mClosedCount;
+    private int mPeakOpenCount;
+
+    /**
+     * 记录打开的资源，同一个对象重复记录时只算一次
+     *
+     * @param kind 资源种类，例如 "AudioRecord"
+     */
+    public synchronized void onOpened(Object resource, String kind) {
+        if (mOpen.containsKey(resource)) {
+            return;
+        }
+        mOpen.put(resource, new Record(kind, System.nanoTime()));
+        mOpenedCount++;
+        mPeakOpenCount = Math.max(mPeakOpenCount, mOpen.size());
+    }
+
+    /**
+     * 记录资源已关闭，可重复调用
+     *
+     * @return 资源之前处于打开状态时返回true
+     */
+    public synchronized boolean onClosed(Object resource) {
+        if (mOpen.remove(resource) == null) {
+            return false;
+        }
+        mClosedCount++;
+        return true;
+    }
+
+    public synchronized int getOpenCount() {
+        return mOpen.size();
+    }
+
+    public synchronized int getOpenCount(String kind) {
+        int count = 0;
+        for (Record record : mOpen.values()) {
+            if (record.kind.equals(kind)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized long getOpenedCount() {
+        return mOpenedCount;
+    }
+
+    public synchronized long getClosedCount() {
+        return mClosedCount;
+    }
+
+    /**
+     * 同时打开的资源数的最大值
+     */
+    public synchronized int getPeakOpenCount() {
+        return mPeakOpenCount;
+    }
+
+    /**
+     * 仍在打开的资源，每项为 "种类 (已打开毫秒数ms)"
+     */
+    public synchronized List<String> getOpenResources() {
+        long now = System.nanoTime();
+        List<String> result = new ArrayList<>(mOpen.size());
+        for (Record record : mOpen.values()) {
+            result.add(record.kind + " (" + TimeUnit.NANOSECONDS.toMillis(now - record.openedNanos)
+                    + "ms)");
+        }
+        return result;
+    }
+
+    /**
+     * 所有资源都已关闭时直接返回
+     *
+     * @throws IllegalStateException 仍有资源没有关闭，消息中列出这些资源
+     */
+    public void checkAllClosed() {
+        List<String> open = getOpenResources();
+        if (!open.isEmpty()) {
+            throw new IllegalStateException(open.size() + " resource(s) not released: " + open);
+        }
+    }
+
+    /**
+     * 用于日志
+     */
+    public synchronized String dumpStats() {
+        return "resources: " + mOpen.size() + " open (peak " + mPeakOpenCount + "), "
+                + mOpenedCount + " opened, " + mClosedCount + " closed";
+    }
+}
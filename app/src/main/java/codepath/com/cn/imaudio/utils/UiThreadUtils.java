@@ -3,7 +3,9 @@ package codepath.com.cn.imaudio.utils;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
+import android.view.Choreographer;
 import android.widget.Toast;
 
 import java.lang.annotation.Retention;
@@ -13,6 +15,10 @@ import java.lang.annotation.RetentionPolicy;
 /**
  * 其它线程向主线程提交UI更新任务或简易文本提示消息
  *
+ * 所有更新经 {@link CoalescingDispatcher} 合并，每帧（Choreographer 的 vsync 回调）最多向主线程
+ * 投递一次；{@link #postLatest(Object, Runnable)} 同一帧内只执行最新的更新；
+ * 相同的提示消息在显示期间不再重复显示。
+ *
  * @author LiXiaoPing(17773406760@189.cn)
  *
  *
@@ -49,28 +55,52 @@ public final class UiThreadUtils {
     }
 
     /**
-     * 向主线程提交UI更新任务
+     * 向主线程提交UI更新任务，在下一帧执行
      * @param task
      */
     public static void runInUIThread(Runnable task) {
-        UiThreadHandler.INSTANCE.runInUIThread(task);
+        UiThreadHandler.INSTANCE.mDispatcher.post(task);
+    }
+
+    /**
+     * 向主线程提交可合并的UI更新任务，同一帧内相同 key 的任务只执行最后提交的一个，
+     * 适合电平、进度等高频刷新
+     * @param key 更新的目标，例如控件
+     * @param task
+     */
+    public static void postLatest(Object key, Runnable task) {
+        UiThreadHandler.INSTANCE.mDispatcher.postLatest(key, task);
     }
 
 
     /**
      * 实现单例模式
      */
-    private enum UiThreadHandler {
+    private enum UiThreadHandler implements CoalescingDispatcher.FrameScheduler {
         INSTANCE;
 
-        private Handler mHandler;
+        // Toast.LENGTH_SHORT 的显示时长
+        private static final long TOAST_DEDUP_MILLIS = 2000;
+
+        private final Handler mHandler;
+        private final CoalescingDispatcher mDispatcher;
+        private final MessageDeduplicator mToastDeduplicator;
+        // 只在主线程中访问
+        private Choreographer mChoreographer;
+        private Choreographer.FrameCallback mFrameCallback;
 
         UiThreadHandler() {
             mHandler = new Handler(Looper.getMainLooper());
+            mDispatcher = new CoalescingDispatcher(this);
+            mToastDeduplicator = new MessageDeduplicator(TOAST_DEDUP_MILLIS);
         }
 
         void showToast(final Context context, final CharSequence text, final int duration) {
-            mHandler.post(new Runnable() {
+            if (!mToastDeduplicator.shouldShow(text, SystemClock.uptimeMillis())) {
+                return;
+            }
+
+            mDispatcher.post(new Runnable() {
                 @Override
                 public void run() {
                     Toast.makeText(context, text, duration).show();
@@ -78,8 +108,36 @@ public final class UiThreadUtils {
             });
         }
 
-        void runInUIThread(Runnable task) {
-            mHandler.post(task);
+        /**
+         * Choreographer 只能在主线程中获取和使用，其它线程先切换到主线程
+         */
+        @Override
+        public void scheduleFrame(final Runnable frame) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postFrameCallback(frame);
+                return;
+            }
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    postFrameCallback(frame);
+                }
+            });
+        }
+
+        private void postFrameCallback(final Runnable frame) {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+                // 调度器每次传入的是同一个回调，只需创建一次
+                mFrameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frame.run();
+                    }
+                };
+            }
+            mChoreographer.postFrameCallback(mFrameCallback);
         }
 
     }
@@ -0,0 +1,303 @@
+package codepath.com.cn.imaudio.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.PipelineMetrics;
+import codepath.com.cn.imaudio.audio.codec.PcmWavCodec;
+import codepath.com.cn.imaudio.storage.RecordingStore;
+import codepath.com.cn.imaudio.utils.RecordAudioUtils;
+import codepath.com.cn.imaudio.utils.ResourceTracker;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link StreamRecorder} 的JVM单元测试，AudioRecord 替换为内存中的数据，录音目录为临时目录
+ */
+public class StreamRecorderTest {
+
+    // 短录音读到的块数，远小于最短时长
+    private static final int SHORT_RECORDING_CHUNKS = 5;
+    // 超过最短时长后读取失败的位置
+    private static final int FAIL_AFTER_SECONDS = 6;
+    private static final long VOICE_READ_INTERVAL_MILLIS = 5;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private AudioScheduler mScheduler;
+    private ResourceTracker mTracker;
+    private StreamRecorder mRecorder;
+    private RecordingStore mStore;
+    // 为0时第一次读取就失败，为-1时不失败，否则读到这么多帧语音后失败
+    private volatile long mFailAfterFrames = -1;
+    // 读取失败时录音文件已经创建
+    private volatile boolean mFileCreatedBeforeFailure;
+    // 打开采集时抛出的 Error，为null时正常打开
+    private volatile Error mOpenError;
+
+    private volatile CountDownLatch mFinished;
+    private volatile boolean mFailed;
+    private volatile int mOpenWhenFinished;
+
+    @Before
+    public void setUp() throws Exception {
+        mStore = new RecordingStore(mFolder.newFolder("audio"), RecordAudioUtils.AUDIO_QUOTA_BYTES,
+                RecordAudioUtils.WAVEFORM_SUFFIX, RecordAudioUtils.AUDIO_WAV);
+        RecordAudioUtils.setStore(mStore);
+        mScheduler = new AudioScheduler(AudioScheduler.Lane.CAPTURE, AudioScheduler.Lane.IO);
+        mTracker = new ResourceTracker();
+        StreamRecorder.InputFactory inputs = new StreamRecorder.InputFactory() {
+            @Override
+            public StreamRecorder.Input open(BufferSizePolicy policy) {
+                Error error = mOpenError;
+                if (error != null) {
+                    throw error;
+                }
+                return new ScriptedInput(mFailAfterFrames);
+            }
+        };
+        mRecorder = new StreamRecorder(mScheduler, new PcmWavCodec(), null, mTracker,
+                new PipelineMetrics(), new RecordingListener(), inputs);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mScheduler.shutdownNow();
+        mScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        RecordAudioUtils.setStore(null);
+    }
+
+    @Test
+    public void restartAfterFailedReadWaitsForWriter() throws Exception {
+        // 写文件线程排在一个阻塞的任务之后，读取失败时它还没有关闭管道
+        final CountDownLatch ioBlocked = new CountDownLatch(1);
+        mScheduler.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ioBlocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        mFailAfterFrames = 0;
+        mFinished = new CountDownLatch(1);
+        assertTrue(mRecorder.start());
+
+        // 采集线程在等写文件线程，录音还没有结束，也不能开始下一次
+        assertFalse(mFinished.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(mRecorder.isBusy());
+        assertFalse(mRecorder.start());
+
+        ioBlocked.countDown();
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertTrue(mFailed);
+        // 结束回调之前 AudioRecord 和录音管道都已关闭
+        assertEquals(0, mOpenWhenFinished);
+
+        // 失败后立即开始下一次录音，共用的缓冲区和统计已经没有人使用
+        mFailAfterFrames = -1;
+        mFinished = new CountDownLatch(1);
+        waitUntilIdle();
+        assertTrue(mRecorder.start());
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertFalse(mFailed);
+        assertEquals(0, mTracker.getOpenCount());
+        assertEquals(4, mTracker.getClosedCount());
+    }
+
+    @Test
+    public void failureAfterMinimumLengthDeletesFile() throws Exception {
+        mFailAfterFrames = (long) FAIL_AFTER_SECONDS * StreamRecorder.CAPTURE_FORMAT.getSampleRateHz();
+        mFinished = new CountDownLatch(1);
+        assertTrue(mRecorder.start());
+        assertTrue(mFinished.await(10, TimeUnit.SECONDS));
+        assertTrue(mFailed);
+        assertTrue(mFileCreatedBeforeFailure);
+
+        // 不完整的文件被删除，没有记入索引，也没有留在配额之外
+        assertEquals(0, recordingFiles().length);
+        assertTrue(mStore.getEntries().isEmpty());
+        RecordingStore reopened = new RecordingStore(mStore.getDirectory(),
+                RecordAudioUtils.AUDIO_QUOTA_BYTES, RecordAudioUtils.WAVEFORM_SUFFIX,
+                RecordAudioUtils.AUDIO_WAV);
+        reopened.open();
+        assertTrue(reopened.getEntries().isEmpty());
+        waitUntilIdle();
+    }
+
+    @Test
+    public void errorInCaptureReportsFailureAndClearsBusy() throws Exception {
+        mOpenError = new NoClassDefFoundError("scripted");
+        mFinished = new CountDownLatch(1);
+        assertTrue(mRecorder.start());
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertTrue(mFailed);
+        waitUntilIdle();
+
+        // Error 抛给了队列，录音器仍然可以开始下一次录音
+        mOpenError = null;
+        mFinished = new CountDownLatch(1);
+        assertTrue(mRecorder.start());
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertFalse(mFailed);
+        assertEquals(0, mTracker.getOpenCount());
+    }
+
+    private File[] recordingFiles() {
+        File[] files = mStore.getDirectory().listFiles();
+        assertNotNull(files);
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(RecordAudioUtils.AUDIO_WAV)) {
+                files[count++] = file;
+            }
+        }
+        File[] recordings = new File[count];
+        System.arraycopy(files, 0, recordings, 0, count);
+        return recordings;
+    }
+
+    /**
+     * 写文件线程达到最短时长时创建文件，读取比它快，失败前先等待
+     */
+    private boolean awaitRecordingFile() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recordingFiles().length == 0 && System.nanoTime() < deadline) {
+            sleepQuietly(1);
+        }
+        return recordingFiles().length > 0;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 结束回调之后采集任务才清除忙碌状态
+     */
+    private void waitUntilIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mRecorder.isBusy() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertFalse(mRecorder.isBusy());
+    }
+
+    /**
+     * 第一次读取就失败；读到几块静音后停止录音；或者读到一段类语音信号后失败
+     */
+    private final class ScriptedInput implements StreamRecorder.Input {
+
+        private final long mFailAfterFrames;
+        private int mReads;
+        private long mFrames;
+        private double mPhase;
+
+        ScriptedInput(long failAfterFrames) {
+            mFailAfterFrames = failAfterFrames;
+        }
+
+        @Override
+        public void startRecording() {
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int sizeInBytes) {
+            if (mFailAfterFrames >= 0 && mFrames >= mFailAfterFrames) {
+                mFileCreatedBeforeFailure = awaitRecordingFile();
+                // AudioRecord.ERROR_INVALID_OPERATION
+                return -3;
+            }
+            if (mFailAfterFrames < 0 && ++mReads == SHORT_RECORDING_CHUNKS) {
+                mRecorder.stop();
+            }
+            if (mFailAfterFrames < 0) {
+                for (int i = 0; i < sizeInBytes; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+            } else {
+                // 读取不比写文件线程快太多，环形缓冲区不会溢出
+                sleepQuietly(VOICE_READ_INTERVAL_MILLIS);
+                fillVoice(buffer, sizeInBytes);
+            }
+            return sizeInBytes;
+        }
+
+        /**
+         * 基频缓慢变化、带谐波的浊音，每秒有0.3秒停顿，不会被静音裁剪和降噪去掉
+         */
+        private void fillVoice(ByteBuffer buffer, int sizeInBytes) {
+            int rate = StreamRecorder.CAPTURE_FORMAT.getSampleRateHz();
+            ByteBuffer pcm = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i + 1 < sizeInBytes; i += 2, mFrames++) {
+                double t = (double) mFrames / rate;
+                mPhase += 2 * Math.PI * (170 + 50 * Math.sin(2 * Math.PI * 0.7 * t)) / rate;
+                double value = 0;
+                if (mFrames % rate < rate * 7 / 10) {
+                    value = 6000 * Math.sin(mPhase) + 2500 * Math.sin(mPhase * 4)
+                            + 1200 * Math.sin(mPhase * 11);
+                }
+                pcm.putShort(i, (short) value);
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private final class RecordingListener implements StreamRecorder.Listener {
+
+        @Override
+        public void onLevel(StreamRecorder recorder) {
+        }
+
+        @Override
+        public void onRecorded(File file, long durationMillis, long trimmedMillis, byte[] waveform,
+                               int gainMillibels) {
+            fail("recording shorter than the minimum length was accepted");
+        }
+
+        @Override
+        public void onStopped(boolean recorded) {
+            finish(false);
+        }
+
+        @Override
+        public void onFailed() {
+            finish(true);
+        }
+
+        @Override
+        public void onLog(String line) {
+        }
+
+        private void finish(boolean failed) {
+            mFailed = failed;
+            mOpenWhenFinished = mTracker.getOpenCount();
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package codepath.com.cn.imaudio.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link RecordingIndex} 和 {@link RecordingStore} 的JVM单元测试
+ */
+public class RecordingStoreTest {
+
+    private static final String SIDECAR = ".wave";
+    // 启动耗时：目录中的录音数和有索引时打开的上限（按慢速的CI机器留有余量）
+    private static final int SCALE_FILES = 5000;
+    private static final long MAX_SCALE_OPEN_MILLIS = 1000;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("store", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void indexEvictsLeastRecentlyUsedFirst() {
+        RecordingIndex index = new RecordingIndex();
+        index.put(new RecordingIndex.Entry("a.wav", 100, 1000, "pcm", 1));
+        index.put(new RecordingIndex.Entry("b.wav", 100, 1000, "pcm", 2));
+        index.put(new RecordingIndex.Entry("c.wav", 100, 1000, "pcm", 3));
+        assertEquals(300, index.getTotalBytes());
+
+        // 播放过的 a 变为最近访问，b 被固定
+        index.touch("a.wav", 4);
+        index.pin("b.wav");
+        List<RecordingIndex.Entry> evicted = index.selectEvictions(150);
+        assertEquals(2, evicted.size());
+        assertEquals("c.wav", evicted.get(0).getName());
+        assertEquals("a.wav", evicted.get(1).getName());
+        assertEquals(100, index.getTotalBytes());
+        assertTrue(index.contains("b.wav"));
+    }
+
+    @Test
+    public void indexSnapshotRoundTrips() throws IOException {
+        RecordingIndex index = new RecordingIndex();
+        index.put(new RecordingIndex.Entry("old.m4a", 10, 3000, "aac", 5));
+        index.put(new RecordingIndex.Entry("new.wav", 20, -1, "ima-adpcm", 9));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        RecordingIndex copy = new RecordingIndex();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(30, copy.getTotalBytes());
+        List<RecordingIndex.Entry> entries = copy.entries();
+        assertEquals("old.m4a", entries.get(0).getName());
+        assertEquals(3000, entries.get(0).getDurationMillis());
+        assertEquals("ima-adpcm", entries.get(1).getCodec());
+        assertEquals(9, entries.get(1).getLastAccessMillis());
+
+        try {
+            copy.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[8])));
+            fail("garbage accepted");
+        } catch (IOException expected) {
+            assertEquals(0, copy.size());
+        }
+    }
+
+    @Test
+    public void indexKeepsPlaybackGainAndReadsVersionOne() throws IOException {
+        RecordingIndex index = new RecordingIndex();
+        index.put(new RecordingIndex.Entry("quiet.wav", 10, 3000, "ima-adpcm", 1150, 5));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        RecordingIndex copy = new RecordingIndex();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1150, copy.entries().get(0).getGainMillibels());
+        assertEquals(5, copy.entries().get(0).getLastAccessMillis());
+
+        // 升级前写出的版本1快照没有增益
+        bytes.reset();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x52494458);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeUTF("old.m4a");
+        out.writeLong(10);
+        out.writeLong(3000);
+        out.writeUTF("aac");
+        out.writeLong(7);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        RecordingIndex.Entry entry = copy.entries().get(0);
+        assertEquals("aac", entry.getCodec());
+        assertEquals(0, entry.getGainMillibels());
+        assertEquals(7, entry.getLastAccessMillis());
+    }
+
+    @Test
+    public void storeRemembersPlaybackGain() throws IOException {
+        RecordingStore store = newStore(Long.MAX_VALUE);
+        File file = store.createFile(".wav", 0);
+        writeBytes(file, 100);
+        store.add(file, "ima-adpcm", 5000, -350);
+        store.flush();
+
+        RecordingStore reopened = newStore(Long.MAX_VALUE);
+        reopened.open();
+        assertEquals(-350, reopened.getGainMillibels(file));
+        assertEquals(0, reopened.getGainMillibels(new File(mDirectory, "missing.wav")));
+    }
+
+    @Test
+    public void namesAreUniqueWithinTheSameMillisecond() throws IOException {
+        RecordingStore store = newStore(Long.MAX_VALUE);
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            File file = store.createFile(".wav", 0);
+            assertTrue(file.isFile());
+            assertTrue(names.add(file.getName()));
+        }
+        for (int i = 0; i < 50; i++) {
+            File pending = store.createPendingFile(".m4a");
+            File committed = store.commitPendingFile(pending, ".m4a", "aac", 1000);
+            assertFalse(pending.exists());
+            assertTrue(names.add(committed.getName()));
+        }
+    }
+
+    @Test
+    public void evictsOldRecordingsWithSidecarsOverQuota() throws IOException {
+        RecordingStore store = newStore(250);
+        File first = record(store, 100);
+        File second = record(store, 100);
+        new FileOutputStream(new File(first.getPath() + SIDECAR)).close();
+
+        // 播放 first，淘汰的是 second
+        store.touch(first);
+        record(store, 100);
+        assertTrue(first.exists());
+        assertFalse(second.exists());
+        assertEquals(200, store.getTotalBytes());
+
+        // first 正在播放时不会被淘汰
+        store.pin(first);
+        record(store, 100);
+        assertTrue(first.exists());
+        store.unpin(first);
+        record(store, 100);
+        assertFalse(first.exists());
+        assertFalse(new File(first.getPath() + SIDECAR).exists());
+        assertTrue(store.getTotalBytes() <= 250);
+    }
+
+    @Test
+    public void reservesQuotaBeforeRecording() throws IOException {
+        RecordingStore store = newStore(300);
+        File first = record(store, 100);
+        record(store, 100);
+
+        store.createFile(".wav", 150);
+        assertFalse(first.exists());
+        assertEquals(100, store.getTotalBytes());
+    }
+
+    @Test
+    public void evictedNamesAreNotReused() throws IOException {
+        // 配额只够一条，每条新录音都会淘汰上一条；连续录音多在同一毫秒内
+        RecordingStore store = newStore(100);
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(names.add(record(store, 100).getName()));
+        }
+    }
+
+    @Test
+    public void reopenUsesIndexAndReconcilesDirectory() throws IOException {
+        RecordingStore store = newStore(Long.MAX_VALUE);
+        File kept = record(store, 10);
+        File removed = record(store, 20);
+        store.flush();
+
+        // 进程退出后目录被修改：一个文件被删除，一个没有记入索引的文件，一个预创建文件和无关文件
+        removed.delete();
+        File foreign = new File(mDirectory, "foreign.aac");
+        writeBytes(foreign, 30);
+        writeBytes(new File(mDirectory, RecordingStore.PENDING_FILE_PREFIX + "1.wav"), 40);
+        writeBytes(new File(mDirectory, "notes.txt"), 50);
+
+        RecordingStore reopened = newStore(Long.MAX_VALUE);
+        reopened.open();
+        assertEquals(1, reopened.getStatCount());
+        assertEquals(40, reopened.getTotalBytes());
+        Set<String> names = new HashSet<>();
+        for (RecordingIndex.Entry entry : reopened.getEntries()) {
+            names.add(entry.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(kept.getName(), "foreign.aac")), names);
+
+        // 已记入索引的文件不再读取属性
+        reopened.flush();
+        RecordingStore third = newStore(Long.MAX_VALUE);
+        third.open();
+        assertEquals(0, third.getStatCount());
+        assertEquals(1, third.deletePendingFiles());
+    }
+
+    @Test
+    public void corruptIndexIsRebuilt() throws IOException {
+        RecordingStore store = newStore(Long.MAX_VALUE);
+        record(store, 10);
+        store.flush();
+        writeBytes(new File(mDirectory, RecordingStore.INDEX_FILE_NAME), 7);
+
+        RecordingStore reopened = newStore(Long.MAX_VALUE);
+        reopened.open();
+        assertEquals(1, reopened.getStatCount());
+        assertEquals(10, reopened.getTotalBytes());
+    }
+
+    @Test
+    public void openWithIndexStatsNothingAtScale() throws IOException {
+        assertTrue(mDirectory.mkdirs());
+        for (int i = 0; i < SCALE_FILES; i++) {
+            writeBytes(new File(mDirectory, (1000000 + i) + ".wav"), 64);
+        }
+
+        // 没有索引：列一次目录，逐个读取大小和修改时间
+        RecordingStore cold = newStore(Long.MAX_VALUE);
+        cold.open();
+        assertEquals(SCALE_FILES, cold.getStatCount());
+        assertEquals(SCALE_FILES * 64L, cold.getTotalBytes());
+        cold.flush();
+
+        // 有索引：只列一次目录核对，不读取任何文件的属性
+        RecordingStore warm = newStore(Long.MAX_VALUE);
+        warm.open();
+        assertEquals(0, warm.getStatCount());
+        assertEquals(SCALE_FILES, warm.getEntries().size());
+        long warmMillis = TimeUnit.NANOSECONDS.toMillis(warm.getScanNanos());
+        assertTrue("open with index took " + warmMillis + " ms", warmMillis < MAX_SCALE_OPEN_MILLIS);
+    }
+
+    private RecordingStore newStore(long quotaBytes) {
+        return new RecordingStore(mDirectory, quotaBytes, SIDECAR, ".wav", ".m4a", ".aac");
+    }
+
+    private static File record(RecordingStore store, int bytes) throws IOException {
+        File file = store.createFile(".wav", 0);
+        writeBytes(file, bytes);
+        store.add(file, "pcm", bytes);
+        return file;
+    }
+
+    private static void writeBytes(File file, int bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[bytes]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,188 @@
+package codepath.com.cn.imaudio.upload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.WavHeader;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmWavWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ChunkedUploader} 在真实的上传线程和模拟的网络延迟下的耗时
+ *
+ * <ol>
+ *     <li>吞吐：没有网络延迟时读取、校验、发送一个长录音不低于 {@link #MIN_THROUGHPUT_BYTES_PER_SECOND}</li>
+ *     <li>松开到送达：按实时速度录制16kHz IMA ADPCM，每块有 {@link #RTT_MILLIS} 的往返延迟，
+ *     边录边传时写入不等网络，松开后只剩最后一块和文件头，比录完再传快</li>
+ * </ol>
+ *
+ * 上限按慢速的CI机器留有余量，只用来发现数量级的退化。
+ */
+public class ChunkedUploadTimingTest {
+
+    private static final int RATE = 16000;
+    private static final int WRITE_FRAMES = RATE / 10;
+    private static final int THROUGHPUT_SECONDS = 600;
+    private static final long MIN_THROUGHPUT_BYTES_PER_SECOND = 1024 * 1024;
+    private static final int REALTIME_WRITES = 20;
+    private static final long RTT_MILLIS = 100;
+    // 松开后还要发送的：最后不满的一块、文件头，可能还有一块正在发送
+    private static final long MAX_RELEASE_TO_DELIVERED_MILLIS = 5 * RTT_MILLIS;
+
+    private File mDirectory;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("upload-timing", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void uploadsLongRecordingQuickly() throws Exception {
+        File file = new File(mDirectory, "throughput.wav");
+        ImaAdpcmWavWriter writer = new ImaAdpcmWavWriter(file, RATE, 1);
+        ByteBuffer pcm = tone();
+        for (int i = 0; i < THROUGHPUT_SECONDS * 10; i++) {
+            pcm.rewind();
+            writer.write(pcm);
+        }
+        writer.close();
+
+        LoopbackTransport transport = new LoopbackTransport(new File(mDirectory, "outbox"));
+        Waiter waiter = new Waiter();
+        ChunkedUploader uploader = new ChunkedUploader(file, "throughput", -1,
+                ChunkedUploader.DEFAULT_CHUNK_BYTES, transport, mExecutor, waiter);
+        long begin = System.nanoTime();
+        uploader.finish(file.length());
+        waiter.await();
+        long nanos = System.nanoTime() - begin;
+
+        assertTrue(uploader.isUploaded());
+        assertEquals(0, transport.getRejectedCount());
+        double bytesPerSecond = file.length() / (nanos / 1e9);
+        assertTrue("throughput " + (long) bytesPerSecond + " B/s",
+                bytesPerSecond >= MIN_THROUGHPUT_BYTES_PER_SECOND);
+    }
+
+    @Test
+    public void streamingDeliversSoonAfterRelease() throws Exception {
+        Delivery streaming = recordAndRelease("streaming", WavHeader.IMA_ADPCM_HEADER_BYTES);
+        Delivery afterClose = recordAndRelease("after-close", -1);
+
+        // 写入只通知上传线程，不等网络
+        assertTrue("max write " + streaming.mMaxWriteMillis + " ms",
+                streaming.mMaxWriteMillis < RTT_MILLIS);
+        assertTrue("backlog " + streaming.mBacklogBytes,
+                streaming.mBacklogBytes <= ChunkedUploader.DEFAULT_CHUNK_BYTES
+                        + WavHeader.IMA_ADPCM_HEADER_BYTES);
+        assertTrue("release -> delivered " + streaming.mDeliveredMillis + " ms",
+                streaming.mDeliveredMillis <= MAX_RELEASE_TO_DELIVERED_MILLIS);
+        // 录完再传时松开后要发送全部的块
+        assertTrue(afterClose.mDeliveredMillis >= afterClose.mChunks * RTT_MILLIS);
+        assertTrue(streaming.mDeliveredMillis < afterClose.mDeliveredMillis);
+    }
+
+    /**
+     * 一次录音松开时的积压和松开到送达的耗时
+     */
+    private static final class Delivery {
+        long mMaxWriteMillis;
+        long mBacklogBytes;
+        long mDeliveredMillis;
+        long mChunks;
+    }
+
+    private Delivery recordAndRelease(String name, int headerBytes) throws Exception {
+        File file = new File(mDirectory, name + ".wav");
+        LoopbackTransport transport = new LoopbackTransport(new File(mDirectory, "outbox-" + name));
+        transport.setLatencyMillis(RTT_MILLIS);
+        Waiter waiter = new Waiter();
+        ChunkedUploader uploader = new ChunkedUploader(file, name, headerBytes,
+                ChunkedUploader.DEFAULT_CHUNK_BYTES, transport, mExecutor, waiter);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(file, RATE, 1), file, uploader);
+
+        Delivery delivery = new Delivery();
+        ByteBuffer pcm = tone();
+        long maxWriteNanos = 0;
+        for (int i = 0; i < REALTIME_WRITES; i++) {
+            pcm.rewind();
+            long begin = System.nanoTime();
+            emitter.write(pcm);
+            maxWriteNanos = Math.max(maxWriteNanos, System.nanoTime() - begin);
+            Thread.sleep(WRITE_FRAMES * 1000L / RATE);
+        }
+        delivery.mMaxWriteMillis = TimeUnit.NANOSECONDS.toMillis(maxWriteNanos);
+        delivery.mBacklogBytes = uploader.getBacklogBytes();
+        long release = System.nanoTime();
+        emitter.close();
+        waiter.await();
+        delivery.mDeliveredMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - release);
+        delivery.mChunks = transport.getChunkCount();
+        assertTrue(uploader.isUploaded());
+        return delivery;
+    }
+
+    private static ByteBuffer tone() {
+        ByteBuffer pcm = ByteBuffer.allocate(WRITE_FRAMES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < WRITE_FRAMES; i++) {
+            pcm.putShort((short) (8000 * Math.sin(2 * Math.PI * 440 * i / RATE)));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private static final class Waiter implements ChunkedUploader.Listener {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile IOException mFailure;
+
+        @Override
+        public void onUploaded(ChunkedUploader uploader) {
+            mDone.countDown();
+        }
+
+        @Override
+        public void onUploadFailed(ChunkedUploader uploader, IOException e) {
+            mFailure = e;
+            mDone.countDown();
+        }
+
+        void await() throws Exception {
+            assertTrue(mDone.await(30, TimeUnit.SECONDS));
+            if (mFailure != null) {
+                throw mFailure;
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
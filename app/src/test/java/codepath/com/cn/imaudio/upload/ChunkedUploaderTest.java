@@ -0,0 +1,350 @@
+package codepath.com.cn.imaudio.upload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.WavHeader;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmWavWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ChunkedUploader}、{@link ChunkEmitter} 和 {@link LoopbackTransport} 的JVM单元测试
+ *
+ * 上传在调用线程中同步执行，结果是确定的。
+ */
+public class ChunkedUploaderTest {
+
+    private static final int RATE = 16000;
+    private static final int CHUNK_BYTES = 1024;
+    // 每次写入100ms
+    private static final int WRITE_FRAMES = RATE / 10;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mDirectory;
+    private File mFile;
+    private LoopbackTransport mTransport;
+    private final Result mResult = new Result();
+
+    private static final class Result implements ChunkedUploader.Listener {
+        int mUploaded;
+        IOException mFailure;
+
+        @Override
+        public void onUploaded(ChunkedUploader uploader) {
+            mUploaded++;
+        }
+
+        @Override
+        public void onUploadFailed(ChunkedUploader uploader, IOException e) {
+            mFailure = e;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("upload", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mFile = new File(mDirectory, "voice.wav");
+        mTransport = new LoopbackTransport(new File(mDirectory, "outbox"));
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void streamsChunksWhileRecording() throws IOException {
+        ChunkedUploader uploader = newUploader(WavHeader.IMA_ADPCM_HEADER_BYTES);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile, uploader);
+
+        long sentBeforeClose = record(emitter, 30);
+        // 松开前已经发出了绝大部分数据，剩下不到一块
+        assertTrue(sentBeforeClose > 0);
+        assertTrue(mFile.length() - sentBeforeClose <= CHUNK_BYTES + WavHeader.IMA_ADPCM_HEADER_BYTES);
+        assertFalse(uploader.isUploaded());
+
+        emitter.close();
+        assertTrue(uploader.isUploaded());
+        assertEquals(1, mResult.mUploaded);
+        assertUploadedIntact(uploader);
+        assertEquals(0, mTransport.getRejectedCount());
+        assertEquals(0, mTransport.getDuplicateCount());
+    }
+
+    @Test
+    public void headerIsPatchedAfterClose() throws IOException {
+        ChunkedUploader uploader = newUploader(WavHeader.IMA_ADPCM_HEADER_BYTES);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile, uploader);
+        record(emitter, 10);
+        emitter.close();
+
+        // 收到的文件头是关闭后的，长度字段正确
+        WavHeader header = WavHeader.read(mTransport.getFile(uploader.getUploadId()));
+        assertEquals(mFile.length() - WavHeader.IMA_ADPCM_HEADER_BYTES, header.getDataBytes());
+        // 文件头补丁排在所有数据块之后
+        int bodyChunks = (int) ((mFile.length() - WavHeader.IMA_ADPCM_HEADER_BYTES + CHUNK_BYTES - 1)
+                / CHUNK_BYTES);
+        assertEquals(bodyChunks, mTransport.getLastSequence(uploader.getUploadId()));
+    }
+
+    @Test
+    public void retriesLostRequestsAndAcks() throws IOException {
+        for (boolean loseAck : new boolean[]{false, true}) {
+            tearDown();
+            setUp();
+            mTransport.setFailEvery(3, loseAck);
+            ChunkedUploader uploader = newUploader(WavHeader.IMA_ADPCM_HEADER_BYTES);
+            ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile,
+                    uploader);
+            record(emitter, 20);
+            emitter.close();
+
+            assertNull(mResult.mFailure);
+            assertTrue(uploader.isUploaded());
+            assertTrue(uploader.getRetryCount() > 0);
+            assertUploadedIntact(uploader);
+            // 重试前先查询已确认的偏移，确认丢失的块不会重发
+            assertEquals(0, mTransport.getDuplicateCount());
+        }
+    }
+
+    @Test
+    public void resumesFromCommittedOffsetAfterFailure() throws IOException {
+        ChunkedUploader uploader = newUploader(WavHeader.IMA_ADPCM_HEADER_BYTES);
+        uploader.setRetryPolicy(2, 0);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile, uploader);
+        record(emitter, 10);
+
+        // 网络中断
+        mTransport.setFailEvery(1, false);
+        record(emitter, 10);
+        emitter.close();
+        assertNotNull(mResult.mFailure);
+        assertFalse(uploader.isUploaded());
+        long committed = mTransport.getCommittedOffset(uploader.getUploadId());
+        assertTrue(committed > 0);
+
+        // 网络恢复后续传，已确认的部分不再发送
+        mTransport.setFailEvery(0, false);
+        long receivedBefore = mTransport.getReceivedBytes();
+        uploader.resume();
+        assertTrue(uploader.isUploaded());
+        assertUploadedIntact(uploader);
+        assertEquals(mFile.length() - committed + WavHeader.IMA_ADPCM_HEADER_BYTES,
+                mTransport.getReceivedBytes() - receivedBefore);
+    }
+
+    @Test
+    public void nonStreamableFormatUploadsAfterClose() throws IOException {
+        ChunkedUploader uploader = newUploader(-1);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile, uploader);
+        assertEquals(0, record(emitter, 10));
+        assertEquals(0, mTransport.getChunkCount());
+
+        emitter.close();
+        assertTrue(uploader.isUploaded());
+        assertUploadedIntact(uploader);
+    }
+
+    @Test
+    public void cancelStopsUpload() throws IOException {
+        ChunkedUploader uploader = newUploader(WavHeader.IMA_ADPCM_HEADER_BYTES);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile, uploader);
+        record(emitter, 10);
+        uploader.cancel();
+        long chunks = mTransport.getChunkCount();
+
+        record(emitter, 10);
+        emitter.close();
+        assertEquals(chunks, mTransport.getChunkCount());
+        assertFalse(uploader.isUploaded());
+        assertEquals(0, mResult.mUploaded);
+        assertFalse(mTransport.isComplete(uploader.getUploadId()));
+    }
+
+    @Test
+    public void emitterStatsFileOnlyNearChunkBoundaries() throws IOException {
+        // 编码器自己记录写入的字节数：录音过程中不查询文件长度，只在关闭时查询一次
+        CountingFile file = new CountingFile(mFile);
+        ChunkedUploader uploader = newUploader(file, WavHeader.IMA_ADPCM_HEADER_BYTES);
+        ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(file, RATE, 1), file, uploader);
+        assertTrue(record(emitter, 30) > 0);
+        assertEquals(0, file.mLengthCalls);
+        emitter.close();
+        assertEquals(1, file.mLengthCalls);
+        assertUploadedIntact(uploader);
+    }
+
+    @Test
+    public void emitterStatsOpaqueEncoderOnlyNearChunkBoundaries() throws IOException {
+        // 编码器不提供写入的字节数时，只在文件长度可能达到块边界时查询；
+        // 每次写入约800字节，块大于一次写入才能看出省去的查询
+        CountingFile file = new CountingFile(mFile);
+        ChunkedUploader uploader = new ChunkedUploader(file, "voice-1",
+                WavHeader.IMA_ADPCM_HEADER_BYTES, ChunkedUploader.DEFAULT_CHUNK_BYTES, mTransport,
+                DIRECT, mResult);
+        final PcmSink encoder = new ImaAdpcmWavWriter(file, RATE, 1);
+        ChunkEmitter emitter = new ChunkEmitter(new PcmSink() {
+            @Override
+            public void write(ByteBuffer pcm) throws IOException {
+                encoder.write(pcm);
+            }
+
+            @Override
+            public void close() throws IOException {
+                encoder.close();
+            }
+        }, file, uploader);
+        int writes = 30;
+        long sentBeforeClose = record(emitter, writes);
+        assertTrue(sentBeforeClose > 0);
+        // 每个块边界前后最多查询两次，加上创建时的一次
+        long boundaries = mFile.length() / ChunkedUploader.DEFAULT_CHUNK_BYTES;
+        assertTrue(file.mLengthCalls <= 2 * boundaries + 1);
+        assertTrue(file.mLengthCalls < writes / 2);
+        emitter.close();
+        assertUploadedIntact(uploader);
+    }
+
+    @Test
+    public void resumeIsNotBlockedByBackoff() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            mTransport.setFailEvery(1, false);
+            ChunkedUploader uploader = new ChunkedUploader(mFile, "voice-1",
+                    WavHeader.IMA_ADPCM_HEADER_BYTES, CHUNK_BYTES, mTransport, executor, mResult);
+            uploader.setRetryPolicy(ChunkedUploader.DEFAULT_MAX_ATTEMPTS, 5000);
+            ChunkEmitter emitter = new ChunkEmitter(new ImaAdpcmWavWriter(mFile, RATE, 1), mFile,
+                    uploader);
+            record(emitter, 10);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (uploader.getRetryCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(uploader.getRetryCount() > 0);
+
+            // 上传线程正在退避等待，其他线程的调用不必等它醒来
+            long begin = System.nanoTime();
+            uploader.resume();
+            uploader.cancel();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1000);
+            emitter.close();
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertFalse(mTransport.isComplete("voice-1"));
+    }
+
+    @Test
+    public void transportRejectsGapsAndCorruption() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        try {
+            mTransport.send(new UploadChunk("x", 1, 100, data, 0, false));
+            fail("gap accepted");
+        } catch (IOException expected) {
+            // 偏移超过已确认的长度
+        }
+        try {
+            mTransport.send(new UploadChunk("x", 0, 0, data, 12345, false));
+            fail("corrupt chunk accepted");
+        } catch (IOException expected) {
+            // CRC32 不符
+        }
+        assertEquals(2, mTransport.getRejectedCount());
+        assertEquals(0, mTransport.getCommittedOffset("x"));
+    }
+
+    private ChunkedUploader newUploader(int headerBytes) {
+        return newUploader(mFile, headerBytes);
+    }
+
+    private ChunkedUploader newUploader(File file, int headerBytes) {
+        ChunkedUploader uploader = new ChunkedUploader(file, "voice-1", headerBytes, CHUNK_BYTES,
+                mTransport, DIRECT, mResult);
+        uploader.setRetryPolicy(ChunkedUploader.DEFAULT_MAX_ATTEMPTS, 0);
+        return uploader;
+    }
+
+    /**
+     * 写入 writes 次、每次100ms的合成信号
+     *
+     * @return 写完后上传器已确认的字节数
+     */
+    private static long record(ChunkEmitter emitter, int writes) throws IOException {
+        ByteBuffer pcm = ByteBuffer.allocate(WRITE_FRAMES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int w = 0; w < writes; w++) {
+            pcm.clear();
+            for (int i = 0; i < WRITE_FRAMES; i++) {
+                pcm.putShort((short) (8000 * Math.sin(2 * Math.PI * 440 * (w * WRITE_FRAMES + i) / RATE)));
+            }
+            pcm.flip();
+            emitter.write(pcm);
+        }
+        return emitter.getUploader().getSentBytes();
+    }
+
+    private void assertUploadedIntact(ChunkedUploader uploader) throws IOException {
+        assertTrue(mTransport.isComplete(uploader.getUploadId()));
+        assertArrayEquals(readAll(mFile), readAll(mTransport.getFile(uploader.getUploadId())));
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 记录 length() 的调用次数，即查询文件长度的次数
+     */
+    private static final class CountingFile extends File {
+        int mLengthCalls;
+
+        CountingFile(File file) {
+            super(file.getPath());
+        }
+
+        @Override
+        public long length() {
+            mLengthCalls++;
+            return super.length();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
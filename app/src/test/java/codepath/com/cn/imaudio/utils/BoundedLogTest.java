@@ -0,0 +1,60 @@
+package codepath.com.cn.imaudio.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link BoundedLog} 的JVM单元测试
+ */
+public class BoundedLogTest {
+
+    @Test
+    public void joinsLinesWithNewline() {
+        BoundedLog log = new BoundedLog(3);
+        assertEquals("", log.getText());
+
+        log.append("a");
+        log.append("b");
+        assertEquals("a\nb", log.getText());
+        assertEquals(2, log.size());
+    }
+
+    @Test
+    public void dropsOldestBeyondLimit() {
+        BoundedLog log = new BoundedLog(3);
+        for (int i = 0; i < 10; i++) {
+            log.append("line" + i);
+        }
+        assertEquals(3, log.size());
+        assertEquals("line7", log.getLine(0));
+        assertEquals("line7\nline8\nline9", log.getText());
+    }
+
+    @Test
+    public void textIsRebuiltOnlyAfterChange() {
+        BoundedLog log = new BoundedLog(3);
+        log.append("a");
+        String text = log.getText();
+        assertSame(text, log.getText());
+
+        long version = log.getVersion();
+        log.append("b");
+        assertEquals(version + 1, log.getVersion());
+        assertNotSame(text, log.getText());
+    }
+
+    @Test
+    public void clearEmptiesLog() {
+        BoundedLog log = new BoundedLog(2);
+        log.append("a");
+        log.clear();
+        assertEquals(0, log.size());
+        assertEquals("", log.getText());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsLineOutOfRange() {
+        new BoundedLog(2).getLine(0);
+    }
+}
@@ -0,0 +1,113 @@
+package codepath.com.cn.imaudio.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CoalescingDispatcher} 的JVM单元测试，用手动触发的帧代替 Choreographer
+ */
+public class CoalescingDispatcherTest {
+
+    /**
+     * 记录请求的帧回调，由测试决定何时执行
+     */
+    private static final class ManualFrames implements CoalescingDispatcher.FrameScheduler {
+
+        final List<Runnable> mRequested = new ArrayList<>();
+
+        @Override
+        public void scheduleFrame(Runnable frame) {
+            mRequested.add(frame);
+        }
+
+        void runFrame() {
+            Runnable frame = mRequested.remove(0);
+            frame.run();
+        }
+    }
+
+    private final ManualFrames mFrames = new ManualFrames();
+    private final CoalescingDispatcher mDispatcher = new CoalescingDispatcher(mFrames);
+    private final List<String> mDelivered = new ArrayList<>();
+
+    @Test
+    public void oneFramePerBurst() {
+        for (int i = 0; i < 10; i++) {
+            mDispatcher.post(record("task" + i));
+        }
+        assertEquals(1, mFrames.mRequested.size());
+
+        mFrames.runFrame();
+        assertEquals(10, mDelivered.size());
+        assertEquals("task0", mDelivered.get(0));
+        assertEquals("task9", mDelivered.get(9));
+        assertEquals(1, mDispatcher.getFrameCount());
+    }
+
+    @Test
+    public void keyedUpdatesDeliverOnlyLatest() {
+        Object meter = new Object();
+        for (int level = 0; level < 300; level++) {
+            mDispatcher.postLatest(meter, record("level" + level));
+        }
+        mDispatcher.post(record("log"));
+
+        mFrames.runFrame();
+        assertEquals(2, mDelivered.size());
+        assertEquals("level299", mDelivered.get(0));
+        assertEquals("log", mDelivered.get(1));
+        assertEquals(301, mDispatcher.getPostedCount());
+        assertEquals(2, mDispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void distinctKeysAreKeptInFirstPostOrder() {
+        Object meter = new Object();
+        Object progress = new Object();
+        mDispatcher.postLatest(meter, record("meter1"));
+        mDispatcher.postLatest(progress, record("progress1"));
+        mDispatcher.postLatest(meter, record("meter2"));
+
+        mFrames.runFrame();
+        assertEquals("meter2", mDelivered.get(0));
+        assertEquals("progress1", mDelivered.get(1));
+    }
+
+    @Test
+    public void updatesPostedDuringFrameWaitForNextFrame() {
+        final Object key = new Object();
+        mDispatcher.post(new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add("first");
+                mDispatcher.postLatest(key, record("second"));
+            }
+        });
+
+        mFrames.runFrame();
+        assertEquals(1, mDelivered.size());
+        assertEquals(1, mFrames.mRequested.size());
+
+        mFrames.runFrame();
+        assertEquals("second", mDelivered.get(1));
+        assertTrue(mFrames.mRequested.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullKey() {
+        mDispatcher.postLatest(null, record("x"));
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,28 @@
+package codepath.com.cn.imaudio.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MessageDeduplicator} 的JVM单元测试
+ */
+public class MessageDeduplicatorTest {
+
+    @Test
+    public void suppressesRepeatsWithinWindow() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator(2000);
+        assertTrue(deduplicator.shouldShow("录音失败", 1000));
+        assertFalse(deduplicator.shouldShow("录音失败", 2999));
+        // 不同的消息不受影响
+        assertTrue(deduplicator.shouldShow("插放失败", 2999));
+        assertTrue(deduplicator.shouldShow("录音失败", 3000));
+    }
+
+    @Test
+    public void comparesByContent() {
+        MessageDeduplicator deduplicator = new MessageDeduplicator(2000);
+        assertTrue(deduplicator.shouldShow(new StringBuilder("abc"), 0));
+        assertFalse(deduplicator.shouldShow("abc", 10));
+    }
+}
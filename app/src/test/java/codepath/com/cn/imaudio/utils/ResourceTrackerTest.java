@@ -0,0 +1,82 @@
+package codepath.com.cn.imaudio.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ResourceTracker} 的JVM单元测试
+ */
+public class ResourceTrackerTest {
+
+    @Test
+    public void countsOpenResourcesByKind() {
+        ResourceTracker tracker = new ResourceTracker();
+        Object record = new Object();
+        Object track = new Object();
+        Object file = new Object();
+        tracker.onOpened(record, "AudioRecord");
+        tracker.onOpened(track, "AudioTrack");
+        tracker.onOpened(file, "encoder");
+
+        assertEquals(3, tracker.getOpenCount());
+        assertEquals(1, tracker.getOpenCount("AudioTrack"));
+        assertEquals(0, tracker.getOpenCount("MediaRecorder"));
+
+        assertTrue(tracker.onClosed(record));
+        assertEquals(2, tracker.getOpenCount());
+        assertEquals(0, tracker.getOpenCount("AudioRecord"));
+        assertEquals(3, tracker.getPeakOpenCount());
+    }
+
+    @Test
+    public void repeatedCallsAreCountedOnce() {
+        ResourceTracker tracker = new ResourceTracker();
+        Object track = new Object();
+        tracker.onOpened(track, "AudioTrack");
+        tracker.onOpened(track, "AudioTrack");
+        assertEquals(1, tracker.getOpenedCount());
+
+        assertTrue(tracker.onClosed(track));
+        assertFalse(tracker.onClosed(track));
+        assertFalse(tracker.onClosed(new Object()));
+        assertEquals(1, tracker.getClosedCount());
+        tracker.checkAllClosed();
+    }
+
+    @Test
+    public void tracksByIdentityNotEquality() {
+        ResourceTracker tracker = new ResourceTracker();
+        String a = new String("session");
+        String b = new String("session");
+        tracker.onOpened(a, "ui");
+        tracker.onOpened(b, "ui");
+        assertEquals(2, tracker.getOpenCount());
+
+        tracker.onClosed(a);
+        assertEquals(1, tracker.getOpenCount("ui"));
+    }
+
+    @Test
+    public void reportsLeakedResources() {
+        ResourceTracker tracker = new ResourceTracker();
+        tracker.onOpened(new Object(), "AudioRecord");
+        Object closed = new Object();
+        tracker.onOpened(closed, "AudioTrack");
+        tracker.onClosed(closed);
+
+        List<String> open = tracker.getOpenResources();
+        assertEquals(1, open.size());
+        assertTrue(open.get(0), open.get(0).startsWith("AudioRecord ("));
+        try {
+            tracker.checkAllClosed();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("AudioRecord"));
+            assertFalse(e.getMessage(), e.getMessage().contains("AudioTrack"));
+        }
+        assertTrue(tracker.dumpStats(), tracker.dumpStats().startsWith("resources: 1 open"));
+    }
+}
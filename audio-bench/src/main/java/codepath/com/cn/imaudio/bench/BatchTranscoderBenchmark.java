@@ -0,0 +1,100 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.transcode.BatchTranscoder;
+
+/**
+ * {@link BatchTranscoder}：一批 {@link #FILE_COUNT} 条长短不一（2～30秒）的 44.1kHz 裸PCM录音
+ * 以不同线程数转为 16kHz IMA ADPCM
+ *
+ * 每次操作转码整批录音，录音文件在操作之前重新生成，不计入耗时。线程数超过CPU核数时按核数计。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchTranscoderBenchmark {
+
+    private static final PcmFormat SOURCE_FORMAT = PcmFormat.CD_MONO;
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    private static final int FILE_COUNT = 60;
+    private static final int LONGEST_SECONDS = 30;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ByteBuffer mSpeech;
+    private File mDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSpeech = BenchFiles.voiceLike(SOURCE_FORMAT, LONGEST_SECONDS);
+    }
+
+    @Setup(Level.Iteration)
+    public void writeRecordings() throws IOException {
+        mDirectory = BenchFiles.createTempFile("bench-transcode", "");
+        if (!mDirectory.delete() || !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        for (int i = 0; i < FILE_COUNT; i++) {
+            int millis = 2000 + (i * 7919) % 28000;
+            ByteBuffer pcm = mSpeech.duplicate();
+            pcm.limit((int) ((long) SOURCE_FORMAT.getSampleRateHz() * millis / 1000)
+                    * SOURCE_FORMAT.getFrameBytes());
+            FileOutputStream fos = new FileOutputStream(new File(mDirectory, "rec" + i + ".pcm"));
+            try {
+                FileChannel channel = fos.getChannel();
+                while (pcm.hasRemaining()) {
+                    channel.write(pcm);
+                }
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteRecordings() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public BatchTranscoder.Report transcodeBatch() throws IOException, InterruptedException {
+        int parallelism = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        BatchTranscoder transcoder = new BatchTranscoder(BenchFiles.codec("ima-adpcm"), SOURCE_FORMAT,
+                STORE_FORMAT, parallelism, Executors.defaultThreadFactory());
+        return transcoder.run(BatchTranscoder.listRawPcmFiles(mDirectory, ".pcm"),
+                new File(mDirectory, ".journal"));
+    }
+}
@@ -0,0 +1,132 @@
+package codepath.com.cn.imaudio.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.audio.codec.AudioCodecRegistry;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmCodec;
+import codepath.com.cn.imaudio.audio.codec.PcmWavCodec;
+
+/**
+ * 基准测试用的输入信号、文件和编解码器
+ */
+final class BenchFiles {
+
+    // 与 app 录音可选的 WAV 编码格式一致；AAC 依赖 MediaCodec，不在 audio-core 中
+    static final AudioCodecRegistry CODECS = new AudioCodecRegistry()
+            .register(new PcmWavCodec())
+            .register(new ImaAdpcmCodec());
+
+    /** 丢弃所有数据的管道末端，只测前面各级的开销 */
+    static final PcmSink DISCARD = new PcmSink() {
+        @Override
+        public void write(ByteBuffer pcm) {
+            pcm.position(pcm.limit());
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private BenchFiles() {
+    }
+
+    static AudioCodec codec(String name) {
+        AudioCodec codec = CODECS.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown codec: " + name);
+        }
+        return codec;
+    }
+
+    static File createTempFile(String prefix, String suffix) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * 合成的类语音信号：基频在 120～220Hz 之间缓慢变化的浊音，带两个共振峰和少量噪声，
+     * 每秒有约0.3秒的停顿，让静音检测和变速都走到真实的分支
+     */
+    static ByteBuffer voiceLike(PcmFormat format, int seconds) {
+        int rate = format.getSampleRateHz();
+        int channels = format.getChannelCount();
+        int frames = rate * seconds;
+        ByteBuffer pcm = ByteBuffer.allocateDirect(frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        long seed = 0x5DEECE66DL;
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / rate;
+            double f0 = 170 + 50 * Math.sin(2 * Math.PI * 0.7 * t);
+            phase += 2 * Math.PI * f0 / rate;
+            boolean voiced = (i % rate) < rate * 7 / 10;
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            double noise = ((seed >>> 40) / (double) (1 << 24) - 0.5) * 200;
+            double value = noise;
+            if (voiced) {
+                value += 6000 * Math.sin(phase) + 2500 * Math.sin(phase * 4) + 1200 * Math.sin(phase * 11);
+            }
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            for (int c = 0; c < channels; c++) {
+                pcm.putShort(sample);
+            }
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    /**
+     * 2秒白噪声与1秒200Hz正弦交替的单声道信号：噪声段会被静音检测判为静音、被降噪器当作背景噪声，
+     * 正弦段是稳定的浊音
+     */
+    static ByteBuffer noiseAndTone(int sampleRateHz, int seconds, double noiseRms, double toneAmplitude) {
+        int frames = sampleRateHz * seconds;
+        ByteBuffer pcm = ByteBuffer.allocateDirect(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(7);
+        for (int i = 0; i < frames; i++) {
+            int inPeriod = i % (sampleRateHz * 3);
+            double value = inPeriod < sampleRateHz * 2
+                    ? noiseRms * random.nextGaussian()
+                    : toneAmplitude * Math.sin(2 * Math.PI * 200 * inPeriod / sampleRateHz);
+            pcm.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    /**
+     * 依次取出 chunkBytes 字节的数据块，到末尾后从头开始，像连续的录音一样不会结束。
+     * 返回的是 pcm 本身，调整了 position 和 limit，不分配内存
+     */
+    static ByteBuffer nextChunk(ByteBuffer pcm, int chunkBytes) {
+        int offset = pcm.limit();
+        if (offset + chunkBytes > pcm.capacity()) {
+            offset = 0;
+        }
+        pcm.limit(offset + chunkBytes);
+        pcm.position(offset);
+        return pcm;
+    }
+
+    /**
+     * 按 app 的保存格式把合成信号编码为录音文件
+     */
+    static File encode(AudioCodec codec, PcmFormat format, int seconds) throws IOException {
+        File file = createTempFile("bench-" + codec.getName(), codec.getFileExtension());
+        PcmSink encoder = codec.newEncoder(file, format.getSampleRateHz(), format.getChannelCount());
+        try {
+            encoder.write(voiceLike(format, seconds));
+        } finally {
+            encoder.close();
+        }
+        return file;
+    }
+}
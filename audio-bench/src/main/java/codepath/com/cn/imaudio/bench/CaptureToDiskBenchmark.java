@@ -0,0 +1,161 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.BufferSizePolicy;
+import codepath.com.cn.imaudio.audio.DirectBufferPool;
+import codepath.com.cn.imaudio.audio.LevelAnalyzer;
+import codepath.com.cn.imaudio.audio.LoudnessStage;
+import codepath.com.cn.imaudio.audio.MinimumLengthSink;
+import codepath.com.cn.imaudio.audio.NoiseSuppressionStage;
+import codepath.com.cn.imaudio.audio.PcmDurationTracker;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmRingBuffer;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.ResamplingSink;
+import codepath.com.cn.imaudio.audio.SilenceTrimmer;
+import codepath.com.cn.imaudio.audio.VoiceActivityDetector;
+import codepath.com.cn.imaudio.audio.WaveformBuilder;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+
+/**
+ * 录音落盘路径：采集一块数据并经过与 StreamRecorder 相同的管道写入文件
+ *
+ * 每次操作为一个数据块：FakeAudioRecord.read -> 电平分析 -> 环形缓冲区 -> 44.1kHz 转 16kHz ->
+ * 降噪 -> 静音裁剪 -> 响度测量和AGC -> 生成波形 -> 最短时长判断 -> 编码写文件。
+ * 采集和写文件在同一线程中依次执行，测的是每块数据的CPU和写盘开销；
+ * 吞吐量乘以数据块时长即相对实时的倍数，SampleTime 给出每块耗时的尾部分位数。
+ * 每轮迭代是一次录音，达到最短时长时创建文件，关闭时写文件头。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CaptureToDiskBenchmark {
+
+    private static final PcmFormat CAPTURE_FORMAT = PcmFormat.CD_MONO;
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    // 以下与 StreamRecorder 一致
+    private static final int RING_STALL_MILLIS = 1000;
+    private static final int MIN_DURATION_MILLIS = 3000;
+    private static final int WAVEFORM_BUCKETS = 64;
+    private static final int VAD_HANGOVER_MILLIS = 300;
+    private static final int TRIM_PRE_ROLL_MILLIS = 300;
+    private static final int TRIM_MAX_PAUSE_MILLIS = 700;
+    private static final int SOURCE_SECONDS = 10;
+
+    /**
+     * 数据块字节数：44.1kHz 单声道下分别为 10ms、20ms、40ms、100ms；
+     * 12288 为 StreamRecorder 实际使用的数据块（THROUGHPUT 策略的 100ms 按 4KB 对齐）
+     */
+    @Param({"882", "1764", "3528", "8820", "12288"})
+    public int chunkBytes;
+
+    @Param({"pcm", "ima-adpcm"})
+    public String codec;
+
+    private FakeAudioRecord mAudioRecord;
+    private PcmRingBuffer mRingBuffer;
+    private LevelAnalyzer mLevelAnalyzer;
+    private LevelAnalyzer mWaveformAnalyzer;
+    private PcmDurationTracker mDurationTracker;
+    private ByteBuffer mLengthGateBuffer;
+    private AudioCodec mCodec;
+    private File mFile;
+    private PcmSink mPipeline;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        mAudioRecord = FakeAudioRecord.create(CAPTURE_FORMAT, SOURCE_SECONDS);
+        // 与 StreamRecorder 相同：按落盘策略计算槽位数，槽位按可能调整到的最大数据块分配
+        BufferSizePolicy policy = new BufferSizePolicy(BufferSizePolicy.Mode.THROUGHPUT,
+                CAPTURE_FORMAT.getSampleRateHz(), CAPTURE_FORMAT.getChannelCount(), 2);
+        int ringSlotCount = policy.getRingSlotCount(RING_STALL_MILLIS);
+        int slotBytes = Math.max(policy.getMaxChunkBytes(), chunkBytes);
+        mRingBuffer = new PcmRingBuffer(new DirectBufferPool(ringSlotCount + 1, slotBytes), ringSlotCount);
+        mLevelAnalyzer = new LevelAnalyzer(CAPTURE_FORMAT.getSampleRateHz(),
+                CAPTURE_FORMAT.getChannelCount(), LevelAnalyzer.DEFAULT_WINDOW_MILLIS, null);
+        mWaveformAnalyzer = new LevelAnalyzer(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), LevelAnalyzer.DEFAULT_WINDOW_MILLIS,
+                new WaveformBuilder(WAVEFORM_BUCKETS));
+        mDurationTracker = new PcmDurationTracker(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), MIN_DURATION_MILLIS);
+        mLengthGateBuffer = ByteBuffer.allocateDirect((int) mDurationTracker.getMinBytes());
+        mCodec = BenchFiles.codec(codec);
+        mFile = BenchFiles.createTempFile("bench-record", mCodec.getFileExtension());
+    }
+
+    @Setup(Level.Iteration)
+    public void openFile() throws IOException {
+        mDurationTracker.reset();
+        final MinimumLengthSink lengthGate = new MinimumLengthSink(new MinimumLengthSink.Opener() {
+            @Override
+            public PcmSink open() throws IOException {
+                return mCodec.newEncoder(mFile, STORE_FORMAT.getSampleRateHz(),
+                        STORE_FORMAT.getChannelCount());
+            }
+        }, mDurationTracker, mLengthGateBuffer);
+        mWaveformAnalyzer.reset();
+        PcmSink waveformStage = new PcmSink() {
+            @Override
+            public void write(ByteBuffer pcm) throws IOException {
+                mWaveformAnalyzer.process(pcm, pcm.position(), pcm.remaining());
+                lengthGate.write(pcm);
+            }
+
+            @Override
+            public void close() throws IOException {
+                lengthGate.close();
+            }
+        };
+        VoiceActivityDetector detector = new VoiceActivityDetector(STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), VAD_HANGOVER_MILLIS);
+        LoudnessStage loudnessStage = new LoudnessStage(waveformStage, STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), LoudnessStage.Mode.AGC);
+        SilenceTrimmer trimmer = new SilenceTrimmer(loudnessStage, detector,
+                STORE_FORMAT.getSampleRateHz(), STORE_FORMAT.getChannelCount(),
+                TRIM_PRE_ROLL_MILLIS, TRIM_MAX_PAUSE_MILLIS, true);
+        NoiseSuppressionStage noiseStage = new NoiseSuppressionStage(trimmer,
+                STORE_FORMAT.getSampleRateHz(), STORE_FORMAT.getChannelCount());
+        mPipeline = new ResamplingSink(CAPTURE_FORMAT, STORE_FORMAT, noiseStage);
+        mRingBuffer.reset();
+        mLevelAnalyzer.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFile() throws IOException {
+        mPipeline.close();
+    }
+
+    @Benchmark
+    public int captureChunk() throws IOException {
+        ByteBuffer frame = mRingBuffer.claim();
+        int readBytes = mAudioRecord.read(frame, chunkBytes);
+        mLevelAnalyzer.process(frame, 0, readBytes);
+        mRingBuffer.publish(readBytes);
+
+        frame = mRingBuffer.peek();
+        mPipeline.write(frame);
+        mRingBuffer.release();
+        return readBytes;
+    }
+}
@@ -0,0 +1,102 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.DecodedPcmCache;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+
+/**
+ * {@link DecodedPcmCache}：轮流重复播放 {@link #MESSAGES} 条 16kHz IMA ADPCM 语音，
+ * 每次重新解码与命中缓存对比
+ *
+ * firstChunk 为打开录音到取得第一个数据块的耗时，wholeMessage 为整条读完的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DecodedPcmCacheBenchmark {
+
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    private static final int MESSAGES = 20;
+    private static final int MESSAGE_SECONDS = 10;
+    private static final int CHUNK_BYTES = 2048;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private final ByteBuffer mTrackBuffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+    private File[] mFiles;
+    private int mNext;
+    private DecodedPcmCache mCache;
+    private DecodedPcmCache.Opener mOpener;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final AudioCodec codec = BenchFiles.codec("ima-adpcm");
+        mFiles = new File[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            mFiles[i] = BenchFiles.encode(codec, STORE_FORMAT, MESSAGE_SECONDS);
+        }
+        mOpener = new DecodedPcmCache.Opener() {
+            @Override
+            public PcmSource open(File file) throws IOException {
+                return codec.newDecoder(file);
+            }
+        };
+        if (cached) {
+            mCache = new DecodedPcmCache(32L * 1024 * 1024, 1024 * 1024, 1000);
+        }
+    }
+
+    @Benchmark
+    public int firstChunk() throws IOException {
+        PcmSource source = open();
+        try {
+            return source.nextChunk(CHUNK_BYTES).remaining();
+        } finally {
+            source.close();
+        }
+    }
+
+    @Benchmark
+    public long wholeMessage() throws IOException {
+        PcmSource source = open();
+        try {
+            ByteBuffer chunk;
+            while ((chunk = source.nextChunk(CHUNK_BYTES)) != null) {
+                mTrackBuffer.clear();
+                mTrackBuffer.put(chunk);
+            }
+            return source.getPositionFrames();
+        } finally {
+            source.close();
+        }
+    }
+
+    private PcmSource open() throws IOException {
+        File file = mFiles[mNext];
+        mNext = (mNext + 1) % MESSAGES;
+        return mCache != null ? mCache.open(file, mOpener) : mOpener.open(file);
+    }
+}
@@ -0,0 +1,73 @@
+package codepath.com.cn.imaudio.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+
+/**
+ * 以文件代替麦克风的 AudioRecord：read(ByteBuffer, int) 的语义与 AudioRecord 相同，
+ * 数据写在目标缓冲区的当前位置，不改变其 position；读到文件末尾时从头循环，像麦克风一样不会结束。
+ *
+ * 文件映射到内存，读取只是一次内存拷贝，测出的是管线本身的开销，而不是设备的采集节奏。
+ */
+final class FakeAudioRecord {
+
+    private final MappedByteBuffer mPcm;
+
+    private FakeAudioRecord(MappedByteBuffer pcm) {
+        mPcm = pcm;
+    }
+
+    /**
+     * 写入 seconds 秒的合成语音作为采集数据
+     */
+    static FakeAudioRecord create(PcmFormat format, int seconds) throws IOException {
+        File file = BenchFiles.createTempFile("bench-capture", ".pcm");
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer pcm = BenchFiles.voiceLike(format, seconds);
+            while (pcm.hasRemaining()) {
+                channel.write(pcm);
+            }
+        } finally {
+            fos.close();
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new FakeAudioRecord(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return 读到的字节数，与 sizeInBytes 相同
+     */
+    int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        // 不用 duplicate()，读取过程中不分配内存
+        int position = audioBuffer.position();
+        int written = 0;
+        while (written < sizeInBytes) {
+            if (!mPcm.hasRemaining()) {
+                mPcm.rewind();
+            }
+            int length = Math.min(sizeInBytes - written, mPcm.remaining());
+            int limit = mPcm.limit();
+            mPcm.limit(mPcm.position() + length);
+            audioBuffer.position(position + written);
+            audioBuffer.put(mPcm);
+            mPcm.limit(limit);
+            written += length;
+        }
+        audioBuffer.position(position);
+        return written;
+    }
+}
@@ -0,0 +1,43 @@
+package codepath.com.cn.imaudio.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 以文件代替音频设备的 AudioTrack：write(ByteBuffer, int) 的语义与 AudioTrack.WRITE_BLOCKING 相同，
+ * 消耗 audioData 中的 sizeInBytes 字节。写满 capacityBytes 后回到文件开头，文件大小不会无限增长。
+ */
+final class FakeAudioTrack {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mCapacityBytes;
+
+    FakeAudioTrack(long capacityBytes) throws IOException {
+        File file = BenchFiles.createTempFile("bench-track", ".pcm");
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mCapacityBytes = capacityBytes;
+    }
+
+    int write(ByteBuffer audioData, int sizeInBytes) throws IOException {
+        if (mChannel.position() >= mCapacityBytes) {
+            mChannel.position(0);
+        }
+        int limit = audioData.limit();
+        audioData.limit(audioData.position() + sizeInBytes);
+        int written = 0;
+        while (audioData.hasRemaining()) {
+            written += mChannel.write(audioData);
+        }
+        audioData.limit(limit);
+        return written;
+    }
+
+    void release() throws IOException {
+        mFile.close();
+    }
+}
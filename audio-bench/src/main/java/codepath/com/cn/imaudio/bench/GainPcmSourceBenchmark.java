@@ -0,0 +1,69 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.GainPcmSource;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+
+/**
+ * {@link GainPcmSource}：播放时施加录音时测得的响度增益
+ *
+ * 每次操作从 16kHz WAV 录音读出一个100ms的数据块；衰减时只做乘法，放大时经过前瞻限幅器。
+ * 稳态下每块分配的内存（gc.alloc.rate.norm）应为0。播完时回到开头。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GainPcmSourceBenchmark {
+
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    private static final int CHUNK_BYTES = STORE_FORMAT.getSampleRateHz() / 10 * STORE_FORMAT.getFrameBytes();
+    private static final int SOURCE_SECONDS = 30;
+
+    @Param({"-6.0", "9.5"})
+    public float gainDb;
+
+    private GainPcmSource mSource;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AudioCodec codec = BenchFiles.codec("pcm");
+        mSource = new GainPcmSource(codec.newDecoder(BenchFiles.encode(codec, STORE_FORMAT, SOURCE_SECONDS)),
+                gainDb);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mSource.close();
+    }
+
+    @Benchmark
+    public int nextChunk() {
+        ByteBuffer chunk = mSource.nextChunk(CHUNK_BYTES);
+        if (chunk == null) {
+            mSource.seekToFrame(0);
+            chunk = mSource.nextChunk(CHUNK_BYTES);
+        }
+        return chunk.remaining();
+    }
+}
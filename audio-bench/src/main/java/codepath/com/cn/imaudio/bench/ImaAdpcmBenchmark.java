@@ -0,0 +1,87 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcm;
+
+/**
+ * {@link ImaAdpcm} 单声道编码和解码
+ *
+ * 每次操作编码或解码一个块（块大小见 {@link ImaAdpcm#blockAlignFor(int, int)}），
+ * 吞吐量乘以块时长即相对实时的倍数。输入为合成语音。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ImaAdpcmBenchmark {
+
+    private static final int SOURCE_SECONDS = 10;
+
+    @Param({"8000", "16000", "44100"})
+    public int sampleRateHz;
+
+    private ImaAdpcm mCodec;
+    private short[] mPcm;
+    private short[] mDecoded;
+    private ByteBuffer mEncoded;
+    private int mBlockCount;
+    private int mBlock;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCodec = new ImaAdpcm(1, ImaAdpcm.blockAlignFor(sampleRateHz, 1));
+        mBlockCount = sampleRateHz * SOURCE_SECONDS / mCodec.getSamplesPerBlock();
+        mPcm = new short[mBlockCount * mCodec.getSamplesPerBlock()];
+        BenchFiles.voiceLike(new PcmFormat(sampleRateHz, 1), SOURCE_SECONDS).asShortBuffer().get(mPcm);
+        mDecoded = new short[mPcm.length];
+        mEncoded = ByteBuffer.allocate(mBlockCount * mCodec.getBlockAlign());
+        // 解码的输入
+        for (int block = 0; block < mBlockCount; block++) {
+            encode(block);
+        }
+    }
+
+    @Benchmark
+    public int encodeBlock() {
+        int block = nextBlock();
+        encode(block);
+        return block;
+    }
+
+    @Benchmark
+    public short decodeBlock() {
+        int block = nextBlock();
+        int offset = block * mCodec.getSamplesPerBlock();
+        mCodec.decodeBlock(mEncoded, block * mCodec.getBlockAlign(), mDecoded, offset);
+        return mDecoded[offset];
+    }
+
+    private void encode(int block) {
+        mCodec.encodeBlock(mPcm, block * mCodec.getSamplesPerBlock(), mEncoded,
+                block * mCodec.getBlockAlign());
+    }
+
+    private int nextBlock() {
+        int block = mBlock;
+        mBlock = block + 1 < mBlockCount ? block + 1 : 0;
+        return block;
+    }
+}
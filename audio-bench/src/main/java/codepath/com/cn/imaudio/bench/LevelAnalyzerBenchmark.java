@@ -0,0 +1,72 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.LevelAnalyzer;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.WaveformBuilder;
+
+/**
+ * {@link LevelAnalyzer} + {@link WaveformBuilder}：按采集格式（44.1kHz 单声道）录音时的电平分析
+ *
+ * 每次操作分析一个100ms的数据块（与 BufferSizePolicy.Mode.THROUGHPUT 一致），
+ * 吞吐量乘以0.1秒即相对实时的倍数，占用的CPU比例应远低于1%；稳态下每块分配的内存（gc.alloc.rate.norm）应为0。
+ * 每轮迭代是一次录音，开始时清空电平和波形。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LevelAnalyzerBenchmark {
+
+    private static final PcmFormat CAPTURE_FORMAT = PcmFormat.CD_MONO;
+    private static final int CHUNK_BYTES = CAPTURE_FORMAT.getSampleRateHz() / 10 * CAPTURE_FORMAT.getFrameBytes();
+    // 与 StreamRecorder.WAVEFORM_BUCKETS 一致
+    private static final int WAVEFORM_BUCKETS = 64;
+    private static final int SOURCE_SECONDS = 30;
+
+    private ByteBuffer mInput;
+    private LevelAnalyzer mAnalyzer;
+    private long mCallbacks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mInput = BenchFiles.noiseAndTone(CAPTURE_FORMAT.getSampleRateHz(), SOURCE_SECONDS, 2000, 8000);
+        mAnalyzer = new LevelAnalyzer(CAPTURE_FORMAT.getSampleRateHz(), CAPTURE_FORMAT.getChannelCount(),
+                LevelAnalyzer.DEFAULT_WINDOW_MILLIS, new WaveformBuilder(WAVEFORM_BUCKETS));
+        // 与界面的电平回调一样，每个窗口回调一次
+        mAnalyzer.setListener(new LevelAnalyzer.Listener() {
+            @Override
+            public void onLevel(LevelAnalyzer analyzer) {
+                mCallbacks++;
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void startRecording() {
+        mAnalyzer.reset();
+    }
+
+    @Benchmark
+    public long analyzeChunk() {
+        ByteBuffer chunk = BenchFiles.nextChunk(mInput, CHUNK_BYTES);
+        mAnalyzer.process(chunk, chunk.position(), chunk.remaining());
+        return mCallbacks;
+    }
+}
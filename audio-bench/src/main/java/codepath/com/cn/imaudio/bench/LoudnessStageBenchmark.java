@@ -0,0 +1,69 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.LoudnessStage;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+
+/**
+ * {@link LoudnessStage}：按保存格式（16kHz 单声道）录音时只测量响度，或实时AGC+限幅
+ *
+ * 每次操作处理一个100ms的数据块（2秒噪声与1秒语音交替），吞吐量乘以0.1秒即相对实时的倍数；
+ * 稳态下每块分配的内存（gc.alloc.rate.norm）应为0。每轮迭代是一次录音，创建时的分配不计入。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoudnessStageBenchmark {
+
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    private static final int CHUNK_BYTES = STORE_FORMAT.getSampleRateHz() / 10 * STORE_FORMAT.getFrameBytes();
+    private static final int SOURCE_SECONDS = 30;
+
+    @Param({"MEASURE", "AGC"})
+    public LoudnessStage.Mode mode;
+
+    private ByteBuffer mInput;
+    private LoudnessStage mStage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mInput = BenchFiles.noiseAndTone(STORE_FORMAT.getSampleRateHz(), SOURCE_SECONDS, 100, 3000);
+    }
+
+    @Setup(Level.Iteration)
+    public void startRecording() {
+        mStage = new LoudnessStage(BenchFiles.DISCARD, STORE_FORMAT.getSampleRateHz(),
+                STORE_FORMAT.getChannelCount(), mode);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopRecording() throws IOException {
+        mStage.close();
+    }
+
+    @Benchmark
+    public double processChunk() throws IOException {
+        mStage.write(BenchFiles.nextChunk(mInput, CHUNK_BYTES));
+        return mStage.getGainDb();
+    }
+}
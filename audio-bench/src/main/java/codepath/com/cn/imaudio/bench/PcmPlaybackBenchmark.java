@@ -0,0 +1,115 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.MappedPcmSource;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+
+/**
+ * 播放读取路径：原有的 FileInputStream.read(byte[]) 循环与 {@link MappedPcmSource} 对比
+ *
+ * firstChunk 为打开文件到第一个数据块送达 AudioTrack 的耗时（time-to-first-sample），
+ * wholeFile 为读完一分钟 44.1kHz 录音的耗时。模拟的 AudioTrack 把数据拷贝进一块直接内存。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PcmPlaybackBenchmark {
+
+    private static final PcmFormat FORMAT = PcmFormat.CD_MONO;
+    private static final int CHUNK_BYTES = 3584;
+    private static final int AUDIO_SECONDS = 60;
+
+    @Param({"stream", "mapped"})
+    public String reader;
+
+    private final byte[] mStreamBuffer = new byte[CHUNK_BYTES];
+    private final ByteBuffer mTrackBuffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mFile = BenchFiles.createTempFile("bench-play", ".pcm");
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer pcm = BenchFiles.voiceLike(FORMAT, AUDIO_SECONDS);
+            while (pcm.hasRemaining()) {
+                channel.write(pcm);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    @Benchmark
+    public int firstChunk() throws IOException {
+        return play(false);
+    }
+
+    @Benchmark
+    public int wholeFile() throws IOException {
+        return play(true);
+    }
+
+    /**
+     * @return 送达 AudioTrack 的数据块数
+     */
+    private int play(boolean toEnd) throws IOException {
+        int chunks = 0;
+        if ("stream".equals(reader)) {
+            FileInputStream fis = new FileInputStream(mFile);
+            try {
+                int readBytes;
+                while ((readBytes = fis.read(mStreamBuffer)) > 0) {
+                    mTrackBuffer.clear();
+                    mTrackBuffer.put(mStreamBuffer, 0, readBytes);
+                    chunks++;
+                    if (!toEnd) {
+                        break;
+                    }
+                }
+            } finally {
+                fis.close();
+            }
+        } else {
+            MappedPcmSource source = MappedPcmSource.open(mFile, FORMAT.getFrameBytes());
+            try {
+                ByteBuffer chunk;
+                while ((chunk = source.nextChunk(CHUNK_BYTES)) != null) {
+                    mTrackBuffer.clear();
+                    mTrackBuffer.put(chunk);
+                    chunks++;
+                    if (!toEnd) {
+                        break;
+                    }
+                }
+            } finally {
+                source.close();
+            }
+        }
+        return chunks;
+    }
+}
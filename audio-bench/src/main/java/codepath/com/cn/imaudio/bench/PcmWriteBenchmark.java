@@ -0,0 +1,104 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmRingBuffer;
+
+/**
+ * 录音落盘：原有的 byte[] + FileOutputStream 与直接内存 {@link PcmRingBuffer} + FileChannel 的对比
+ *
+ * 每次操作写入一帧 {@value #FRAME_BYTES} 字节，吞吐量乘以帧长即每秒写入的字节数。
+ * stream 每帧先复制到 byte[]，channel 复制到环形缓冲区的直接内存中；
+ * 稳态下 channel 每帧分配的内存（gc.alloc.rate.norm）应为0。
+ * 每轮迭代是一次录音，文件写到 {@value #SESSION_BYTES} 字节后从头覆盖，不会无限增长。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmWriteBenchmark {
+
+    private static final int FRAME_BYTES = 2048;
+    private static final int SESSION_BYTES = 64 * 1024 * 1024;
+    private static final int RING_SLOTS = 32;
+
+    @Param({"stream", "channel"})
+    public String path;
+
+    // 模拟 AudioRecord 的数据来源
+    private final byte[] mSource = new byte[FRAME_BYTES];
+    private byte[] mLegacyBuffer;
+    private PcmRingBuffer mRingBuffer;
+    private File mFile;
+    private FileOutputStream mStream;
+    private FileChannel mChannel;
+    private long mWritten;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = (byte) (i * 31);
+        }
+        mLegacyBuffer = new byte[FRAME_BYTES];
+        mRingBuffer = new PcmRingBuffer(RING_SLOTS, FRAME_BYTES);
+        mFile = BenchFiles.createTempFile("bench-pcm-write", ".pcm");
+    }
+
+    @Setup(Level.Iteration)
+    public void openFile() throws IOException {
+        mRingBuffer.reset();
+        mStream = new FileOutputStream(mFile);
+        mChannel = mStream.getChannel();
+        mWritten = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFile() throws IOException {
+        mStream.close();
+    }
+
+    @Benchmark
+    public long writeFrame() throws IOException {
+        if (mWritten == SESSION_BYTES) {
+            mChannel.position(0);
+            mWritten = 0;
+        }
+        if ("stream".equals(path)) {
+            System.arraycopy(mSource, 0, mLegacyBuffer, 0, FRAME_BYTES);
+            mStream.write(mLegacyBuffer, 0, FRAME_BYTES);
+        } else {
+            ByteBuffer frame = mRingBuffer.claim();
+            frame.put(mSource, 0, FRAME_BYTES);
+            mRingBuffer.publish(FRAME_BYTES);
+
+            frame = mRingBuffer.peek();
+            while (frame.hasRemaining()) {
+                mChannel.write(frame);
+            }
+            mRingBuffer.release();
+        }
+        mWritten += FRAME_BYTES;
+        return mWritten;
+    }
+}
@@ -0,0 +1,43 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PipelineMetrics;
+
+/**
+ * {@link PipelineMetrics}：采集循环每个数据块记录的一组指标（一次耗时、一到两个计数）的开销
+ *
+ * 每次操作记录一个数据块，稳态下的内存分配（gc.alloc.rate.norm）应为0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PipelineMetricsBenchmark {
+
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private int mChunk;
+
+    @Benchmark
+    public void recordChunk() {
+        int i = mChunk++;
+        // 耗时在 0.1ms～25ms 之间变化，覆盖多个桶
+        mMetrics.record(PipelineMetrics.Timer.CAPTURE_READ, 100000L + (i & 0xFF) * 100000L);
+        mMetrics.add(PipelineMetrics.Counter.BYTES_CAPTURED, 8820);
+        if ((i & 0x3F) == 0) {
+            mMetrics.increment(PipelineMetrics.Counter.SHORT_READS);
+        }
+    }
+}
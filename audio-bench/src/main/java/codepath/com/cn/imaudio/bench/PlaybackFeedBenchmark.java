@@ -0,0 +1,89 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.ResamplingPcmSource;
+import codepath.com.cn.imaudio.audio.TimeStretchPcmSource;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+
+/**
+ * 播放送数路径：与 PlaybackEngine 相同的数据链产生一块数据并写给 AudioTrack
+ *
+ * 每次操作为一个数据块：解码 16kHz 录音 -> 转换为 48kHz -> 变速 -> FakeAudioTrack.write。
+ * 吞吐量乘以数据块时长即送数速度相对实时的倍数，SampleTime 给出每块耗时的尾部分位数；
+ * 播完时回到开头，与播放器定位的路径相同。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PlaybackFeedBenchmark {
+
+    private static final PcmFormat STORE_FORMAT = PcmFormat.VOICE_WIDEBAND;
+    // 常见设备的原生输出采样率
+    private static final PcmFormat TRACK_FORMAT = new PcmFormat(48000, 1);
+    private static final int SOURCE_SECONDS = 30;
+    private static final long TRACK_FILE_BYTES = 16L * 1024 * 1024;
+
+    /** 数据块字节数：48kHz 单声道下约 10ms、37ms、85ms */
+    @Param({"960", "3584", "8192"})
+    public int chunkBytes;
+
+    @Param({"1.0", "1.5", "2.0"})
+    public float speed;
+
+    @Param({"pcm", "ima-adpcm"})
+    public String codec;
+
+    private File mFile;
+    private TimeStretchPcmSource mSource;
+    private FakeAudioTrack mAudioTrack;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AudioCodec audioCodec = BenchFiles.codec(codec);
+        mFile = BenchFiles.encode(audioCodec, STORE_FORMAT, SOURCE_SECONDS);
+        PcmSource decoder = audioCodec.newDecoder(mFile);
+        mSource = new TimeStretchPcmSource(new ResamplingPcmSource(decoder, TRACK_FORMAT),
+                TRACK_FORMAT.getSampleRateHz());
+        mSource.setSpeed(speed);
+        mAudioTrack = new FakeAudioTrack(TRACK_FILE_BYTES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mSource.close();
+        mAudioTrack.release();
+    }
+
+    @Benchmark
+    public int feedChunk() throws IOException {
+        ByteBuffer chunk = mSource.nextChunk(chunkBytes);
+        if (chunk == null) {
+            mSource.seekToFrame(0);
+            chunk = mSource.nextChunk(chunkBytes);
+        }
+        return mAudioTrack.write(chunk, chunk.remaining());
+    }
+}
@@ -0,0 +1,72 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.FormatConverter;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+
+/**
+ * {@link FormatConverter}：44.1kHz 采集转换为 16kHz 保存、16kHz 转换为 48kHz 播放、48kHz 立体声转换为 16kHz 单声道
+ *
+ * 每次操作转换一个100ms的数据块，吞吐量乘以0.1秒即相对实时的倍数；gc 分析器的
+ * gc.alloc.rate.norm 为每块分配的内存，稳态下应为0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PolyphaseResamplerBenchmark {
+
+    // 与 ResamplingSink 一致
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int SOURCE_SECONDS = 10;
+
+    /** 输入和输出格式：采样率/声道数 */
+    @Param({"44100/1>16000/1", "16000/1>48000/1", "48000/2>16000/1"})
+    public String conversion;
+
+    private FormatConverter mConverter;
+    private ByteBuffer mInput;
+    private int mChunkBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] formats = conversion.split(">");
+        PcmFormat in = parse(formats[0]);
+        PcmFormat out = parse(formats[1]);
+        mConverter = new FormatConverter(in, out, BLOCK_FRAMES);
+        mInput = BenchFiles.voiceLike(in, SOURCE_SECONDS);
+        mChunkBytes = in.getSampleRateHz() / 10 * in.getFrameBytes();
+    }
+
+    @Benchmark
+    public int convertChunk() {
+        ByteBuffer chunk = BenchFiles.nextChunk(mInput, mChunkBytes);
+        int outputBytes = 0;
+        while (chunk.hasRemaining()) {
+            outputBytes += mConverter.convert(chunk).remaining();
+        }
+        return outputBytes;
+    }
+
+    private static PcmFormat parse(String format) {
+        String[] parts = format.split("/");
+        return new PcmFormat(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+}
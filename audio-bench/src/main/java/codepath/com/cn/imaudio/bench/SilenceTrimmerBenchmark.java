@@ -0,0 +1,67 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.SilenceTrimmer;
+import codepath.com.cn.imaudio.audio.VoiceActivityDetector;
+
+/**
+ * {@link VoiceActivityDetector} + {@link SilenceTrimmer}：44.1kHz 单声道录音的静音检测和裁剪
+ *
+ * 每次操作处理一个100ms的数据块（2秒噪声与1秒语音交替），吞吐量乘以0.1秒即相对实时的倍数；
+ * 稳态下每块分配的内存（gc.alloc.rate.norm）应为0。每轮迭代是一次录音。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SilenceTrimmerBenchmark {
+
+    private static final int RATE = 44100;
+    private static final int CHUNK_BYTES = RATE / 10 * 2;
+    private static final int SOURCE_SECONDS = 30;
+
+    private ByteBuffer mInput;
+    private VoiceActivityDetector mDetector;
+    private SilenceTrimmer mTrimmer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mInput = BenchFiles.noiseAndTone(RATE, SOURCE_SECONDS, 100, 8000);
+        mDetector = new VoiceActivityDetector(RATE, 1, 300);
+    }
+
+    @Setup(Level.Iteration)
+    public void startRecording() {
+        mDetector.reset();
+        mTrimmer = new SilenceTrimmer(BenchFiles.DISCARD, mDetector, RATE, 1, 300, 700, true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopRecording() throws IOException {
+        mTrimmer.close();
+    }
+
+    @Benchmark
+    public long trimChunk() throws IOException {
+        mTrimmer.write(BenchFiles.nextChunk(mInput, CHUNK_BYTES));
+        return mTrimmer.getOutputMillis();
+    }
+}
@@ -0,0 +1,60 @@
+package codepath.com.cn.imaudio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.WsolaTimeStretcher;
+
+/**
+ * {@link WsolaTimeStretcher}：16kHz 和 48kHz 单声道语音变速播放
+ *
+ * 每次操作处理一个与 TimeStretchPcmSource 相同的 1024 帧输入块，吞吐量乘以块时长即相对实时的倍数；
+ * 稳态下每块分配的内存（gc.alloc.rate.norm）应为0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WsolaTimeStretcherBenchmark {
+
+    // 与 TimeStretchPcmSource 一致
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int SOURCE_SECONDS = 30;
+
+    @Param({"16000", "48000"})
+    public int sampleRateHz;
+
+    @Param({"1.5", "2.0"})
+    public float speed;
+
+    private WsolaTimeStretcher mStretcher;
+    private ByteBuffer mInput;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mInput = BenchFiles.voiceLike(new PcmFormat(sampleRateHz, 1), SOURCE_SECONDS);
+        mStretcher = new WsolaTimeStretcher(sampleRateHz, 1);
+        mStretcher.setSpeed(speed);
+    }
+
+    @Benchmark
+    public int stretchBlock() {
+        return mStretcher.process(BenchFiles.nextChunk(mInput, BLOCK_FRAMES * 2)).remaining();
+    }
+}
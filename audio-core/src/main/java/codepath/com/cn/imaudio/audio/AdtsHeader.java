@@ -0,0 +1,85 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AAC的ADTS帧头（7字节，不带CRC）
+ *
+ * MediaCodec 输出的是不带帧头的AAC原始帧，逐帧加上ADTS帧头后即可直接拼接成 .aac 文件。
+ */
+public final class AdtsHeader {
+
+    public static final int HEADER_BYTES = 7;
+
+    /** AAC LC */
+    public static final int PROFILE_AAC_LC = 2;
+
+    // 帧长度字段为13位
+    static final int MAX_FRAME_BYTES = 0x1FFF;
+
+    private static final int[] SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private AdtsHeader() {
+    }
+
+    /**
+     * 采样率在ADTS中的索引
+     *
+     * @throws IllegalArgumentException ADTS不支持该采样率
+     */
+    public static int sampleRateIndex(int sampleRateHz) {
+        for (int i = 0; i < SAMPLE_RATES.length; i++) {
+            if (SAMPLE_RATES[i] == sampleRateHz) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unsupported adts sample rate: " + sampleRateHz);
+    }
+
+    /**
+     * 在 dst 的当前位置写入7字节帧头
+     *
+     * @param profile {@link #PROFILE_AAC_LC} 等 MPEG-4 音频对象类型
+     * @param sampleRateIndex {@link #sampleRateIndex(int)} 的返回值
+     * @param channelCount 声道数（1-7）
+     * @param payloadBytes 帧头之后AAC原始帧的字节数
+     */
+    public static void write(ByteBuffer dst, int profile, int sampleRateIndex, int channelCount,
+                             int payloadBytes) {
+        int frameBytes = HEADER_BYTES + payloadBytes;
+        if (frameBytes > MAX_FRAME_BYTES || payloadBytes < 0) {
+            throw new IllegalArgumentException("invalid adts payload size: " + payloadBytes);
+        }
+        if (channelCount < 1 || channelCount > 7) {
+            throw new IllegalArgumentException("invalid adts channel count: " + channelCount);
+        }
+
+        dst.put((byte) 0xFF);
+        // MPEG-4，没有CRC
+        dst.put((byte) 0xF1);
+        dst.put((byte) (((profile - 1) << 6) | (sampleRateIndex << 2) | (channelCount >> 2)));
+        dst.put((byte) (((channelCount & 3) << 6) | (frameBytes >> 11)));
+        dst.put((byte) (frameBytes >> 3));
+        // 缓冲区满度 0x7FF 表示可变码率
+        dst.put((byte) (((frameBytes & 7) << 5) | 0x1F));
+        dst.put((byte) 0xFC);
+    }
+
+    /**
+     * 从ADTS帧头中解析整帧（含帧头）的字节数
+     *
+     * @param src 从 src 的当前位置开始的帧头，不改变 position
+     * @return 帧长度，不是有效帧头时返回-1
+     */
+    public static int frameBytes(ByteBuffer src) {
+        int p = src.position();
+        if (src.remaining() < HEADER_BYTES
+                || (src.get(p) & 0xFF) != 0xFF || (src.get(p + 1) & 0xF0) != 0xF0) {
+            return -1;
+        }
+        return ((src.get(p + 3) & 0x03) << 11) | ((src.get(p + 4) & 0xFF) << 3)
+                | ((src.get(p + 5) & 0xFF) >> 5);
+    }
+}
@@ -0,0 +1,243 @@
+package codepath.com.cn.imaudio.audio;
+
+/**
+ * 录音/播放缓冲区大小策略
+ *
+ * 根据采样率、声道数、采样位宽和目标延迟，计算每次读写的数据块大小，以及
+ * AudioRecord/AudioTrack 内部缓冲区的大小，取代固定的 2048 字节。
+ *
+ * 运行中会根据欠载（AudioTrack.getUnderrunCount()）和短读（AudioRecord.read 返回的字节数少于请求值）
+ * 调整数据块大小，调整范围为基准值的 1/2 到 2 倍，{@link #getMaxChunkBytes()} 可用于预分配缓冲区。
+ *
+ * 非线程安全，应在同一个音频线程中使用。
+ */
+public final class BufferSizePolicy {
+
+    public enum Mode {
+        /** 每块 10ms，内部缓冲 2 块，适合实时对讲 */
+        LOW_LATENCY(10, 2, 1),
+        /** 每块 40ms，内部缓冲 3 块 */
+        BALANCED(40, 3, 512),
+        /** 每块 100ms，内部缓冲 4 块，数据块按存储页对齐，适合录音落盘 */
+        THROUGHPUT(100, 4, 4096);
+
+        final int chunkMillis;
+        final int bufferChunks;
+        final int ioAlignBytes;
+
+        Mode(int chunkMillis, int bufferChunks, int ioAlignBytes) {
+            this.chunkMillis = chunkMillis;
+            this.bufferChunks = bufferChunks;
+            this.ioAlignBytes = ioAlignBytes;
+        }
+
+        public int getChunkMillis() {
+            return chunkMillis;
+        }
+    }
+
+    // 连续多少次短读后按实际读到的大小调整数据块
+    static final int SHORT_READ_THRESHOLD = 8;
+
+    private final Mode mMode;
+    private final int mSampleRateHz;
+    private final int mFrameBytes;
+    private final int mAlignBytes;
+
+    private final int mBaseChunkBytes;
+    private final int mMinChunkBytes;
+    private final int mMaxChunkBytes;
+    private int mChunkBytes;
+
+    private int mLastUnderrunCount;
+    private int mShortReadStreak;
+    private int mShortReadMaxBytes;
+    private int mAdjustCount;
+
+    /**
+     * @param mode 策略模式
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数
+     * @param bytesPerSample 每个采样的字节数，16位PCM为2
+     */
+    public BufferSizePolicy(Mode mode, int sampleRateHz, int channelCount, int bytesPerSample) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || bytesPerSample <= 0) {
+            throw new IllegalArgumentException("invalid format: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, " + bytesPerSample + " bytes/sample");
+        }
+
+        mMode = mode;
+        mSampleRateHz = sampleRateHz;
+        mFrameBytes = channelCount * bytesPerSample;
+        mAlignBytes = lcm(mFrameBytes, mode.ioAlignBytes);
+
+        mBaseChunkBytes = align(millisToBytes(mode.chunkMillis));
+        mMinChunkBytes = align(mBaseChunkBytes / 2);
+        mMaxChunkBytes = align(mBaseChunkBytes * 2);
+        mChunkBytes = mBaseChunkBytes;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * 当前每次读写的字节数，总是帧大小的整数倍
+     */
+    public int getChunkBytes() {
+        return mChunkBytes;
+    }
+
+    /**
+     * 数据块可能调整到的最大字节数，用于预分配缓冲区
+     */
+    public int getMaxChunkBytes() {
+        return mMaxChunkBytes;
+    }
+
+    /**
+     * 当前数据块对应的时长（微秒）
+     */
+    public long getChunkDurationMicros() {
+        return bytesToMicros(mChunkBytes);
+    }
+
+    /**
+     * AudioRecord/AudioTrack 内部缓冲区的字节数
+     *
+     * @param minBufferSize AudioRecord.getMinBufferSize/AudioTrack.getMinBufferSize 的返回值
+     */
+    public int getInternalBufferBytes(int minBufferSize) {
+        int preferred = mChunkBytes * mMode.bufferChunks;
+        return Math.max(alignUp(Math.max(minBufferSize, 0), mFrameBytes), preferred);
+    }
+
+    /**
+     * 与 {@link #getInternalBufferBytes(int)} 相同，以帧为单位，
+     * 用于 AudioTrack.setBufferSizeInFrames
+     */
+    public int getInternalBufferFrames(int minBufferSize) {
+        return getInternalBufferBytes(minBufferSize) / mFrameBytes;
+    }
+
+    /**
+     * 吸收指定时长的存储卡顿所需的环形缓冲区槽位数（2的幂），按最小数据块计算，
+     * 数据块缩小后仍然足够
+     */
+    public int getRingSlotCount(int stallMillis) {
+        long chunks = (millisToBytes(stallMillis) + mMinChunkBytes - 1) / mMinChunkBytes;
+        int slots = 2;
+        while (slots < chunks) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * 报告播放欠载计数（AudioTrack.getUnderrunCount() 的返回值，单调递增）。
+     * 计数增加时数据块增大 50%，直到上限。
+     *
+     * @return 数据块大小是否发生变化
+     */
+    public boolean onUnderrunCount(int underrunCount) {
+        boolean underrun = underrunCount > mLastUnderrunCount;
+        mLastUnderrunCount = underrunCount;
+        if (!underrun) {
+            return false;
+        }
+
+        return resize(mChunkBytes + mChunkBytes / 2);
+    }
+
+    /**
+     * 报告一次读取的结果。连续多次读到的数据少于请求值时，说明底层每次只交付较小的数据块，
+     * 此时把数据块缩小到实际读到的大小，避免读取线程空等。
+     *
+     * @return 数据块大小是否发生变化
+     */
+    public boolean onRead(int requestedBytes, int actualBytes) {
+        if (actualBytes <= 0 || actualBytes >= requestedBytes) {
+            mShortReadStreak = 0;
+            mShortReadMaxBytes = 0;
+            return false;
+        }
+
+        mShortReadMaxBytes = Math.max(mShortReadMaxBytes, actualBytes);
+        if (++mShortReadStreak < SHORT_READ_THRESHOLD) {
+            return false;
+        }
+
+        int observed = mShortReadMaxBytes;
+        mShortReadStreak = 0;
+        mShortReadMaxBytes = 0;
+        return resize(observed);
+    }
+
+    /**
+     * 数据块大小被调整的次数
+     */
+    public int getAdjustCount() {
+        return mAdjustCount;
+    }
+
+    /**
+     * 清零欠载和短读计数，保留已调整的数据块大小（新建 AudioTrack/AudioRecord 时调用）
+     */
+    public void resetCounters() {
+        mLastUnderrunCount = 0;
+        mShortReadStreak = 0;
+        mShortReadMaxBytes = 0;
+    }
+
+    /**
+     * 恢复到基准数据块大小，并清零所有计数
+     */
+    public void reset() {
+        resetCounters();
+        mChunkBytes = mBaseChunkBytes;
+    }
+
+    public long bytesToMicros(long bytes) {
+        return bytes / mFrameBytes * 1000000L / mSampleRateHz;
+    }
+
+    private boolean resize(int chunkBytes) {
+        int resized = Math.min(mMaxChunkBytes, Math.max(mMinChunkBytes, align(chunkBytes)));
+        if (resized == mChunkBytes) {
+            return false;
+        }
+        mChunkBytes = resized;
+        mAdjustCount++;
+        return true;
+    }
+
+    private int millisToBytes(int millis) {
+        return (int) ((long) mSampleRateHz * millis / 1000) * mFrameBytes;
+    }
+
+    /**
+     * 对齐到帧和IO块大小，至少一个对齐单位
+     */
+    private int align(int bytes) {
+        return Math.max(mAlignBytes, alignUp(bytes, mAlignBytes));
+    }
+
+    private static int alignUp(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+}
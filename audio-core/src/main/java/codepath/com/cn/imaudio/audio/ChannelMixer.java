@@ -0,0 +1,76 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 声道转换
+ *
+ * 输入声道 i 对应输出声道 i % 输出声道数：减少声道时对应到同一输出声道的输入取平均
+ * （立体声转单声道为左右平均）；增加声道时输出声道 c 取输入声道 c % 输入声道数
+ * （单声道转立体声为复制）。非线程安全。
+ */
+public final class ChannelMixer {
+
+    private final int mInChannels;
+    private final int mOutChannels;
+    // 每个输出声道对应的输入声道个数的倒数
+    private final float[] mScale;
+
+    public ChannelMixer(int inChannels, int outChannels) {
+        if (inChannels <= 0 || outChannels <= 0) {
+            throw new IllegalArgumentException("invalid channel count: " + inChannels + " -> "
+                    + outChannels);
+        }
+        mInChannels = inChannels;
+        mOutChannels = outChannels;
+        mScale = new float[outChannels];
+        for (int c = 0; c < outChannels; c++) {
+            int sources = 0;
+            for (int i = c; i < inChannels; i += outChannels) {
+                sources++;
+            }
+            mScale[c] = sources > 0 ? 1f / sources : 1f;
+        }
+    }
+
+    public int getInChannels() {
+        return mInChannels;
+    }
+
+    public int getOutChannels() {
+        return mOutChannels;
+    }
+
+    /**
+     * 转换一帧，不改变 in 的 position
+     *
+     * @param in 16位小端PCM
+     * @param offset 帧在 in 中的字节偏移
+     * @param out 写入 {@link #getOutChannels()} 个采样
+     */
+    public void mix(ByteBuffer in, int offset, float[] out) {
+        if (mInChannels <= mOutChannels) {
+            for (int c = 0; c < mOutChannels; c++) {
+                out[c] = sampleAt(in, offset + (c % mInChannels) * 2);
+            }
+            return;
+        }
+
+        for (int c = 0; c < mOutChannels; c++) {
+            out[c] = 0;
+        }
+        for (int i = 0; i < mInChannels; i++) {
+            out[i % mOutChannels] += sampleAt(in, offset + i * 2);
+        }
+        for (int c = 0; c < mOutChannels; c++) {
+            out[c] *= mScale[c];
+        }
+    }
+
+    /**
+     * 按字节读取，与缓冲区的字节序设置无关
+     */
+    static int sampleAt(ByteBuffer in, int offset) {
+        return (short) ((in.get(offset) & 0xFF) | in.get(offset + 1) << 8);
+    }
+}
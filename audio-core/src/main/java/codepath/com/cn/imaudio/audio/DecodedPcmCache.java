@@ -0,0 +1,443 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 解码后PCM的内存缓存，按总字节数限制，最久未播放的先淘汰
+ *
+ * 聊天界面中同一条语音会被反复播放，缓存命中时不再打开和解码文件：
+ * <ul>
+ *     <li>解码后不超过 maxEntryBytes 的录音整段缓存，播放完全在内存中进行</li>
+ *     <li>更长的录音只缓存开头 prefixMillis，播放时先输出缓存，读到缓存末尾时才打开解码器继续</li>
+ * </ul>
+ * 没有命中时，{@link #open(File, Opener)} 返回的数据源在顺序播放的同时把解码结果记下来，
+ * 播放到要缓存的长度时放入缓存；{@link #prefetch(File, Opener)} 可以提前解码即将播放的录音（如屏幕上可见的消息）。
+ *
+ * 缓存按文件路径、长度和修改时间识别，文件被改写后旧的缓存失效。内存紧张时用
+ * {@link #trimToSize(long)} 或 {@link #clear()} 释放。线程安全；缓存的数据不可变，
+ * 多个数据源可以同时读取同一段缓存。
+ */
+public final class DecodedPcmCache {
+
+    /**
+     * 打开文件的解码器，如 AudioCodec.newDecoder
+     */
+    public interface Opener {
+        PcmSource open(File file) throws IOException;
+    }
+
+    private static final class Entry {
+        final long mFileLength;
+        final long mLastModified;
+        final int mFrameBytes;
+        final int mSampleRateHz;
+        // 整个文件的帧数
+        final long mFrameCount;
+        // position 为0，limit 为缓存的字节数，放入缓存后不再修改
+        final ByteBuffer mData;
+
+        Entry(File file, PcmSource source, ByteBuffer data) {
+            mFileLength = file.length();
+            mLastModified = file.lastModified();
+            mFrameBytes = source.getFrameBytes();
+            mSampleRateHz = source.getSampleRateHz();
+            mFrameCount = source.getFrameCount();
+            mData = data;
+        }
+
+        int getBytes() {
+            return mData.limit();
+        }
+
+        long getCachedFrames() {
+            return mData.limit() / mFrameBytes;
+        }
+
+        boolean isComplete() {
+            return getCachedFrames() >= mFrameCount;
+        }
+
+        boolean matches(File file) {
+            return mFileLength == file.length() && mLastModified == file.lastModified();
+        }
+    }
+
+    private final long mMaxEntryBytes;
+    private final int mPrefixMillis;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mBytes;
+
+    private long mHitCount;
+    private long mPrefixHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxBytes 缓存的总字节数上限
+     * @param maxEntryBytes 解码后不超过此大小的录音整段缓存
+     * @param prefixMillis 更长的录音缓存开头的时长
+     */
+    public DecodedPcmCache(long maxBytes, long maxEntryBytes, int prefixMillis) {
+        if (maxBytes < 0 || maxEntryBytes < 0 || prefixMillis < 0) {
+            throw new IllegalArgumentException("negative cache limit");
+        }
+        mMaxBytes = maxBytes;
+        mMaxEntryBytes = maxEntryBytes;
+        mPrefixMillis = prefixMillis;
+    }
+
+    /**
+     * 打开文件：命中时从缓存输出，否则打开解码器并在播放的同时填充缓存
+     */
+    public PcmSource open(File file, Opener opener) throws IOException {
+        Entry entry = lookup(file);
+        if (entry != null) {
+            return new CachedSource(entry, file, opener);
+        }
+        return new FillingSource(opener.open(file), file);
+    }
+
+    /**
+     * 在调用线程中解码并放入缓存，已经缓存的不再解码，应在后台线程中调用
+     *
+     * @return 缓存中已有或放入成功时返回true
+     */
+    public boolean prefetch(File file, Opener opener) throws IOException {
+        synchronized (this) {
+            Entry entry = mEntries.get(file.getPath());
+            if (entry != null && entry.matches(file)) {
+                return true;
+            }
+        }
+
+        FillingSource source = new FillingSource(opener.open(file), file);
+        try {
+            int chunkBytes = source.getFrameBytes() * 1024;
+            while (!source.isFilled() && source.nextChunk(chunkBytes) != null) {
+                // 解码直到缓存的部分填满
+            }
+        } finally {
+            source.close();
+        }
+        synchronized (this) {
+            return mEntries.containsKey(file.getPath());
+        }
+    }
+
+    /**
+     * 移除文件的缓存，例如录音被删除
+     */
+    public synchronized void remove(File file) {
+        Entry entry = mEntries.remove(file.getPath());
+        if (entry != null) {
+            mBytes -= entry.getBytes();
+        }
+    }
+
+    /**
+     * 淘汰最久未播放的缓存直到不超过 maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            mBytes -= entry.getBytes();
+            mEvictionCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 修改总字节数上限，超出的部分立即淘汰
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * 整段命中的次数
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 只命中开头、之后需要解码的次数
+     */
+    public synchronized long getPrefixHitCount() {
+        return mPrefixHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 各项统计，用于日志
+     */
+    public synchronized String dumpStats() {
+        long lookups = mHitCount + mPrefixHitCount + mMissCount;
+        return String.format(Locale.US,
+                "decoded cache: %d entries %d/%d KB, hit %d prefix %d miss %d (%.0f%%), put %d evict %d",
+                mEntries.size(), mBytes / 1024, mMaxBytes / 1024, mHitCount, mPrefixHitCount,
+                mMissCount, lookups > 0 ? 100.0 * (mHitCount + mPrefixHitCount) / lookups : 0.0,
+                mPutCount, mEvictionCount);
+    }
+
+    private synchronized Entry lookup(File file) {
+        String key = file.getPath();
+        Entry entry = mEntries.get(key);
+        if (entry != null && !entry.matches(file)) {
+            // 文件已被改写
+            mEntries.remove(key);
+            mBytes -= entry.getBytes();
+            entry = null;
+        }
+        if (entry == null) {
+            mMissCount++;
+        } else if (entry.isComplete()) {
+            mHitCount++;
+        } else {
+            mPrefixHitCount++;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        if (entry.getBytes() > mMaxBytes) {
+            return;
+        }
+        Entry old = mEntries.put(key, entry);
+        if (old != null) {
+            mBytes -= old.getBytes();
+        }
+        mBytes += entry.getBytes();
+        mPutCount++;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 要缓存的字节数：能整段缓存时为整段，否则为开头 prefixMillis
+     */
+    private long limitBytes(PcmSource source) {
+        long totalBytes = source.getFrameCount() * source.getFrameBytes();
+        if (totalBytes <= mMaxEntryBytes) {
+            return totalBytes;
+        }
+        // 裸PCM的采样率未知，无法换算开头的时长
+        long prefixFrames = (long) mPrefixMillis * Math.max(0, source.getSampleRateHz()) / 1000;
+        return Math.min(totalBytes, prefixFrames * source.getFrameBytes());
+    }
+
+    /**
+     * 从缓存输出，读到缓存末尾且还有数据时才打开解码器
+     */
+    private static final class CachedSource implements PcmSource {
+
+        private final Entry mEntry;
+        private final File mFile;
+        private final Opener mOpener;
+        // 复用的视图，避免每次读取都创建新的ByteBuffer对象
+        private final ByteBuffer mView;
+        private PcmSource mDecoder;
+        private long mPosition;
+
+        CachedSource(Entry entry, File file, Opener opener) {
+            mEntry = entry;
+            mFile = file;
+            mOpener = opener;
+            mView = entry.mData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public int getFrameBytes() {
+            return mEntry.mFrameBytes;
+        }
+
+        @Override
+        public int getSampleRateHz() {
+            return mEntry.mSampleRateHz;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return mEntry.mFrameCount;
+        }
+
+        @Override
+        public long getPositionFrames() {
+            return mPosition;
+        }
+
+        @Override
+        public void seekToFrame(long frame) {
+            mPosition = Math.max(0, Math.min(frame, mEntry.mFrameCount));
+            if (mDecoder != null && mPosition >= mEntry.getCachedFrames()) {
+                mDecoder.seekToFrame(mPosition);
+            }
+        }
+
+        @Override
+        public ByteBuffer nextChunk(int maxBytes) {
+            int frameBytes = mEntry.mFrameBytes;
+            if (maxBytes < frameBytes) {
+                throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+            }
+
+            long cachedFrames = mEntry.getCachedFrames();
+            if (mPosition < cachedFrames) {
+                int start = (int) (mPosition * frameBytes);
+                int length = Math.min(maxBytes - maxBytes % frameBytes, mEntry.getBytes() - start);
+                mView.clear();
+                mView.position(start);
+                mView.limit(start + length);
+                mPosition += length / frameBytes;
+                return mView;
+            }
+            if (mPosition >= mEntry.mFrameCount) {
+                return null;
+            }
+
+            if (mDecoder == null) {
+                try {
+                    mDecoder = mOpener.open(mFile);
+                } catch (IOException e) {
+                    // 文件在缓存后被删除或损坏，只能播放缓存的部分
+                    return null;
+                }
+                mDecoder.seekToFrame(mPosition);
+            }
+            ByteBuffer chunk = mDecoder.nextChunk(maxBytes);
+            mPosition = mDecoder.getPositionFrames();
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mDecoder != null) {
+                mDecoder.close();
+            }
+        }
+    }
+
+    /**
+     * 输出解码器的数据，从头开始顺序读取期间把数据复制到缓存缓冲区，填满要缓存的部分时放入缓存。
+     * 向后定位（如预写时退回没写进去的数据）从该处继续记录；向前跳过了一段，或者没有播放到要缓存的长度
+     * 就关闭的，不放入缓存。
+     */
+    private final class FillingSource implements PcmSource {
+
+        private final PcmSource mDecoder;
+        private final File mFile;
+        private final ByteBuffer mFill;
+        private boolean mFilling;
+
+        FillingSource(PcmSource decoder, File file) {
+            mDecoder = decoder;
+            mFile = file;
+            long limit = limitBytes(decoder);
+            mFilling = limit > 0 && decoder.getPositionFrames() == 0;
+            mFill = mFilling
+                    ? ByteBuffer.allocate((int) limit).order(ByteOrder.LITTLE_ENDIAN) : null;
+        }
+
+        boolean isFilled() {
+            return mFill == null || !mFill.hasRemaining();
+        }
+
+        @Override
+        public int getFrameBytes() {
+            return mDecoder.getFrameBytes();
+        }
+
+        @Override
+        public int getSampleRateHz() {
+            return mDecoder.getSampleRateHz();
+        }
+
+        @Override
+        public long getFrameCount() {
+            return mDecoder.getFrameCount();
+        }
+
+        @Override
+        public long getPositionFrames() {
+            return mDecoder.getPositionFrames();
+        }
+
+        @Override
+        public void seekToFrame(long frame) {
+            mDecoder.seekToFrame(frame);
+            if (!mFilling) {
+                return;
+            }
+            long position = mDecoder.getPositionFrames() * getFrameBytes();
+            if (position <= mFill.position()) {
+                mFill.position((int) position);
+            } else {
+                mFilling = false;
+            }
+        }
+
+        @Override
+        public ByteBuffer nextChunk(int maxBytes) {
+            ByteBuffer chunk = mDecoder.nextChunk(maxBytes);
+            if (chunk != null && mFilling) {
+                int length = Math.min(chunk.remaining(), mFill.remaining());
+                ByteBuffer copy = chunk.duplicate();
+                copy.limit(copy.position() + length);
+                mFill.put(copy);
+                if (!mFill.hasRemaining()) {
+                    publish();
+                }
+            }
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mDecoder.close();
+        }
+
+        private void publish() {
+            mFilling = false;
+            ByteBuffer data = mFill.duplicate();
+            data.flip();
+            put(mFile.getPath(), new Entry(mFile, mDecoder, data));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 预分配的直接内存（direct）ByteBuffer池
+ *
+ * 所有缓冲区在构造时从一整块直接内存中切分出来，之后的 {@link #acquire()} / {@link #release(ByteBuffer)}
+ * 不再分配任何对象。直接内存可以被 AudioRecord/AudioTrack 和 FileChannel 直接访问，省去了
+ * byte[] 与本地内存之间的拷贝。缓冲区为小端字节序，与PCM数据一致。
+ *
+ * 线程安全。
+ */
+public final class DirectBufferPool {
+
+    private final int mBufferBytes;
+    private final int mCapacity;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBuffers;
+
+    /**
+     * @param bufferCount 缓冲区个数
+     * @param bufferBytes 每个缓冲区的字节数
+     */
+    public DirectBufferPool(int bufferCount, int bufferBytes) {
+        if (bufferCount <= 0 || bufferBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "bufferCount and bufferBytes must be positive: " + bufferCount + ", " + bufferBytes);
+        }
+
+        mBufferBytes = bufferBytes;
+        mCapacity = bufferCount;
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(bufferCount * bufferBytes);
+        for (int i = 0; i < bufferCount; i++) {
+            slab.limit((i + 1) * bufferBytes);
+            slab.position(i * bufferBytes);
+            mFreeBuffers.add(slab.slice().order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * 取出一个已清空的缓冲区，池已空时返回null
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer != null) {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还由 {@link #acquire()} 取得的缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != mBufferBytes) {
+            throw new IllegalArgumentException("buffer does not belong to this pool");
+        }
+        if (!mFreeBuffers.offer(buffer)) {
+            throw new IllegalStateException("buffer released twice");
+        }
+    }
+
+    public int getBufferBytes() {
+        return mBufferBytes;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 当前可用的缓冲区个数
+     */
+    public int available() {
+        return mFreeBuffers.size();
+    }
+}
@@ -0,0 +1,14 @@
+package codepath.com.cn.imaudio.audio;
+
+/**
+ * 写文件的 {@link PcmSink}：自己记录已写入文件的字节数，调用方不必查询文件长度
+ *
+ * 由写文件线程调用，实现不需要线程安全。
+ */
+public interface FileSink extends PcmSink {
+
+    /**
+     * 已写入文件的字节数，含文件头，与此时的文件长度相同
+     */
+    long getFileBytes();
+}
@@ -0,0 +1,125 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PCM格式转换：先由 {@link ChannelMixer} 转换声道，再由 {@link PolyphaseResampler} 转换采样率
+ *
+ * 先转换声道，降为单声道时重采样的计算量随之减少。输出写入内部复用的直接缓冲区，
+ * 处理过程不分配内存。非线程安全。
+ */
+public final class FormatConverter {
+
+    private final PcmFormat mInFormat;
+    private final PcmFormat mOutFormat;
+    private final int mMaxInputFrames;
+    private final ChannelMixer mMixer;
+    // 采样率相同时为null，只转换声道
+    private final PolyphaseResampler mResampler;
+    private final float[] mFrame;
+    private final ByteBuffer mOutput;
+
+    /**
+     * @param maxInputFrames 每次 {@link #convert(ByteBuffer)} 最多处理的输入帧数，决定输出缓冲区的大小
+     */
+    public FormatConverter(PcmFormat inFormat, PcmFormat outFormat, int maxInputFrames) {
+        if (maxInputFrames <= 0) {
+            throw new IllegalArgumentException("maxInputFrames must be positive: " + maxInputFrames);
+        }
+        mInFormat = inFormat;
+        mOutFormat = outFormat;
+        mMaxInputFrames = maxInputFrames;
+        mMixer = new ChannelMixer(inFormat.getChannelCount(), outFormat.getChannelCount());
+        mFrame = new float[outFormat.getChannelCount()];
+
+        int maxOutputFrames;
+        if (inFormat.getSampleRateHz() == outFormat.getSampleRateHz()) {
+            mResampler = null;
+            maxOutputFrames = maxInputFrames;
+        } else {
+            mResampler = new PolyphaseResampler(inFormat.getSampleRateHz(),
+                    outFormat.getSampleRateHz(), outFormat.getChannelCount());
+            maxOutputFrames = Math.max(mResampler.getMaxOutputFrames(maxInputFrames),
+                    mResampler.getMaxFlushFrames());
+        }
+        mOutput = ByteBuffer.allocateDirect(maxOutputFrames * outFormat.getFrameBytes())
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public PcmFormat getInFormat() {
+        return mInFormat;
+    }
+
+    public PcmFormat getOutFormat() {
+        return mOutFormat;
+    }
+
+    public int getMaxInputFrames() {
+        return mMaxInputFrames;
+    }
+
+    /**
+     * 转换 in 中 position 开始的完整帧，最多 {@link #getMaxInputFrames()} 帧，in 的 position 随之前移
+     * （不足一帧的尾部不消费）
+     *
+     * @return 转换结果，position 为0，在下一次调用前有效
+     */
+    public ByteBuffer convert(ByteBuffer in) {
+        int frameBytes = mInFormat.getFrameBytes();
+        int frames = Math.min(mMaxInputFrames, in.remaining() / frameBytes);
+
+        mOutput.clear();
+        int offset = in.position();
+        for (int i = 0; i < frames; i++, offset += frameBytes) {
+            mMixer.mix(in, offset, mFrame);
+            if (mResampler != null) {
+                mResampler.push(mFrame, mOutput);
+            } else {
+                for (float sample : mFrame) {
+                    mOutput.putShort((short) Math.round(sample));
+                }
+            }
+        }
+        in.position(offset);
+        mOutput.flip();
+        return mOutput;
+    }
+
+    /**
+     * 输入结束时调用，输出重采样滤波器中剩余的数据
+     *
+     * @return 剩余的数据，position 为0，在下一次调用前有效
+     */
+    public ByteBuffer flush() {
+        mOutput.clear();
+        if (mResampler != null) {
+            mResampler.flush(mOutput);
+        }
+        mOutput.flip();
+        return mOutput;
+    }
+
+    /**
+     * 开始新的一段音频或定位之后调用
+     */
+    public void reset() {
+        if (mResampler != null) {
+            mResampler.reset();
+        }
+    }
+
+    /**
+     * 输入 inFrames 帧对应的输出帧数
+     */
+    public long toOutputFrames(long inFrames) {
+        return inFrames * mOutFormat.getSampleRateHz() / mInFormat.getSampleRateHz();
+    }
+
+    /**
+     * 输出 outFrames 帧对应的输入帧数
+     */
+    public long toInputFrames(long outFrames) {
+        return outFrames * mInFormat.getSampleRateHz() / mOutFormat.getSampleRateHz();
+    }
+}
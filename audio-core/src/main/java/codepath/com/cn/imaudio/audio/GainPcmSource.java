@@ -0,0 +1,178 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 以固定增益输出 {@link PcmSource}，用于播放时施加录音时测得的响度增益（见 {@link LoudnessStage}）
+ *
+ * 衰减时只做乘法。放大时再经 {@link LookaheadLimiter} 限制峰值：开始或定位后先从源读入前瞻的帧数，
+ * 源读完后写出延迟线中剩余的数据，因此输出与源逐帧对齐，位置和定位都不需要换算。
+ * 缓冲在创建时一次分配，处理过程不分配内存。非线程安全，由播放线程调用。
+ */
+public final class GainPcmSource implements PcmSource {
+
+    /** 每次处理的帧数 */
+    static final int BLOCK_FRAMES = 1024;
+
+    // 放大时的限幅器：-1 dBFS，5ms 前瞻，60ms 回升
+    private static final float LIMITER_CEILING = 0.891f;
+    private static final int LIMITER_LOOKAHEAD_MILLIS = 5;
+    private static final int LIMITER_RELEASE_MILLIS = 60;
+
+    private final PcmSource mSource;
+    private final float mGain;
+    private final int mChannelCount;
+    private final LookaheadLimiter mLimiter;
+
+    private final float[] mBlock;
+    private final short[] mShorts;
+    private final ByteBuffer mOut;
+    private final ShortBuffer mOutShorts;
+
+    private boolean mPrimed;
+    // 已读入限幅器、尚未输出的帧数
+    private int mLatentFrames;
+
+    /**
+     * @param gainDb 增益，大于0时启用限幅器，此时源的采样率必须已知
+     */
+    public GainPcmSource(PcmSource source, float gainDb) {
+        mSource = source;
+        mGain = (float) Math.pow(10, gainDb / 20);
+        mChannelCount = source.getFrameBytes() / 2;
+        if (mGain > 1) {
+            int sampleRateHz = source.getSampleRateHz();
+            if (sampleRateHz <= 0) {
+                throw new IllegalArgumentException("source sample rate unknown");
+            }
+            mLimiter = new LookaheadLimiter(mChannelCount, LIMITER_CEILING,
+                    Math.max(1, sampleRateHz * LIMITER_LOOKAHEAD_MILLIS / 1000),
+                    Math.max(1, sampleRateHz * LIMITER_RELEASE_MILLIS / 1000));
+        } else {
+            mLimiter = null;
+        }
+        mBlock = new float[BLOCK_FRAMES * mChannelCount];
+        mShorts = new short[mBlock.length];
+        mOut = ByteBuffer.allocateDirect(mBlock.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mOutShorts = mOut.asShortBuffer();
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return mSource.getFrameBytes();
+    }
+
+    @Override
+    public int getSampleRateHz() {
+        return mSource.getSampleRateHz();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return mSource.getFrameCount();
+    }
+
+    @Override
+    public long getPositionFrames() {
+        return mSource.getPositionFrames() - mLatentFrames;
+    }
+
+    @Override
+    public void seekToFrame(long frame) {
+        mSource.seekToFrame(frame);
+        if (mLimiter != null) {
+            mLimiter.reset();
+        }
+        mPrimed = false;
+        mLatentFrames = 0;
+    }
+
+    /**
+     * 返回内部复用的缓冲区
+     */
+    @Override
+    public ByteBuffer nextChunk(int maxBytes) {
+        int frameBytes = getFrameBytes();
+        if (maxBytes < frameBytes) {
+            throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+        }
+        int frames = Math.min(maxBytes / frameBytes, BLOCK_FRAMES);
+
+        if (mLimiter == null) {
+            ByteBuffer in = mSource.nextChunk(frames * frameBytes);
+            if (in == null) {
+                return null;
+            }
+            int n = in.remaining() / frameBytes;
+            PcmSamples.toFloat(in, in.position(), mBlock, n * mChannelCount);
+            PcmSamples.applyGainRamp(mBlock, n * mChannelCount, mChannelCount, mGain, mGain);
+            return output(n);
+        }
+
+        if (!mPrimed) {
+            prime();
+        }
+        ByteBuffer in = mSource.nextChunk(frames * frameBytes);
+        int n;
+        if (in != null) {
+            n = in.remaining() / frameBytes;
+            PcmSamples.toFloat(in, in.position(), mBlock, n * mChannelCount);
+            PcmSamples.applyGainRamp(mBlock, n * mChannelCount, mChannelCount, mGain, mGain);
+        } else if (mLatentFrames > 0) {
+            // 源已读完，用静音推出延迟线中剩余的数据
+            n = Math.min(mLatentFrames, frames);
+            Arrays.fill(mBlock, 0, n * mChannelCount, 0f);
+            mLatentFrames -= n;
+        } else {
+            return null;
+        }
+        mLimiter.process(mBlock, 0, n);
+        return output(n);
+    }
+
+    /**
+     * 从源读入前瞻的帧数，对应的输出是延迟线中的静音，丢弃
+     */
+    private void prime() {
+        mPrimed = true;
+        int frameBytes = getFrameBytes();
+        int remaining = mLimiter.getLatencyFrames();
+        while (remaining > 0) {
+            ByteBuffer in = mSource.nextChunk(Math.min(remaining, BLOCK_FRAMES) * frameBytes);
+            if (in == null) {
+                break;
+            }
+            int n = in.remaining() / frameBytes;
+            PcmSamples.toFloat(in, in.position(), mBlock, n * mChannelCount);
+            PcmSamples.applyGainRamp(mBlock, n * mChannelCount, mChannelCount, mGain, mGain);
+            mLimiter.process(mBlock, 0, n);
+            mLatentFrames += n;
+            remaining -= n;
+        }
+        // 源比前瞻还短时用静音补齐，使延迟线中的数据与之后推出的静音对齐
+        while (remaining > 0) {
+            int n = Math.min(remaining, BLOCK_FRAMES);
+            Arrays.fill(mBlock, 0, n * mChannelCount, 0f);
+            mLimiter.process(mBlock, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private ByteBuffer output(int frames) {
+        int count = frames * mChannelCount;
+        mOutShorts.clear();
+        PcmSamples.toPcm(mBlock, 0, count, mShorts, mOutShorts);
+        mOut.clear();
+        mOut.limit(count * 2);
+        return mOut;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+}
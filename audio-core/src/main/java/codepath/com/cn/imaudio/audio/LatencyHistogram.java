@@ -0,0 +1,97 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂分桶的延迟直方图，单位为微秒
+ *
+ * 第0个桶为不足1微秒，第 i 个桶为 [2^(i-1), 2^i) 微秒，最后一个桶收容所有更长的延迟（约 2^30 微秒，
+ * 即18分钟以上）。记录时只有几次原子加法，不加锁、不分配内存，可在采集、播放线程中调用；
+ * 分位数按桶的上界估计，误差不超过一倍。与 {@link LatencyStats} 不同，保留的是全部样本的分布。
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSumMicros = new AtomicLong();
+
+    /**
+     * 记录一次延迟，负数按0计
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, micros);
+        mBuckets.incrementAndGet(bucketOf(value));
+        mSumMicros.addAndGet(value);
+    }
+
+    /**
+     * 把各桶的计数复制到 buckets 中，长度至少为 {@link #BUCKET_COUNT}
+     *
+     * @return 延迟的总和（微秒）
+     */
+    public long copyTo(long[] buckets) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return mSumMicros.get();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mSumMicros.set(0);
+    }
+
+    static int bucketOf(long micros) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * 第 bucket 个桶的上界（微秒，不含）
+     */
+    static long upperBoundMicros(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * 按桶的上界估计分位数，没有样本时返回-1
+     *
+     * @param percentile 0～100
+     */
+    static long percentileMicros(long[] buckets, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return upperBoundMicros(i);
+            }
+        }
+        return upperBoundMicros(BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,99 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Arrays;
+
+/**
+ * 最近若干次延迟测量的统计（最小、平均、分位数、最大）
+ *
+ * 样本保存在固定容量的环形数组中，记录时不分配内存；查询分位数时复制排序。非线程安全。
+ */
+public final class LatencyStats {
+
+    private final long[] mSamples;
+    private int mNext;
+    private int mSize;
+    private long mTotalCount;
+
+    /**
+     * @param capacity 保留最近多少次测量
+     */
+    public LatencyStats(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mSamples = new long[capacity];
+    }
+
+    public void add(long latency) {
+        mSamples[mNext] = latency;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mSize < mSamples.length) {
+            mSize++;
+        }
+        mTotalCount++;
+    }
+
+    /**
+     * 保留的样本数，不超过容量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 累计记录的次数
+     */
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * 最近一次测量，没有样本时返回-1
+     */
+    public long getLast() {
+        return mSize == 0 ? -1 : mSamples[(mNext - 1 + mSamples.length) % mSamples.length];
+    }
+
+    public double getMean() {
+        if (mSize == 0) {
+            return -1;
+        }
+        long sum = 0;
+        for (int i = 0; i < mSize; i++) {
+            sum += mSamples[i];
+        }
+        return (double) sum / mSize;
+    }
+
+    /**
+     * 最近邻秩（nearest-rank）分位数，没有样本时返回-1
+     *
+     * @param percentile 0～100
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        if (mSize == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mSize);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * mSize);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public long getMin() {
+        return getPercentile(0);
+    }
+
+    public long getMax() {
+        return getPercentile(100);
+    }
+
+    public void reset() {
+        mNext = 0;
+        mSize = 0;
+        mTotalCount = 0;
+    }
+}
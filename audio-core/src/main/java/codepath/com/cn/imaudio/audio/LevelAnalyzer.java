@@ -0,0 +1,181 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在采集线程中计算输入电平（每个窗口的RMS和峰值），并生成波形缩略图
+ *
+ * 窗口可以跨越多次 {@link #process(ByteBuffer, int, int)}，与采集的数据块大小无关。
+ * 每个窗口结束时更新最新的电平（volatile，UI线程可直接读取），并把峰值交给 {@link WaveformBuilder}。
+ * 处理过程只有整数运算，不分配内存；dB 的换算在读取时进行。
+ *
+ * {@link #process(ByteBuffer, int, int)} 只能在一个线程中调用；波形应在录音结束后读取。
+ */
+public final class LevelAnalyzer {
+
+    /** 默认窗口时长，与UI的帧间隔接近 */
+    public static final int DEFAULT_WINDOW_MILLIS = 20;
+    /** 电平表的动态范围 */
+    public static final double METER_RANGE_DB = 60;
+
+    private static final double FULL_SCALE = 32768;
+    // 无声时的 dBFS
+    private static final double SILENCE_DBFS = -96;
+
+    /**
+     * 每次处理的数据中至少结束了一个窗口时回调，在采集线程中执行，不能阻塞
+     */
+    public interface Listener {
+        void onLevel(LevelAnalyzer analyzer);
+    }
+
+    private final int mChannelCount;
+    private final int mWindowSamples;
+    private final WaveformBuilder mWaveform;
+    private Listener mListener;
+
+    // 当前窗口的累计值
+    private long mSumSquares;
+    private int mPeak;
+    private int mSamples;
+
+    // 最近一个完整窗口的结果
+    private volatile double mMeanSquare;
+    private volatile int mLastPeak;
+    private volatile long mWindowCount;
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数，所有声道一起统计
+     * @param windowMillis 窗口时长
+     * @param waveform 接收每个窗口的峰值，可为null
+     */
+    public LevelAnalyzer(int sampleRateHz, int channelCount, int windowMillis, WaveformBuilder waveform) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("invalid analyzer config: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, " + windowMillis + "ms");
+        }
+        mChannelCount = channelCount;
+        mWindowSamples = Math.max(1, (int) ((long) sampleRateHz * windowMillis / 1000)) * channelCount;
+        mWaveform = waveform;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public WaveformBuilder getWaveform() {
+        return mWaveform;
+    }
+
+    /**
+     * 每个窗口的帧数
+     */
+    public int getWindowFrames() {
+        return mWindowSamples / mChannelCount;
+    }
+
+    /**
+     * 分析16位小端PCM，不改变 pcm 的 position 和 limit
+     *
+     * @param offset 数据在 pcm 中的字节偏移
+     * @param length 字节数，不足一个采样的部分被忽略
+     */
+    public void process(ByteBuffer pcm, int offset, int length) {
+        long sumSquares = mSumSquares;
+        int peak = mPeak;
+        int samples = mSamples;
+        boolean windowEnded = false;
+
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            // 按字节读取，与缓冲区的字节序设置无关
+            int sample = (short) ((pcm.get(i) & 0xFF) | pcm.get(i + 1) << 8);
+            sumSquares += sample * sample;
+            int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+
+            if (++samples == mWindowSamples) {
+                publish(sumSquares, peak, samples);
+                windowEnded = true;
+                sumSquares = 0;
+                peak = 0;
+                samples = 0;
+            }
+        }
+
+        mSumSquares = sumSquares;
+        mPeak = peak;
+        mSamples = samples;
+
+        if (windowEnded && mListener != null) {
+            mListener.onLevel(this);
+        }
+    }
+
+    private void publish(long sumSquares, int peak, int samples) {
+        mMeanSquare = (double) sumSquares / samples;
+        mLastPeak = peak;
+        mWindowCount++;
+        if (mWaveform != null) {
+            mWaveform.add(peak);
+        }
+    }
+
+    /**
+     * 已完成的窗口数
+     */
+    public long getWindowCount() {
+        return mWindowCount;
+    }
+
+    /**
+     * 最近一个窗口的峰值（采样绝对值）
+     */
+    public int getPeak() {
+        return mLastPeak;
+    }
+
+    /**
+     * 最近一个窗口的峰值（dBFS）
+     */
+    public double getPeakDbfs() {
+        return toDbfs(mLastPeak);
+    }
+
+    /**
+     * 最近一个窗口的RMS（dBFS）
+     */
+    public double getRmsDbfs() {
+        return toDbfs(Math.sqrt(mMeanSquare));
+    }
+
+    /**
+     * 电平表的位置 0～1，按RMS在 {@link #METER_RANGE_DB} 动态范围内线性映射
+     */
+    public float getMeterLevel() {
+        double level = (getRmsDbfs() + METER_RANGE_DB) / METER_RANGE_DB;
+        return (float) Math.max(0, Math.min(1, level));
+    }
+
+    static double toDbfs(double amplitude) {
+        return amplitude <= 0 ? SILENCE_DBFS : Math.max(SILENCE_DBFS, 20 * Math.log10(amplitude / FULL_SCALE));
+    }
+
+    /**
+     * 开始新的录音前调用，同时清空波形
+     */
+    public void reset() {
+        mSumSquares = 0;
+        mPeak = 0;
+        mSamples = 0;
+        mMeanSquare = 0;
+        mLastPeak = 0;
+        mWindowCount = 0;
+        if (mWaveform != null) {
+            mWaveform.reset();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Arrays;
+
+/**
+ * 前瞻峰值限幅器，保证输出的每个采样不超过 ceiling
+ *
+ * 输入先进入 lookaheadFrames 帧的延迟线；每帧所需的增益（ceiling / 峰值）记入一个单调队列，
+ * 得到延迟线内的最小增益。增益在峰值到达之前按剩余距离线性下降，峰值过去后按 releaseFrames 的时间常数回升，
+ * 不会产生硬削波的失真。所有缓冲在创建时分配，处理过程不分配内存；非线程安全。
+ */
+public final class LookaheadLimiter {
+
+    private final int mChannelCount;
+    private final int mLookaheadFrames;
+    private final float mCeiling;
+    private final float mReleaseCoefficient;
+
+    // 延迟线中的采样和每帧所需的增益，按帧环形存放
+    private final float[] mDelay;
+    private final float[] mRequiredGain;
+    private int mDelayIndex;
+
+    // 单调队列：所需增益递增，队首为窗口内的最小值
+    private final float[] mQueueGain;
+    private final long[] mQueueFrame;
+    private int mQueueHead;
+    private int mQueueSize;
+
+    private long mFrame;
+    private float mGain = 1;
+    private float mMinGain = 1;
+
+    /**
+     * @param channelCount 声道数，所有声道使用同一个增益，不改变声像
+     * @param ceiling 输出的最大幅度，(0, 1]
+     * @param lookaheadFrames 前瞻帧数，即处理延迟
+     * @param releaseFrames 增益回升的时间常数（帧）
+     */
+    public LookaheadLimiter(int channelCount, float ceiling, int lookaheadFrames, int releaseFrames) {
+        if (channelCount <= 0 || !(ceiling > 0 && ceiling <= 1) || lookaheadFrames <= 0
+                || releaseFrames <= 0) {
+            throw new IllegalArgumentException("invalid limiter config: " + channelCount + "ch, ceiling "
+                    + ceiling + ", lookahead " + lookaheadFrames + ", release " + releaseFrames);
+        }
+        mChannelCount = channelCount;
+        mLookaheadFrames = lookaheadFrames;
+        mCeiling = ceiling;
+        mReleaseCoefficient = (float) (1 - Math.exp(-1.0 / releaseFrames));
+        mDelay = new float[lookaheadFrames * channelCount];
+        mRequiredGain = new float[lookaheadFrames];
+        mQueueGain = new float[lookaheadFrames + 1];
+        mQueueFrame = new long[lookaheadFrames + 1];
+        reset();
+    }
+
+    /**
+     * 处理延迟（帧）：输入的第 n 帧在输出的第 n + latency 帧
+     */
+    public int getLatencyFrames() {
+        return mLookaheadFrames;
+    }
+
+    /**
+     * 到目前为止最小的增益，1 表示没有限幅过
+     */
+    public float getMinGain() {
+        return mMinGain;
+    }
+
+    /**
+     * 原地处理交错排列的采样，输出比输入延迟 {@link #getLatencyFrames()} 帧
+     *
+     * @param offset 第一个采样在 samples 中的下标
+     * @param frames 帧数
+     */
+    public void process(float[] samples, int offset, int frames) {
+        int channels = mChannelCount;
+        int lookahead = mLookaheadFrames;
+        int capacity = mQueueGain.length;
+        float ceiling = mCeiling;
+        float gain = mGain;
+        int delayIndex = mDelayIndex;
+
+        int index = offset;
+        for (int n = 0; n < frames; n++, index += channels) {
+            float peak = 0;
+            for (int ch = 0; ch < channels; ch++) {
+                float magnitude = Math.abs(samples[index + ch]);
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+            }
+            float required = peak > ceiling ? ceiling / peak : 1;
+
+            // 入队：队尾不小于新值的都不会再成为最小值
+            long frame = mFrame++;
+            while (mQueueSize > 0) {
+                int tail = (mQueueHead + mQueueSize - 1) % capacity;
+                if (mQueueGain[tail] < required) {
+                    break;
+                }
+                mQueueSize--;
+            }
+            int slot = (mQueueHead + mQueueSize) % capacity;
+            mQueueGain[slot] = required;
+            mQueueFrame[slot] = frame;
+            mQueueSize++;
+            // 出队：本次输出的是第 frame - lookahead 帧，窗口为 [frame - lookahead, frame]
+            long output = frame - lookahead;
+            while (mQueueFrame[mQueueHead] < output) {
+                mQueueHead = (mQueueHead + 1) % capacity;
+                mQueueSize--;
+            }
+
+            float target = mQueueGain[mQueueHead];
+            if (target < gain) {
+                // 在最小值所在的帧恰好降到目标
+                long distance = mQueueFrame[mQueueHead] - output;
+                gain += (target - gain) / (distance + 1);
+            } else {
+                gain += (target - gain) * mReleaseCoefficient;
+            }
+            // 浮点误差不能让输出越过 ceiling
+            float outputRequired = mRequiredGain[delayIndex];
+            if (gain > outputRequired) {
+                gain = outputRequired;
+            }
+            if (gain < mMinGain) {
+                mMinGain = gain;
+            }
+
+            int d = delayIndex * channels;
+            for (int ch = 0; ch < channels; ch++) {
+                float delayed = mDelay[d + ch];
+                mDelay[d + ch] = samples[index + ch];
+                samples[index + ch] = delayed * gain;
+            }
+            mRequiredGain[delayIndex] = required;
+            delayIndex = delayIndex + 1 == lookahead ? 0 : delayIndex + 1;
+        }
+
+        mGain = gain;
+        mDelayIndex = delayIndex;
+    }
+
+    /**
+     * 清空延迟线，之后的输出重新从 {@link #getLatencyFrames()} 帧静音开始
+     */
+    public void reset() {
+        Arrays.fill(mDelay, 0);
+        Arrays.fill(mRequiredGain, 1);
+        mDelayIndex = 0;
+        mQueueHead = 0;
+        mQueueSize = 0;
+        mFrame = 0;
+        mGain = 1;
+        mMinGain = 1;
+    }
+}
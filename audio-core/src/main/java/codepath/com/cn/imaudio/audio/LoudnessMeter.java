@@ -0,0 +1,230 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Arrays;
+
+/**
+ * 按 EBU R128 / ITU-R BS.1770 的方法边录边测量响度（LUFS）
+ *
+ * 信号先经过K加权滤波（高架+高通两个双二阶节，系数按采样率计算），每 100ms 结算一个子块：
+ * <ul>
+ *     <li>瞬时响度：最近 400ms（4个子块）</li>
+ *     <li>短期响度：最近 3s（30个子块）</li>
+ *     <li>综合响度：所有 400ms 块（75% 重叠）经 -70 LUFS 绝对门限和比平均低 10 LU 的相对门限后的平均值。
+ *     高于绝对门限的块按 0.1 LU 的区间记入直方图，不需要保存整段录音的块序列，也不需要第二遍处理。</li>
+ * </ul>
+ * 所有声道权重为1（单声道、立体声）。所有缓冲在创建时分配，处理过程不分配内存。
+ * {@link #process(float[], int, int)} 只能在一个线程中调用。
+ */
+public final class LoudnessMeter {
+
+    /** 绝对门限 */
+    public static final double ABSOLUTE_GATE_LUFS = -70;
+    /** 相对门限，相对于绝对门限以上的平均响度 */
+    public static final double RELATIVE_GATE_LU = -10;
+
+    private static final int SUB_BLOCKS_PER_SECOND = 10;
+    private static final int MOMENTARY_SUB_BLOCKS = 4;
+    private static final int SHORT_TERM_SUB_BLOCKS = 30;
+    // 直方图覆盖 -70 ~ +30 LUFS，每个区间 0.1 LU
+    private static final int HISTOGRAM_BINS_PER_LU = 10;
+    private static final int HISTOGRAM_BINS = 100 * HISTOGRAM_BINS_PER_LU;
+
+    private final int mChannelCount;
+    private final int mSubBlockFrames;
+
+    // K加权的两个双二阶节，a0 已归一化
+    private final double mShelfB0, mShelfB1, mShelfB2, mShelfA1, mShelfA2;
+    private final double mHighPassB0, mHighPassB1, mHighPassB2, mHighPassA1, mHighPassA2;
+    // 每个声道4个状态：高架 z1、z2，高通 z1、z2（转置直接II型）
+    private final double[] mState;
+
+    private double mSubBlockSum;
+    private int mSubBlockFill;
+
+    // 最近 30 个子块的均方值
+    private final double[] mSubBlocks = new double[SHORT_TERM_SUB_BLOCKS];
+    private int mSubBlockIndex;
+    private long mSubBlockCount;
+
+    private final long[] mBinCounts = new long[HISTOGRAM_BINS];
+    private final double[] mBinEnergy = new double[HISTOGRAM_BINS];
+    private long mGatedCount;
+    private double mGatedEnergy;
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数
+     */
+    public LoudnessMeter(int sampleRateHz, int channelCount) {
+        if (sampleRateHz < 8000 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid meter config: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch");
+        }
+        mChannelCount = channelCount;
+        mSubBlockFrames = sampleRateHz / SUB_BLOCKS_PER_SECOND;
+        mState = new double[channelCount * 4];
+
+        // BS.1770 只给出 48kHz 的系数，这里按其模拟原型用双线性变换换算到任意采样率
+        double f0 = 1681.974450955533;
+        double gainDb = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRateHz);
+        double vh = Math.pow(10, gainDb / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        mShelfB0 = (vh + vb * k / q + k * k) / a0;
+        mShelfB1 = 2 * (k * k - vh) / a0;
+        mShelfB2 = (vh - vb * k / q + k * k) / a0;
+        mShelfA1 = 2 * (k * k - 1) / a0;
+        mShelfA2 = (1 - k / q + k * k) / a0;
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRateHz);
+        a0 = 1 + k / q + k * k;
+        mHighPassB0 = 1;
+        mHighPassB1 = -2;
+        mHighPassB2 = 1;
+        mHighPassA1 = 2 * (k * k - 1) / a0;
+        mHighPassA2 = (1 - k / q + k * k) / a0;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 测量交错排列、范围为 [-1, 1] 的采样
+     *
+     * @param offset 第一个采样在 samples 中的下标
+     * @param frames 帧数
+     */
+    public void process(float[] samples, int offset, int frames) {
+        int channels = mChannelCount;
+        double[] state = mState;
+        double sum = mSubBlockSum;
+        int fill = mSubBlockFill;
+
+        int index = offset;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int ch = 0, s = 0; ch < channels; ch++, s += 4) {
+                double x = samples[index++];
+                double y = mShelfB0 * x + state[s];
+                state[s] = mShelfB1 * x - mShelfA1 * y + state[s + 1];
+                state[s + 1] = mShelfB2 * x - mShelfA2 * y;
+
+                double z = mHighPassB0 * y + state[s + 2];
+                state[s + 2] = mHighPassB1 * y - mHighPassA1 * z + state[s + 3];
+                state[s + 3] = mHighPassB2 * y - mHighPassA2 * z;
+                sum += z * z;
+            }
+            if (++fill == mSubBlockFrames) {
+                finishSubBlock(sum / fill);
+                sum = 0;
+                fill = 0;
+            }
+        }
+
+        mSubBlockSum = sum;
+        mSubBlockFill = fill;
+    }
+
+    private void finishSubBlock(double meanSquare) {
+        mSubBlocks[mSubBlockIndex] = meanSquare;
+        mSubBlockIndex = (mSubBlockIndex + 1) % SHORT_TERM_SUB_BLOCKS;
+        mSubBlockCount++;
+        if (mSubBlockCount < MOMENTARY_SUB_BLOCKS) {
+            return;
+        }
+
+        double block = meanOfLast(MOMENTARY_SUB_BLOCKS);
+        double lufs = toLufs(block);
+        if (lufs < ABSOLUTE_GATE_LUFS) {
+            return;
+        }
+        int bin = binOf(lufs);
+        mBinCounts[bin]++;
+        mBinEnergy[bin] += block;
+        mGatedCount++;
+        mGatedEnergy += block;
+    }
+
+    private double meanOfLast(int subBlocks) {
+        double sum = 0;
+        int index = mSubBlockIndex;
+        for (int i = 0; i < subBlocks; i++) {
+            index = index == 0 ? SHORT_TERM_SUB_BLOCKS - 1 : index - 1;
+            sum += mSubBlocks[index];
+        }
+        return sum / subBlocks;
+    }
+
+    private static int binOf(double lufs) {
+        int bin = (int) ((lufs - ABSOLUTE_GATE_LUFS) * HISTOGRAM_BINS_PER_LU);
+        return Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin));
+    }
+
+    static double toLufs(double meanSquare) {
+        return meanSquare > 0 ? -0.691 + 10 * Math.log10(meanSquare) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 最近 400ms 的响度，不足 400ms 时返回负无穷
+     */
+    public double getMomentaryLufs() {
+        return mSubBlockCount < MOMENTARY_SUB_BLOCKS
+                ? Double.NEGATIVE_INFINITY : toLufs(meanOfLast(MOMENTARY_SUB_BLOCKS));
+    }
+
+    /**
+     * 最近 3s 的响度，不足 3s 时按已有的子块计算（至少 400ms）
+     */
+    public double getShortTermLufs() {
+        if (mSubBlockCount < MOMENTARY_SUB_BLOCKS) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return toLufs(meanOfLast((int) Math.min(mSubBlockCount, SHORT_TERM_SUB_BLOCKS)));
+    }
+
+    /**
+     * 到目前为止的综合响度，没有高于绝对门限的块时返回负无穷
+     */
+    public double getIntegratedLufs() {
+        if (mGatedCount == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double relativeGate = toLufs(mGatedEnergy / mGatedCount) + RELATIVE_GATE_LU;
+        // 相对门限所在的区间整体计入，误差在 0.1 LU 以内
+        int first = relativeGate <= ABSOLUTE_GATE_LUFS ? 0 : binOf(relativeGate);
+        long count = 0;
+        double energy = 0;
+        for (int bin = first; bin < HISTOGRAM_BINS; bin++) {
+            count += mBinCounts[bin];
+            energy += mBinEnergy[bin];
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : toLufs(energy / count);
+    }
+
+    /**
+     * 已测量的时长（毫秒，按完整的子块计）
+     */
+    public long getMeasuredMillis() {
+        return mSubBlockCount * 1000 / SUB_BLOCKS_PER_SECOND;
+    }
+
+    /**
+     * 清空滤波器状态和所有测量结果
+     */
+    public void reset() {
+        Arrays.fill(mState, 0);
+        Arrays.fill(mSubBlocks, 0);
+        Arrays.fill(mBinCounts, 0);
+        Arrays.fill(mBinEnergy, 0);
+        mSubBlockSum = 0;
+        mSubBlockFill = 0;
+        mSubBlockIndex = 0;
+        mSubBlockCount = 0;
+        mGatedCount = 0;
+        mGatedEnergy = 0;
+    }
+}
@@ -0,0 +1,223 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 录音管道中的响度一级：边录边测量综合响度，可选地做实时自动增益（AGC）
+ *
+ * <ul>
+ *     <li>{@link Mode#MEASURE}：数据原样写出，只测量响度；录音结束后由
+ *     {@link #getPlaybackGainMillibels()} 得到播放时应施加的增益。</li>
+ *     <li>{@link Mode#AGC}：按输入的短期响度（3s）把增益缓慢推向目标响度，只在有声音时调整，
+ *     停顿中保持不变，避免把底噪放大；增益之后经 {@link LookaheadLimiter} 限制峰值，输出延迟几毫秒，
+ *     close() 时写出延迟线中剩余的数据。写出的数据另由一个测量器测量，播放增益只需补偿剩余的偏差。</li>
+ * </ul>
+ * 两种方式都不需要第二遍处理文件。缓冲在创建时一次分配，处理过程不分配内存。
+ * 输入需为整帧，由写文件线程调用，非线程安全。
+ */
+public final class LoudnessStage implements PcmSink {
+
+    public enum Mode {
+        /** 只测量，由播放时施加增益 */
+        MEASURE,
+        /** 录音时实时调整增益 */
+        AGC
+    }
+
+    /** 目标响度，语音消息在手机扬声器上的常用值 */
+    public static final double TARGET_LUFS = -18;
+
+    // AGC 的增益范围和变化速度
+    private static final double MAX_GAIN_DB = 18;
+    private static final double MIN_GAIN_DB = -12;
+    private static final double RISE_DB_PER_SECOND = 3;
+    private static final double FALL_DB_PER_SECOND = 10;
+    // 瞬时响度低于此值时视为停顿，保持增益
+    private static final double SPEECH_GATE_LUFS = -50;
+    // 播放增益的范围
+    private static final double MAX_PLAYBACK_GAIN_DB = 12;
+    private static final double MIN_PLAYBACK_GAIN_DB = -12;
+
+    // 限幅器：-1 dBFS，5ms 前瞻，60ms 回升
+    private static final float LIMITER_CEILING = 0.891f;
+    private static final int LIMITER_LOOKAHEAD_MILLIS = 5;
+    private static final int LIMITER_RELEASE_MILLIS = 60;
+
+    /** 每次处理的帧数 */
+    static final int BLOCK_FRAMES = 1024;
+
+    private final PcmSink mDownstream;
+    private final Mode mMode;
+    private final int mSampleRateHz;
+    private final int mChannelCount;
+    private final int mFrameBytes;
+    private final LoudnessMeter mInputMeter;
+    // AGC 时测量写出的数据，否则与 mInputMeter 相同
+    private final LoudnessMeter mOutputMeter;
+    private final LookaheadLimiter mLimiter;
+
+    private final float[] mBlock;
+    private final short[] mShorts;
+    private final ByteBuffer mOut;
+    private final ShortBuffer mOutShorts;
+
+    // 限幅器开头输出的延迟帧是静音，丢弃，使输出与输入等长
+    private int mSkipFrames;
+    private double mGainDb;
+    private float mGain = 1;
+    private boolean mClosed;
+
+    /**
+     * @param downstream 处理后的数据写入的下一级，close() 时一起关闭
+     */
+    public LoudnessStage(PcmSink downstream, int sampleRateHz, int channelCount, Mode mode) {
+        mDownstream = downstream;
+        mMode = mode;
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+        mFrameBytes = channelCount * 2;
+        mInputMeter = new LoudnessMeter(sampleRateHz, channelCount);
+        mBlock = new float[BLOCK_FRAMES * channelCount];
+
+        if (mode == Mode.AGC) {
+            mOutputMeter = new LoudnessMeter(sampleRateHz, channelCount);
+            mLimiter = new LookaheadLimiter(channelCount, LIMITER_CEILING,
+                    Math.max(1, sampleRateHz * LIMITER_LOOKAHEAD_MILLIS / 1000),
+                    Math.max(1, sampleRateHz * LIMITER_RELEASE_MILLIS / 1000));
+            mShorts = new short[mBlock.length];
+            mOut = ByteBuffer.allocateDirect(mBlock.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            mOutShorts = mOut.asShortBuffer();
+            mSkipFrames = mLimiter.getLatencyFrames();
+        } else {
+            mOutputMeter = mInputMeter;
+            mLimiter = null;
+            mShorts = null;
+            mOut = null;
+            mOutShorts = null;
+        }
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        if (mMode == Mode.MEASURE) {
+            int offset = pcm.position();
+            int frames = pcm.remaining() / mFrameBytes;
+            while (frames > 0) {
+                int n = Math.min(frames, BLOCK_FRAMES);
+                PcmSamples.toFloat(pcm, offset, mBlock, n * mChannelCount);
+                mInputMeter.process(mBlock, 0, n);
+                offset += n * mFrameBytes;
+                frames -= n;
+            }
+            mDownstream.write(pcm);
+            return;
+        }
+
+        while (pcm.remaining() >= mFrameBytes) {
+            int n = Math.min(pcm.remaining() / mFrameBytes, BLOCK_FRAMES);
+            PcmSamples.toFloat(pcm, pcm.position(), mBlock, n * mChannelCount);
+            pcm.position(pcm.position() + n * mFrameBytes);
+            mInputMeter.process(mBlock, 0, n);
+
+            float from = mGain;
+            updateGain(n);
+            PcmSamples.applyGainRamp(mBlock, n * mChannelCount, mChannelCount, from, mGain);
+            mLimiter.process(mBlock, 0, n);
+            emit(n);
+        }
+    }
+
+    /**
+     * 按输入的响度计算这一块结束时的增益，变化量受速度限制
+     */
+    private void updateGain(int frames) {
+        if (mInputMeter.getMomentaryLufs() < SPEECH_GATE_LUFS) {
+            return;
+        }
+        double wanted = TARGET_LUFS - mInputMeter.getShortTermLufs();
+        wanted = Math.max(MIN_GAIN_DB, Math.min(MAX_GAIN_DB, wanted));
+        double seconds = (double) frames / mSampleRateHz;
+        double delta = wanted - mGainDb;
+        if (delta > 0) {
+            delta = Math.min(delta, RISE_DB_PER_SECOND * seconds);
+        } else {
+            delta = Math.max(delta, -FALL_DB_PER_SECOND * seconds);
+        }
+        mGainDb += delta;
+        mGain = (float) Math.pow(10, mGainDb / 20);
+    }
+
+    private void emit(int frames) throws IOException {
+        int skip = Math.min(mSkipFrames, frames);
+        mSkipFrames -= skip;
+        frames -= skip;
+        if (frames == 0) {
+            return;
+        }
+        int offset = skip * mChannelCount;
+        int count = frames * mChannelCount;
+        mOutputMeter.process(mBlock, offset, frames);
+        mOutShorts.clear();
+        PcmSamples.toPcm(mBlock, offset, count, mShorts, mOutShorts);
+        mOut.clear();
+        mOut.limit(count * 2);
+        mDownstream.write(mOut);
+    }
+
+    /**
+     * 当前的AGC增益（dB），MEASURE 时为0
+     */
+    public double getGainDb() {
+        return mGainDb;
+    }
+
+    /**
+     * 到目前为止写出的数据的综合响度（LUFS），没有声音时返回负无穷
+     */
+    public double getIntegratedLufs() {
+        return mOutputMeter.getIntegratedLufs();
+    }
+
+    /**
+     * 播放时应施加的增益（0.01 dB），使录音达到 {@link #TARGET_LUFS}；测量不到声音时返回0
+     */
+    public int getPlaybackGainMillibels() {
+        double integrated = getIntegratedLufs();
+        if (Double.isInfinite(integrated)) {
+            return 0;
+        }
+        double gain = Math.max(MIN_PLAYBACK_GAIN_DB, Math.min(MAX_PLAYBACK_GAIN_DB, TARGET_LUFS - integrated));
+        return (int) Math.round(gain * 100);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mLimiter != null) {
+                // 写出延迟线中剩余的数据
+                int remaining = mLimiter.getLatencyFrames();
+                while (remaining > 0) {
+                    int n = Math.min(remaining, BLOCK_FRAMES);
+                    Arrays.fill(mBlock, 0, n * mChannelCount, 0f);
+                    mLimiter.process(mBlock, 0, n);
+                    emit(n);
+                    remaining -= n;
+                }
+            }
+        } finally {
+            mDownstream.close();
+        }
+    }
+}
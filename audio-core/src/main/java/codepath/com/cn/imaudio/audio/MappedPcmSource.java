@@ -0,0 +1,162 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过内存映射（FileChannel.map）读取PCM文件
+ *
+ * {@link #nextChunk(int)} 返回的是映射内存上的视图，不发生任何拷贝，可以直接交给
+ * AudioTrack.write(ByteBuffer, int, int)。定位（{@link #seekToFrame(long)}）只是移动读取位置，
+ * 不需要任何IO。
+ *
+ * 非线程安全。
+ */
+public final class MappedPcmSource implements PcmSource {
+
+    private final RandomAccessFile mFile;
+    // 复用的视图，避免每次读取都创建新的ByteBuffer对象
+    private final ByteBuffer mView;
+    private final int mFrameBytes;
+    private final int mSampleRateHz;
+    private final long mFrameCount;
+    private int mPosition;
+
+    private MappedPcmSource(RandomAccessFile file, MappedByteBuffer mapped, int frameBytes,
+                            int sampleRateHz) {
+        mFile = file;
+        mView = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        mFrameBytes = frameBytes;
+        mSampleRateHz = sampleRateHz;
+        mFrameCount = mapped.capacity() / frameBytes;
+    }
+
+    /**
+     * 映射整个裸PCM文件
+     *
+     * @param frameBytes 每帧字节数（声道数 x 每个采样的字节数）
+     */
+    public static MappedPcmSource open(File file, int frameBytes) throws IOException {
+        return open(file, 0, file.length(), frameBytes);
+    }
+
+    /**
+     * 映射文件中 [dataOffset, dataOffset + dataLength) 范围内的PCM数据，用于跳过容器头部
+     *
+     * @param frameBytes 每帧字节数（声道数 x 每个采样的字节数）
+     */
+    public static MappedPcmSource open(File file, long dataOffset, long dataLength, int frameBytes)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return map(raf, dataOffset, dataLength, frameBytes, 0);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 映射WAV文件的 data 块，只支持线性PCM。文件头中的长度为0（未正常结束的文件）时映射到文件末尾。
+     */
+    public static MappedPcmSource openWav(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            WavHeader header = WavHeader.read(raf.getChannel());
+            if (header.getFormatTag() != WavHeader.FORMAT_PCM) {
+                throw new IOException("unsupported wav format: " + header.getFormatTag());
+            }
+
+            long dataLength = header.getDataBytes() > 0 ? header.getDataBytes() : Long.MAX_VALUE;
+            return map(raf, header.getDataOffset(), dataLength, header.getBlockAlign(),
+                    header.getSampleRateHz());
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static MappedPcmSource map(RandomAccessFile raf, long dataOffset, long dataLength,
+                                       int frameBytes, int sampleRateHz) throws IOException {
+        if (frameBytes <= 0) {
+            throw new IllegalArgumentException("frameBytes must be positive: " + frameBytes);
+        }
+
+        long length = Math.min(dataLength, raf.length() - dataOffset);
+        if (dataOffset < 0 || length < 0) {
+            throw new IOException("data range out of file: " + dataOffset + "+" + dataLength);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("pcm data too large to map: " + length);
+        }
+
+        MappedByteBuffer mapped = raf.getChannel()
+                .map(FileChannel.MapMode.READ_ONLY, dataOffset, length);
+        return new MappedPcmSource(raf, mapped, frameBytes, sampleRateHz);
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * 裸PCM文件返回0
+     */
+    @Override
+    public int getSampleRateHz() {
+        return mSampleRateHz;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public long getPositionFrames() {
+        return mPosition / mFrameBytes;
+    }
+
+    public boolean hasRemaining() {
+        return getPositionFrames() < mFrameCount;
+    }
+
+    @Override
+    public void seekToFrame(long frame) {
+        long clamped = Math.max(0, Math.min(frame, mFrameCount));
+        mPosition = (int) (clamped * mFrameBytes);
+    }
+
+    /**
+     * 返回映射内存上的视图，不发生拷贝
+     */
+    @Override
+    public ByteBuffer nextChunk(int maxBytes) {
+        if (maxBytes < mFrameBytes) {
+            throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+        }
+
+        int end = (int) (mFrameCount * mFrameBytes);
+        int length = Math.min(maxBytes - maxBytes % mFrameBytes, end - mPosition);
+        if (length <= 0) {
+            return null;
+        }
+
+        mView.clear();
+        mView.position(mPosition);
+        mView.limit(mPosition + length);
+        mPosition += length;
+        return mView;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,92 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 达到最短时长之前不创建输出的PCM管道一级
+ *
+ * 开头的数据先暂存在调用方提供的缓冲区中，累计时长达到 {@link PcmDurationTracker} 的最短时长时
+ * 才通过 {@link Opener} 创建文件和编码器，写出暂存的数据后直接透传。录音在此之前结束时
+ * 不创建任何文件，也没有任何写入，{@link #isAccepted()} 返回false。
+ *
+ * 由写文件线程调用，非线程安全。
+ */
+public final class MinimumLengthSink implements PcmSink {
+
+    /**
+     * 创建真正的输出，只在录音达到最短时长时调用一次
+     */
+    public interface Opener {
+        PcmSink open() throws IOException;
+    }
+
+    private final Opener mOpener;
+    private final PcmDurationTracker mTracker;
+    private final ByteBuffer mHoldBuffer;
+    private PcmSink mDownstream;
+    private boolean mClosed;
+
+    /**
+     * @param tracker 记录写入的时长，由调用方在每次录音前 reset()
+     * @param holdBuffer 暂存开头数据的缓冲区，容量不小于 {@link PcmDurationTracker#getMinBytes()}，
+     *                   可在多次录音间复用
+     */
+    public MinimumLengthSink(Opener opener, PcmDurationTracker tracker, ByteBuffer holdBuffer) {
+        if (holdBuffer.capacity() < tracker.getMinBytes()) {
+            throw new IllegalArgumentException("hold buffer smaller than minimum length: "
+                    + holdBuffer.capacity() + " < " + tracker.getMinBytes());
+        }
+        mOpener = opener;
+        mTracker = tracker;
+        mHoldBuffer = holdBuffer;
+        mHoldBuffer.clear();
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        mTracker.addBytes(pcm.remaining());
+        if (mDownstream != null) {
+            mDownstream.write(pcm);
+            return;
+        }
+
+        if (!mTracker.hasReachedMinimum()) {
+            mHoldBuffer.put(pcm);
+            return;
+        }
+
+        mDownstream = mOpener.open();
+        mHoldBuffer.flip();
+        mDownstream.write(mHoldBuffer);
+        mHoldBuffer.clear();
+        mDownstream.write(pcm);
+    }
+
+    /**
+     * 录音是否达到最短时长并已创建输出
+     */
+    public boolean isAccepted() {
+        return mDownstream != null;
+    }
+
+    public PcmDurationTracker getTracker() {
+        return mTracker;
+    }
+
+    /**
+     * 关闭输出；未达到最短时长时丢弃暂存的数据
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        mHoldBuffer.clear();
+        if (mDownstream != null) {
+            mDownstream.close();
+        }
+    }
+}
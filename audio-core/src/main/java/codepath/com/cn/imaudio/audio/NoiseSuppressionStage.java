@@ -0,0 +1,94 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 录音管道中的降噪一级，见 {@link NoiseSuppressor}
+ *
+ * 降噪器开头输出的一帧延迟是静音，丢弃；close() 时用静音推出最后一帧，输出与输入等长。
+ * 缓冲在创建时一次分配，处理过程不分配内存。只支持单声道，输入需为整帧，由写文件线程调用，非线程安全。
+ */
+public final class NoiseSuppressionStage implements PcmSink {
+
+    /** 每次处理的采样数 */
+    static final int BLOCK_SAMPLES = 1024;
+
+    private final PcmSink mDownstream;
+    private final NoiseSuppressor mSuppressor;
+    private final float[] mBlock = new float[BLOCK_SAMPLES];
+    private final short[] mShorts = new short[BLOCK_SAMPLES];
+    private final ByteBuffer mOut;
+    private final ShortBuffer mOutShorts;
+
+    private int mSkipSamples;
+    private boolean mClosed;
+
+    /**
+     * @param downstream 降噪后的数据写入的下一级，close() 时一起关闭
+     * @param channelCount 声道数，只支持1
+     */
+    public NoiseSuppressionStage(PcmSink downstream, int sampleRateHz, int channelCount) {
+        if (channelCount != 1) {
+            throw new IllegalArgumentException("noise suppression supports mono only: " + channelCount + "ch");
+        }
+        mDownstream = downstream;
+        mSuppressor = new NoiseSuppressor(sampleRateHz);
+        mOut = ByteBuffer.allocateDirect(BLOCK_SAMPLES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mOutShorts = mOut.asShortBuffer();
+        mSkipSamples = mSuppressor.getLatencyFrames();
+    }
+
+    public NoiseSuppressor getSuppressor() {
+        return mSuppressor;
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        while (pcm.remaining() >= 2) {
+            int n = Math.min(pcm.remaining() / 2, BLOCK_SAMPLES);
+            PcmSamples.toFloat(pcm, pcm.position(), mBlock, n);
+            pcm.position(pcm.position() + n * 2);
+            mSuppressor.process(mBlock, 0, n);
+            emit(n);
+        }
+    }
+
+    private void emit(int samples) throws IOException {
+        int skip = Math.min(mSkipSamples, samples);
+        mSkipSamples -= skip;
+        if (samples == skip) {
+            return;
+        }
+        int count = samples - skip;
+        mOutShorts.clear();
+        PcmSamples.toPcm(mBlock, skip, count, mShorts, mOutShorts);
+        mOut.clear();
+        mOut.limit(count * 2);
+        mDownstream.write(mOut);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            // 推出降噪器中剩余的数据
+            int remaining = mSuppressor.getLatencyFrames();
+            while (remaining > 0) {
+                int n = Math.min(remaining, BLOCK_SAMPLES);
+                Arrays.fill(mBlock, 0, n, 0f);
+                mSuppressor.process(mBlock, 0, n);
+                emit(n);
+                remaining -= n;
+            }
+        } finally {
+            mDownstream.close();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Arrays;
+
+/**
+ * 单声道的维纳滤波降噪，边录边处理
+ *
+ * 信号按约 32ms 的帧、50% 重叠分帧，加 sqrt-Hann 窗后经 {@link RealFft} 变换到频域，每个频点乘以增益后
+ * 逆变换、再加一次窗并重叠相加（两次加窗的和为1，增益全为1时输出与输入完全相同）。
+ * <ul>
+ *     <li>噪声估计：开头几帧取平均作为初值；之后总功率与噪声估计之比低的帧视为静音，各频点的噪声功率向当前帧平滑。
+ *     有语音的帧中按平滑后的功率跟踪最小值：低于估计值的频点向下修正，其余频点以有限的速度上升，
+ *     持续变大的噪声（例如开始录音后走到街上）也能在几秒内跟上。</li>
+ *     <li>增益：先验信噪比按判决引导法（decision-directed）估计，增益为 ξ/(1+ξ)，下限 -20dB，
+ *     避免把噪声完全挖空产生"音乐噪声"。</li>
+ * </ul>
+ * 处理延迟为一帧（{@link #getLatencyFrames()}）。所有缓冲在创建时分配，处理过程不分配内存；非线程安全。
+ */
+public final class NoiseSuppressor {
+
+    // 帧长约 32ms，取不超过它的2的幂
+    private static final int FRAME_MILLIS = 32;
+    // 用于初始噪声估计的帧数
+    private static final int INIT_FRAMES = 4;
+    // 总功率与噪声估计之比低于此值的帧视为静音
+    private static final float SILENCE_SNR = 2.5f;
+    // 静音帧中噪声估计的平滑系数
+    private static final float NOISE_SMOOTHING = 0.9f;
+    // 有语音时跟踪最小值所用的功率平滑系数，以及噪声估计上升的速度
+    private static final float POWER_SMOOTHING = 0.7f;
+    private static final double NOISE_RISE_DB_PER_SECOND = 3;
+    // 判决引导法的权重
+    private static final float DD_WEIGHT = 0.98f;
+    private static final float MIN_PRIOR_SNR = 0.003f;
+    private static final float MAX_POSTERIOR_SNR = 1000f;
+    /** 增益下限，约 -20dB */
+    public static final float MIN_GAIN = 0.1f;
+
+    // 避免除以0的最小功率
+    private static final float POWER_EPSILON = 1e-12f;
+
+    private final int mFrameSize;
+    private final int mHop;
+    private final int mBins;
+    private final RealFft mFft;
+    private final float[] mWindow;
+
+    // 最近一帧的输入，最新的 mHop 个采样在末尾
+    private final float[] mInput;
+    // 频域计算和重叠相加的缓冲
+    private final float[] mFrame;
+    private final float[] mOverlap;
+    // 已完成、等待输出的一跳
+    private final float[] mReady;
+    private int mFill;
+
+    private final float[] mPower;
+    private final float[] mSmoothedPower;
+    private final float[] mNoise;
+    private final float mNoiseRise;
+    private final float[] mCleanPower;
+    private final float[] mGain;
+    private long mFrameCount;
+    private long mSilentFrames;
+
+    /**
+     * @param sampleRateHz 采样率，不低于 8kHz
+     */
+    public NoiseSuppressor(int sampleRateHz) {
+        if (sampleRateHz < 8000) {
+            throw new IllegalArgumentException("invalid sample rate: " + sampleRateHz);
+        }
+        mFrameSize = Integer.highestOneBit(sampleRateHz * FRAME_MILLIS / 1000);
+        mHop = mFrameSize / 2;
+        mBins = mFrameSize / 2 + 1;
+        mFft = new RealFft(mFrameSize);
+
+        // 周期的 sqrt-Hann 窗，50% 重叠时平方和为1
+        mWindow = new float[mFrameSize];
+        for (int i = 0; i < mFrameSize; i++) {
+            mWindow[i] = (float) Math.sqrt(0.5 - 0.5 * Math.cos(2 * Math.PI * i / mFrameSize));
+        }
+
+        mInput = new float[mFrameSize];
+        mFrame = new float[mFrameSize];
+        mOverlap = new float[mFrameSize];
+        mReady = new float[mHop];
+        mPower = new float[mBins];
+        mSmoothedPower = new float[mBins];
+        mNoise = new float[mBins];
+        mNoiseRise = (float) Math.pow(10, NOISE_RISE_DB_PER_SECOND / 10 * mHop / sampleRateHz);
+        mCleanPower = new float[mBins];
+        mGain = new float[mBins];
+        reset();
+    }
+
+    /**
+     * 帧长（采样数）
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * 处理延迟（帧）：输入的第 n 个采样在输出的第 n + latency 个
+     */
+    public int getLatencyFrames() {
+        return mFrameSize;
+    }
+
+    /**
+     * 已处理的帧中被判定为静音的比例
+     */
+    public float getSilentFraction() {
+        return mFrameCount == 0 ? 0 : (float) mSilentFrames / mFrameCount;
+    }
+
+    /**
+     * 当前噪声估计的平均功率（dBFS），尚未估计时返回负无穷
+     */
+    public double getNoiseFloorDb() {
+        double sum = 0;
+        for (int k = 0; k < mBins; k++) {
+            sum += mNoise[k];
+        }
+        // 功率谱之和换算回时域的均方值：Parseval 定理，再除以窗的能量
+        double meanSquare = 2 * sum / ((double) mFrameSize * mFrameSize / 2);
+        return meanSquare > 0 ? 10 * Math.log10(meanSquare) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 原地处理 [-1, 1] 范围的采样，输出比输入延迟 {@link #getLatencyFrames()} 个采样
+     *
+     * @param offset 第一个采样在 samples 中的下标
+     * @param count 采样数
+     */
+    public void process(float[] samples, int offset, int count) {
+        int hop = mHop;
+        int base = mFrameSize - hop;
+        while (count > 0) {
+            int n = Math.min(hop - mFill, count);
+            System.arraycopy(samples, offset, mInput, base + mFill, n);
+            System.arraycopy(mReady, mFill, samples, offset, n);
+            mFill += n;
+            offset += n;
+            count -= n;
+            if (mFill == hop) {
+                processFrame();
+                mFill = 0;
+            }
+        }
+    }
+
+    private void processFrame() {
+        int size = mFrameSize;
+        int hop = mHop;
+        float[] frame = mFrame;
+        float[] window = mWindow;
+        for (int i = 0; i < size; i++) {
+            frame[i] = mInput[i] * window[i];
+        }
+        System.arraycopy(mInput, hop, mInput, 0, size - hop);
+
+        mFft.forward(frame);
+        updateGains(frame);
+        applyGains(frame);
+        mFft.inverse(frame);
+
+        // 重叠相加，前一跳完成后等待输出
+        float[] overlap = mOverlap;
+        for (int i = 0; i < size; i++) {
+            overlap[i] += frame[i] * window[i];
+        }
+        System.arraycopy(overlap, 0, mReady, 0, hop);
+        System.arraycopy(overlap, hop, overlap, 0, size - hop);
+        Arrays.fill(overlap, size - hop, size, 0f);
+    }
+
+    private void updateGains(float[] spectrum) {
+        int bins = mBins;
+        float[] power = mPower;
+        float[] noise = mNoise;
+        power[0] = spectrum[0] * spectrum[0];
+        power[bins - 1] = spectrum[1] * spectrum[1];
+        for (int k = 1; k < bins - 1; k++) {
+            float re = spectrum[2 * k];
+            float im = spectrum[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+
+        float[] smoothed = mSmoothedPower;
+        for (int k = 0; k < bins; k++) {
+            smoothed[k] = POWER_SMOOTHING * smoothed[k] + (1 - POWER_SMOOTHING) * power[k];
+        }
+
+        mFrameCount++;
+        if (mFrameCount <= INIT_FRAMES) {
+            // 开头几帧的平均值作为噪声初值
+            float weight = 1f / mFrameCount;
+            for (int k = 0; k < bins; k++) {
+                noise[k] += (power[k] - noise[k]) * weight;
+            }
+        } else {
+            // 按能量而不是逐频点的平均信噪比判断，集中在少数频点的浊音也能被识别
+            float powerSum = 0;
+            float noiseSum = 0;
+            for (int k = 0; k < bins; k++) {
+                powerSum += power[k];
+                noiseSum += noise[k];
+            }
+            if (powerSum < SILENCE_SNR * noiseSum + POWER_EPSILON) {
+                mSilentFrames++;
+                for (int k = 0; k < bins; k++) {
+                    noise[k] = NOISE_SMOOTHING * noise[k] + (1 - NOISE_SMOOTHING) * power[k];
+                }
+            } else {
+                float rise = mNoiseRise;
+                for (int k = 0; k < bins; k++) {
+                    noise[k] = Math.min(smoothed[k], noise[k] * rise);
+                }
+            }
+        }
+
+        float[] clean = mCleanPower;
+        float[] gain = mGain;
+        for (int k = 0; k < bins; k++) {
+            float n = noise[k] + POWER_EPSILON;
+            float posterior = Math.min(power[k] / n, MAX_POSTERIOR_SNR);
+            float prior = DD_WEIGHT * clean[k] / n + (1 - DD_WEIGHT) * Math.max(posterior - 1, 0f);
+            prior = Math.max(prior, MIN_PRIOR_SNR);
+            float g = Math.max(prior / (1 + prior), MIN_GAIN);
+            gain[k] = g;
+            clean[k] = g * g * power[k];
+        }
+    }
+
+    private void applyGains(float[] spectrum) {
+        float[] gain = mGain;
+        int bins = mBins;
+        spectrum[0] *= gain[0];
+        spectrum[1] *= gain[bins - 1];
+        for (int k = 1; k < bins - 1; k++) {
+            spectrum[2 * k] *= gain[k];
+            spectrum[2 * k + 1] *= gain[k];
+        }
+    }
+
+    /**
+     * 清空缓冲和噪声估计，之后的输出重新从 {@link #getLatencyFrames()} 个静音采样开始
+     */
+    public void reset() {
+        Arrays.fill(mInput, 0f);
+        Arrays.fill(mOverlap, 0f);
+        Arrays.fill(mReady, 0f);
+        Arrays.fill(mNoise, 0f);
+        Arrays.fill(mSmoothedPower, 0f);
+        Arrays.fill(mCleanPower, 0f);
+        Arrays.fill(mGain, 1f);
+        mFill = 0;
+        mFrameCount = 0;
+        mSilentFrames = 0;
+    }
+}
@@ -0,0 +1,92 @@
+package codepath.com.cn.imaudio.audio;
+
+/**
+ * 按实际采集或编码的帧数计算录音时长，并判断是否达到最短时长
+ *
+ * 与 System.currentTimeMillis() 的差值不同，这里的时长不包含录音器的启动延迟，也不会因为
+ * 系统时间被修改而出错，可以直接作为消息的时长。
+ *
+ * 非线程安全，跨线程读取需要由调用方保证可见性（例如 Future.get()）。
+ */
+public final class PcmDurationTracker {
+
+    private final int mSampleRateHz;
+    private final int mFrameBytes;
+    private final long mMinFrames;
+    private long mBytes;
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数（16位PCM）
+     * @param minDurationMillis 最短时长，低于此时长的录音应被丢弃
+     */
+    public PcmDurationTracker(int sampleRateHz, int channelCount, int minDurationMillis) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || minDurationMillis < 0) {
+            throw new IllegalArgumentException("invalid tracker config: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, min " + minDurationMillis + "ms");
+        }
+        mSampleRateHz = sampleRateHz;
+        mFrameBytes = channelCount * 2;
+        mMinFrames = millisToFrames(minDurationMillis, sampleRateHz);
+    }
+
+    /**
+     * 累加PCM字节数，不完整的帧留到下次累加
+     */
+    public void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    public void addFrames(long frames) {
+        mBytes += frames * mFrameBytes;
+    }
+
+    public long getFrames() {
+        return mBytes / mFrameBytes;
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    public long getDurationMillis() {
+        return framesToMillis(getFrames(), mSampleRateHz);
+    }
+
+    public long getDurationMicros() {
+        return getFrames() * 1000000 / mSampleRateHz;
+    }
+
+    /**
+     * 最短时长对应的帧数
+     */
+    public long getMinFrames() {
+        return mMinFrames;
+    }
+
+    /**
+     * 最短时长对应的字节数
+     */
+    public long getMinBytes() {
+        return mMinFrames * mFrameBytes;
+    }
+
+    /**
+     * 是否已达到最短时长
+     */
+    public boolean hasReachedMinimum() {
+        return getFrames() >= mMinFrames;
+    }
+
+    public void reset() {
+        mBytes = 0;
+    }
+
+    public static long framesToMillis(long frames, int sampleRateHz) {
+        return frames * 1000 / sampleRateHz;
+    }
+
+    public static long millisToFrames(long millis, int sampleRateHz) {
+        return millis * sampleRateHz / 1000;
+    }
+}
@@ -0,0 +1,83 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 固定容量的PCM字节队列，创建时一次分配，之后的读写不再分配内存
+ *
+ * 写入和取出按调用方给定的字节数进行，调用方负责按帧对齐。非线程安全。
+ */
+final class PcmFifo {
+
+    private final ByteBuffer mBuffer;
+    private int mHead;
+    private int mSize;
+
+    PcmFifo(int capacity) {
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    int capacity() {
+        return mBuffer.capacity();
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int free() {
+        return mBuffer.capacity() - mSize;
+    }
+
+    /**
+     * 从 src 的 position 处追加 length 字节（不超过 {@link #free()}），src 的 position 随之前移
+     */
+    void put(ByteBuffer src, int length) {
+        int capacity = mBuffer.capacity();
+        int srcLimit = src.limit();
+        while (length > 0) {
+            int tail = (mHead + mSize) % capacity;
+            int part = Math.min(length, capacity - tail);
+            mBuffer.limit(tail + part).position(tail);
+            src.limit(src.position() + part);
+            mBuffer.put(src);
+            src.limit(srcLimit);
+            mSize += part;
+            length -= part;
+        }
+    }
+
+    /**
+     * 丢弃最早的 length 字节
+     */
+    void discard(int length) {
+        int dropped = Math.min(length, mSize);
+        if (dropped <= 0) {
+            return;
+        }
+        mHead = (mHead + dropped) % mBuffer.capacity();
+        mSize -= dropped;
+    }
+
+    /**
+     * 把最早的 length 字节按顺序写入 sink
+     */
+    void drainTo(PcmSink sink, int length) throws IOException {
+        int capacity = mBuffer.capacity();
+        length = Math.min(length, mSize);
+        while (length > 0) {
+            int part = Math.min(length, capacity - mHead);
+            mBuffer.limit(mHead + part).position(mHead);
+            sink.write(mBuffer);
+            mHead = (mHead + part) % capacity;
+            mSize -= part;
+            length -= part;
+        }
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+}
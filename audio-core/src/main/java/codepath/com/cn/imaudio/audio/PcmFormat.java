@@ -0,0 +1,68 @@
+package codepath.com.cn.imaudio.audio;
+
+/**
+ * 16位PCM的采样率和声道数
+ */
+public final class PcmFormat {
+
+    /** 44.1kHz 单声道，所有设备都支持的采集格式 */
+    public static final PcmFormat CD_MONO = new PcmFormat(44100, 1);
+    /** 16kHz 单声道，宽带语音，语音消息的存储和传输格式 */
+    public static final PcmFormat VOICE_WIDEBAND = new PcmFormat(16000, 1);
+
+    private final int mSampleRateHz;
+    private final int mChannelCount;
+
+    public PcmFormat(int sampleRateHz, int channelCount) {
+        if (sampleRateHz <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid pcm format: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch");
+        }
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+    }
+
+    public int getSampleRateHz() {
+        return mSampleRateHz;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 每帧字节数
+     */
+    public int getFrameBytes() {
+        return mChannelCount * 2;
+    }
+
+    /**
+     * 每秒字节数
+     */
+    public int getBytesPerSecond() {
+        return mSampleRateHz * getFrameBytes();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PcmFormat)) {
+            return false;
+        }
+        PcmFormat other = (PcmFormat) o;
+        return mSampleRateHz == other.mSampleRateHz && mChannelCount == other.mChannelCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return mSampleRateHz * 31 + mChannelCount;
+    }
+
+    @Override
+    public String toString() {
+        return mSampleRateHz + "Hz/" + mChannelCount + "ch";
+    }
+}
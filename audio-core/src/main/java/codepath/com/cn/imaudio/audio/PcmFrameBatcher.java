@@ -0,0 +1,111 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把任意长度的PCM数据块拼成编码器要求的固定长度帧（AAC为每声道1024个采样），
+ * 并按已提交的采样数计算每一帧的显示时间戳（不随帧数累积误差）。
+ *
+ * 数据直接拷贝到目标缓冲区（例如 MediaCodec 的输入缓冲区），中间不经过额外的数组。
+ *
+ * 非线程安全。
+ */
+public final class PcmFrameBatcher {
+
+    /** AAC每帧每声道的采样数 */
+    public static final int AAC_SAMPLES_PER_FRAME = 1024;
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final int mSampleRateHz;
+    private final int mBytesPerFrame;
+    private final int mFrameBytes;
+
+    private int mPendingBytes;
+    private long mSubmittedSamples;
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数
+     * @param samplesPerFrame 每帧每声道的采样数
+     */
+    public PcmFrameBatcher(int sampleRateHz, int channelCount, int samplesPerFrame) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || samplesPerFrame <= 0) {
+            throw new IllegalArgumentException("invalid format: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, " + samplesPerFrame + " samples/frame");
+        }
+
+        mSampleRateHz = sampleRateHz;
+        mBytesPerFrame = channelCount * BYTES_PER_SAMPLE;
+        mFrameBytes = samplesPerFrame * mBytesPerFrame;
+    }
+
+    /**
+     * 一个完整编码帧的字节数
+     */
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * 当前帧已累积的字节数
+     */
+    public int getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    public boolean isFrameComplete() {
+        return mPendingBytes == mFrameBytes;
+    }
+
+    /**
+     * 从 src 拷贝数据到 dst，至多凑满当前帧，两者的 position 都会前移
+     *
+     * @return 拷贝的字节数
+     */
+    public int transfer(ByteBuffer src, ByteBuffer dst) {
+        int length = Math.min(Math.min(src.remaining(), dst.remaining()), mFrameBytes - mPendingBytes);
+        if (length <= 0) {
+            return 0;
+        }
+
+        int limit = src.limit();
+        src.limit(src.position() + length);
+        dst.put(src);
+        src.limit(limit);
+
+        mPendingBytes += length;
+        return length;
+    }
+
+    /**
+     * 当前帧第一个采样的显示时间戳（微秒）
+     */
+    public long getPresentationTimeUs() {
+        return mSubmittedSamples * 1000000L / mSampleRateHz;
+    }
+
+    /**
+     * 提交当前帧（可以是最后一个不完整的帧），开始累积下一帧
+     *
+     * @return 被提交的帧的显示时间戳（微秒）
+     */
+    public long submitFrame() {
+        long presentationTimeUs = getPresentationTimeUs();
+        mSubmittedSamples += mPendingBytes / mBytesPerFrame;
+        mPendingBytes = 0;
+        return presentationTimeUs;
+    }
+
+    /**
+     * 已提交的采样数（每声道）
+     */
+    public long getSubmittedSamples() {
+        return mSubmittedSamples;
+    }
+
+    public void reset() {
+        mPendingBytes = 0;
+        mSubmittedSamples = 0;
+    }
+}
@@ -0,0 +1,226 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 单生产者/单消费者（SPSC）无锁PCM帧环形缓冲区
+ *
+ * 录音线程（生产者）把AudioRecord读到的帧写入预分配的槽位，写文件线程（消费者）按顺序取出并落盘，
+ * 两者之间没有锁，存储卡顿不会再阻塞录音线程。槽位是从 {@link DirectBufferPool} 取得的直接内存
+ * ByteBuffer，可直接交给 AudioRecord.read(ByteBuffer, int) 和 FileChannel.write(ByteBuffer)。
+ *
+ * 生产者：{@link #claim()} -> 从下标0开始填充数据 -> {@link #publish(int)}，结束时调用 {@link #close()}；
+ * 消费者：{@link #peek()}（position为0，limit为有效长度）-> 处理数据 -> {@link #release()}。
+ *
+ * 环满时 {@link #claim()} 返回一个溢出暂存区，生产者照常读取（保证硬件缓冲区不溢出），
+ * 但该帧会被丢弃并计入 {@link #getOverrunCount()}。
+ */
+public final class PcmRingBuffer {
+
+    private final ByteBuffer[] mSlots;
+    private final int mMask;
+    private final int mSlotBytes;
+    private final ByteBuffer mOverflowSlot;
+
+    // 下一个要写入的序号，仅生产者修改
+    private volatile long mTail;
+    // 下一个要读取的序号，仅消费者修改
+    private volatile long mHead;
+
+    // 生产者私有状态
+    private long mCachedHead;
+    private boolean mClaimedOverflow;
+
+    // 统计值，仅生产者修改
+    private volatile long mOverrunCount;
+    private volatile long mDroppedBytes;
+    private volatile int mHighWaterMark;
+
+    private volatile boolean mClosed;
+
+    /**
+     * @param pool 槽位来源，需要有 slotCount + 1 个可用缓冲区（其中一个作为溢出暂存区）
+     * @param slotCount 槽位数，必须是2的幂
+     */
+    public PcmRingBuffer(DirectBufferPool pool, int slotCount) {
+        if (slotCount < 2 || (slotCount & (slotCount - 1)) != 0) {
+            throw new IllegalArgumentException("slotCount must be a power of two >= 2: " + slotCount);
+        }
+        if (pool.available() < slotCount + 1) {
+            throw new IllegalArgumentException("pool has only " + pool.available()
+                    + " buffers, " + (slotCount + 1) + " required");
+        }
+
+        mSlots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            mSlots[i] = pool.acquire();
+        }
+        mMask = slotCount - 1;
+        mSlotBytes = pool.getBufferBytes();
+        mOverflowSlot = pool.acquire();
+    }
+
+    /**
+     * @param slotCount 槽位数，必须是2的幂
+     * @param slotBytes 每个槽位的字节数
+     */
+    public PcmRingBuffer(int slotCount, int slotBytes) {
+        this(new DirectBufferPool(slotCount + 1, slotBytes), slotCount);
+    }
+
+    public int getSlotCount() {
+        return mSlots.length;
+    }
+
+    public int getSlotBytes() {
+        return mSlotBytes;
+    }
+
+    // ---------------------------------------------------------------- 生产者
+
+    /**
+     * 取得下一个可写入的已清空槽位。环满时返回溢出暂存区，写入其中的数据将被丢弃。
+     */
+    public ByteBuffer claim() {
+        long tail = mTail;
+        if (tail - mCachedHead >= mSlots.length) {
+            mCachedHead = mHead;
+            if (tail - mCachedHead >= mSlots.length) {
+                mClaimedOverflow = true;
+                mOverflowSlot.clear();
+                return mOverflowSlot;
+            }
+        }
+
+        mClaimedOverflow = false;
+        ByteBuffer slot = mSlots[(int) tail & mMask];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * 提交最近一次 {@link #claim()} 得到的槽位
+     *
+     * @param length 从下标0开始实际写入的字节数
+     */
+    public void publish(int length) {
+        if (length < 0 || length > mSlotBytes) {
+            throw new IllegalArgumentException("length out of range: " + length);
+        }
+
+        if (mClaimedOverflow) {
+            mClaimedOverflow = false;
+            mOverrunCount++;
+            mDroppedBytes += length;
+            return;
+        }
+
+        long tail = mTail;
+        ByteBuffer slot = mSlots[(int) tail & mMask];
+        slot.limit(length);
+        slot.position(0);
+        // volatile写保证槽位内容对消费者可见
+        mTail = tail + 1;
+
+        int used = (int) (tail + 1 - mHead);
+        if (used > mHighWaterMark) {
+            mHighWaterMark = used;
+        }
+    }
+
+    /**
+     * 生产者结束写入，消费者取完剩余数据后即可退出
+     */
+    public void close() {
+        mClosed = true;
+    }
+
+    // ---------------------------------------------------------------- 消费者
+
+    /**
+     * 取得下一个可读的槽位，没有数据时返回null。
+     * 消费者可以自由移动其position，{@link #peekLength()} 不受影响。
+     */
+    public ByteBuffer peek() {
+        long head = mHead;
+        if (head >= mTail) {
+            return null;
+        }
+        return mSlots[(int) head & mMask];
+    }
+
+    /**
+     * 最近一次 {@link #peek()} 得到的槽位中有效数据的字节数
+     */
+    public int peekLength() {
+        return mSlots[(int) mHead & mMask].limit();
+    }
+
+    /**
+     * 归还最近一次 {@link #peek()} 得到的槽位
+     */
+    public void release() {
+        long head = mHead;
+        if (head >= mTail) {
+            throw new IllegalStateException("nothing to release");
+        }
+        mHead = head + 1;
+    }
+
+    /**
+     * 生产者是否已结束写入。消费者应先读取此状态，再调用 {@link #peek()}，
+     * 两者都表明没有数据时才可以退出。
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    // ---------------------------------------------------------------- 状态
+
+    /**
+     * 当前已提交但尚未被消费的槽位数
+     */
+    public int size() {
+        return (int) (mTail - mHead);
+    }
+
+    public boolean isEmpty() {
+        return mTail == mHead;
+    }
+
+    /**
+     * 因环满而被丢弃的帧数
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * 因环满而被丢弃的字节数
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /**
+     * 会话期间观察到的最大占用槽位数
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * 重置为初始状态，以便下一次录音复用已分配的槽位。
+     * 只能在生产者和消费者都已停止时调用。
+     */
+    public void reset() {
+        mHead = 0;
+        mTail = 0;
+        mCachedHead = 0;
+        mClaimedOverflow = false;
+        mOverrunCount = 0;
+        mDroppedBytes = 0;
+        mHighWaterMark = 0;
+        mClosed = false;
+    }
+}
@@ -0,0 +1,66 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 16位PCM与 [-1, 1] 浮点采样之间的转换，以及逐采样的增益
+ *
+ * 每个方法都是对数组的单层循环，没有跨迭代的依赖，便于JIT向量化；不分配内存。
+ */
+final class PcmSamples {
+
+    private static final float TO_FLOAT = 1f / 32768;
+
+    private PcmSamples() {
+    }
+
+    /**
+     * 把16位小端PCM转换为浮点采样，不改变 pcm 的 position 和 limit
+     *
+     * @param offset 数据在 pcm 中的字节偏移
+     * @param samples 采样数
+     */
+    static void toFloat(ByteBuffer pcm, int offset, float[] out, int samples) {
+        for (int i = 0, b = offset; i < samples; i++, b += 2) {
+            // 按字节读取，与缓冲区的字节序设置无关
+            out[i] = (short) ((pcm.get(b) & 0xFF) | pcm.get(b + 1) << 8) * TO_FLOAT;
+        }
+    }
+
+    /**
+     * 增益从 from 线性过渡到 to，最后一个采样恰好为 to
+     */
+    static void applyGainRamp(float[] samples, int count, int channelCount, float from, float to) {
+        int frames = count / channelCount;
+        if (from == to) {
+            for (int i = 0; i < count; i++) {
+                samples[i] *= to;
+            }
+            return;
+        }
+        float step = (to - from) / frames;
+        for (int frame = 0, i = 0; frame < frames; frame++) {
+            float gain = from + step * (frame + 1);
+            for (int ch = 0; ch < channelCount; ch++, i++) {
+                samples[i] *= gain;
+            }
+        }
+    }
+
+    /**
+     * 把浮点采样四舍五入、限幅后转换为16位PCM，写入 out 的当前位置
+     *
+     * @param offset 第一个采样在 samples 中的下标
+     * @param scratch 中间数组，长度不小于 count
+     * @param out 字节序为小端的缓冲区的视图
+     */
+    static void toPcm(float[] samples, int offset, int count, short[] scratch, ShortBuffer out) {
+        for (int i = 0; i < count; i++) {
+            float value = samples[offset + i] * 32768f;
+            value = value > 32767f ? 32767f : (value < -32768f ? -32768f : value);
+            scratch[i] = (short) Math.round(value);
+        }
+        out.put(scratch, 0, count);
+    }
+}
@@ -0,0 +1,24 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 录音数据的去向：写文件、编码等
+ *
+ * 由写文件线程调用，实现不需要线程安全。
+ */
+public interface PcmSink extends Closeable {
+
+    /**
+     * 消费 pcm 中 position 到 limit 之间的全部16位小端PCM数据
+     */
+    void write(ByteBuffer pcm) throws IOException;
+
+    /**
+     * 写完剩余数据并释放资源，之后的文件即为完整可用的
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,47 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 播放数据的来源：映射的PCM文件、解码器等
+ *
+ * 输出16位小端PCM，由播放线程调用，实现不需要线程安全。
+ */
+public interface PcmSource extends Closeable {
+
+    /**
+     * 每帧字节数（声道数 x 2）
+     */
+    int getFrameBytes();
+
+    /**
+     * 采样率，裸PCM等无法得知时返回0
+     */
+    int getSampleRateHz();
+
+    /**
+     * 总帧数
+     */
+    long getFrameCount();
+
+    /**
+     * 下一次读取的帧位置
+     */
+    long getPositionFrames();
+
+    /**
+     * 定位到指定帧，超出范围时定位到开头或结尾
+     */
+    void seekToFrame(long frame);
+
+    /**
+     * 返回从当前位置开始、最多 maxBytes 字节（按帧对齐）的PCM数据，并前移读取位置。
+     * 返回的缓冲区在下一次调用前有效；没有剩余数据时返回null。
+     */
+    ByteBuffer nextChunk(int maxBytes);
+
+    @Override
+    void close() throws IOException;
+}
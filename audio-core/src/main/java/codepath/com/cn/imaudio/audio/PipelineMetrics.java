@@ -0,0 +1,201 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 音频管线的计数器和延迟直方图
+ *
+ * 采集、编码写盘和播放各环节在热路径上调用 {@link #add}、{@link #record}：按枚举下标访问定长数组，
+ * 只有原子加法，不加锁、不分配内存。会话开始和结束时各取一次 {@link #snapshot()}，
+ * 用 {@link Snapshot#minus} 得到这一次会话的汇总，不需要清零，也就不会和并行的播放互相干扰。
+ */
+public final class PipelineMetrics {
+
+    /**
+     * 热循环中的逐块日志开关，为编译期常量：关闭时整段日志连同字符串拼接都被编译器去掉。
+     * 不用 BuildConfig.DEBUG，它不是编译期常量
+     */
+    public static final boolean VERBOSE = false;
+
+    public enum Counter {
+        /** 从麦克风读到的PCM字节数 */
+        BYTES_CAPTURED,
+        /** 读到的数据不足一块的次数 */
+        SHORT_READS,
+        /** 写盘跟不上，环形缓冲区覆盖掉的块数 */
+        OVERRUNS,
+        /** 写入录音文件的编码后字节数 */
+        BYTES_WRITTEN,
+        /** 写给 AudioTrack 的PCM字节数 */
+        BYTES_PLAYED,
+        /** AudioTrack 报告的欠载次数，API 24 以下为0 */
+        UNDERRUNS,
+        CAPTURE_ERRORS,
+        WRITE_ERRORS,
+        PLAYBACK_ERRORS
+    }
+
+    public enum Timer {
+        /** AudioRecord.read 一块的耗时 */
+        CAPTURE_READ,
+        /** 一块PCM经重采样、静音检测、编码后写入文件的耗时 */
+        ENCODE_WRITE,
+        /** AudioTrack.write 一块的耗时 */
+        PLAYBACK_WRITE,
+        /** 从请求录音到读到第一块数据 */
+        RECORD_START,
+        /** 从请求停止到录音文件写完 */
+        RECORD_STOP,
+        /** 从请求播放到第一块数据写给 AudioTrack */
+        PLAYBACK_START
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Timer[] TIMERS = Timer.values();
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS.length);
+    private final LatencyHistogram[] mTimers = new LatencyHistogram[TIMERS.length];
+
+    public PipelineMetrics() {
+        for (int i = 0; i < mTimers.length; i++) {
+            mTimers[i] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        mCounters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public long get(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    /**
+     * 记录一次耗时，nanos 为 System.nanoTime() 之差
+     */
+    public void record(Timer timer, long nanos) {
+        mTimers[timer.ordinal()].recordNanos(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Timer timer) {
+        return mTimers[timer.ordinal()];
+    }
+
+    /**
+     * 当前所有计数的副本，各项之间不保证是同一瞬间的值
+     */
+    public Snapshot snapshot() {
+        long[] counters = new long[COUNTERS.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        long[][] buckets = new long[TIMERS.length][LatencyHistogram.BUCKET_COUNT];
+        long[] sums = new long[TIMERS.length];
+        for (int i = 0; i < TIMERS.length; i++) {
+            sums[i] = mTimers[i].copyTo(buckets[i]);
+        }
+        return new Snapshot(counters, buckets, sums);
+    }
+
+    /**
+     * 不可变的计数快照
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounters;
+        private final long[][] mBuckets;
+        private final long[] mSumMicros;
+
+        Snapshot(long[] counters, long[][] buckets, long[] sumMicros) {
+            mCounters = counters;
+            mBuckets = buckets;
+            mSumMicros = sumMicros;
+        }
+
+        public long get(Counter counter) {
+            return mCounters[counter.ordinal()];
+        }
+
+        public long getCount(Timer timer) {
+            long count = 0;
+            for (long bucket : mBuckets[timer.ordinal()]) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * 平均耗时（微秒），没有样本时返回-1
+         */
+        public long getMeanMicros(Timer timer) {
+            long count = getCount(timer);
+            return count == 0 ? -1 : mSumMicros[timer.ordinal()] / count;
+        }
+
+        /**
+         * 分位数耗时的上界（微秒），没有样本时返回-1
+         *
+         * @param percentile 0～100
+         */
+        public long getPercentileMicros(Timer timer, double percentile) {
+            return LatencyHistogram.percentileMicros(mBuckets[timer.ordinal()], percentile);
+        }
+
+        /**
+         * 本快照与更早的快照之差，即两次快照之间的增量
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] counters = new long[mCounters.length];
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = mCounters[i] - earlier.mCounters[i];
+            }
+            long[][] buckets = new long[mBuckets.length][LatencyHistogram.BUCKET_COUNT];
+            long[] sums = new long[mSumMicros.length];
+            for (int i = 0; i < buckets.length; i++) {
+                for (int j = 0; j < LatencyHistogram.BUCKET_COUNT; j++) {
+                    buckets[i][j] = mBuckets[i][j] - earlier.mBuckets[i][j];
+                }
+                sums[i] = mSumMicros[i] - earlier.mSumMicros[i];
+            }
+            return new Snapshot(counters, buckets, sums);
+        }
+
+        /**
+         * 一行一项，只列出非零的计数和有样本的耗时
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Counter counter : COUNTERS) {
+                long value = get(counter);
+                if (value != 0) {
+                    sb.append(counter.name().toLowerCase(Locale.US)).append(": ").append(value).append('\n');
+                }
+            }
+            for (Timer timer : TIMERS) {
+                long count = getCount(timer);
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.US, "%s: n=%d, mean=%.1fms, p50<%s, p99<%s\n",
+                        timer.name().toLowerCase(Locale.US), count,
+                        getMeanMicros(timer) / 1000f,
+                        formatBound(getPercentileMicros(timer, 50)),
+                        formatBound(getPercentileMicros(timer, 99))));
+            }
+            return sb.toString();
+        }
+
+        private static String formatBound(long micros) {
+            if (micros == Long.MAX_VALUE) {
+                return "inf";
+            }
+            return micros < 1000 ? micros + "us" : String.format(Locale.US, "%.1fms", micros / 1000f);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 流式多相（polyphase）重采样，任意两个整数采样率之间转换
+ *
+ * 采样率之比约分为 L/M（例如 44100 -> 16000 为 160/441）。原型滤波器为 Kaiser 窗的 sinc 低通，
+ * 截止频率取两者中较低的奈奎斯特频率的 {@link #ROLLOFF}，阻带约 80dB；按 L 个相位拆开后，
+ * 每个输出采样只需要一个相位的 {@link #getTapsPerPhase()} 次乘加，不需要真正插零再抽取。
+ *
+ * 输入一帧就输出所有已经能算出的帧，可以处理任意大小的数据块。滤波器的群延迟在开头被跳过，
+ * {@link #flush(ByteBuffer)} 补齐结尾，所以输出时长与输入一致，且与输入对齐。
+ *
+ * 处理过程不分配内存。非线程安全。
+ */
+public final class PolyphaseResampler {
+
+    /** 通带宽度占较低奈奎斯特频率的比例 */
+    static final double ROLLOFF = 0.9;
+    /** 在较低采样率下滤波器每侧的过零点数 */
+    static final int ZERO_CROSSINGS = 16;
+    /** Kaiser 窗的 beta，约 80dB 阻带衰减 */
+    static final double KAISER_BETA = 8.0;
+    // 系数表的上限，避免互质的采样率（L 很大）占用过多内存
+    private static final int MAX_COEFFICIENTS = 1 << 18;
+
+    private final int mInRate;
+    private final int mOutRate;
+    private final int mChannelCount;
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    // 每个相位的系数按从旧到新的输入顺序排列，相位 p 从 p * mTaps 开始
+    private final float[] mCoefficients;
+    // 开头跳过的输出帧数和起始相位，使输出与输入准确对齐
+    private final int mDelayFrames;
+    private final int mStartPhase;
+
+    // 每个声道最近 mTaps 个输入，存两份以便连续读取
+    private final float[][] mHistory;
+    private final float[] mZeroFrame;
+    private int mHistoryIndex;
+    private int mPhase;
+    private int mSkipFrames;
+    private long mInputFrames;
+    private long mOutputFrames;
+
+    /**
+     * @param inRate 输入采样率
+     * @param outRate 输出采样率
+     * @param channelCount 声道数，各声道独立处理
+     */
+    public PolyphaseResampler(int inRate, int outRate, int channelCount) {
+        if (inRate <= 0 || outRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid resampler: " + inRate + " -> " + outRate
+                    + "Hz, " + channelCount + "ch");
+        }
+        mInRate = inRate;
+        mOutRate = outRate;
+        mChannelCount = channelCount;
+
+        int gcd = gcd(inRate, outRate);
+        mUp = outRate / gcd;
+        mDown = inRate / gcd;
+
+        double ratio = Math.min(1.0, (double) mUp / mDown);
+        mTaps = 2 * (int) Math.ceil(ZERO_CROSSINGS / ratio);
+        if ((long) mUp * mTaps > MAX_COEFFICIENTS) {
+            throw new IllegalArgumentException("unsupported rate ratio: " + inRate + " -> " + outRate);
+        }
+        mCoefficients = design(mUp, mTaps, ROLLOFF * ratio / (2.0 * mUp));
+
+        // 原型滤波器的中心（插值后的采样）：第 n 个输出对应插值后的第 n * M + 起始相位 个采样，
+        // 跳过的输出帧数和起始相位合起来正好抵消滤波器的延迟
+        int center = mUp * mTaps / 2;
+        mDelayFrames = center / mDown;
+        mStartPhase = center - mDelayFrames * mDown;
+
+        mHistory = new float[channelCount][2 * mTaps];
+        mZeroFrame = new float[channelCount];
+        reset();
+    }
+
+    public int getInRate() {
+        return mInRate;
+    }
+
+    public int getOutRate() {
+        return mOutRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 每个输出采样的乘加次数
+     */
+    public int getTapsPerPhase() {
+        return mTaps;
+    }
+
+    /**
+     * 输入 inFrames 帧时最多输出的帧数
+     */
+    public int getMaxOutputFrames(int inFrames) {
+        return (int) (((long) inFrames * mUp + mDown - 1) / mDown) + 1;
+    }
+
+    /**
+     * {@link #flush(ByteBuffer)} 最多输出的帧数
+     */
+    public int getMaxFlushFrames() {
+        return getMaxOutputFrames(flushInputFrames());
+    }
+
+    /**
+     * 输入一帧，输出此时能算出的帧（0个或多个），以16位小端写入 out 的 position 处并前移
+     *
+     * @param frame 每个声道一个采样，取值范围与16位PCM相同
+     * @return 输出的帧数
+     */
+    public int push(float[] frame, ByteBuffer out) {
+        insert(frame);
+        return drain(out, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 输入结束时调用，输出滤波器中剩余的数据，使输出的总帧数为 输入帧数 x 输出采样率 / 输入采样率
+     * （向上取整）。之后需要 {@link #reset()} 才能处理新的数据。
+     *
+     * @return 输出的帧数
+     */
+    public int flush(ByteBuffer out) {
+        long target = (mInputFrames * mUp + mDown - 1) / mDown;
+        int produced = 0;
+        for (int i = flushInputFrames(); i > 0 && mOutputFrames < target; i--) {
+            insert(mZeroFrame);
+            produced += drain(out, (int) (target - mOutputFrames));
+        }
+        return produced;
+    }
+
+    private void insert(float[] frame) {
+        mInputFrames++;
+        int index = mHistoryIndex + 1;
+        if (index == mTaps) {
+            index = 0;
+        }
+        mHistoryIndex = index;
+        for (int ch = 0; ch < mChannelCount; ch++) {
+            float[] history = mHistory[ch];
+            history[index] = frame[ch];
+            history[index + mTaps] = frame[ch];
+        }
+    }
+
+    /**
+     * 输出最新一帧输入之后能算出的帧，最多 maxFrames 帧（只在 flush 时限制）
+     */
+    private int drain(ByteBuffer out, int maxFrames) {
+        int produced = 0;
+        int phase = mPhase;
+        while (phase < mUp && produced < maxFrames) {
+            if (mSkipFrames > 0) {
+                mSkipFrames--;
+            } else {
+                emit(phase, out);
+                produced++;
+            }
+            phase += mDown;
+        }
+        mPhase = phase - mUp;
+        mOutputFrames += produced;
+        return produced;
+    }
+
+    /**
+     * 清空历史数据，开始新的一段音频或定位之后调用
+     */
+    public void reset() {
+        for (float[] history : mHistory) {
+            for (int i = 0; i < history.length; i++) {
+                history[i] = 0;
+            }
+        }
+        mHistoryIndex = mTaps - 1;
+        mPhase = mStartPhase;
+        mSkipFrames = mDelayFrames;
+        mInputFrames = 0;
+        mOutputFrames = 0;
+    }
+
+    private void emit(int phase, ByteBuffer out) {
+        float[] coefficients = mCoefficients;
+        int base = phase * mTaps;
+        int start = mHistoryIndex + 1;
+        for (int ch = 0; ch < mChannelCount; ch++) {
+            float[] history = mHistory[ch];
+            float acc = 0;
+            for (int k = 0; k < mTaps; k++) {
+                acc += coefficients[base + k] * history[start + k];
+            }
+            out.putShort(clamp(acc));
+        }
+    }
+
+    /**
+     * 补齐群延迟需要的零输入帧数的上限
+     */
+    private int flushInputFrames() {
+        return (mDelayFrames * mDown + mStartPhase) / mUp + 2;
+    }
+
+    private static short clamp(float sample) {
+        int rounded = Math.round(sample);
+        return (short) (rounded > Short.MAX_VALUE ? Short.MAX_VALUE
+                : rounded < Short.MIN_VALUE ? Short.MIN_VALUE : rounded);
+    }
+
+    /**
+     * 设计原型低通并拆成 up 个相位，每个相位的系数之和归一化为1，保证直流增益一致
+     *
+     * @param cutoff 插值后采样率下的归一化截止频率（周期/采样）
+     */
+    private static float[] design(int up, int taps, double cutoff) {
+        int length = up * taps;
+        // 中心取整数，使延迟为整数个插值后的采样；长度为偶数，最后一个系数（窗的端点，接近0）省略
+        int center = length / 2;
+        double i0Beta = besselI0(KAISER_BETA);
+
+        double[] prototype = new double[length];
+        for (int i = 0; i < length; i++) {
+            double t = i - center;
+            double x = 2 * cutoff * t;
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double r = t / center;
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / i0Beta;
+            prototype[i] = sinc * window;
+        }
+
+        float[] coefficients = new float[length];
+        for (int phase = 0; phase < up; phase++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += prototype[phase + k * up];
+            }
+            // 第 k 个系数乘以往前第 k 个输入，倒序存放后与历史数据的顺序一致
+            for (int k = 0; k < taps; k++) {
+                coefficients[phase * taps + taps - 1 - k] = (float) (prototype[phase + k * up] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    /**
+     * 第一类零阶修正贝塞尔函数，级数展开
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,130 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 固定容量的环形PCM缓冲区，只保留最近写入的一段音频（预录）
+ *
+ * 写入时覆盖最旧的数据，内存占用固定。{@link #snapshot(ByteBuffer[])} 以最多两个视图
+ * （环绕时分为两段）按时间顺序给出当前内容，不拷贝数据；视图在下一次写入或清空之前有效，
+ * 所以取快照之后、视图用完之前不能再写入。
+ *
+ * 非线程安全，跨线程交接需要由调用方保证可见性。
+ */
+public final class PreRollBuffer {
+
+    private final ByteBuffer mBuffer;
+    // 快照用的两个视图，创建时分配，之后复用
+    private final ByteBuffer mFirstView;
+    private final ByteBuffer mSecondView;
+    private final int mFrameBytes;
+    // 下一次写入的位置
+    private int mWritePosition;
+    private int mSize;
+    private long mTotalBytes;
+
+    /**
+     * @param capacityBytes 容量，向下取整到整帧
+     * @param frameBytes 每帧字节数
+     */
+    public PreRollBuffer(int capacityBytes, int frameBytes) {
+        if (frameBytes <= 0 || capacityBytes < frameBytes) {
+            throw new IllegalArgumentException("invalid pre-roll buffer: " + capacityBytes
+                    + " bytes, " + frameBytes + " bytes/frame");
+        }
+        mFrameBytes = frameBytes;
+        mBuffer = ByteBuffer.allocateDirect(capacityBytes - capacityBytes % frameBytes);
+        mFirstView = mBuffer.duplicate();
+        mSecondView = mBuffer.duplicate();
+    }
+
+    /**
+     * 按时长创建，16位PCM
+     */
+    public static PreRollBuffer forDuration(int sampleRateHz, int channelCount, int millis) {
+        int frameBytes = channelCount * 2;
+        long frames = Math.max(1, (long) sampleRateHz * millis / 1000);
+        return new PreRollBuffer((int) (frames * frameBytes), frameBytes);
+    }
+
+    public int capacity() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * 当前保存的字节数，不超过容量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 累计写入的字节数，包括已被覆盖的部分
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * 写入 pcm 中 position 到 limit 之间的全部数据，超出容量时只保留最后的部分。
+     * pcm 的 position 移到 limit。
+     */
+    public void write(ByteBuffer pcm) {
+        int length = pcm.remaining();
+        mTotalBytes += length;
+
+        int capacity = mBuffer.capacity();
+        if (length >= capacity) {
+            // 只有最后 capacity 字节有用
+            pcm.position(pcm.limit() - capacity);
+            length = capacity;
+        }
+
+        int srcLimit = pcm.limit();
+        while (length > 0) {
+            int part = Math.min(length, capacity - mWritePosition);
+            mBuffer.limit(mWritePosition + part).position(mWritePosition);
+            pcm.limit(pcm.position() + part);
+            mBuffer.put(pcm);
+            pcm.limit(srcLimit);
+            mWritePosition = (mWritePosition + part) % capacity;
+            mSize = Math.min(capacity, mSize + part);
+            length -= part;
+        }
+    }
+
+    /**
+     * 以视图的形式按时间顺序给出当前内容，不拷贝数据
+     *
+     * @param views 长度至少为2，依次填入视图（position 到 limit 为数据）
+     * @return 视图的个数：空时为0，未环绕时为1，环绕时为2
+     */
+    public int snapshot(ByteBuffer[] views) {
+        if (mSize == 0) {
+            return 0;
+        }
+
+        int capacity = mBuffer.capacity();
+        int start = (mWritePosition - mSize + capacity) % capacity;
+        if (start + mSize <= capacity) {
+            mFirstView.limit(start + mSize).position(start);
+            views[0] = mFirstView;
+            return 1;
+        }
+
+        mFirstView.limit(capacity).position(start);
+        mSecondView.limit(mWritePosition).position(0);
+        views[0] = mFirstView;
+        views[1] = mSecondView;
+        return 2;
+    }
+
+    public void clear() {
+        mWritePosition = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package codepath.com.cn.imaudio.audio;
+
+/**
+ * 实数序列的基2 FFT，在 float[] 上原地计算
+ *
+ * N 点实数序列按复数 z[n] = x[2n] + i·x[2n+1] 做 N/2 点复数FFT，再拆分出实数序列的频谱，
+ * 计算量约为同长度复数FFT的一半。频谱按打包格式存放：
+ * <pre>
+ *     data[0] = Re X[0]，data[1] = Re X[N/2]（两者的虚部为0）
+ *     data[2k] = Re X[k]，data[2k+1] = Im X[k]，1 &lt;= k &lt; N/2
+ * </pre>
+ * 位反转表和旋转因子在创建时计算，变换过程不分配内存。正变换不缩放，逆变换除以 N，两者互逆。
+ * 实例没有可变状态，可在多个线程中同时使用。
+ */
+public final class RealFft {
+
+    private final int mSize;
+    private final int mHalf;
+    // N/2 点复数FFT的位反转表和旋转因子 e^(-2πij/(N/2))
+    private final int[] mBitReverse;
+    private final float[] mCos;
+    private final float[] mSin;
+    // 拆分用的旋转因子 e^(-2πik/N)，0 <= k <= N/4
+    private final float[] mSplitCos;
+    private final float[] mSplitSin;
+
+    /**
+     * @param size 点数，不小于4的2的幂
+     */
+    public RealFft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("size must be a power of two >= 4: " + size);
+        }
+        mSize = size;
+        mHalf = size / 2;
+
+        mBitReverse = new int[mHalf];
+        int bits = Integer.numberOfTrailingZeros(mHalf);
+        for (int i = 0; i < mHalf; i++) {
+            mBitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        mCos = new float[mHalf / 2];
+        mSin = new float[mHalf / 2];
+        for (int j = 0; j < mCos.length; j++) {
+            double angle = 2 * Math.PI * j / mHalf;
+            mCos[j] = (float) Math.cos(angle);
+            mSin[j] = (float) Math.sin(angle);
+        }
+        mSplitCos = new float[mHalf / 2 + 1];
+        mSplitSin = new float[mHalf / 2 + 1];
+        for (int k = 0; k < mSplitCos.length; k++) {
+            double angle = 2 * Math.PI * k / size;
+            mSplitCos[k] = (float) Math.cos(angle);
+            mSplitSin[k] = (float) Math.sin(angle);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * 正变换：data 的前 N 个实数替换为打包格式的频谱
+     */
+    public void forward(float[] data) {
+        complexTransform(data, false);
+
+        float r0 = data[0];
+        float i0 = data[1];
+        data[0] = r0 + i0;
+        data[1] = r0 - i0;
+
+        int half = mHalf;
+        for (int k = 1, end = half / 2; k <= end; k++) {
+            int a = 2 * k;
+            int b = 2 * (half - k);
+            float zr = data[a], zi = data[a + 1];
+            float wr = data[b], wi = data[b + 1];
+            // 偶数项和奇数项的频谱：E = (Z[k] + conj(Z[M-k])) / 2，O = (Z[k] - conj(Z[M-k])) / 2i
+            float er = 0.5f * (zr + wr);
+            float ei = 0.5f * (zi - wi);
+            float or = 0.5f * (zi + wi);
+            float oi = -0.5f * (zr - wr);
+            // X[k] = E + W·O，X[M-k] = conj(E - W·O)，W = e^(-2πik/N)
+            float c = mSplitCos[k], s = mSplitSin[k];
+            float tr = c * or + s * oi;
+            float ti = c * oi - s * or;
+            data[a] = er + tr;
+            data[a + 1] = ei + ti;
+            if (a != b) {
+                data[b] = er - tr;
+                data[b + 1] = -(ei - ti);
+            }
+        }
+    }
+
+    /**
+     * 逆变换：打包格式的频谱替换为 N 个实数
+     */
+    public void inverse(float[] data) {
+        float x0 = data[0];
+        float xm = data[1];
+        data[0] = 0.5f * (x0 + xm);
+        data[1] = 0.5f * (x0 - xm);
+
+        int half = mHalf;
+        for (int k = 1, end = half / 2; k <= end; k++) {
+            int a = 2 * k;
+            int b = 2 * (half - k);
+            float xr = data[a], xi = data[a + 1];
+            float yr = data[b], yi = data[b + 1];
+            // E = (X[k] + conj(X[M-k])) / 2，W·O = (X[k] - conj(X[M-k])) / 2
+            float er = 0.5f * (xr + yr);
+            float ei = 0.5f * (xi - yi);
+            float pr = 0.5f * (xr - yr);
+            float pi = 0.5f * (xi + yi);
+            // O = conj(W)·(W·O)
+            float c = mSplitCos[k], s = mSplitSin[k];
+            float or = c * pr - s * pi;
+            float oi = c * pi + s * pr;
+            // Z[k] = E + i·O，Z[M-k] = conj(E) + i·conj(O)
+            data[a] = er - oi;
+            data[a + 1] = ei + or;
+            if (a != b) {
+                data[b] = er + oi;
+                data[b + 1] = -ei + or;
+            }
+        }
+
+        complexTransform(data, true);
+        float scale = 1f / half;
+        for (int i = 0; i < mSize; i++) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * 交错存放的 N/2 点复数序列的原地FFT（不缩放）
+     */
+    private void complexTransform(float[] data, boolean inverse) {
+        int n = mHalf;
+        int[] reverse = mBitReverse;
+        for (int i = 0; i < n; i++) {
+            int j = reverse[i];
+            if (j > i) {
+                float tr = data[2 * i];
+                float ti = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = tr;
+                data[2 * j + 1] = ti;
+            }
+        }
+
+        float sign = inverse ? 1f : -1f;
+        for (int size = 2; size <= n; size <<= 1) {
+            int halfSize = size >> 1;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int j = 0, t = 0; j < halfSize; j++, t += step) {
+                    float wr = mCos[t];
+                    float wi = sign * mSin[t];
+                    int a = (start + j) << 1;
+                    int b = (start + j + halfSize) << 1;
+                    float br = data[b], bi = data[b + 1];
+                    float tr = wr * br - wi * bi;
+                    float ti = wr * bi + wi * br;
+                    data[b] = data[a] - tr;
+                    data[b + 1] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 把 {@link PcmSource} 转换为播放器的输出格式，例如16kHz的语音以设备的原生采样率播放
+ *
+ * 帧数和位置都以输出格式计；定位时换算为源的帧位置并清空重采样滤波器。
+ * 源的数据读完后再输出一次滤波器中剩余的数据。非线程安全。
+ */
+public final class ResamplingPcmSource implements PcmSource {
+
+    /** 每次转换的输入帧数 */
+    static final int BLOCK_FRAMES = 1024;
+
+    private final PcmSource mSource;
+    private final FormatConverter mConverter;
+    private final long mFrameCount;
+    private long mPositionFrames;
+    // 尚未交给调用方的转换结果
+    private ByteBuffer mPending;
+    // 转换结果上复用的视图，避免每次读取都创建新的ByteBuffer对象
+    private ByteBuffer mView;
+    private boolean mFlushed;
+
+    /**
+     * @param source 采样率必须已知
+     */
+    public ResamplingPcmSource(PcmSource source, PcmFormat outFormat) {
+        if (source.getSampleRateHz() <= 0) {
+            throw new IllegalArgumentException("source sample rate unknown");
+        }
+        PcmFormat inFormat = new PcmFormat(source.getSampleRateHz(), source.getFrameBytes() / 2);
+        mSource = source;
+        mConverter = new FormatConverter(inFormat, outFormat, BLOCK_FRAMES);
+        mFrameCount = mConverter.toOutputFrames(source.getFrameCount());
+        mPositionFrames = mConverter.toOutputFrames(source.getPositionFrames());
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return mConverter.getOutFormat().getFrameBytes();
+    }
+
+    @Override
+    public int getSampleRateHz() {
+        return mConverter.getOutFormat().getSampleRateHz();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public long getPositionFrames() {
+        return mPositionFrames;
+    }
+
+    @Override
+    public void seekToFrame(long frame) {
+        long clamped = Math.max(0, Math.min(frame, mFrameCount));
+        mSource.seekToFrame(mConverter.toInputFrames(clamped));
+        mConverter.reset();
+        mPending = null;
+        mFlushed = false;
+        mPositionFrames = clamped;
+    }
+
+    /**
+     * 返回转换结果上复用的视图
+     */
+    @Override
+    public ByteBuffer nextChunk(int maxBytes) {
+        int frameBytes = getFrameBytes();
+        if (maxBytes < frameBytes) {
+            throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+        }
+
+        while (mPending == null || !mPending.hasRemaining()) {
+            if (!fill()) {
+                return null;
+            }
+        }
+
+        // 按 maxBytes 截取一段，剩余部分留到下一次
+        int length = Math.min(maxBytes - maxBytes % frameBytes, mPending.remaining());
+        int start = mPending.position();
+        mPending.position(start + length);
+        if (mView == null) {
+            mView = mPending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mView.clear();
+        mView.position(start);
+        mView.limit(start + length);
+
+        // 输出总帧数与换算的帧数可能相差一帧
+        mPositionFrames = Math.min(mFrameCount, mPositionFrames + length / frameBytes);
+        return mView;
+    }
+
+    /**
+     * 转换源的下一块数据
+     *
+     * @return 没有更多数据时返回false
+     */
+    private boolean fill() {
+        ByteBuffer in = mSource.nextChunk(BLOCK_FRAMES * mConverter.getInFormat().getFrameBytes());
+        if (in != null) {
+            mPending = mConverter.convert(in);
+            return true;
+        }
+        if (mFlushed) {
+            return false;
+        }
+        mFlushed = true;
+        mPending = mConverter.flush();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+}
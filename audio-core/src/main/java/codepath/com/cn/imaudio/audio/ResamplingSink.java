@@ -0,0 +1,57 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 转换PCM格式后交给下游的管道一级，例如以设备的采集格式录音、以16kHz保存
+ *
+ * 写入的数据按 {@link FormatConverter} 的块大小分批转换，不要求与采集的数据块大小一致；
+ * {@link #close()} 时输出重采样滤波器中剩余的数据再关闭下游。
+ *
+ * 由写文件线程调用，非线程安全。
+ */
+public final class ResamplingSink implements PcmSink {
+
+    /** 每次转换的输入帧数 */
+    static final int BLOCK_FRAMES = 1024;
+
+    private final FormatConverter mConverter;
+    private final PcmSink mDownstream;
+    private boolean mClosed;
+
+    public ResamplingSink(PcmFormat inFormat, PcmFormat outFormat, PcmSink downstream) {
+        mConverter = new FormatConverter(inFormat, outFormat, BLOCK_FRAMES);
+        mDownstream = downstream;
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        int frameBytes = mConverter.getInFormat().getFrameBytes();
+        while (pcm.remaining() >= frameBytes) {
+            ByteBuffer converted = mConverter.convert(pcm);
+            if (converted.hasRemaining()) {
+                mDownstream.write(converted);
+            }
+        }
+        // 不足一帧的尾部丢弃，与其他管道一级一致：上游总是按帧写入
+        pcm.position(pcm.limit());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            ByteBuffer tail = mConverter.flush();
+            if (tail.hasRemaining()) {
+                mDownstream.write(tail);
+            }
+        } finally {
+            mDownstream.close();
+        }
+    }
+}
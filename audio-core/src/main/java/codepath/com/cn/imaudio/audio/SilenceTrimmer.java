@@ -0,0 +1,213 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 录音管道中裁掉首尾静音、压缩长停顿的一级，按 {@link VoiceActivityDetector} 的判定边录边处理
+ *
+ * <ul>
+ *     <li>开头：第一段语音之前的数据只保留最后 preRollMillis（语音检测有延迟，避免切掉第一个字），
+ *     其余丢弃。</li>
+ *     <li>停顿：语音之后的静音先暂存（最多 holdMillis），语音恢复时原样写出。停顿超过 holdMillis 时，
+ *     compressPauses 为true则只保留 holdMillis，否则较早的部分照常写出。</li>
+ *     <li>结尾：close() 时丢弃暂存的静音。</li>
+ * </ul>
+ *
+ * 暂存区在创建时一次分配，处理过程不分配内存。输入需为整帧，由写文件线程调用，非线程安全。
+ */
+public final class SilenceTrimmer implements PcmSink {
+
+    private final PcmSink mDownstream;
+    private final VoiceActivityDetector mDetector;
+    private final int mSampleRateHz;
+    private final int mFrameBytes;
+    private final boolean mCompressPauses;
+    private final PcmFifo mPreRoll;
+    private final PcmFifo mPause;
+
+    private boolean mSpeechStarted;
+    private long mInputBytes;
+    private long mOutputBytes;
+    private long mLeadingTrimmedBytes;
+    private long mTrailingTrimmedBytes;
+    private long mCompressedBytes;
+    private boolean mClosed;
+
+    /**
+     * @param downstream 裁剪后的数据写入的下一级，close() 时一起关闭
+     * @param detector 语音检测，声道数和采样率需与此处一致
+     * @param preRollMillis 第一段语音之前保留的时长
+     * @param holdMillis 语音之后的静音最多暂存的时长，即结尾最多裁掉的静音
+     * @param compressPauses 是否把超过 holdMillis 的停顿缩短为 holdMillis
+     */
+    public SilenceTrimmer(PcmSink downstream, VoiceActivityDetector detector, int sampleRateHz,
+                          int channelCount, int preRollMillis, int holdMillis, boolean compressPauses) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || preRollMillis < 0 || holdMillis < 0) {
+            throw new IllegalArgumentException("invalid trimmer config: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, pre-roll " + preRollMillis + "ms, hold " + holdMillis + "ms");
+        }
+        mDownstream = downstream;
+        mDetector = detector;
+        mSampleRateHz = sampleRateHz;
+        mFrameBytes = channelCount * 2;
+        mCompressPauses = compressPauses;
+        mPreRoll = new PcmFifo(millisToBytes(preRollMillis));
+        mPause = new PcmFifo(millisToBytes(holdMillis));
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        int windowBytes = mDetector.getWindowFrames() * mFrameBytes;
+        while (pcm.remaining() >= mFrameBytes) {
+            int length = Math.min(windowBytes, pcm.remaining() - pcm.remaining() % mFrameBytes);
+            mInputBytes += length;
+            if (mDetector.process(pcm, pcm.position(), length / mFrameBytes)) {
+                onSpeech(pcm, length);
+            } else {
+                onSilence(pcm, length);
+            }
+        }
+    }
+
+    private void onSpeech(ByteBuffer pcm, int length) throws IOException {
+        if (!mSpeechStarted) {
+            mSpeechStarted = true;
+            drain(mPreRoll, mPreRoll.size());
+        } else {
+            drain(mPause, mPause.size());
+        }
+        forward(pcm, length);
+    }
+
+    private void onSilence(ByteBuffer pcm, int length) throws IOException {
+        if (!mSpeechStarted) {
+            // 只保留最近的 preRoll
+            int skip = Math.max(0, length - mPreRoll.capacity());
+            int overflow = Math.min(mPreRoll.size(), length - skip - mPreRoll.free());
+            if (overflow > 0) {
+                mPreRoll.discard(overflow);
+                mLeadingTrimmedBytes += overflow;
+            }
+            skip(pcm, skip);
+            mLeadingTrimmedBytes += skip;
+            mPreRoll.put(pcm, length - skip);
+            return;
+        }
+
+        int overflow = length - mPause.free();
+        if (overflow > 0) {
+            if (mCompressPauses) {
+                // 停顿已超过暂存上限，多出的部分丢弃
+                int accepted = length - overflow;
+                mPause.put(pcm, accepted);
+                skip(pcm, overflow);
+                mCompressedBytes += overflow;
+                return;
+            }
+
+            // 不压缩停顿时按顺序写出较早的静音
+            int flushed = Math.min(overflow, mPause.size());
+            drain(mPause, flushed);
+            if (overflow > flushed) {
+                forward(pcm, overflow - flushed);
+            }
+            length -= overflow - flushed;
+        }
+        mPause.put(pcm, length);
+    }
+
+    private void forward(ByteBuffer pcm, int length) throws IOException {
+        int limit = pcm.limit();
+        pcm.limit(pcm.position() + length);
+        mDownstream.write(pcm);
+        pcm.limit(limit);
+        mOutputBytes += length;
+    }
+
+    private void drain(PcmFifo fifo, int length) throws IOException {
+        mOutputBytes += length;
+        fifo.drainTo(mDownstream, length);
+    }
+
+    private static void skip(ByteBuffer pcm, int length) {
+        pcm.position(pcm.position() + length);
+    }
+
+    /**
+     * 是否检测到过语音，没有时输出为空
+     */
+    public boolean hasSpeech() {
+        return mSpeechStarted;
+    }
+
+    /**
+     * 输入的音频时长
+     */
+    public long getInputMillis() {
+        return bytesToMillis(mInputBytes);
+    }
+
+    /**
+     * 写入下一级的音频时长
+     */
+    public long getOutputMillis() {
+        return bytesToMillis(mOutputBytes);
+    }
+
+    /**
+     * 裁掉的开头静音时长，没有检测到语音时为全部输入
+     */
+    public long getLeadingTrimmedMillis() {
+        return bytesToMillis(mLeadingTrimmedBytes);
+    }
+
+    /**
+     * 裁掉的结尾静音时长，close() 之后有效
+     */
+    public long getTrailingTrimmedMillis() {
+        return bytesToMillis(mTrailingTrimmedBytes);
+    }
+
+    /**
+     * 压缩停顿减少的时长
+     */
+    public long getCompressedPauseMillis() {
+        return bytesToMillis(mCompressedBytes);
+    }
+
+    /**
+     * 总共去掉的时长，close() 之后等于输入时长减去输出时长
+     */
+    public long getTrimmedMillis() {
+        return bytesToMillis(mLeadingTrimmedBytes + mTrailingTrimmedBytes + mCompressedBytes);
+    }
+
+    /**
+     * 丢弃暂存的结尾静音并关闭下一级
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        if (mSpeechStarted) {
+            mTrailingTrimmedBytes += mPause.size();
+        } else {
+            mLeadingTrimmedBytes += mPreRoll.size();
+        }
+        mPause.clear();
+        mPreRoll.clear();
+        mDownstream.close();
+    }
+
+    private int millisToBytes(int millis) {
+        return (int) ((long) mSampleRateHz * millis / 1000) * mFrameBytes;
+    }
+
+    private long bytesToMillis(long bytes) {
+        return bytes / mFrameBytes * 1000 / mSampleRateHz;
+    }
+}
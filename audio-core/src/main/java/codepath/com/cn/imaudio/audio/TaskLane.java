@@ -0,0 +1,192 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单线程的任务队列，按提交顺序逐个执行任务，并统计排队深度和延迟
+ *
+ * 同一条队列中的任务严格先进先出、互不重叠，前一个任务的写入对后一个任务可见，
+ * 适合不具备线程安全性的录音器调用。不同队列之间没有顺序保证。
+ *
+ * 每个任务记录排队等待时长（提交到开始执行）和执行时长，单位为微秒，保留最近
+ * {@link #STATS_CAPACITY} 次。统计方法可在任意线程调用。
+ *
+ * 通过 submit() 提交的任务抛出的异常保存在 Future 中，没有人读取时就无声无息地丢失了。任务结束后检查
+ * Future，失败的任务计入 {@link #getFailedTaskCount()} 并交给 {@link FailureListener}；调用方读取
+ * Future 时照常得到异常。
+ */
+public final class TaskLane extends ThreadPoolExecutor {
+
+    /** 保留最近多少次任务的延迟 */
+    public static final int STATS_CAPACITY = 128;
+
+    private final String mName;
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    // 只在工作线程中写入，读取时加锁
+    private final LatencyStats mWaitMicros = new LatencyStats(STATS_CAPACITY);
+    private final LatencyStats mRunMicros = new LatencyStats(STATS_CAPACITY);
+    private long mRunStartNanos;
+    private final AtomicInteger mFailedTasks = new AtomicInteger();
+    private volatile FailureListener mFailureListener;
+
+    /**
+     * 任务失败时在工作线程中回调
+     */
+    public interface FailureListener {
+
+        void onTaskFailed(TaskLane lane, Throwable error);
+    }
+
+    /**
+     * 提交时记录时间的任务
+     */
+    private static final class TimedTask implements Runnable {
+
+        final Runnable mTask;
+        final long mSubmitNanos = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+    }
+
+    /**
+     * @param name 队列名称，用于日志和线程名
+     * @param threadFactory 创建工作线程，可在其中设置线程优先级
+     */
+    public TaskLane(String name, ThreadFactory threadFactory) {
+        super(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setFailureListener(FailureListener listener) {
+        mFailureListener = listener;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        super.execute(new TimedTask(command));
+
+        int depth = getQueue().size();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            mWaitMicros.add((now - ((TimedTask) task).mSubmitNanos) / 1000);
+        }
+        mRunStartNanos = now;
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable thrown) {
+        long runMicros = (System.nanoTime() - mRunStartNanos) / 1000;
+        synchronized (this) {
+            mRunMicros.add(runMicros);
+        }
+
+        Throwable error = thrown;
+        Runnable command = ((TimedTask) task).mTask;
+        if (error == null && command instanceof Future) {
+            // submit() 提交的任务：异常被 FutureTask 捕获，任务已结束，get() 不会阻塞
+            Future<?> future = (Future<?>) command;
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                } catch (CancellationException e) {
+                    // 取消不是失败
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (error != null) {
+            mFailedTasks.incrementAndGet();
+            FailureListener listener = mFailureListener;
+            if (listener != null) {
+                listener.onTaskFailed(this, error);
+            }
+        }
+    }
+
+    /**
+     * 等待执行的任务数，不包括正在执行的任务
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * 抛出异常结束的任务数
+     */
+    public int getFailedTaskCount() {
+        return mFailedTasks.get();
+    }
+
+    /**
+     * 出现过的最大排队任务数
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * 最近任务排队等待时长的分位数（微秒），没有任务时返回-1
+     */
+    public synchronized long getWaitMicros(double percentile) {
+        return mWaitMicros.getPercentile(percentile);
+    }
+
+    /**
+     * 最近任务执行时长的分位数（微秒），没有任务时返回-1
+     */
+    public synchronized long getRunMicros(double percentile) {
+        return mRunMicros.getPercentile(percentile);
+    }
+
+    /**
+     * 清除延迟统计和最大排队数
+     */
+    public synchronized void resetStats() {
+        mWaitMicros.reset();
+        mRunMicros.reset();
+        mMaxQueueDepth.set(0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + "{depth=" + getQueueDepth() + ", maxDepth=" + mMaxQueueDepth.get()
+                + ", done=" + getCompletedTaskCount() + ", failed=" + mFailedTasks.get()
+                + ", waitP50=" + mWaitMicros.getPercentile(50) + "us"
+                + ", waitP99=" + mWaitMicros.getPercentile(99) + "us"
+                + ", runMax=" + mRunMicros.getMax() + "us}";
+    }
+}
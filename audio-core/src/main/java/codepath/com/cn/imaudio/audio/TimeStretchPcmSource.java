@@ -0,0 +1,165 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 以指定倍速输出 {@link PcmSource}，音高不变，见 {@link WsolaTimeStretcher}
+ *
+ * 帧数、位置和定位都按源的时间轴（媒体时间）计，与倍速无关，进度条不需要换算；实际输出的帧数约为
+ * 源的 1/倍速。定位后的第一个输出采样就是目标采样。1倍速时直接输出源的数据，不经过变速处理。
+ * 非线程安全，由播放线程调用。
+ */
+public final class TimeStretchPcmSource implements PcmSource {
+
+    /** 每次变速处理的输入帧数 */
+    static final int BLOCK_FRAMES = 1024;
+
+    private final PcmSource mSource;
+    private final WsolaTimeStretcher mStretcher;
+    private float mSpeed = 1f;
+
+    // 当前倍速开始生效时的源位置，以及此后输出的帧数
+    private long mAnchorFrame;
+    private long mOutputFrames;
+    private long mPositionFrames;
+
+    // 尚未交给调用方的变速结果
+    private ByteBuffer mPending;
+    // mPending 上复用的视图；变速器扩容后 mPending 换成新的缓冲区，视图随之重建
+    private ByteBuffer mView;
+    private ByteBuffer mViewTarget;
+    private boolean mFlushed;
+
+    public TimeStretchPcmSource(PcmSource source) {
+        this(source, source.getSampleRateHz());
+    }
+
+    /**
+     * @param sampleRateHz 源的采样率，用于源不知道自己的采样率时，例如按播放器格式播放的裸PCM
+     */
+    public TimeStretchPcmSource(PcmSource source, int sampleRateHz) {
+        if (sampleRateHz <= 0) {
+            throw new IllegalArgumentException("source sample rate unknown");
+        }
+        mSource = source;
+        mStretcher = new WsolaTimeStretcher(sampleRateHz, source.getFrameBytes() / 2);
+        mPositionFrames = source.getPositionFrames();
+        mAnchorFrame = mPositionFrames;
+    }
+
+    /**
+     * 修改倍速，从当前位置开始生效
+     */
+    public void setSpeed(float speed) {
+        if (speed == mSpeed) {
+            return;
+        }
+        mStretcher.setSpeed(speed);
+        mSpeed = speed;
+        // 变速器中缓存的输入按旧倍速处理，从当前的媒体位置重新开始
+        seekToFrame(mPositionFrames);
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return mSource.getFrameBytes();
+    }
+
+    @Override
+    public int getSampleRateHz() {
+        return mSource.getSampleRateHz();
+    }
+
+    /**
+     * 源的帧数，不随倍速变化
+     */
+    @Override
+    public long getFrameCount() {
+        return mSource.getFrameCount();
+    }
+
+    /**
+     * 已输出的数据对应的源位置
+     */
+    @Override
+    public long getPositionFrames() {
+        return mPositionFrames;
+    }
+
+    @Override
+    public void seekToFrame(long frame) {
+        mSource.seekToFrame(frame);
+        mStretcher.reset();
+        mPending = null;
+        mFlushed = false;
+        mPositionFrames = mSource.getPositionFrames();
+        mAnchorFrame = mPositionFrames;
+        mOutputFrames = 0;
+    }
+
+    /**
+     * 返回变速结果上复用的视图，1倍速时直接返回源的数据
+     */
+    @Override
+    public ByteBuffer nextChunk(int maxBytes) {
+        int frameBytes = getFrameBytes();
+        if (maxBytes < frameBytes) {
+            throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+        }
+
+        if (mSpeed == 1f) {
+            ByteBuffer chunk = mSource.nextChunk(maxBytes);
+            mPositionFrames = mSource.getPositionFrames();
+            return chunk;
+        }
+
+        while (mPending == null || !mPending.hasRemaining()) {
+            if (!fill()) {
+                // 首尾各有不到一个片段的误差，结束时以源的位置为准
+                mPositionFrames = mSource.getPositionFrames();
+                return null;
+            }
+        }
+
+        int length = Math.min(maxBytes - maxBytes % frameBytes, mPending.remaining());
+        int start = mPending.position();
+        mPending.position(start + length);
+        if (mViewTarget != mPending) {
+            mView = mPending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            mViewTarget = mPending;
+        }
+        mView.clear();
+        mView.position(start);
+        mView.limit(start + length);
+
+        mOutputFrames += length / frameBytes;
+        mPositionFrames = Math.min(mSource.getFrameCount(),
+                mAnchorFrame + Math.round(mOutputFrames * (double) mSpeed));
+        return mView;
+    }
+
+    private boolean fill() {
+        ByteBuffer in = mSource.nextChunk(BLOCK_FRAMES * mSource.getFrameBytes());
+        if (in != null) {
+            mPending = mStretcher.process(in);
+            return true;
+        }
+        if (mFlushed) {
+            return false;
+        }
+        mFlushed = true;
+        mPending = mStretcher.flush();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+}
@@ -0,0 +1,183 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 基于短时能量和过零率的流式语音活动检测（VAD）
+ *
+ * 按 {@link #getWindowFrames()}（10ms）的窗口逐个判定。能量高出噪声基底 {@link #SPEECH_SNR_DB}
+ * 时为语音；能量只略高于噪声但过零率高（清辅音、摩擦音）时也判为语音。噪声基底在开始的
+ * 100ms 内取最小能量，之后在非语音窗口中快降慢升地跟踪环境噪声。连续 {@link #ONSET_WINDOWS}
+ * 个窗口活跃才进入语音，避免单次的按键声触发；语音结束后保持 hangover 时长，不切掉字尾。
+ *
+ * 只使用基本类型的字段，判定过程不分配内存。非线程安全。
+ */
+public final class VoiceActivityDetector {
+
+    /** 判定窗口的时长 */
+    public static final int WINDOW_MILLIS = 10;
+
+    /** 语音能量需高出噪声基底的分贝数 */
+    static final double SPEECH_SNR_DB = 9;
+    /** 高过零率的窗口需高出噪声基底的分贝数 */
+    static final double FRICATIVE_SNR_DB = 4;
+    /** 清辅音的过零率下限（每个采样的过零次数） */
+    static final double FRICATIVE_ZCR = 0.25;
+    /** 低于此能量（dBFS）的窗口不会被判为语音 */
+    static final double MIN_SPEECH_DBFS = -55;
+    /** 进入语音需要的连续活跃窗口数 */
+    static final int ONSET_WINDOWS = 2;
+
+    // 初始噪声基底的估计窗口数
+    private static final int CALIBRATION_WINDOWS = 10;
+    // 噪声基底跟踪的平滑系数
+    private static final double NOISE_FALL = 0.3;
+    private static final double NOISE_RISE = 0.05;
+    // 语音中噪声基底每个窗口最多上升的分贝数，环境噪声变大后不会一直判为语音
+    private static final double NOISE_CREEP_DB = 0.01;
+    // 满量程采样的能量（dB），用于换算 dBFS
+    private static final double FULL_SCALE_DB = 20 * Math.log10(32768);
+
+    private final int mChannelCount;
+    private final int mWindowFrames;
+    private final int mHangoverFrames;
+
+    private double mNoiseDbfs;
+    private double mEnergyDbfs;
+    private double mZeroCrossingRate;
+    private int mCalibratedWindows;
+    private int mActiveRun;
+    private int mHangoverLeft;
+    private boolean mSpeech;
+
+    /**
+     * @param sampleRateHz 采样率
+     * @param channelCount 声道数，多声道时只分析第一个声道
+     * @param hangoverMillis 语音结束后继续判为语音的时长
+     */
+    public VoiceActivityDetector(int sampleRateHz, int channelCount, int hangoverMillis) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || hangoverMillis < 0) {
+            throw new IllegalArgumentException("invalid vad config: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, hangover " + hangoverMillis + "ms");
+        }
+        mChannelCount = channelCount;
+        mWindowFrames = Math.max(1, sampleRateHz * WINDOW_MILLIS / 1000);
+        mHangoverFrames = (int) ((long) sampleRateHz * hangoverMillis / 1000);
+        reset();
+    }
+
+    /**
+     * 每个判定窗口的帧数
+     */
+    public int getWindowFrames() {
+        return mWindowFrames;
+    }
+
+    /**
+     * 判定一个窗口，不改变 pcm 的 position 和 limit
+     *
+     * @param pcm 16位小端PCM
+     * @param offset 窗口在 pcm 中的字节偏移
+     * @param frames 窗口帧数，可以少于 {@link #getWindowFrames()}
+     * @return 该窗口是否为语音（含 hangover）
+     */
+    public boolean process(ByteBuffer pcm, int offset, int frames) {
+        if (frames <= 0) {
+            return mSpeech;
+        }
+
+        int stride = mChannelCount * 2;
+        double sumSquares = 0;
+        int crossings = 0;
+        int previous = 0;
+        int end = offset + frames * stride;
+        for (int i = offset; i < end; i += stride) {
+            // 按字节读取，与缓冲区的字节序设置无关
+            int sample = (short) ((pcm.get(i) & 0xFF) | pcm.get(i + 1) << 8);
+            sumSquares += (double) sample * sample;
+            if ((sample ^ previous) < 0) {
+                crossings++;
+            }
+            previous = sample;
+        }
+
+        mEnergyDbfs = 10 * Math.log10(sumSquares / frames + 1) - FULL_SCALE_DB;
+        mZeroCrossingRate = frames > 1 ? (double) crossings / (frames - 1) : 0;
+        mSpeech = decide(frames);
+        return mSpeech;
+    }
+
+    private boolean decide(int frames) {
+        if (mCalibratedWindows < CALIBRATION_WINDOWS) {
+            mNoiseDbfs = mCalibratedWindows == 0 ? mEnergyDbfs : Math.min(mNoiseDbfs, mEnergyDbfs);
+            mCalibratedWindows++;
+            return false;
+        }
+
+        double snrDb = mEnergyDbfs - mNoiseDbfs;
+        boolean active = mEnergyDbfs > MIN_SPEECH_DBFS
+                && (snrDb > SPEECH_SNR_DB
+                || (snrDb > FRICATIVE_SNR_DB && mZeroCrossingRate > FRICATIVE_ZCR));
+
+        if (active) {
+            mActiveRun++;
+            // 语音中噪声基底只允许缓慢上升
+            mNoiseDbfs += Math.min(NOISE_RISE * snrDb, NOISE_CREEP_DB);
+        } else {
+            mActiveRun = 0;
+            mNoiseDbfs += (snrDb < 0 ? NOISE_FALL : NOISE_RISE) * snrDb;
+        }
+
+        // 已在语音中时单个活跃窗口即可延续语音
+        if (active && (mSpeech || mActiveRun >= ONSET_WINDOWS)) {
+            mHangoverLeft = mHangoverFrames;
+            return true;
+        }
+        if (mSpeech && mHangoverLeft > 0) {
+            mHangoverLeft -= frames;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 最近一个窗口是否为语音
+     */
+    public boolean isSpeech() {
+        return mSpeech;
+    }
+
+    /**
+     * 最近一个窗口的能量（dBFS）
+     */
+    public double getEnergyDbfs() {
+        return mEnergyDbfs;
+    }
+
+    /**
+     * 最近一个窗口的过零率（每个采样的过零次数）
+     */
+    public double getZeroCrossingRate() {
+        return mZeroCrossingRate;
+    }
+
+    /**
+     * 当前估计的噪声基底（dBFS）
+     */
+    public double getNoiseFloorDbfs() {
+        return mNoiseDbfs;
+    }
+
+    /**
+     * 开始新的录音前调用，重新估计噪声基底
+     */
+    public void reset() {
+        mNoiseDbfs = MIN_SPEECH_DBFS;
+        mEnergyDbfs = -FULL_SCALE_DB;
+        mZeroCrossingRate = 0;
+        mCalibratedWindows = 0;
+        mActiveRun = 0;
+        mHangoverLeft = 0;
+        mSpeech = false;
+    }
+}
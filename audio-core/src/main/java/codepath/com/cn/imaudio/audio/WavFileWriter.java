@@ -0,0 +1,168 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流式WAV文件写入器
+ *
+ * 创建时先写入长度为0的文件头占位，之后音频数据顺序追加；{@link #close()} 时通过 FileChannel
+ * 的定位写入（positional write）只修改文件头中的 RIFF/data 长度字段（以及 fact 块的采样数），
+ * 不重写也不拷贝音频数据。
+ *
+ * 进程在 close() 之前被杀死时，文件头中的长度为0，下次启动时用 {@link #repair(File)} 按文件
+ * 实际长度修正。
+ *
+ * 非线程安全。
+ */
+public final class WavFileWriter implements FileSink {
+
+    private static final int RIFF_SIZE_OFFSET = 4;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final WavHeader mHeader;
+    private final ByteBuffer mSizeBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private long mDataBytes;
+    private long mSampleFrames;
+    private boolean mClosed;
+
+    /**
+     * 创建（或覆盖）文件并写入文件头占位
+     */
+    public WavFileWriter(File file, WavHeader header) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mHeader = header;
+
+        try {
+            mChannel.truncate(0);
+            ByteBuffer placeholder = header.toByteBuffer(0);
+            while (placeholder.hasRemaining()) {
+                mChannel.write(placeholder);
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public WavHeader getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * 追加音频数据，写入 data 中 position 到 limit 之间的全部字节
+     */
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            mDataBytes += mChannel.write(data);
+        }
+    }
+
+    /**
+     * 设置写入 fact 块的每声道采样数，编码格式在 close() 之前调用
+     */
+    public void setSampleFrames(long sampleFrames) {
+        mSampleFrames = sampleFrames;
+    }
+
+    /**
+     * 已写入的音频数据字节数
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    @Override
+    public long getFileBytes() {
+        return mHeader.getDataOffset() + mDataBytes;
+    }
+
+    /**
+     * 修正文件头中的长度字段并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            patchSizes(mChannel, mHeader, mDataBytes, mSampleFrames, mSizeBuffer);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    /**
+     * 按文件实际长度修正未正常关闭的WAV文件的长度字段。数据末尾不完整的帧（编码块）不计入长度，
+     * fact 块的采样数按完整的编码块计算。
+     *
+     * @return 文件头被修改时返回true，文件头已经正确时返回false
+     * @throws IOException 不是WAV文件或读写失败
+     */
+    public static boolean repair(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            WavHeader header = WavHeader.read(channel);
+
+            long dataBytes = channel.size() - header.getDataOffset();
+            if (header.getBlockAlign() > 0) {
+                dataBytes -= dataBytes % header.getBlockAlign();
+            }
+            long sampleFrames = header.getBlockAlign() > 0
+                    ? dataBytes / header.getBlockAlign() * header.getSamplesPerBlock() : 0;
+            if (dataBytes == header.getDataBytes()
+                    && readSize(channel, RIFF_SIZE_OFFSET) == riffSize(header, dataBytes)
+                    && (!header.hasFact() || header.getFactSamples() > 0 || sampleFrames == 0)) {
+                return false;
+            }
+
+            patchSizes(channel, header, dataBytes, sampleFrames,
+                    ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN));
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long riffSize(WavHeader header, long dataBytes) {
+        return header.getDataOffset() - 8 + dataBytes;
+    }
+
+    private static void patchSizes(FileChannel channel, WavHeader header, long dataBytes,
+                                   long sampleFrames, ByteBuffer sizeBuffer) throws IOException {
+        writeSize(channel, sizeBuffer, RIFF_SIZE_OFFSET, riffSize(header, dataBytes));
+        if (header.hasFact()) {
+            writeSize(channel, sizeBuffer, header.getFactSamplesFieldOffset(), sampleFrames);
+        }
+        writeSize(channel, sizeBuffer, header.getDataSizeFieldOffset(), dataBytes);
+    }
+
+    private static void writeSize(FileChannel channel, ByteBuffer sizeBuffer, long position, long size)
+            throws IOException {
+        sizeBuffer.clear();
+        sizeBuffer.putInt(0, (int) Math.min(size, 0xFFFFFFFFL));
+        while (sizeBuffer.hasRemaining()) {
+            channel.write(sizeBuffer, position + sizeBuffer.position());
+        }
+    }
+
+    private static long readSize(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("truncated wav header");
+            }
+        }
+        return buffer.getInt(0) & 0xFFFFFFFFL;
+    }
+}
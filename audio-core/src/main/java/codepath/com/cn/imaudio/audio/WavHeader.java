@@ -0,0 +1,291 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * RIFF/WAVE 文件头
+ *
+ * {@link #toByteBuffer(long, long)} 生成文件头：线性PCM为标准的44字节，IMA ADPCM 带 fmt 扩展
+ * 和 fact 块，共60字节。{@link #read(FileChannel)} 解析文件头，跳过未知的块，找到 data 块的
+ * 位置和声明的长度。
+ */
+public final class WavHeader {
+
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IMA_ADPCM = 0x11;
+
+    /** 标准PCM文件头的字节数，data块的数据从这里开始 */
+    public static final int CANONICAL_HEADER_BYTES = 44;
+
+    /** IMA ADPCM 文件头的字节数（fmt 20字节 + fact 块） */
+    public static final int IMA_ADPCM_HEADER_BYTES = 60;
+
+    private static final int RIFF = 0x46464952; // "RIFF"
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT = 0x20746d66;  // "fmt "
+    private static final int FACT = 0x74636166; // "fact"
+    private static final int DATA = 0x61746164; // "data"
+
+    // RIFF块头（12字节）之后，每个子块的块头为8字节
+    private static final int CHUNK_HEADER_BYTES = 8;
+    // 最多检查的子块数，防止损坏的文件导致长时间扫描
+    private static final int MAX_CHUNKS = 32;
+
+    private final int mFormatTag;
+    private final int mChannelCount;
+    private final int mSampleRateHz;
+    private final int mBitsPerSample;
+    private final int mBlockAlign;
+    private final int mSamplesPerBlock;
+    private final long mFactOffset;
+    private final long mFactSamples;
+    private final long mDataOffset;
+    private final long mDataBytes;
+
+    private WavHeader(int formatTag, int channelCount, int sampleRateHz, int bitsPerSample,
+                      int blockAlign, int samplesPerBlock, long factOffset, long factSamples,
+                      long dataOffset, long dataBytes) {
+        mFormatTag = formatTag;
+        mChannelCount = channelCount;
+        mSampleRateHz = sampleRateHz;
+        mBitsPerSample = bitsPerSample;
+        mBlockAlign = blockAlign;
+        mSamplesPerBlock = samplesPerBlock;
+        mFactOffset = factOffset;
+        mFactSamples = factSamples;
+        mDataOffset = dataOffset;
+        mDataBytes = dataBytes;
+    }
+
+    /**
+     * 线性PCM格式的标准文件头
+     */
+    public static WavHeader pcm(int sampleRateHz, int channelCount, int bitsPerSample) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || bitsPerSample <= 0 || bitsPerSample % 8 != 0) {
+            throw new IllegalArgumentException("invalid pcm format: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, " + bitsPerSample + " bits");
+        }
+        return new WavHeader(FORMAT_PCM, channelCount, sampleRateHz, bitsPerSample,
+                channelCount * bitsPerSample / 8, 1, -1, 0, CANONICAL_HEADER_BYTES, 0);
+    }
+
+    /**
+     * IMA ADPCM（4位）格式的文件头
+     *
+     * @param blockAlign 每个编码块的字节数，必须是 4 x 声道数 的整数倍
+     * @param samplesPerBlock 每个编码块每声道的采样数
+     */
+    public static WavHeader imaAdpcm(int sampleRateHz, int channelCount, int blockAlign,
+                                     int samplesPerBlock) {
+        if (sampleRateHz <= 0 || channelCount <= 0 || blockAlign <= 4 * channelCount
+                || blockAlign % (4 * channelCount) != 0 || samplesPerBlock <= 0) {
+            throw new IllegalArgumentException("invalid ima adpcm format: " + sampleRateHz + "Hz, "
+                    + channelCount + "ch, " + blockAlign + " bytes/block");
+        }
+        return new WavHeader(FORMAT_IMA_ADPCM, channelCount, sampleRateHz, 4, blockAlign,
+                samplesPerBlock, 48, 0, IMA_ADPCM_HEADER_BYTES, 0);
+    }
+
+    public int getFormatTag() {
+        return mFormatTag;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRateHz() {
+        return mSampleRateHz;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * 每帧（PCM）或每个编码块的字节数
+     */
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    /**
+     * 每个编码块每声道的采样数，PCM为1
+     */
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    /**
+     * 是否有 fact 块
+     */
+    public boolean hasFact() {
+        return mFactOffset >= 0;
+    }
+
+    /**
+     * fact 块中声明的每声道采样数，没有 fact 块时为0
+     */
+    public long getFactSamples() {
+        return mFactSamples;
+    }
+
+    /**
+     * data块数据在文件中的起始位置
+     */
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    /**
+     * 文件头中声明的data块长度，未正常结束的文件可能为0
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    /**
+     * data块长度字段在文件中的位置
+     */
+    long getDataSizeFieldOffset() {
+        return mDataOffset - 4;
+    }
+
+    /**
+     * fact 块采样数字段在文件中的位置，没有 fact 块时为-1
+     */
+    long getFactSamplesFieldOffset() {
+        return mFactOffset;
+    }
+
+    /**
+     * 与 {@link #toByteBuffer(long, long)} 相同，fact 块中的采样数为0
+     */
+    public ByteBuffer toByteBuffer(long dataBytes) {
+        return toByteBuffer(dataBytes, 0);
+    }
+
+    /**
+     * 生成文件头，position为0，limit为 {@link #getDataOffset()}
+     *
+     * @param dataBytes data块长度
+     * @param sampleFrames 每声道的采样数，只用于 fact 块
+     */
+    public ByteBuffer toByteBuffer(long dataBytes, long sampleFrames) {
+        boolean adpcm = mFormatTag == FORMAT_IMA_ADPCM;
+        ByteBuffer buffer = ByteBuffer.allocate((int) mDataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        int avgBytesPerSecond = adpcm
+                ? (int) ((long) mSampleRateHz * mBlockAlign / mSamplesPerBlock)
+                : mSampleRateHz * mBlockAlign;
+
+        buffer.putInt(RIFF)
+                .putInt((int) (mDataOffset - 8 + dataBytes))
+                .putInt(WAVE)
+                .putInt(FMT)
+                .putInt(adpcm ? 20 : 16)
+                .putShort((short) mFormatTag)
+                .putShort((short) mChannelCount)
+                .putInt(mSampleRateHz)
+                .putInt(avgBytesPerSecond)
+                .putShort((short) mBlockAlign)
+                .putShort((short) mBitsPerSample);
+        if (adpcm) {
+            buffer.putShort((short) 2)
+                    .putShort((short) mSamplesPerBlock)
+                    .putInt(FACT)
+                    .putInt(4)
+                    .putInt((int) sampleFrames);
+        }
+        buffer.putInt(DATA)
+                .putInt((int) dataBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 从文件开头解析文件头，不改变channel的position
+     *
+     * @throws IOException 不是WAV文件或文件头不完整
+     */
+    public static WavHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+
+        readFully(channel, buffer, 0, 12);
+        if (buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) {
+            throw new IOException("not a RIFF/WAVE file");
+        }
+
+        int formatTag = -1;
+        int channelCount = 0;
+        int sampleRateHz = 0;
+        int bitsPerSample = 0;
+        int blockAlign = 0;
+        int samplesPerBlock = 1;
+        long factOffset = -1;
+        long factSamples = 0;
+
+        long position = 12;
+        for (int i = 0; i < MAX_CHUNKS; i++) {
+            readFully(channel, buffer, position, CHUNK_HEADER_BYTES);
+            int chunkId = buffer.getInt(0);
+            long chunkBytes = buffer.getInt(4) & 0xFFFFFFFFL;
+            long body = position + CHUNK_HEADER_BYTES;
+
+            if (chunkId == FMT) {
+                readFully(channel, buffer, body, chunkBytes >= 20 ? 20 : 16);
+                formatTag = buffer.getShort(0) & 0xFFFF;
+                channelCount = buffer.getShort(2) & 0xFFFF;
+                sampleRateHz = buffer.getInt(4);
+                blockAlign = buffer.getShort(12) & 0xFFFF;
+                bitsPerSample = buffer.getShort(14) & 0xFFFF;
+                if (chunkBytes >= 20 && formatTag == FORMAT_IMA_ADPCM) {
+                    samplesPerBlock = buffer.getShort(18) & 0xFFFF;
+                }
+            } else if (chunkId == FACT) {
+                readFully(channel, buffer, body, 4);
+                factOffset = body;
+                factSamples = buffer.getInt(0) & 0xFFFFFFFFL;
+            } else if (chunkId == DATA) {
+                if (formatTag < 0) {
+                    throw new IOException("data chunk before fmt chunk");
+                }
+                return new WavHeader(formatTag, channelCount, sampleRateHz, bitsPerSample,
+                        blockAlign, samplesPerBlock, factOffset, factSamples, body, chunkBytes);
+            }
+
+            // 块长度为奇数时有一个填充字节
+            position = body + chunkBytes + (chunkBytes & 1);
+        }
+
+        throw new IOException("data chunk not found");
+    }
+
+    /**
+     * 解析文件的文件头
+     *
+     * @throws IOException 不是WAV文件或文件头不完整
+     */
+    public static WavHeader read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("truncated wav header");
+            }
+        }
+    }
+}
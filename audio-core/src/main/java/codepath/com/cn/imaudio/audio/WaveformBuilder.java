@@ -0,0 +1,134 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.util.Arrays;
+
+/**
+ * 边录音边生成固定桶数的波形缩略图，不需要事先知道录音时长，也不需要再读一遍文件
+ *
+ * 每个输入值（一个分析窗口的峰值）依次放入桶中；桶用完时相邻两个桶合并为一个（取最大值），
+ * 之后每个桶容纳的窗口数加倍。所以任何时刻已填充的桶数在 桶数/2 到 桶数 之间，
+ * 内存固定，合并的总开销与输入个数成线性。{@link #getWaveform(byte[])} 再把已填充的桶
+ * 均匀映射到全部桶上。非线程安全。
+ */
+public final class WaveformBuilder {
+
+    /** 波形的动态范围，低于 -DYNAMIC_RANGE_DB dBFS 的峰值显示为0 */
+    public static final double DYNAMIC_RANGE_DB = 60;
+
+    private final int[] mBuckets;
+    private int mFilled;
+    // 每个桶容纳的输入个数
+    private int mValuesPerBucket = 1;
+    // 正在填充的桶
+    private int mCurrentCount;
+    private int mCurrentPeak;
+    private long mValueCount;
+
+    /**
+     * @param bucketCount 桶数，必须为不小于2的偶数，例如64或128
+     */
+    public WaveformBuilder(int bucketCount) {
+        if (bucketCount < 2 || bucketCount % 2 != 0) {
+            throw new IllegalArgumentException("bucket count must be even and >= 2: " + bucketCount);
+        }
+        mBuckets = new int[bucketCount];
+    }
+
+    public int getBucketCount() {
+        return mBuckets.length;
+    }
+
+    /**
+     * 累计加入的峰值个数
+     */
+    public long getValueCount() {
+        return mValueCount;
+    }
+
+    /**
+     * 加入一个窗口的峰值
+     *
+     * @param peak 0～32768 的采样绝对值
+     */
+    public void add(int peak) {
+        mValueCount++;
+        if (peak > mCurrentPeak) {
+            mCurrentPeak = peak;
+        }
+        if (++mCurrentCount < mValuesPerBucket) {
+            return;
+        }
+
+        mBuckets[mFilled++] = mCurrentPeak;
+        mCurrentCount = 0;
+        mCurrentPeak = 0;
+        if (mFilled == mBuckets.length) {
+            compact();
+        }
+    }
+
+    /**
+     * 相邻两个桶合并为一个
+     */
+    private void compact() {
+        int half = mBuckets.length / 2;
+        for (int i = 0; i < half; i++) {
+            mBuckets[i] = Math.max(mBuckets[2 * i], mBuckets[2 * i + 1]);
+        }
+        mFilled = half;
+        mValuesPerBucket *= 2;
+    }
+
+    /**
+     * 以 0～255 的值输出波形，按 dBFS 映射（{@link #DYNAMIC_RANGE_DB} 的动态范围），
+     * 与人耳对响度的感受接近
+     *
+     * @param out 长度必须等于桶数
+     * @return 有数据的桶数，没有输入时为0
+     */
+    public int getWaveform(byte[] out) {
+        if (out.length != mBuckets.length) {
+            throw new IllegalArgumentException("expected " + mBuckets.length + " buckets, got "
+                    + out.length);
+        }
+
+        // 未填满的当前桶也算在内
+        int filled = mFilled + (mCurrentCount > 0 ? 1 : 0);
+        if (filled == 0) {
+            Arrays.fill(out, (byte) 0);
+            return 0;
+        }
+
+        for (int i = 0; i < out.length; i++) {
+            // 输出的第 i 个桶对应的已填充桶的范围，至少包含一个
+            int from = (int) ((long) i * filled / out.length);
+            int to = Math.max(from + 1, (int) ((long) (i + 1) * filled / out.length));
+            int peak = 0;
+            for (int j = from; j < to; j++) {
+                peak = Math.max(peak, j < mFilled ? mBuckets[j] : mCurrentPeak);
+            }
+            out[i] = (byte) toLevel(peak);
+        }
+        return filled;
+    }
+
+    /**
+     * 峰值映射到 0～255
+     */
+    static int toLevel(int peak) {
+        if (peak <= 0) {
+            return 0;
+        }
+        double dbfs = 20 * Math.log10(peak / 32768.0);
+        double level = (dbfs + DYNAMIC_RANGE_DB) / DYNAMIC_RANGE_DB;
+        return (int) Math.round(Math.max(0, Math.min(1, level)) * 255);
+    }
+
+    public void reset() {
+        mFilled = 0;
+        mValuesPerBucket = 1;
+        mCurrentCount = 0;
+        mCurrentPeak = 0;
+        mValueCount = 0;
+    }
+}
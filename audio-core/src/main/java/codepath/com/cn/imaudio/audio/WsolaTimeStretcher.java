@@ -0,0 +1,309 @@
+package codepath.com.cn.imaudio.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * WSOLA（波形相似叠加）变速不变调，用于1.5倍、2倍速播放较长的语音消息
+ *
+ * 输入按 Ha = Hs x 倍速 的间隔取长度为 2Hs 的片段，输出按固定的 Hs 间隔交叉淡化拼接。
+ * 每个片段的起点在理想位置前后 SEARCH_MILLIS 内搜索，选与上一片段的自然延续最相似的位置，
+ * 拼接处波形连续，音高不变。相似度用声道混合后的单声道归一化互相关计算：先按约8kHz的间隔粗搜，
+ * 再在最佳位置附近逐帧细搜，48kHz时的计算量与8kHz相当。
+ *
+ * 输入输出都是16位小端交错PCM。{@link #process(ByteBuffer)} 和 {@link #flush()} 返回复用的
+ * 直接内存缓冲区，下一次调用前有效。非线程安全。
+ */
+public final class WsolaTimeStretcher {
+
+    public static final float MIN_SPEED = 0.5f;
+    public static final float MAX_SPEED = 3.0f;
+
+    /** 片段长度，约为两个基音周期以上 */
+    static final int SEGMENT_MILLIS = 24;
+    /** 片段起点在理想位置两侧的搜索范围 */
+    static final int SEARCH_MILLIS = 8;
+    /** 粗搜的等效采样率 */
+    private static final int COARSE_RATE_HZ = 8000;
+
+    private final int mChannelCount;
+    // 输出间隔 Hs 和片段长度 2Hs（帧）
+    private final int mHop;
+    private final int mSegment;
+    private final int mSearch;
+    private final int mCoarseStep;
+    // 交叉淡化的增益，升余弦，与 1 - w 相加恒为1
+    private final float[] mFade;
+    private float mSpeed = 1f;
+
+    // 尚未丢弃的输入，交错的采样和声道混合后的单声道，第0帧是整个输入的第 mBase 帧
+    private short[] mIn;
+    private float[] mMono;
+    private int mInFrames;
+    private long mBase;
+
+    // 上一片段的起点（整个输入中的帧位置），-1 表示还没有输出
+    private long mPrevStart = -1;
+    // 下一片段的理想起点
+    private double mNextIdeal;
+    private boolean mTailEmitted;
+
+    private ByteBuffer mOut;
+    private ShortBuffer mOutSamples;
+
+    public WsolaTimeStretcher(int sampleRateHz, int channelCount) {
+        if (sampleRateHz <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid format: " + sampleRateHz + "Hz x " + channelCount);
+        }
+        mChannelCount = channelCount;
+        mHop = Math.max(1, sampleRateHz * SEGMENT_MILLIS / 2000);
+        mSegment = mHop * 2;
+        mSearch = sampleRateHz * SEARCH_MILLIS / 1000;
+        mCoarseStep = Math.max(1, sampleRateHz / COARSE_RATE_HZ);
+        mFade = new float[mHop];
+        for (int i = 0; i < mHop; i++) {
+            mFade[i] = (float) (0.5 - 0.5 * Math.cos(Math.PI * (i + 0.5) / mHop));
+        }
+
+        int capacity = mSegment * 4 + mSearch * 2;
+        mIn = new short[capacity * channelCount];
+        mMono = new float[capacity];
+        allocateOutput(capacity);
+    }
+
+    /**
+     * 修改倍速，立即对之后的片段生效
+     */
+    public void setSpeed(float speed) {
+        if (!(speed >= MIN_SPEED && speed <= MAX_SPEED)) {
+            throw new IllegalArgumentException("speed out of range: " + speed);
+        }
+        mSpeed = speed;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 处理延迟：第一次有输出前需要积累的输入帧数
+     */
+    public int getLatencyFrames() {
+        return mSegment;
+    }
+
+    /**
+     * 加入输入并返回能够输出的部分，可能为空
+     */
+    public ByteBuffer process(ByteBuffer pcm) {
+        append(pcm);
+        return drain(false);
+    }
+
+    /**
+     * 输入结束，返回剩余的输出，之后需要 {@link #reset()} 才能继续使用
+     */
+    public ByteBuffer flush() {
+        return drain(true);
+    }
+
+    /**
+     * 丢弃所有状态，例如定位之后
+     */
+    public void reset() {
+        mInFrames = 0;
+        mBase = 0;
+        mPrevStart = -1;
+        mNextIdeal = 0;
+        mTailEmitted = false;
+    }
+
+    private void append(ByteBuffer pcm) {
+        ByteBuffer in = pcm.order() == ByteOrder.LITTLE_ENDIAN
+                ? pcm : pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int frames = in.remaining() / (mChannelCount * 2);
+        ensureInputCapacity(mInFrames + frames);
+
+        int position = in.position();
+        int sample = mInFrames * mChannelCount;
+        for (int f = 0; f < frames; f++) {
+            int sum = 0;
+            for (int c = 0; c < mChannelCount; c++) {
+                short s = in.getShort(position);
+                position += 2;
+                mIn[sample++] = s;
+                sum += s;
+            }
+            mMono[mInFrames + f] = (float) sum / mChannelCount;
+        }
+        pcm.position(pcm.position() + frames * mChannelCount * 2);
+        mInFrames += frames;
+    }
+
+    private ByteBuffer drain(boolean end) {
+        mOut.clear();
+        mOutSamples.clear();
+        long available = mBase + mInFrames;
+
+        if (mPrevStart < 0) {
+            // 第一个片段：前半段直接输出，后半段留作下一次交叉淡化
+            if (available < mSegment && !end) {
+                return finishOutput();
+            }
+            emit(0, (int) Math.min(mHop, available));
+            mPrevStart = 0;
+            mNextIdeal = mHop * mSpeed;
+        }
+
+        while (true) {
+            long ideal = Math.round(mNextIdeal);
+            long lo = Math.max(0, ideal - mSearch);
+            long hi = ideal + mSearch;
+            if (hi + mSegment > available) {
+                if (!end) {
+                    break;
+                }
+                hi = available - mSegment;
+                if (hi < lo) {
+                    break;
+                }
+            }
+            long start = search(lo, hi);
+            crossfade(mPrevStart + mHop, start);
+            mPrevStart = start;
+            mNextIdeal += mHop * mSpeed;
+        }
+
+        if (end && !mTailEmitted) {
+            mTailEmitted = true;
+            long tail = mPrevStart + mHop;
+            emit(tail, (int) Math.max(0, Math.min(mHop, available - tail)));
+        }
+        discardConsumed();
+        return finishOutput();
+    }
+
+    /**
+     * 在 [lo, hi] 中找与上一片段的自然延续最相似的起点
+     */
+    private long search(long lo, long hi) {
+        int template = (int) (mPrevStart + mHop - mBase);
+        long best = lo;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (long k = lo; k <= hi; k += mCoarseStep) {
+            float score = similarity(template, (int) (k - mBase), mCoarseStep);
+            if (score > bestScore) {
+                bestScore = score;
+                best = k;
+            }
+        }
+        if (mCoarseStep == 1) {
+            return best;
+        }
+
+        long coarse = best;
+        bestScore = Float.NEGATIVE_INFINITY;
+        for (long k = Math.max(lo, coarse - mCoarseStep + 1);
+             k <= Math.min(hi, coarse + mCoarseStep - 1); k++) {
+            float score = similarity(template, (int) (k - mBase), 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 归一化互相关（不除以模板的能量，对所有候选相同）
+     */
+    private float similarity(int template, int candidate, int stride) {
+        float dot = 0;
+        float energy = 1e-3f;
+        for (int i = 0; i < mHop; i += stride) {
+            float c = mMono[candidate + i];
+            dot += mMono[template + i] * c;
+            energy += c * c;
+        }
+        return (float) (dot / Math.sqrt(energy));
+    }
+
+    /**
+     * 输出 Hs 帧：from 开始的数据淡出，to 开始的数据淡入
+     */
+    private void crossfade(long from, long to) {
+        ensureOutputCapacity(mHop);
+        int fromSample = (int) (from - mBase) * mChannelCount;
+        int toSample = (int) (to - mBase) * mChannelCount;
+        for (int i = 0; i < mHop; i++) {
+            float w = mFade[i];
+            for (int c = 0; c < mChannelCount; c++) {
+                float mixed = mIn[fromSample++] * (1 - w) + mIn[toSample++] * w;
+                mOutSamples.put((short) Math.round(mixed));
+            }
+        }
+    }
+
+    private void emit(long from, int frames) {
+        ensureOutputCapacity(frames);
+        mOutSamples.put(mIn, (int) (from - mBase) * mChannelCount, frames * mChannelCount);
+    }
+
+    /**
+     * 丢弃之后不会再用到的输入：上一片段后半段之前、下一次搜索范围之前的数据
+     */
+    private void discardConsumed() {
+        if (mPrevStart < 0) {
+            return;
+        }
+        long keepFrom = Math.min(mPrevStart + mHop, Math.round(mNextIdeal) - mSearch);
+        int discard = (int) Math.min(mInFrames, Math.max(0, keepFrom - mBase));
+        if (discard == 0) {
+            return;
+        }
+        System.arraycopy(mIn, discard * mChannelCount, mIn, 0, (mInFrames - discard) * mChannelCount);
+        System.arraycopy(mMono, discard, mMono, 0, mInFrames - discard);
+        mInFrames -= discard;
+        mBase += discard;
+    }
+
+    private ByteBuffer finishOutput() {
+        mOut.limit(mOutSamples.position() * 2);
+        mOut.position(0);
+        return mOut;
+    }
+
+    private void ensureInputCapacity(int frames) {
+        if (frames <= mMono.length) {
+            return;
+        }
+        int capacity = Math.max(frames, mMono.length * 2);
+        short[] in = new short[capacity * mChannelCount];
+        System.arraycopy(mIn, 0, in, 0, mInFrames * mChannelCount);
+        float[] mono = new float[capacity];
+        System.arraycopy(mMono, 0, mono, 0, mInFrames);
+        mIn = in;
+        mMono = mono;
+    }
+
+    private void ensureOutputCapacity(int frames) {
+        int needed = mOutSamples.position() + frames * mChannelCount;
+        if (needed <= mOutSamples.capacity()) {
+            return;
+        }
+        ShortBuffer old = mOutSamples;
+        allocateOutput(Math.max(needed, old.capacity() * 2) / mChannelCount + 1);
+        old.flip();
+        mOutSamples.put(old);
+    }
+
+    private void allocateOutput(int frames) {
+        mOut = ByteBuffer.allocateDirect(frames * mChannelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mOutSamples = mOut.asShortBuffer();
+    }
+}
@@ -0,0 +1,50 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PcmSource;
+
+/**
+ * 音频编解码器：编码器、解码器、容器格式和文件扩展名
+ *
+ * 录音页面通过 {@link AudioCodecRegistry} 按名称选择编码格式，播放时按文件内容选择解码器。
+ * 实现需要是无状态的，每次 newEncoder/newDecoder 返回独立的实例。
+ */
+public interface AudioCodec {
+
+    /**
+     * 注册表中的唯一名称，如 "ima-adpcm"
+     */
+    String getName();
+
+    /**
+     * 输出文件的扩展名，含"."，如 ".wav"
+     */
+    String getFileExtension();
+
+    /**
+     * 创建（或覆盖）文件，返回接收16位PCM的编码器；close() 之后文件完整可用
+     */
+    PcmSink newEncoder(File file, int sampleRateHz, int channelCount) throws IOException;
+
+    /**
+     * 编码器在 close() 时还会改写的文件头字节数，用于边录边上传：此后的数据只追加不修改，
+     * 写入后即可发送，文件头在关闭后重新发送。close() 时会改写其他位置的格式（如MP4）返回-1，
+     * 只能在关闭后上传。
+     */
+    int getMutableHeaderBytes();
+
+    /**
+     * 是否能解码该文件，只检查扩展名和文件头
+     */
+    boolean canDecode(File file);
+
+    /**
+     * 打开文件，返回输出16位PCM的解码器
+     *
+     * @throws IOException 文件格式不符或不支持解码
+     */
+    PcmSource newDecoder(File file) throws IOException;
+}
@@ -0,0 +1,57 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按名称登记的 {@link AudioCodec} 集合
+ *
+ * 按注册顺序查找解码器，所以通用的格式应后注册。注册在启动时完成，之后只读，
+ * 可以在任意线程查询。
+ */
+public final class AudioCodecRegistry {
+
+    private final Map<String, AudioCodec> mCodecs = new LinkedHashMap<>();
+
+    /**
+     * @throws IllegalArgumentException 名称已被注册
+     */
+    public AudioCodecRegistry register(AudioCodec codec) {
+        if (mCodecs.containsKey(codec.getName())) {
+            throw new IllegalArgumentException("codec already registered: " + codec.getName());
+        }
+        mCodecs.put(codec.getName(), codec);
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException 没有该名称的编解码器
+     */
+    public AudioCodec get(String name) {
+        AudioCodec codec = mCodecs.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown codec: " + name);
+        }
+        return codec;
+    }
+
+    public List<AudioCodec> getCodecs() {
+        return Collections.unmodifiableList(new ArrayList<>(mCodecs.values()));
+    }
+
+    /**
+     * 返回第一个能解码该文件的编解码器，没有时返回null
+     */
+    public AudioCodec findDecoder(File file) {
+        for (AudioCodec codec : mCodecs.values()) {
+            if (codec.canDecode(file)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
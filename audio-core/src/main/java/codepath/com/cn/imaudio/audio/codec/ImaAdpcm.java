@@ -0,0 +1,231 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM（WAV格式标签 0x11）编解码核心
+ *
+ * 每个16位采样编码为4位，压缩比为 4:1。数据按编码块组织，块内布局与 Microsoft/DVI 的定义一致：
+ * 每个声道先有4字节的块头（16位初始采样、8位量化步长索引、1个保留字节），之后每个声道每次
+ * 4字节（8个采样，低4位在前）交替排列。每块的第一个采样直接保存在块头中，所以每块可以独立解码，
+ * 定位时不需要从头解码。
+ *
+ * 编码时的步长索引跨块延续，实例持有每个声道的编码状态。非线程安全。
+ */
+public final class ImaAdpcm {
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int MAX_INDEX = STEP_TABLE.length - 1;
+
+    // 每个声道的块头字节数
+    private static final int BLOCK_HEADER_BYTES = 4;
+
+    private final int mChannelCount;
+    private final int mBlockAlign;
+    private final int mSamplesPerBlock;
+    private final int[] mIndex;
+
+    /**
+     * @param channelCount 声道数
+     * @param blockAlign 每个编码块的字节数，必须是 4 x 声道数 的整数倍
+     */
+    public ImaAdpcm(int channelCount, int blockAlign) {
+        if (channelCount <= 0 || blockAlign <= BLOCK_HEADER_BYTES * channelCount
+                || blockAlign % (BLOCK_HEADER_BYTES * channelCount) != 0) {
+            throw new IllegalArgumentException("invalid block: " + channelCount + "ch, "
+                    + blockAlign + " bytes");
+        }
+        mChannelCount = channelCount;
+        mBlockAlign = blockAlign;
+        mSamplesPerBlock = samplesPerBlock(blockAlign, channelCount);
+        mIndex = new int[channelCount];
+    }
+
+    /**
+     * 每个编码块每声道的采样数
+     */
+    public static int samplesPerBlock(int blockAlign, int channelCount) {
+        return (blockAlign - BLOCK_HEADER_BYTES * channelCount) * 2 / channelCount + 1;
+    }
+
+    /**
+     * 与常见编码器一致的块大小：8kHz/11kHz 单声道256字节，每提高一倍采样率或声道数块大小加倍，
+     * 每块约对应20～30毫秒
+     */
+    public static int blockAlignFor(int sampleRateHz, int channelCount) {
+        int blockAlign = 256 * channelCount;
+        if (sampleRateHz > 11025) {
+            blockAlign *= sampleRateHz / 11025;
+        }
+        // 不超过WAV文件头中16位字段能表示的范围
+        return Math.min(blockAlign, 8192);
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    /**
+     * 清除编码状态，开始新的文件前调用
+     */
+    public void reset() {
+        for (int ch = 0; ch < mChannelCount; ch++) {
+            mIndex[ch] = 0;
+        }
+    }
+
+    /**
+     * 编码一个块
+     *
+     * @param pcm 交错排列的PCM采样，从 offset 开始共 {@link #getSamplesPerBlock()} x 声道数 个
+     * @param dst 从 dstOffset 开始写入 {@link #getBlockAlign()} 字节，不改变 position
+     */
+    public void encodeBlock(short[] pcm, int offset, ByteBuffer dst, int dstOffset) {
+        int channels = mChannelCount;
+        for (int ch = 0; ch < channels; ch++) {
+            int predictor = pcm[offset + ch];
+            int index = mIndex[ch];
+
+            int header = dstOffset + ch * BLOCK_HEADER_BYTES;
+            dst.put(header, (byte) predictor);
+            dst.put(header + 1, (byte) (predictor >> 8));
+            dst.put(header + 2, (byte) index);
+            dst.put(header + 3, (byte) 0);
+
+            int out = dstOffset + channels * BLOCK_HEADER_BYTES + ch * 4;
+            int in = offset + channels + ch;
+            for (int i = 1; i < mSamplesPerBlock; i += 8) {
+                for (int b = 0; b < 4; b++) {
+                    int step = STEP_TABLE[index];
+                    int low = quantize(pcm[in] - predictor, step);
+                    predictor = clamp(predictor + delta(low, step));
+                    index = clampIndex(index + INDEX_TABLE[low]);
+                    in += channels;
+
+                    step = STEP_TABLE[index];
+                    int high = quantize(pcm[in] - predictor, step);
+                    predictor = clamp(predictor + delta(high, step));
+                    index = clampIndex(index + INDEX_TABLE[high]);
+                    in += channels;
+
+                    dst.put(out + b, (byte) (low | high << 4));
+                }
+                out += channels * 4;
+            }
+
+            mIndex[ch] = index;
+        }
+    }
+
+    /**
+     * 解码一个块，只依赖块内的数据
+     *
+     * @param src 从 srcOffset 开始读取 {@link #getBlockAlign()} 字节，不改变 position
+     * @param pcm 从 offset 开始写入 {@link #getSamplesPerBlock()} x 声道数 个交错排列的采样
+     */
+    public void decodeBlock(ByteBuffer src, int srcOffset, short[] pcm, int offset) {
+        int channels = mChannelCount;
+        for (int ch = 0; ch < channels; ch++) {
+            int header = srcOffset + ch * BLOCK_HEADER_BYTES;
+            int predictor = (short) ((src.get(header) & 0xFF) | src.get(header + 1) << 8);
+            int index = clampIndex(src.get(header + 2) & 0xFF);
+            pcm[offset + ch] = (short) predictor;
+
+            int in = srcOffset + channels * BLOCK_HEADER_BYTES + ch * 4;
+            int out = offset + channels + ch;
+            for (int i = 1; i < mSamplesPerBlock; i += 8) {
+                for (int b = 0; b < 4; b++) {
+                    int packed = src.get(in + b);
+
+                    int nibble = packed & 0x0F;
+                    predictor = clamp(predictor + delta(nibble, STEP_TABLE[index]));
+                    index = clampIndex(index + INDEX_TABLE[nibble]);
+                    pcm[out] = (short) predictor;
+                    out += channels;
+
+                    nibble = packed >> 4 & 0x0F;
+                    predictor = clamp(predictor + delta(nibble, STEP_TABLE[index]));
+                    index = clampIndex(index + INDEX_TABLE[nibble]);
+                    pcm[out] = (short) predictor;
+                    out += channels;
+                }
+                in += channels * 4;
+            }
+        }
+    }
+
+    /**
+     * 把差值量化为4位：最高位为符号，低3位依次比较 step、step/2、step/4
+     */
+    private static int quantize(int diff, int step) {
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+        }
+        return nibble;
+    }
+
+    /**
+     * 编码和解码共用的反量化，保证两端的预测值完全一致
+     */
+    private static int delta(int nibble, int step) {
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        return (nibble & 8) != 0 ? -delta : delta;
+    }
+
+    private static int clamp(int sample) {
+        return sample > Short.MAX_VALUE ? Short.MAX_VALUE
+                : sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample;
+    }
+
+    private static int clampIndex(int index) {
+        return index < 0 ? 0 : index > MAX_INDEX ? MAX_INDEX : index;
+    }
+}
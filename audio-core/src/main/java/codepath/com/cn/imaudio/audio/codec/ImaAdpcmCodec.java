@@ -0,0 +1,49 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+/**
+ * IMA ADPCM 的WAV文件，4:1 压缩，44.1kHz 单声道约 177kbps，纯Java实现，不依赖系统编解码器
+ */
+public final class ImaAdpcmCodec implements AudioCodec {
+
+    public static final String NAME = "ima-adpcm";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".wav";
+    }
+
+    @Override
+    public PcmSink newEncoder(File file, int sampleRateHz, int channelCount) throws IOException {
+        return new ImaAdpcmWavWriter(file, sampleRateHz, channelCount);
+    }
+
+    /**
+     * 关闭时只修改文件头中的长度字段和 fact 块
+     */
+    @Override
+    public int getMutableHeaderBytes() {
+        return WavHeader.IMA_ADPCM_HEADER_BYTES;
+    }
+
+    @Override
+    public boolean canDecode(File file) {
+        return WavCodecs.formatTagOf(file, getFileExtension()) == WavHeader.FORMAT_IMA_ADPCM;
+    }
+
+    @Override
+    public PcmSource newDecoder(File file) throws IOException {
+        return ImaAdpcmWavSource.open(file);
+    }
+}
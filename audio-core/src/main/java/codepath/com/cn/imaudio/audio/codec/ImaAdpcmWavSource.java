@@ -0,0 +1,145 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+/**
+ * 映射 IMA ADPCM WAV 文件，按块解码为16位PCM
+ *
+ * 每个编码块可以独立解码，定位时只解码目标所在的块。解码结果放在复用的直接内存缓冲区中，
+ * 可以直接交给 AudioTrack.write(ByteBuffer, int, int)。
+ *
+ * 非线程安全。
+ */
+public final class ImaAdpcmWavSource implements PcmSource {
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mData;
+    private final ImaAdpcm mCodec;
+    private final int mFrameBytes;
+    private final int mSampleRateHz;
+    private final long mFrameCount;
+
+    private final short[] mBlock;
+    private final ByteBuffer mDecoded;
+    private final ShortBuffer mDecodedSamples;
+    private long mDecodedBlockIndex = -1;
+    private long mPosition;
+
+    private ImaAdpcmWavSource(RandomAccessFile file, MappedByteBuffer data, WavHeader header) {
+        mFile = file;
+        mData = data;
+        mCodec = new ImaAdpcm(header.getChannelCount(), header.getBlockAlign());
+        mFrameBytes = header.getChannelCount() * 2;
+        mSampleRateHz = header.getSampleRateHz();
+
+        long blocks = data.capacity() / header.getBlockAlign();
+        long frames = blocks * mCodec.getSamplesPerBlock();
+        // fact 块为0说明文件没有正常结束，按完整的块计算
+        mFrameCount = header.getFactSamples() > 0 ? Math.min(header.getFactSamples(), frames) : frames;
+
+        mBlock = new short[mCodec.getSamplesPerBlock() * header.getChannelCount()];
+        mDecoded = ByteBuffer.allocateDirect(mBlock.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mDecodedSamples = mDecoded.asShortBuffer();
+    }
+
+    /**
+     * @throws IOException 不是 IMA ADPCM 的WAV文件
+     */
+    public static ImaAdpcmWavSource open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            WavHeader header = WavHeader.read(raf.getChannel());
+            if (header.getFormatTag() != WavHeader.FORMAT_IMA_ADPCM || header.getBitsPerSample() != 4
+                    || header.getSamplesPerBlock() != ImaAdpcm.samplesPerBlock(
+                    header.getBlockAlign(), header.getChannelCount())) {
+                throw new IOException("unsupported wav format: " + header.getFormatTag());
+            }
+
+            long available = raf.length() - header.getDataOffset();
+            long length = header.getDataBytes() > 0
+                    ? Math.min(header.getDataBytes(), available) : available;
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("invalid data length: " + length);
+            }
+
+            MappedByteBuffer data = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, header.getDataOffset(), length);
+            return new ImaAdpcmWavSource(raf, data, header);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    @Override
+    public int getSampleRateHz() {
+        return mSampleRateHz;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public long getPositionFrames() {
+        return mPosition;
+    }
+
+    @Override
+    public void seekToFrame(long frame) {
+        mPosition = Math.max(0, Math.min(frame, mFrameCount));
+    }
+
+    /**
+     * 每次最多返回一个编码块解码后的数据
+     */
+    @Override
+    public ByteBuffer nextChunk(int maxBytes) {
+        if (maxBytes < mFrameBytes) {
+            throw new IllegalArgumentException("maxBytes smaller than a frame: " + maxBytes);
+        }
+        if (mPosition >= mFrameCount) {
+            return null;
+        }
+
+        int samplesPerBlock = mCodec.getSamplesPerBlock();
+        long blockIndex = mPosition / samplesPerBlock;
+        if (blockIndex != mDecodedBlockIndex) {
+            mCodec.decodeBlock(mData, (int) (blockIndex * mCodec.getBlockAlign()), mBlock, 0);
+            mDecodedSamples.clear();
+            mDecodedSamples.put(mBlock);
+            mDecodedBlockIndex = blockIndex;
+        }
+
+        int offset = (int) (mPosition - blockIndex * samplesPerBlock);
+        long frames = Math.min(Math.min(maxBytes / mFrameBytes, samplesPerBlock - offset),
+                mFrameCount - mPosition);
+
+        mDecoded.clear();
+        mDecoded.position(offset * mFrameBytes);
+        mDecoded.limit((int) ((offset + frames) * mFrameBytes));
+        mPosition += frames;
+        return mDecoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
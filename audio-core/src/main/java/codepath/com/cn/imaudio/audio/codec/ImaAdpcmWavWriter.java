@@ -0,0 +1,110 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import codepath.com.cn.imaudio.audio.FileSink;
+import codepath.com.cn.imaudio.audio.WavFileWriter;
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+/**
+ * 边录边编码的 IMA ADPCM WAV 输出
+ *
+ * 录音数据攒满一个编码块后立即编码写入 {@link WavFileWriter}，编码过程不分配内存。
+ * close() 时用最后一个采样补齐不完整的块，并在 fact 块中记录实际的采样数，解码时去掉补齐部分。
+ *
+ * 由写文件线程调用，非线程安全。
+ */
+public final class ImaAdpcmWavWriter implements FileSink {
+
+    private final WavFileWriter mWriter;
+    private final ImaAdpcm mCodec;
+    private final short[] mBlock;
+    private final ByteBuffer mEncoded;
+    private int mBlockFill;
+    private long mSampleFrames;
+
+    public ImaAdpcmWavWriter(File file, int sampleRateHz, int channelCount) throws IOException {
+        this(file, sampleRateHz, channelCount, ImaAdpcm.blockAlignFor(sampleRateHz, channelCount));
+    }
+
+    /**
+     * @param blockAlign 每个编码块的字节数，必须是 4 x 声道数 的整数倍
+     */
+    public ImaAdpcmWavWriter(File file, int sampleRateHz, int channelCount, int blockAlign)
+            throws IOException {
+        mCodec = new ImaAdpcm(channelCount, blockAlign);
+        mBlock = new short[mCodec.getSamplesPerBlock() * channelCount];
+        mEncoded = ByteBuffer.allocate(blockAlign);
+        mWriter = new WavFileWriter(file, WavHeader.imaAdpcm(sampleRateHz, channelCount, blockAlign,
+                mCodec.getSamplesPerBlock()));
+    }
+
+    /**
+     * pcm 的长度需为整帧
+     */
+    @Override
+    public void write(ByteBuffer pcm) throws IOException {
+        short[] block = mBlock;
+        int fill = mBlockFill;
+        // 按字节读取，与调用方缓冲区的字节序无关
+        while (pcm.remaining() >= 2) {
+            block[fill++] = (short) ((pcm.get() & 0xFF) | pcm.get() << 8);
+            if (fill == block.length) {
+                writeBlock();
+                fill = 0;
+            }
+        }
+        mBlockFill = fill;
+    }
+
+    /**
+     * 已编码的每声道采样数
+     */
+    public long getSampleFrames() {
+        return mSampleFrames + mBlockFill / mCodec.getChannelCount();
+    }
+
+    /**
+     * 已写入的编码数据字节数
+     */
+    public long getEncodedBytes() {
+        return mWriter.getDataBytes();
+    }
+
+    /**
+     * 未满一块的采样还没有写入文件
+     */
+    @Override
+    public long getFileBytes() {
+        return mWriter.getFileBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mBlockFill > 0) {
+                int channels = mCodec.getChannelCount();
+                long frames = mSampleFrames + mBlockFill / channels;
+                // 用每个声道的最后一个采样补齐，避免块尾出现跳变
+                for (int i = mBlockFill; i < mBlock.length; i++) {
+                    mBlock[i] = mBlock[i - channels];
+                }
+                writeBlock();
+                mSampleFrames = frames;
+                mBlockFill = 0;
+            }
+            mWriter.setSampleFrames(mSampleFrames);
+        } finally {
+            mWriter.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        mCodec.encodeBlock(mBlock, 0, mEncoded, 0);
+        mEncoded.clear();
+        mWriter.write(mEncoded);
+        mSampleFrames += mCodec.getSamplesPerBlock();
+    }
+}
@@ -0,0 +1,51 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+
+import codepath.com.cn.imaudio.audio.MappedPcmSource;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.WavFileWriter;
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+/**
+ * 16位线性PCM的WAV文件，不压缩，播放时直接映射文件
+ */
+public final class PcmWavCodec implements AudioCodec {
+
+    public static final String NAME = "pcm";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".wav";
+    }
+
+    @Override
+    public PcmSink newEncoder(File file, int sampleRateHz, int channelCount) throws IOException {
+        return new WavFileWriter(file, WavHeader.pcm(sampleRateHz, channelCount, 16));
+    }
+
+    /**
+     * 关闭时只修改文件头中的长度字段
+     */
+    @Override
+    public int getMutableHeaderBytes() {
+        return WavHeader.CANONICAL_HEADER_BYTES;
+    }
+
+    @Override
+    public boolean canDecode(File file) {
+        return WavCodecs.formatTagOf(file, getFileExtension()) == WavHeader.FORMAT_PCM;
+    }
+
+    @Override
+    public PcmSource newDecoder(File file) throws IOException {
+        return MappedPcmSource.openWav(file);
+    }
+}
@@ -0,0 +1,30 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import java.io.File;
+import java.io.IOException;
+
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+/**
+ * WAV容器编解码器共用的方法
+ */
+final class WavCodecs {
+
+    private WavCodecs() {
+    }
+
+    /**
+     * 扩展名相符时读取文件头中的格式标签，不是WAV文件时返回-1
+     */
+    static int formatTagOf(File file, String extension) {
+        if (!file.getName().endsWith(extension)) {
+            return -1;
+        }
+
+        try {
+            return WavHeader.read(file).getFormatTag();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
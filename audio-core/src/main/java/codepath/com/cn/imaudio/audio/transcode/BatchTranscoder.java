@@ -0,0 +1,528 @@
+package codepath.com.cn.imaudio.audio.transcode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codepath.com.cn.imaudio.audio.MappedPcmSource;
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.ResamplingSink;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+
+/**
+ * 多线程批量转码：把目录中的裸PCM录音转换为压缩格式，并把音量归一化
+ *
+ * 每个文件一个任务，按文件大小从大到小分配给各工作线程，线程做完自己的任务后窃取其他线程剩下的
+ * （{@link StealingTaskQueues}）。单个文件以流的方式处理：映射源文件 -> 扫描峰值 -> 按固定增益归一化 ->
+ * 转换采样率 -> 编码写入临时文件，每个线程只使用固定大小的缓冲区，与文件长度无关。
+ *
+ * 转完的文件先记入 {@link TranscodeJournal} 再改为正式文件名并删除源文件，进程被杀死后重新运行时
+ * 跳过已完成的文件，未完成的从头转码。
+ *
+ * 裸PCM文件没有文件头，扩展名也不可靠（旧版本曾把AAC录音存为 .pcm、裸PCM存为 .m4a），所以按内容判断：
+ * 开头是已知容器格式的文件不是裸PCM（{@link #isRawPcm(File)}），不转码、不删除。
+ *
+ * {@link #run(List, File)} 阻塞到全部完成，可在任意线程调用一次；{@link Listener} 在工作线程中回调。
+ */
+public final class BatchTranscoder {
+
+    /** 临时文件的后缀，加在目标文件名之后 */
+    public static final String PART_SUFFIX = ".part";
+
+    // 每次读取的字节数，也是每个线程归一化用的缓冲区大小
+    private static final int CHUNK_BYTES = 16 * 1024;
+    // 归一化的目标峰值为 -1dBFS，最多放大 12dB，避免把底噪放得过大
+    private static final int TARGET_PEAK = 29205;
+    private static final float MAX_GAIN = 4f;
+    // 增益以 Q12 定点数计算
+    private static final int GAIN_SHIFT = 12;
+
+    // 判断容器格式读取的文件头长度
+    private static final int PROBE_BYTES = 8;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    // MP4/3GP/QuickTime 文件第一个 box 的类型，在偏移4处
+    private static final String[] MP4_BOX_TYPES = {"ftyp", "moov", "mdat", "free", "skip", "wide"};
+
+    /**
+     * 转码事件，在工作线程中回调
+     */
+    public interface Listener {
+
+        /**
+         * 一个文件转码完成（或在上一次运行中已完成、这次补做了改名和删除）
+         *
+         * @param durationMillis 源文件的时长
+         */
+        void onFileTranscoded(File source, File output, long durationMillis);
+
+        /** 一个文件转码失败，临时文件已删除，源文件保留 */
+        void onFileFailed(File source, Exception e);
+    }
+
+    /**
+     * 运行进度或结果的快照
+     */
+    public static final class Report {
+
+        private final int mTotalFiles;
+        private final int mTranscodedFiles;
+        private final int mResumedFiles;
+        private final int mFailedFiles;
+        private final int mStolenFiles;
+        private final long mAudioMillis;
+        private final long mElapsedNanos;
+        private final boolean mCancelled;
+
+        Report(int totalFiles, int transcodedFiles, int resumedFiles, int failedFiles, int stolenFiles,
+               long audioMillis, long elapsedNanos, boolean cancelled) {
+            mTotalFiles = totalFiles;
+            mTranscodedFiles = transcodedFiles;
+            mResumedFiles = resumedFiles;
+            mFailedFiles = failedFiles;
+            mStolenFiles = stolenFiles;
+            mAudioMillis = audioMillis;
+            mElapsedNanos = elapsedNanos;
+            mCancelled = cancelled;
+        }
+
+        public int getTotalFiles() {
+            return mTotalFiles;
+        }
+
+        /** 这一次转码完成的文件数 */
+        public int getTranscodedFiles() {
+            return mTranscodedFiles;
+        }
+
+        /** 上一次运行中已完成、这一次只补做改名和删除的文件数 */
+        public int getResumedFiles() {
+            return mResumedFiles;
+        }
+
+        public int getFailedFiles() {
+            return mFailedFiles;
+        }
+
+        /** 被其他线程窃取执行的文件数 */
+        public int getStolenFiles() {
+            return mStolenFiles;
+        }
+
+        /** 这一次转码的音频总时长 */
+        public long getAudioMillis() {
+            return mAudioMillis;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public double getFilesPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mTranscodedFiles * 1e9 / mElapsedNanos;
+        }
+
+        /** 音频时长与耗时之比，即相对实时的倍数 */
+        public double getRealtimeFactor() {
+            return mElapsedNanos == 0 ? 0 : mAudioMillis * 1e6 / mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d/%d files transcoded, %d resumed, %d failed, %d stolen%s; "
+                            + "%.1f files/s, %.0fx realtime (%.1fs audio in %.1fs)",
+                    mTranscodedFiles, mTotalFiles, mResumedFiles, mFailedFiles, mStolenFiles,
+                    mCancelled ? ", cancelled" : "", getFilesPerSecond(), getRealtimeFactor(),
+                    mAudioMillis / 1000f, mElapsedNanos / 1e9f);
+        }
+    }
+
+    private final AudioCodec mCodec;
+    private final PcmFormat mInputFormat;
+    private final PcmFormat mOutputFormat;
+    private final int mParallelism;
+    private final ThreadFactory mThreadFactory;
+
+    private volatile Listener mListener;
+    private volatile boolean mDeleteSources = true;
+    private volatile boolean mNormalize = true;
+    private volatile boolean mCancelled;
+
+    // 以下为本次运行的进度
+    private final AtomicInteger mTranscodedFiles = new AtomicInteger();
+    private final AtomicInteger mResumedFiles = new AtomicInteger();
+    private final AtomicInteger mFailedFiles = new AtomicInteger();
+    private final AtomicLong mAudioMillis = new AtomicLong();
+    private volatile int mTotalFiles;
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+    private volatile StealingTaskQueues<File> mQueues;
+    // 已分配给正在转码的文件的目标文件名，避免两个线程选中同一个名字
+    private final Set<String> mReservedNames = new HashSet<>();
+
+    /**
+     * @param codec 目标编码格式
+     * @param inputFormat 源文件的PCM格式，裸PCM文件中没有记录
+     * @param outputFormat 目标文件的PCM格式
+     * @param parallelism 工作线程数，按CPU核数和设备温度、省电状态决定
+     * @param threadFactory 创建工作线程，可在其中降低线程优先级
+     */
+    public BatchTranscoder(AudioCodec codec, PcmFormat inputFormat, PcmFormat outputFormat,
+                           int parallelism, ThreadFactory threadFactory) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+        }
+        mCodec = codec;
+        mInputFormat = inputFormat;
+        mOutputFormat = outputFormat;
+        mParallelism = parallelism;
+        mThreadFactory = threadFactory;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 转码成功后是否删除源文件，默认删除
+     */
+    public void setDeleteSources(boolean deleteSources) {
+        mDeleteSources = deleteSources;
+    }
+
+    /**
+     * 是否把峰值归一化到 -1dBFS，默认归一化
+     */
+    public void setNormalize(boolean normalize) {
+        mNormalize = normalize;
+    }
+
+    /**
+     * 停止转码：正在转码的文件在当前数据块之后放弃，未开始的不再开始，已完成的保留
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * 目录中指定扩展名的文件，不包括以点开头的隐藏文件
+     */
+    public static List<File> listFiles(File directory, final String extension) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(extension) && !name.startsWith(".");
+            }
+        });
+        return files == null ? new ArrayList<File>() : new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * 目录中指定扩展名、内容为裸PCM的文件，不包括以点开头的隐藏文件
+     */
+    public static List<File> listRawPcmFiles(File directory, String... extensions) {
+        List<File> files = new ArrayList<>();
+        for (String extension : extensions) {
+            for (File file : listFiles(directory, extension)) {
+                if (isRawPcm(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 文件是否可以当作裸PCM：不短于文件头，开头不是 MP4（偏移4处为 ftyp 等 box 类型）或 RIFF/WAV。
+     * 读取失败时返回false
+     */
+    public static boolean isRawPcm(File file) {
+        byte[] header = new byte[PROBE_BYTES];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < header.length) {
+                    int n = in.read(header, read, header.length - read);
+                    if (n < 0) {
+                        return false;
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        if (new String(header, 0, 4, ASCII).equals("RIFF")) {
+            return false;
+        }
+        String boxType = new String(header, 4, 4, ASCII);
+        for (String type : MP4_BOX_TYPES) {
+            if (type.equals(boxType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前进度，可在任意线程调用
+     */
+    public Report getProgress() {
+        long start = mStartNanos;
+        long end = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+        StealingTaskQueues<File> queues = mQueues;
+        return new Report(mTotalFiles, mTranscodedFiles.get(), mResumedFiles.get(), mFailedFiles.get(),
+                queues == null ? 0 : queues.getStealCount(), mAudioMillis.get(),
+                start == 0 ? 0 : end - start, mCancelled);
+    }
+
+    /**
+     * 转码所有源文件，阻塞到全部完成或被取消。目标文件与源文件在同一目录，扩展名换为编码格式的扩展名，
+     * 重名时加序号。
+     *
+     * @param journalFile 进度记录，同一批文件重新运行时传入同一个文件；全部成功且删除了源文件时随之删除
+     */
+    public Report run(List<File> sources, File journalFile) throws IOException, InterruptedException {
+        if (mStartNanos != 0) {
+            throw new IllegalStateException("already run");
+        }
+        mStartNanos = System.nanoTime();
+        final TranscodeJournal journal = new TranscodeJournal(journalFile);
+
+        // 大文件先做，最后剩下的小文件在线程之间窃取，各线程的结束时间接近
+        List<File> sorted = new ArrayList<>(sources);
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long sa = a.length();
+                long sb = b.length();
+                return sa < sb ? 1 : (sa == sb ? a.getName().compareTo(b.getName()) : -1);
+            }
+        });
+        mTotalFiles = sorted.size();
+        int workerCount = Math.max(1, Math.min(mParallelism, sorted.size()));
+        final StealingTaskQueues<File> queues = new StealingTaskQueues<>(workerCount);
+        for (File source : sorted) {
+            queues.add(source);
+        }
+        mQueues = queues;
+
+        Thread[] workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            final int worker = i;
+            workers[i] = mThreadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker(worker, queues, journal);
+                }
+            });
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            mCancelled = true;
+            throw e;
+        } finally {
+            mEndNanos = System.nanoTime();
+        }
+
+        Report report = getProgress();
+        if (mDeleteSources && report.getFailedFiles() == 0 && !report.isCancelled()) {
+            journal.delete();
+        }
+        return report;
+    }
+
+    private void runWorker(int worker, StealingTaskQueues<File> queues, TranscodeJournal journal) {
+        // 每个线程一块归一化缓冲区，整个运行过程中复用
+        ByteBuffer scratch = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        File source;
+        while (!mCancelled && (source = queues.take(worker)) != null) {
+            processFile(source, journal, scratch);
+        }
+    }
+
+    private void processFile(File source, TranscodeJournal journal, ByteBuffer scratch) {
+        Listener listener = mListener;
+        // 转码成功后会删除源文件，不是裸PCM的文件无论如何都不碰
+        if (!isRawPcm(source)) {
+            mFailedFiles.incrementAndGet();
+            if (listener != null) {
+                listener.onFileFailed(source, new IOException("not raw PCM: " + source));
+            }
+            return;
+        }
+        long durationMillis = source.length() / mInputFormat.getFrameBytes() * 1000
+                / mInputFormat.getSampleRateHz();
+
+        String committed = journal.getTarget(source.getName());
+        if (committed != null) {
+            File output = new File(source.getParentFile(), committed);
+            if (finishCommit(source, output)) {
+                mResumedFiles.incrementAndGet();
+                if (listener != null) {
+                    listener.onFileTranscoded(source, output, durationMillis);
+                }
+                return;
+            }
+            // 记录了但目标文件已不存在，重新转码
+        }
+
+        File output = reserveOutput(source);
+        File part = new File(output.getPath() + PART_SUFFIX);
+        try {
+            transcode(source, part, scratch);
+            journal.commit(source.getName(), output.getName());
+            if (!finishCommit(source, output)) {
+                throw new IOException("cannot rename " + part + " to " + output);
+            }
+            mTranscodedFiles.incrementAndGet();
+            mAudioMillis.addAndGet(durationMillis);
+            if (listener != null) {
+                listener.onFileTranscoded(source, output, durationMillis);
+            }
+        } catch (InterruptedIOException e) {
+            // 被取消，不算失败
+            part.delete();
+        } catch (IOException | RuntimeException e) {
+            part.delete();
+            mFailedFiles.incrementAndGet();
+            if (listener != null) {
+                listener.onFileFailed(source, e);
+            }
+        } finally {
+            synchronized (mReservedNames) {
+                mReservedNames.remove(output.getName());
+            }
+        }
+    }
+
+    /**
+     * 源文件名换为目标扩展名，与已有文件或其他线程正在写的文件重名时加序号
+     */
+    private File reserveOutput(File source) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = mCodec.getFileExtension();
+        synchronized (mReservedNames) {
+            File output = new File(source.getParentFile(), base + extension);
+            for (int i = 1; output.exists() || mReservedNames.contains(output.getName()); i++) {
+                output = new File(source.getParentFile(), base + "-" + i + extension);
+            }
+            mReservedNames.add(output.getName());
+            return output;
+        }
+    }
+
+    /**
+     * 已记入日志的文件：临时文件改为正式文件名，按设置删除源文件
+     *
+     * @return 目标文件存在时返回true
+     */
+    private boolean finishCommit(File source, File output) {
+        File part = new File(output.getPath() + PART_SUFFIX);
+        if (part.exists() && !part.renameTo(output)) {
+            return false;
+        }
+        if (!output.exists()) {
+            return false;
+        }
+        if (mDeleteSources) {
+            source.delete();
+        }
+        return true;
+    }
+
+    private void transcode(File source, File part, ByteBuffer scratch) throws IOException {
+        MappedPcmSource input = MappedPcmSource.open(source, mInputFormat.getFrameBytes());
+        try {
+            int gainQ12 = mNormalize ? gainFor(scanPeak(input)) : 1 << GAIN_SHIFT;
+            input.seekToFrame(0);
+
+            PcmSink encoder = mCodec.newEncoder(part, mOutputFormat.getSampleRateHz(),
+                    mOutputFormat.getChannelCount());
+            PcmSink sink = new ResamplingSink(mInputFormat, mOutputFormat, encoder);
+            try {
+                ByteBuffer chunk;
+                while ((chunk = input.nextChunk(CHUNK_BYTES)) != null) {
+                    if (mCancelled) {
+                        throw new InterruptedIOException("cancelled");
+                    }
+                    if (gainQ12 != 1 << GAIN_SHIFT) {
+                        chunk = applyGain(chunk, gainQ12, scratch);
+                    }
+                    sink.write(chunk);
+                }
+            } finally {
+                sink.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int scanPeak(MappedPcmSource input) {
+        int peak = 0;
+        ByteBuffer chunk;
+        while ((chunk = input.nextChunk(CHUNK_BYTES)) != null) {
+            for (int i = chunk.position(); i + 1 < chunk.limit(); i += 2) {
+                int sample = Math.abs(chunk.getShort(i));
+                if (sample > peak) {
+                    peak = sample;
+                }
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * 把峰值放大到目标峰值的增益（Q12），已超过目标的不衰减，静音不放大
+     */
+    static int gainFor(int peak) {
+        if (peak == 0 || peak >= TARGET_PEAK) {
+            return 1 << GAIN_SHIFT;
+        }
+        float gain = Math.min(MAX_GAIN, (float) TARGET_PEAK / peak);
+        return (int) (gain * (1 << GAIN_SHIFT));
+    }
+
+    private static ByteBuffer applyGain(ByteBuffer chunk, int gainQ12, ByteBuffer scratch) {
+        scratch.clear();
+        for (int i = chunk.position(); i + 1 < chunk.limit(); i += 2) {
+            int sample = (chunk.getShort(i) * gainQ12) >> GAIN_SHIFT;
+            scratch.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+        scratch.flip();
+        return scratch;
+    }
+}
@@ -0,0 +1,80 @@
+package codepath.com.cn.imaudio.audio.transcode;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个工作线程一个双端队列的任务分配：线程从自己队列的头部取任务，自己的取完后从其他线程队列的尾部窃取
+ *
+ * 任务在开始前一次性加入、之后不再产生新任务（每个文件一个任务），所以所有队列都空了就是全部分配完毕。
+ * 按预计耗时从大到小加入时，各线程先做大任务，最后互相窃取小任务补齐，结束时间接近。
+ * Android 5.0 以下没有 ForkJoinPool，这里只需要窃取，不需要拆分任务。
+ *
+ * 线程安全，每个队列单独加锁，线程只有在窃取时才会争用别人的锁。
+ */
+final class StealingTaskQueues<T> {
+
+    private final ArrayDeque<T>[] mQueues;
+    private final AtomicInteger mStealCount = new AtomicInteger();
+    private int mNext;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    StealingTaskQueues(int workerCount) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("invalid worker count: " + workerCount);
+        }
+        mQueues = new ArrayDeque[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mQueues[i] = new ArrayDeque<>();
+        }
+    }
+
+    int getWorkerCount() {
+        return mQueues.length;
+    }
+
+    /**
+     * 依次轮流加入各线程的队列
+     */
+    void add(T task) {
+        ArrayDeque<T> queue;
+        synchronized (this) {
+            queue = mQueues[mNext];
+            mNext = (mNext + 1) % mQueues.length;
+        }
+        synchronized (queue) {
+            queue.addLast(task);
+        }
+    }
+
+    /**
+     * 取下一个任务：先取自己队列的头部，没有时从下一个线程开始依次窃取尾部；全部分配完时返回null
+     */
+    T take(int worker) {
+        ArrayDeque<T> own = mQueues[worker];
+        synchronized (own) {
+            T task = own.pollFirst();
+            if (task != null) {
+                return task;
+            }
+        }
+        for (int i = 1; i < mQueues.length; i++) {
+            ArrayDeque<T> victim = mQueues[(worker + i) % mQueues.length];
+            synchronized (victim) {
+                T task = victim.pollLast();
+                if (task != null) {
+                    mStealCount.incrementAndGet();
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从其他线程窃取的任务数
+     */
+    int getStealCount() {
+        return mStealCount.get();
+    }
+}
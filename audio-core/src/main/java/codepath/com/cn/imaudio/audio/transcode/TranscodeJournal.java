@@ -0,0 +1,110 @@
+package codepath.com.cn.imaudio.audio.transcode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 批量转码的进度记录：每转完一个文件追加一行“源文件名\t目标文件名”并同步到磁盘
+ *
+ * 目标文件先写为临时文件，记入日志之后才改为正式文件名，日志中的记录就是提交点：进程在任何时刻被杀死，
+ * 重新运行时已记录的文件只需补做改名和删除源文件，未记录的文件从头转码。最后一行不完整（写入时被杀死）
+ * 时丢弃该行。
+ *
+ * 线程安全。
+ */
+public final class TranscodeJournal {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final Map<String, String> mEntries = new HashMap<>();
+
+    /**
+     * 读取已有的记录，文件不存在时为空
+     */
+    public TranscodeJournal(File file) throws IOException {
+        mFile = file;
+        load();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 已转完的源文件对应的目标文件名，没有记录时返回null
+     */
+    public synchronized String getTarget(String sourceName) {
+        return mEntries.get(sourceName);
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 追加一条记录，返回时已写入磁盘
+     */
+    public synchronized void commit(String sourceName, String targetName) throws IOException {
+        if (sourceName.indexOf('\t') >= 0 || sourceName.indexOf('\n') >= 0
+                || targetName.indexOf('\t') >= 0 || targetName.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("invalid file name: " + sourceName + " -> " + targetName);
+        }
+        FileOutputStream fos = new FileOutputStream(mFile, true);
+        try {
+            fos.write((sourceName + '\t' + targetName + '\n').getBytes(UTF_8));
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        mEntries.put(sourceName, targetName);
+    }
+
+    /**
+     * 删除日志文件，所有源文件都已处理完、不再需要断点续传时调用
+     */
+    public synchronized void delete() {
+        mEntries.clear();
+        mFile.delete();
+    }
+
+    private void load() throws IOException {
+        FileInputStream fis;
+        try {
+            fis = new FileInputStream(mFile);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        String content;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = fis.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            content = new String(bytes.toByteArray(), UTF_8);
+        } finally {
+            fis.close();
+        }
+
+        // 只接受以换行符结尾的行，写入时被杀死而不完整的最后一行丢弃
+        int lineStart = 0;
+        int lineEnd;
+        while ((lineEnd = content.indexOf('\n', lineStart)) >= 0) {
+            int tab = content.indexOf('\t', lineStart);
+            if (tab > lineStart && tab < lineEnd - 1) {
+                mEntries.put(content.substring(lineStart, tab), content.substring(tab + 1, lineEnd));
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AdtsHeader} 的JVM单元测试
+ */
+public class AdtsHeaderTest {
+
+    @Test
+    public void sampleRateIndices() {
+        assertEquals(3, AdtsHeader.sampleRateIndex(48000));
+        assertEquals(4, AdtsHeader.sampleRateIndex(44100));
+        assertEquals(8, AdtsHeader.sampleRateIndex(16000));
+        assertEquals(11, AdtsHeader.sampleRateIndex(8000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedSampleRate() {
+        AdtsHeader.sampleRateIndex(44000);
+    }
+
+    @Test
+    public void writesAacLcMonoHeader() {
+        ByteBuffer header = ByteBuffer.allocate(AdtsHeader.HEADER_BYTES);
+        AdtsHeader.write(header, AdtsHeader.PROFILE_AAC_LC, 4, 1, 371);
+
+        assertFalse(header.hasRemaining());
+        // 44.1kHz 单声道，整帧 378 字节
+        byte[] expected = {(byte) 0xFF, (byte) 0xF1, (byte) 0x50, (byte) 0x40,
+                (byte) 0x2F, (byte) 0x5F, (byte) 0xFC};
+        assertArrayEquals(expected, header.array());
+    }
+
+    @Test
+    public void frameLengthRoundTrip() {
+        ByteBuffer header = ByteBuffer.allocate(AdtsHeader.HEADER_BYTES);
+        for (int payload : new int[]{0, 1, 255, 1024, 8184}) {
+            header.clear();
+            AdtsHeader.write(header, AdtsHeader.PROFILE_AAC_LC, 8, 2, payload);
+            header.flip();
+            assertEquals(payload + AdtsHeader.HEADER_BYTES, AdtsHeader.frameBytes(header));
+        }
+    }
+
+    @Test
+    public void stereoChannelConfiguration() {
+        ByteBuffer header = ByteBuffer.allocate(AdtsHeader.HEADER_BYTES);
+        AdtsHeader.write(header, AdtsHeader.PROFILE_AAC_LC, 4, 2, 100);
+
+        int channelConfig = ((header.get(2) & 0x01) << 2) | ((header.get(3) & 0xC0) >> 6);
+        assertEquals(2, channelConfig);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOversizedFrame() {
+        AdtsHeader.write(ByteBuffer.allocate(AdtsHeader.HEADER_BYTES), AdtsHeader.PROFILE_AAC_LC,
+                4, 1, AdtsHeader.MAX_FRAME_BYTES);
+    }
+
+    @Test
+    public void frameBytesRejectsGarbage() {
+        assertEquals(-1, AdtsHeader.frameBytes(ByteBuffer.allocate(AdtsHeader.HEADER_BYTES)));
+        assertEquals(-1, AdtsHeader.frameBytes(ByteBuffer.allocate(3)));
+    }
+}
@@ -0,0 +1,145 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link BufferSizePolicy} 的JVM单元测试
+ */
+public class BufferSizePolicyTest {
+
+    private static BufferSizePolicy mono16(BufferSizePolicy.Mode mode) {
+        return new BufferSizePolicy(mode, 44100, 1, 2);
+    }
+
+    @Test
+    public void lowLatencyChunkIsTenMillis() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.LOW_LATENCY);
+
+        assertEquals(882, policy.getChunkBytes());
+        assertEquals(10000, policy.getChunkDurationMicros());
+    }
+
+    @Test
+    public void balancedChunkIsAlignedToIoBlock() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.BALANCED);
+
+        // 40ms = 3528 字节，向上对齐到 512
+        assertEquals(3584, policy.getChunkBytes());
+        assertEquals(7168, policy.getMaxChunkBytes());
+    }
+
+    @Test
+    public void throughputChunkIsAlignedToPage() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.THROUGHPUT);
+
+        // 100ms = 8820 字节，向上对齐到 4096
+        assertEquals(12288, policy.getChunkBytes());
+        assertEquals(0, policy.getChunkBytes() % 4096);
+    }
+
+    @Test
+    public void chunkIsAlwaysFrameAligned() {
+        BufferSizePolicy policy = new BufferSizePolicy(BufferSizePolicy.Mode.BALANCED, 48000, 6, 2);
+
+        assertEquals(12, policy.getFrameBytes());
+        assertEquals(0, policy.getChunkBytes() % 12);
+        assertEquals(0, policy.getChunkBytes() % 512);
+    }
+
+    @Test
+    public void internalBufferHonorsMinBufferSize() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.BALANCED);
+
+        assertEquals(3584 * 3, policy.getInternalBufferBytes(3528));
+        // 设备要求的更大，且按帧对齐
+        assertEquals(20002, policy.getInternalBufferBytes(20001));
+        assertEquals(10001, policy.getInternalBufferFrames(20001));
+    }
+
+    @Test
+    public void ringSlotsCoverStall() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.LOW_LATENCY);
+
+        // 按最小数据块 5ms 计算，500ms / 5ms = 100 块，取2的幂
+        assertEquals(128, policy.getRingSlotCount(500));
+        assertEquals(2, policy.getRingSlotCount(0));
+    }
+
+    @Test
+    public void underrunGrowsChunkUpToMax() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.BALANCED);
+
+        assertFalse(policy.onUnderrunCount(0));
+        assertTrue(policy.onUnderrunCount(1));
+        assertEquals(5632, policy.getChunkBytes());
+        // 计数未增加，不调整
+        assertFalse(policy.onUnderrunCount(1));
+
+        assertTrue(policy.onUnderrunCount(2));
+        assertEquals(7168, policy.getChunkBytes());
+        assertFalse(policy.onUnderrunCount(3));
+        assertEquals(policy.getMaxChunkBytes(), policy.getChunkBytes());
+        assertEquals(2, policy.getAdjustCount());
+    }
+
+    @Test
+    public void repeatedShortReadsShrinkChunk() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.LOW_LATENCY);
+        int requested = policy.getChunkBytes();
+
+        for (int i = 1; i < BufferSizePolicy.SHORT_READ_THRESHOLD; i++) {
+            assertFalse(policy.onRead(requested, 480));
+        }
+        assertTrue(policy.onRead(requested, 480));
+        assertEquals(480, policy.getChunkBytes());
+    }
+
+    @Test
+    public void fullReadBreaksShortReadStreak() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.LOW_LATENCY);
+        int requested = policy.getChunkBytes();
+
+        for (int i = 1; i < BufferSizePolicy.SHORT_READ_THRESHOLD; i++) {
+            policy.onRead(requested, 480);
+        }
+        assertFalse(policy.onRead(requested, requested));
+        assertFalse(policy.onRead(requested, 480));
+        assertEquals(requested, policy.getChunkBytes());
+    }
+
+    @Test
+    public void shrinkIsBoundedByMinimum() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.LOW_LATENCY);
+        int requested = policy.getChunkBytes();
+
+        for (int i = 0; i < BufferSizePolicy.SHORT_READ_THRESHOLD; i++) {
+            policy.onRead(requested, 2);
+        }
+        assertEquals(442, policy.getChunkBytes());
+    }
+
+    @Test
+    public void resetCountersKeepsAdaptedChunk() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.BALANCED);
+        policy.onUnderrunCount(5);
+
+        policy.resetCounters();
+
+        assertEquals(5632, policy.getChunkBytes());
+        // 新的 AudioTrack 从 0 开始计数
+        assertTrue(policy.onUnderrunCount(1));
+    }
+
+    @Test
+    public void resetRestoresBaseChunk() {
+        BufferSizePolicy policy = mono16(BufferSizePolicy.Mode.BALANCED);
+        policy.onUnderrunCount(5);
+
+        policy.reset();
+
+        assertEquals(3584, policy.getChunkBytes());
+        assertTrue(policy.onUnderrunCount(1));
+    }
+}
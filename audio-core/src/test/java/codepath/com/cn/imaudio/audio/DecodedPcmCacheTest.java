@@ -0,0 +1,205 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmWavSource;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmWavWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DecodedPcmCache} 的JVM单元测试，用 IMA ADPCM 的WAV文件作为需要解码的录音
+ */
+public class DecodedPcmCacheTest {
+
+    private static final int RATE = 16000;
+    private static final int CHUNK_BYTES = 2048;
+
+    private final List<File> mFiles = new ArrayList<>();
+    private int mOpenCount;
+    private final DecodedPcmCache.Opener mOpener = new DecodedPcmCache.Opener() {
+        @Override
+        public PcmSource open(File file) throws IOException {
+            mOpenCount++;
+            return ImaAdpcmWavSource.open(file);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mOpenCount = 0;
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void replayIsServedFromMemory() throws IOException {
+        File file = record(2000);
+        DecodedPcmCache cache = new DecodedPcmCache(1 << 20, 1 << 20, 500);
+
+        byte[] first = readAll(cache.open(file, mOpener));
+        assertEquals(1, mOpenCount);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(first.length, cache.getBytes());
+
+        byte[] second = readAll(cache.open(file, mOpener));
+        assertEquals(1, mOpenCount);
+        assertEquals(1, cache.getHitCount());
+        assertArrayEquals(first, second);
+        assertArrayEquals(decodeDirectly(file), second);
+    }
+
+    @Test
+    public void longRecordingCachesOnlyThePrefix() throws IOException {
+        File file = record(3000);
+        // 整段约 96KB，超过单条上限，只缓存开头500ms
+        DecodedPcmCache cache = new DecodedPcmCache(1 << 20, 32 * 1024, 500);
+        readAll(cache.open(file, mOpener));
+        assertEquals(RATE / 2 * 2, cache.getBytes());
+
+        // 命中开头：缓存读完后才打开解码器，拼接处没有缝隙
+        mOpenCount = 0;
+        PcmSource source = cache.open(file, mOpener);
+        ByteBuffer chunk = source.nextChunk(CHUNK_BYTES);
+        assertNotNull(chunk);
+        assertEquals(0, mOpenCount);
+        source.seekToFrame(0);
+        assertArrayEquals(decodeDirectly(file), readAll(source));
+        assertEquals(1, mOpenCount);
+        assertEquals(1, cache.getPrefixHitCount());
+
+        // 定位到缓存之后，再回到缓存之内
+        source = cache.open(file, mOpener);
+        source.seekToFrame(RATE * 2);
+        assertEquals(RATE * 2, source.getPositionFrames());
+        source.nextChunk(CHUNK_BYTES);
+        source.seekToFrame(100);
+        ByteBuffer head = source.nextChunk(CHUNK_BYTES);
+        assertEquals(decodeDirectly(file)[200], head.get(head.position()));
+        source.close();
+    }
+
+    @Test
+    public void evictsLeastRecentlyPlayedByBytes() throws IOException {
+        File a = record(1000);
+        File b = record(1000);
+        File c = record(1000);
+        long entryBytes = RATE * 2;
+        DecodedPcmCache cache = new DecodedPcmCache(entryBytes * 2, entryBytes, 500);
+
+        readAll(cache.open(a, mOpener));
+        readAll(cache.open(b, mOpener));
+        // 播放 a 之后放入 c，淘汰的是 b
+        readAll(cache.open(a, mOpener));
+        readAll(cache.open(c, mOpener));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        mOpenCount = 0;
+        readAll(cache.open(a, mOpener));
+        readAll(cache.open(c, mOpener));
+        assertEquals(0, mOpenCount);
+        readAll(cache.open(b, mOpener));
+        assertEquals(1, mOpenCount);
+
+        cache.trimToSize(entryBytes);
+        assertEquals(1, cache.getEntryCount());
+        cache.clear();
+        assertEquals(0, cache.getBytes());
+        assertTrue(cache.dumpStats().contains("0 entries"));
+    }
+
+    @Test
+    public void rewrittenFileIsDecodedAgain() throws IOException {
+        File file = record(1000);
+        DecodedPcmCache cache = new DecodedPcmCache(1 << 20, 1 << 20, 500);
+        readAll(cache.open(file, mOpener));
+
+        // 同一秒内改写时修改时间可能不变，长度不同即可识别
+        writeAdpcm(file, 1500);
+        byte[] decoded = readAll(cache.open(file, mOpener));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(RATE * 3 / 2 * 2, decoded.length);
+    }
+
+    @Test
+    public void interruptedPlaybackIsNotCachedButPrefetchIs() throws IOException {
+        File file = record(1000);
+        DecodedPcmCache cache = new DecodedPcmCache(1 << 20, 1 << 20, 500);
+
+        PcmSource source = cache.open(file, mOpener);
+        source.nextChunk(CHUNK_BYTES);
+        source.close();
+        assertEquals(0, cache.getEntryCount());
+
+        // 跳过一段的播放也不缓存
+        source = cache.open(file, mOpener);
+        source.seekToFrame(RATE / 2);
+        readAll(source);
+        assertEquals(0, cache.getEntryCount());
+
+        assertTrue(cache.prefetch(file, mOpener));
+        assertEquals(1, cache.getEntryCount());
+        mOpenCount = 0;
+        assertArrayEquals(decodeDirectly(file), readAll(cache.open(file, mOpener)));
+        assertTrue(cache.prefetch(file, mOpener));
+        assertEquals(0, mOpenCount);
+    }
+
+    private File record(int millis) throws IOException {
+        File file = File.createTempFile("cache", ".wav");
+        mFiles.add(file);
+        writeAdpcm(file, millis);
+        return file;
+    }
+
+    private static void writeAdpcm(File file, int millis) throws IOException {
+        int frames = RATE * millis / 1000;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            pcm.putShort((short) (8000 * Math.sin(2 * Math.PI * 440 * i / RATE)));
+        }
+        pcm.flip();
+        ImaAdpcmWavWriter writer = new ImaAdpcmWavWriter(file, RATE, 1);
+        try {
+            writer.write(pcm);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private byte[] decodeDirectly(File file) throws IOException {
+        return readAll(ImaAdpcmWavSource.open(file));
+    }
+
+    private static byte[] readAll(PcmSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ByteBuffer chunk;
+            while ((chunk = source.nextChunk(CHUNK_BYTES)) != null) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes);
+            }
+        } finally {
+            source.close();
+        }
+        return out.toByteArray();
+    }
+}
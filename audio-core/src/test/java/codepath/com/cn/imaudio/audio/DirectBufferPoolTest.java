@@ -0,0 +1,67 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DirectBufferPool} 的JVM单元测试
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void buffersAreDirectAndIndependent() {
+        DirectBufferPool pool = new DirectBufferPool(3, 16);
+
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        assertTrue(a.isDirect());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, a.order());
+        assertEquals(16, a.capacity());
+
+        a.putLong(8, -1L);
+        assertEquals(0L, b.getLong(0));
+        assertEquals(0L, b.getLong(8));
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    public void exhaustedPoolReturnsNull() {
+        DirectBufferPool pool = new DirectBufferPool(1, 16);
+
+        ByteBuffer buffer = pool.acquire();
+        assertNull(pool.acquire());
+
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void acquiredBufferIsCleared() {
+        DirectBufferPool pool = new DirectBufferPool(1, 16);
+
+        ByteBuffer buffer = pool.acquire();
+        buffer.position(3).limit(5);
+        pool.release(buffer);
+
+        buffer = pool.acquire();
+        assertEquals(0, buffer.position());
+        assertEquals(16, buffer.limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignBuffer() {
+        new DirectBufferPool(1, 16).release(ByteBuffer.allocate(16));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRelease() {
+        DirectBufferPool pool = new DirectBufferPool(1, 16);
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+}
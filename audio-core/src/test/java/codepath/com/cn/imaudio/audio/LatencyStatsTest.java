@@ -0,0 +1,55 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LatencyStats} 的JVM单元测试
+ */
+public class LatencyStatsTest {
+
+    @Test
+    public void emptyStatsReturnMinusOne() {
+        LatencyStats stats = new LatencyStats(8);
+        assertEquals(-1, stats.getLast());
+        assertEquals(-1, stats.getPercentile(50));
+        assertEquals(-1, stats.getMean(), 0);
+    }
+
+    @Test
+    public void nearestRankPercentiles() {
+        LatencyStats stats = new LatencyStats(100);
+        for (int i = 100; i >= 1; i--) {
+            stats.add(i);
+        }
+        assertEquals(1, stats.getMin());
+        assertEquals(50, stats.getPercentile(50));
+        assertEquals(95, stats.getPercentile(95));
+        assertEquals(100, stats.getMax());
+        assertEquals(50.5, stats.getMean(), 1e-9);
+        assertEquals(1, stats.getLast());
+    }
+
+    @Test
+    public void keepsOnlyMostRecentSamples() {
+        LatencyStats stats = new LatencyStats(4);
+        for (int i = 1; i <= 10; i++) {
+            stats.add(i * 10);
+        }
+        assertEquals(4, stats.size());
+        assertEquals(10, stats.getTotalCount());
+        assertEquals(70, stats.getMin());
+        assertEquals(100, stats.getMax());
+        assertEquals(100, stats.getLast());
+
+        stats.reset();
+        assertEquals(0, stats.size());
+        assertEquals(-1, stats.getLast());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPercentileOutOfRange() {
+        new LatencyStats(4).getPercentile(101);
+    }
+}
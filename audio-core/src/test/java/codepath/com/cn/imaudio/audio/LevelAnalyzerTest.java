@@ -0,0 +1,129 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LevelAnalyzer} 和 {@link WaveformBuilder} 的JVM单元测试
+ */
+public class LevelAnalyzerTest {
+
+    private static final int RATE = 16000;
+
+    @Test
+    public void fullScaleSineLevels() {
+        LevelAnalyzer analyzer = new LevelAnalyzer(RATE, 1, 20, null);
+        ByteBuffer pcm = new VoiceActivityDetectorTest.Signal(RATE).tone(100, 1000, 32767).toBuffer();
+        analyzer.process(pcm, 0, pcm.limit());
+
+        assertEquals(5, analyzer.getWindowCount());
+        // 正弦波的RMS比峰值低 3dB
+        assertEquals(0, analyzer.getPeakDbfs(), 0.1);
+        assertEquals(-3.01, analyzer.getRmsDbfs(), 0.1);
+        assertEquals(1 - 3.01 / LevelAnalyzer.METER_RANGE_DB, analyzer.getMeterLevel(), 0.01);
+    }
+
+    @Test
+    public void silenceIsBottomOfMeter() {
+        LevelAnalyzer analyzer = new LevelAnalyzer(RATE, 1, 20, null);
+        ByteBuffer pcm = ByteBuffer.allocate(RATE / 10 * 2);
+        analyzer.process(pcm, 0, pcm.limit());
+
+        assertEquals(0, analyzer.getPeak());
+        assertEquals(0, analyzer.getMeterLevel(), 0);
+    }
+
+    @Test
+    public void windowsSpanChunksAndListenerFiresPerChunk() {
+        final int[] callbacks = new int[1];
+        LevelAnalyzer analyzer = new LevelAnalyzer(RATE, 1, 20, null);
+        analyzer.setListener(new LevelAnalyzer.Listener() {
+            @Override
+            public void onLevel(LevelAnalyzer a) {
+                callbacks[0]++;
+            }
+        });
+        ByteBuffer pcm = new VoiceActivityDetectorTest.Signal(RATE).tone(100, 440, 8000).toBuffer();
+
+        // 每块 7ms，不与20ms的窗口对齐
+        int chunk = RATE * 7 / 1000 * 2;
+        int chunks = 0;
+        for (int offset = 0; offset < pcm.limit(); offset += chunk) {
+            analyzer.process(pcm, offset, Math.min(chunk, pcm.limit() - offset));
+            chunks++;
+        }
+        assertEquals(5, analyzer.getWindowCount());
+        assertEquals(5, callbacks[0]);
+        assertTrue(chunks > callbacks[0]);
+        assertEquals(0, pcm.position());
+    }
+
+    @Test
+    public void waveformKeepsFixedSizeForAnyLength() {
+        WaveformBuilder waveform = new WaveformBuilder(64);
+        LevelAnalyzer analyzer = new LevelAnalyzer(RATE, 1, 20, waveform);
+
+        // 1秒静音、1秒满幅，重复多次，窗口数远多于桶数
+        VoiceActivityDetectorTest.Signal signal = new VoiceActivityDetectorTest.Signal(RATE);
+        for (int i = 0; i < 8; i++) {
+            signal.noise(1000, 0).tone(1000, 500, 32767);
+        }
+        ByteBuffer pcm = signal.toBuffer();
+        analyzer.process(pcm, 0, pcm.limit());
+        assertEquals(800, waveform.getValueCount());
+
+        byte[] out = new byte[64];
+        int filled = waveform.getWaveform(out);
+        assertTrue(filled >= 32 && filled <= 64);
+        // 静音和语音交替出现，两部分的桶数大致相等；边界上的桶取最大值，显示为语音
+        int loud = 0;
+        for (byte level : out) {
+            if ((level & 0xFF) > 200) {
+                loud++;
+            }
+        }
+        assertTrue("loud buckets: " + loud, loud >= 28 && loud <= 44);
+        assertEquals(255, out[out.length - 1] & 0xFF);
+    }
+
+    @Test
+    public void shortRecordingIsStretchedToAllBuckets() {
+        WaveformBuilder waveform = new WaveformBuilder(8);
+        waveform.add(0);
+        waveform.add(32767);
+
+        byte[] out = new byte[8];
+        assertEquals(2, waveform.getWaveform(out));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, out[i]);
+            assertEquals(255, out[i + 4] & 0xFF);
+        }
+    }
+
+    @Test
+    public void compactionKeepsPeaks() {
+        WaveformBuilder waveform = new WaveformBuilder(4);
+        int[] peaks = {100, 32767, 100, 100, 100, 100, 100, 100, 100};
+        for (int peak : peaks) {
+            waveform.add(peak);
+        }
+
+        byte[] out = new byte[4];
+        waveform.getWaveform(out);
+        // 第二个输入的峰值在合并后仍在最前面的桶中
+        assertEquals(255, out[0] & 0xFF);
+        assertTrue((out[3] & 0xFF) < 255);
+
+        waveform.reset();
+        assertEquals(0, waveform.getWaveform(out));
+        assertEquals(0, out[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddBucketCount() {
+        new WaveformBuilder(63);
+    }
+}
@@ -0,0 +1,84 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LookaheadLimiter} 的JVM单元测试
+ */
+public class LookaheadLimiterTest {
+
+    private static final float CEILING = 0.891f;
+    private static final int LOOKAHEAD = 240;
+
+    @Test
+    public void quietSignalIsOnlyDelayed() {
+        LookaheadLimiter limiter = new LookaheadLimiter(1, CEILING, LOOKAHEAD, 2880);
+        float[] in = LoudnessMeterTest.sine(48000, 1, 200, 440, 0.5);
+        float[] out = in.clone();
+        limiter.process(out, 0, out.length);
+
+        for (int i = 0; i < LOOKAHEAD; i++) {
+            assertEquals(0f, out[i], 0);
+        }
+        for (int i = LOOKAHEAD; i < out.length; i++) {
+            assertEquals(in[i - LOOKAHEAD], out[i], 0);
+        }
+        assertEquals(1f, limiter.getMinGain(), 0);
+    }
+
+    @Test
+    public void outputNeverExceedsCeiling() {
+        Random random = new Random(3);
+        LookaheadLimiter limiter = new LookaheadLimiter(2, CEILING, LOOKAHEAD, 2880);
+        float[] block = new float[1000 * 2];
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < block.length; i++) {
+                // 偶尔出现比限幅值高十几dB的尖峰
+                double scale = random.nextInt(50) == 0 ? 4 : 0.3;
+                block[i] = (float) (scale * random.nextGaussian());
+            }
+            limiter.process(block, 0, block.length / 2);
+            for (float sample : block) {
+                assertTrue("sample " + sample, Math.abs(sample) <= CEILING * 1.0001f);
+            }
+        }
+        assertTrue(limiter.getMinGain() < 0.2f);
+    }
+
+    @Test
+    public void gainRampsDownBeforeIsolatedPeak() {
+        LookaheadLimiter limiter = new LookaheadLimiter(1, CEILING, LOOKAHEAD, 2880);
+        float[] samples = new float[2000];
+        java.util.Arrays.fill(samples, 0.5f);
+        samples[1000] = 1.782f;
+        limiter.process(samples, 0, samples.length);
+
+        int peak = 1000 + LOOKAHEAD;
+        assertEquals(CEILING, samples[peak], 1e-4f);
+        // 峰值之前逐渐衰减，不是只压低峰值一个采样
+        assertTrue(samples[peak - LOOKAHEAD / 2] < 0.4f);
+        assertTrue(samples[peak - LOOKAHEAD / 2] > samples[peak - 1]);
+        assertEquals(0.5f, samples[peak - LOOKAHEAD - 1], 1e-6f);
+        // 之后逐渐回升
+        assertTrue(samples[peak + 1] < samples[samples.length - 1]);
+    }
+
+    @Test
+    public void resetRestartsWithSilentDelayLine() {
+        LookaheadLimiter limiter = new LookaheadLimiter(1, CEILING, 10, 100);
+        float[] samples = new float[20];
+        java.util.Arrays.fill(samples, 2f);
+        limiter.process(samples, 0, samples.length);
+        limiter.reset();
+
+        java.util.Arrays.fill(samples, 0.25f);
+        limiter.process(samples, 0, samples.length);
+        assertEquals(0f, samples[9], 0);
+        assertEquals(0.25f, samples[10], 0);
+        assertEquals(1f, limiter.getMinGain(), 0);
+    }
+}
@@ -0,0 +1,101 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LoudnessMeter} 的JVM单元测试
+ *
+ * 参考值来自 BS.1770：单声道 0 dBFS 的 1kHz 正弦波为 -3.01 LUFS，即振幅为 a 时为 -3.01 + 20log10(a)。
+ */
+public class LoudnessMeterTest {
+
+    private static final double TOLERANCE = 0.1;
+
+    @Test
+    public void sineMatchesReferenceAtCommonRates() {
+        int[] rates = {16000, 44100, 48000};
+        for (int rate : rates) {
+            LoudnessMeter meter = new LoudnessMeter(rate, 1);
+            feed(meter, sine(rate, 1, 5000, 1000, 0.1));
+
+            assertEquals("rate " + rate, -23.01, meter.getIntegratedLufs(), TOLERANCE);
+            assertEquals("rate " + rate, -23.01, meter.getShortTermLufs(), TOLERANCE);
+            assertEquals("rate " + rate, -23.01, meter.getMomentaryLufs(), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void stereoSumsChannels() {
+        LoudnessMeter meter = new LoudnessMeter(48000, 2);
+        feed(meter, sine(48000, 2, 3000, 1000, 0.1));
+        // 两个声道相同时比单声道高 3dB
+        assertEquals(-20.0, meter.getIntegratedLufs(), TOLERANCE);
+    }
+
+    @Test
+    public void absoluteGateIgnoresSilence() {
+        LoudnessMeter meter = new LoudnessMeter(48000, 1);
+        feed(meter, sine(48000, 1, 3000, 1000, 0.1));
+        feed(meter, new float[48000 * 10]);
+
+        // 与静音交界、部分有声的3个块仍在门限以上，按标准计入
+        assertEquals(-23.01, meter.getIntegratedLufs(), 0.3);
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getMomentaryLufs(), 0);
+        assertEquals(13000, meter.getMeasuredMillis());
+    }
+
+    @Test
+    public void relativeGateIgnoresQuietPassages() {
+        LoudnessMeter meter = new LoudnessMeter(48000, 1);
+        feed(meter, sine(48000, 1, 5000, 1000, 0.1));
+        // 低 30dB 的部分在相对门限以下；只有交界处的几个块受影响
+        feed(meter, sine(48000, 1, 5000, 1000, 0.00316));
+
+        assertEquals(-23.01, meter.getIntegratedLufs(), 0.3);
+        assertEquals(-53.0, meter.getShortTermLufs(), TOLERANCE);
+    }
+
+    @Test
+    public void nothingMeasuredBeforeFirstBlock() {
+        LoudnessMeter meter = new LoudnessMeter(48000, 1);
+        feed(meter, sine(48000, 1, 300, 1000, 0.5));
+
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getIntegratedLufs(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getShortTermLufs(), 0);
+
+        feed(meter, sine(48000, 1, 100, 1000, 0.5));
+        assertFalse(Double.isInfinite(meter.getMomentaryLufs()));
+
+        meter.reset();
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getIntegratedLufs(), 0);
+        assertEquals(0, meter.getMeasuredMillis());
+    }
+
+    /** 以不规则的块大小送入，检查跨块的子块统计 */
+    private static void feed(LoudnessMeter meter, float[] samples) {
+        int channels = meter.getChannelCount();
+        int frames = samples.length / channels;
+        int offset = 0;
+        int step = 1;
+        while (offset < frames) {
+            int n = Math.min(frames - offset, 37 * step);
+            meter.process(samples, offset * channels, n);
+            offset += n;
+            step = step % 50 + 1;
+        }
+    }
+
+    static float[] sine(int rate, int channels, int millis, double hz, double amplitude) {
+        int frames = rate * millis / 1000;
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            float value = (float) (amplitude * Math.sin(2 * Math.PI * hz * i / rate));
+            for (int ch = 0; ch < channels; ch++) {
+                samples[i * channels + ch] = value;
+            }
+        }
+        return samples;
+    }
+}
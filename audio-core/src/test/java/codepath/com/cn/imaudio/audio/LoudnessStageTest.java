@@ -0,0 +1,212 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LoudnessStage} 和 {@link GainPcmSource} 的JVM单元测试
+ */
+public class LoudnessStageTest {
+
+    private static final int RATE = 16000;
+    private static final int CHUNK_BYTES = 3200;
+
+    @Test
+    public void measureModePassesDataThroughAndReportsPlaybackGain() throws IOException {
+        // -38 LUFS 左右的语音（K加权对低频有衰减），播放时需放大约 20dB，超出上限
+        ByteBuffer input = speech(20, 0.022);
+        CollectingSink sink = new CollectingSink();
+        LoudnessStage stage = new LoudnessStage(sink, RATE, 1, LoudnessStage.Mode.MEASURE);
+        write(stage, input);
+        stage.close();
+
+        assertTrue(sink.closed);
+        assertEquals(input, sink.toBuffer());
+        assertEquals(0, stage.getGainDb(), 0);
+        double integrated = stage.getIntegratedLufs();
+        assertEquals(-38, integrated, 1);
+        assertEquals(1200, stage.getPlaybackGainMillibels());
+
+        sink = new CollectingSink();
+        stage = new LoudnessStage(sink, RATE, 1, LoudnessStage.Mode.MEASURE);
+        write(stage, speech(20, 0.1));
+        integrated = stage.getIntegratedLufs();
+        assertEquals(Math.round((LoudnessStage.TARGET_LUFS - integrated) * 100),
+                stage.getPlaybackGainMillibels());
+    }
+
+    @Test
+    public void agcBringsQuietSpeechToTargetWithoutClipping() throws IOException {
+        // 约 -33 LUFS，需放大约 15dB
+        ByteBuffer input = speech(30, 0.04);
+        CollectingSink sink = new CollectingSink();
+        LoudnessStage stage = new LoudnessStage(sink, RATE, 1, LoudnessStage.Mode.AGC);
+        write(stage, input);
+        stage.close();
+
+        ByteBuffer output = sink.toBuffer();
+        // 输出与输入等长，限幅器的延迟不改变时长
+        assertEquals(input.remaining(), output.remaining());
+        assertTrue(stage.getGainDb() > 12);
+
+        // 最后几秒已达到目标响度
+        LoudnessMeter tail = new LoudnessMeter(RATE, 1);
+        float[] samples = toFloat(output);
+        int frames = RATE * 5;
+        tail.process(samples, samples.length - frames, frames);
+        assertEquals(LoudnessStage.TARGET_LUFS, tail.getShortTermLufs(), 1.5);
+
+        ShortBuffer shorts = output.asShortBuffer();
+        while (shorts.hasRemaining()) {
+            assertTrue(Math.abs(shorts.get()) <= Math.round(0.891f * 32768) + 1);
+        }
+        assertTrue(Math.abs(stage.getPlaybackGainMillibels()) < 800);
+    }
+
+    @Test
+    public void agcHoldsGainThroughSilence() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        LoudnessStage stage = new LoudnessStage(sink, RATE, 1, LoudnessStage.Mode.AGC);
+        write(stage, ByteBuffer.allocate(RATE * 2 * 5).order(ByteOrder.LITTLE_ENDIAN));
+        stage.close();
+
+        assertEquals(0, stage.getGainDb(), 0);
+        assertEquals(0, stage.getPlaybackGainMillibels());
+        assertEquals(RATE * 2 * 5, sink.toBuffer().remaining());
+    }
+
+    @Test
+    public void gainSourceAttenuatesWithoutDelay() throws IOException {
+        short[] samples = ramp(3000);
+        GainPcmSource source = new GainPcmSource(
+                new WsolaTimeStretcherTest.ShortArraySource(samples, RATE, 1), -6.0206f);
+        short[] out = readAll(source, 1000);
+
+        assertEquals(samples.length, out.length);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i] / 2.0, out[i], 1);
+        }
+    }
+
+    @Test
+    public void gainSourceBoostsInPlaceAndLimits() throws IOException {
+        short[] samples = new short[RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (20000 * Math.sin(2 * Math.PI * 300 * i / RATE));
+        }
+        WsolaTimeStretcherTest.ShortArraySource raw =
+                new WsolaTimeStretcherTest.ShortArraySource(samples, RATE, 1);
+        GainPcmSource source = new GainPcmSource(raw, 12);
+        assertEquals(0, source.getPositionFrames());
+
+        short[] out = readAll(source, 700);
+        assertEquals(samples.length, out.length);
+        assertEquals(samples.length, source.getPositionFrames());
+        for (short sample : out) {
+            assertTrue(Math.abs(sample) <= Math.round(0.891f * 32768) + 1);
+        }
+
+        // 定位后从目标帧开始输出，没有延迟：小信号放大4倍后不触发限幅
+        short[] quiet = ramp(2000);
+        GainPcmSource boosted = new GainPcmSource(
+                new WsolaTimeStretcherTest.ShortArraySource(quiet, RATE, 1), 12.0412f);
+        boosted.seekToFrame(500);
+        assertEquals(500, boosted.getPositionFrames());
+        ByteBuffer chunk = boosted.nextChunk(200);
+        assertEquals(600, boosted.getPositionFrames());
+        assertEquals(quiet[500] * 4, chunk.order(ByteOrder.LITTLE_ENDIAN).getShort(0), 2);
+    }
+
+    @Test
+    public void gainSourceShorterThanLookahead() throws IOException {
+        short[] samples = ramp(30);
+        GainPcmSource source = new GainPcmSource(
+                new WsolaTimeStretcherTest.ShortArraySource(samples, RATE, 1), 6.0206f);
+        short[] out = readAll(source, 1000);
+
+        assertEquals(samples.length, out.length);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i] * 2, out[i], 2);
+        }
+    }
+
+    /** 以200ms为周期、响度起伏的合成语音 */
+    private static ByteBuffer speech(int seconds, double amplitude) {
+        VoiceActivityDetectorTest.Signal signal = new VoiceActivityDetectorTest.Signal(RATE);
+        for (int i = 0; i < seconds * 5; i++) {
+            double scale = 0.5 + (i % 3) * 0.5;
+            signal.tone(120, 200 + (i % 4) * 60, amplitude * scale * 32768).noise(80, 30);
+        }
+        return signal.toBuffer();
+    }
+
+    private static short[] ramp(int frames) {
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) (i * 3 - 3000);
+        }
+        return samples;
+    }
+
+    private static void write(PcmSink sink, ByteBuffer pcm) throws IOException {
+        ByteBuffer view = pcm.duplicate();
+        while (view.hasRemaining()) {
+            ByteBuffer chunk = view.slice();
+            chunk.limit(Math.min(CHUNK_BYTES, chunk.remaining()));
+            view.position(view.position() + chunk.limit());
+            sink.write(chunk);
+        }
+    }
+
+    private static float[] toFloat(ByteBuffer pcm) {
+        ShortBuffer shorts = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        float[] samples = new float[shorts.remaining()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = shorts.get(i) / 32768f;
+        }
+        return samples;
+    }
+
+    private static short[] readAll(PcmSource source, int maxBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer chunk;
+        while ((chunk = source.nextChunk(maxBytes)) != null) {
+            while (chunk.hasRemaining()) {
+                out.write(chunk.get());
+            }
+        }
+        ShortBuffer shorts = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        short[] samples = new short[shorts.remaining()];
+        shorts.get(samples);
+        return samples;
+    }
+
+    private static final class CollectingSink implements PcmSink {
+
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        boolean closed;
+
+        @Override
+        public void write(ByteBuffer pcm) {
+            while (pcm.hasRemaining()) {
+                mOut.write(pcm.get());
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(mOut.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
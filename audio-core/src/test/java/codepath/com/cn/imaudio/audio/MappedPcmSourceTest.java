@@ -0,0 +1,108 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MappedPcmSource} 的JVM单元测试
+ */
+public class MappedPcmSourceTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("mapped", ".pcm");
+        // 100帧单声道16位，第i帧的采样值为i，末尾多一个不完整的字节
+        byte[] data = new byte[201];
+        for (int i = 0; i < 100; i++) {
+            data[i * 2] = (byte) i;
+        }
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void readsWholeFramesInChunks() throws IOException {
+        MappedPcmSource source = MappedPcmSource.open(mFile, 2);
+        try {
+            assertEquals(100, source.getFrameCount());
+            // 裸PCM没有采样率信息
+            assertEquals(0, source.getSampleRateHz());
+
+            ByteBuffer chunk = source.nextChunk(65);
+            // 按帧对齐
+            assertEquals(64, chunk.remaining());
+            assertEquals(0, chunk.getShort(chunk.position()));
+            assertEquals(32, source.getPositionFrames());
+
+            int total = 64;
+            while ((chunk = source.nextChunk(64)) != null) {
+                total += chunk.remaining();
+            }
+            assertEquals(200, total);
+            assertFalse(source.hasRemaining());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void seeksToFrame() throws IOException {
+        MappedPcmSource source = MappedPcmSource.open(mFile, 2);
+        try {
+            source.seekToFrame(42);
+            ByteBuffer chunk = source.nextChunk(4);
+            assertEquals(42, chunk.getShort(chunk.position()));
+            assertEquals(43, chunk.getShort(chunk.position() + 2));
+
+            source.seekToFrame(1000);
+            assertNull(source.nextChunk(4));
+
+            source.seekToFrame(-5);
+            assertEquals(0, source.getPositionFrames());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void skipsContainerHeader() throws IOException {
+        MappedPcmSource source = MappedPcmSource.open(mFile, 20, 40, 2);
+        try {
+            assertEquals(20, source.getFrameCount());
+            ByteBuffer chunk = source.nextChunk(1024);
+            assertEquals(40, chunk.remaining());
+            assertEquals(10, chunk.getShort(chunk.position()));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsChunkSmallerThanFrame() throws IOException {
+        MappedPcmSource source = MappedPcmSource.open(mFile, 4);
+        try {
+            source.nextChunk(3);
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MinimumLengthSink} 的JVM单元测试
+ */
+public class MinimumLengthSinkTest {
+
+    private static final int RATE = 8000;
+
+    private PcmDurationTracker mTracker;
+    private ByteBuffer mHoldBuffer;
+    private int mOpenCount;
+    private ByteBuffer mWritten;
+    private boolean mDownstreamClosed;
+
+    private final MinimumLengthSink.Opener mOpener = new MinimumLengthSink.Opener() {
+        @Override
+        public PcmSink open() {
+            mOpenCount++;
+            return new PcmSink() {
+                @Override
+                public void write(ByteBuffer pcm) {
+                    mWritten.put(pcm);
+                }
+
+                @Override
+                public void close() {
+                    mDownstreamClosed = true;
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setUp() {
+        // 最短100ms = 800帧
+        mTracker = new PcmDurationTracker(RATE, 1, 100);
+        mHoldBuffer = ByteBuffer.allocateDirect((int) mTracker.getMinBytes());
+        mWritten = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void shortClipNeverOpensOutput() throws IOException {
+        MinimumLengthSink sink = new MinimumLengthSink(mOpener, mTracker, mHoldBuffer);
+        sink.write(ramp(0, 500));
+        sink.write(ramp(500, 299));
+        sink.close();
+
+        assertFalse(sink.isAccepted());
+        assertEquals(0, mOpenCount);
+        assertEquals(0, mWritten.position());
+        assertEquals(799, mTracker.getFrames());
+    }
+
+    @Test
+    public void outputOpensOnceMinimumIsReachedAndKeepsOrder() throws IOException {
+        MinimumLengthSink sink = new MinimumLengthSink(mOpener, mTracker, mHoldBuffer);
+        sink.write(ramp(0, 500));
+        assertEquals(0, mOpenCount);
+        sink.write(ramp(500, 400));
+        assertEquals(1, mOpenCount);
+        sink.write(ramp(900, 1000));
+        sink.close();
+
+        assertTrue(sink.isAccepted());
+        assertTrue(mDownstreamClosed);
+        assertEquals(1, mOpenCount);
+        assertEquals(1900, mTracker.getFrames());
+        assertEquals(237, mTracker.getDurationMillis());
+        assertEquals(1900 * 2, mWritten.position());
+        for (int i = 0; i < 1900; i++) {
+            assertEquals(i, mWritten.getShort(i * 2));
+        }
+    }
+
+    @Test
+    public void holdBufferIsReusable() throws IOException {
+        MinimumLengthSink first = new MinimumLengthSink(mOpener, mTracker, mHoldBuffer);
+        first.write(ramp(0, 700));
+        first.close();
+
+        mTracker.reset();
+        MinimumLengthSink second = new MinimumLengthSink(mOpener, mTracker, mHoldBuffer);
+        second.write(ramp(0, 700));
+        second.write(ramp(700, 700));
+        second.close();
+
+        assertEquals(1400 * 2, mWritten.position());
+        assertEquals(699, mWritten.getShort(699 * 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallHoldBuffer() {
+        new MinimumLengthSink(mOpener, mTracker, ByteBuffer.allocate(100));
+    }
+
+    private static ByteBuffer ramp(int start, int frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            buffer.putShort((short) (start + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
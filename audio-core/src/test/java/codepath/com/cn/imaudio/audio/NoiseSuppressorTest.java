@@ -0,0 +1,180 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link NoiseSuppressor} 和 {@link NoiseSuppressionStage} 的JVM单元测试
+ *
+ * 合成信号为正弦波加高斯白噪声，干净信号已知，信噪比按输出与干净信号的差计算。
+ */
+public class NoiseSuppressorTest {
+
+    private static final int RATE = 16000;
+
+    @Test
+    public void toneInWhiteNoiseGainsSnr() {
+        float[] clean = new float[RATE * 5];
+        // 先有1秒噪声，之后是两个正弦波的和
+        for (int i = RATE; i < clean.length; i++) {
+            clean[i] = (float) (0.2 * Math.sin(2 * Math.PI * 440 * i / RATE)
+                    + 0.1 * Math.sin(2 * Math.PI * 1250 * i / RATE));
+        }
+        float[] noisy = addNoise(clean, 0.05, 1);
+
+        float[] out = suppress(noisy);
+        int from = RATE * 2;
+        double inputSnr = snrDb(clean, noisy, from, clean.length);
+        double outputSnr = snrDb(clean, out, from, clean.length);
+        assertTrue("input " + inputSnr + " dB, output " + outputSnr + " dB", outputSnr - inputSnr > 8);
+    }
+
+    @Test
+    public void speechLikeSignalFromFirstSampleRecovers() {
+        // 语音从第一个采样开始，噪声初值偏高，停顿中修正
+        float[] clean = new float[RATE * 6];
+        for (int i = 0; i < clean.length; i++) {
+            boolean voiced = (i / (RATE / 5)) % 2 == 0;
+            if (voiced) {
+                clean[i] = (float) (0.25 * Math.sin(2 * Math.PI * 300 * i / RATE)
+                        + 0.12 * Math.sin(2 * Math.PI * 900 * i / RATE));
+            }
+        }
+        float[] noisy = addNoise(clean, 0.03, 2);
+
+        float[] out = suppress(noisy);
+        int from = RATE * 3;
+        double inputSnr = snrDb(clean, noisy, from, clean.length);
+        double outputSnr = snrDb(clean, out, from, clean.length);
+        assertTrue("input " + inputSnr + " dB, output " + outputSnr + " dB", outputSnr - inputSnr > 6);
+    }
+
+    @Test
+    public void noiseFloorFollowsLouderNoise() {
+        float[] noisy = addNoise(new float[RATE * 4], 0.01, 3);
+        float[] louder = addNoise(new float[RATE * 4], 0.04, 4);
+        float[] both = new float[noisy.length + louder.length];
+        System.arraycopy(noisy, 0, both, 0, noisy.length);
+        System.arraycopy(louder, 0, both, noisy.length, louder.length);
+
+        NoiseSuppressor suppressor = new NoiseSuppressor(RATE);
+        float[] out = both.clone();
+        suppressor.process(out, 0, noisy.length);
+        assertEquals(-40, suppressor.getNoiseFloorDb(), 1.5);
+        assertTrue(suppressor.getSilentFraction() > 0.9f);
+        // 噪声突然变大 12dB 时先按有限速度上升，几秒内跟上
+        suppressor.process(out, noisy.length, louder.length);
+        assertEquals(-28, suppressor.getNoiseFloorDb(), 1.5);
+
+        // 纯噪声被明显压低（增益下限为 -20dB，噪声起伏使平均值略高）
+        int latency = suppressor.getLatencyFrames();
+        double inputDb = energyDb(both, both.length - RATE * 2 - latency, both.length - latency);
+        double outputDb = energyDb(out, both.length - RATE * 2, both.length);
+        assertTrue("attenuation " + (inputDb - outputDb), inputDb - outputDb > 12);
+    }
+
+    @Test
+    public void stageKeepsLengthAndAlignment() throws IOException {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final boolean[] closed = new boolean[1];
+        PcmSink sink = new PcmSink() {
+            @Override
+            public void write(ByteBuffer pcm) {
+                while (pcm.hasRemaining()) {
+                    written.write(pcm.get());
+                }
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        NoiseSuppressionStage stage = new NoiseSuppressionStage(sink, RATE, 1);
+
+        // 不整齐的块大小；一段响亮的正弦波在任何频点都远高于噪声估计，几乎原样通过
+        int samples = RATE + 123;
+        ByteBuffer pcm = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            pcm.putShort((short) (i < RATE / 2 ? 0 : 12000 * Math.sin(2 * Math.PI * 700 * i / RATE)));
+        }
+        pcm.flip();
+        while (pcm.hasRemaining()) {
+            ByteBuffer chunk = pcm.slice();
+            chunk.limit(Math.min(chunk.remaining(), 2 * 333));
+            pcm.position(pcm.position() + chunk.limit());
+            stage.write(chunk);
+        }
+        stage.close();
+
+        assertTrue(closed[0]);
+        ByteBuffer out = ByteBuffer.wrap(written.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(samples * 2, out.remaining());
+        for (int i = RATE * 3 / 4; i < RATE; i++) {
+            double expected = 12000 * Math.sin(2 * Math.PI * 700 * i / RATE);
+            assertEquals(expected, out.getShort(i * 2), 400);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stageRejectsStereo() {
+        new NoiseSuppressionStage(null, RATE, 2);
+    }
+
+    /**
+     * 处理后按延迟对齐，返回与输入等长的输出
+     */
+    private static float[] suppress(float[] input) {
+        NoiseSuppressor suppressor = new NoiseSuppressor(RATE);
+        int latency = suppressor.getLatencyFrames();
+        float[] buffer = new float[input.length + latency];
+        System.arraycopy(input, 0, buffer, 0, input.length);
+        // 以不规则的块大小处理
+        int offset = 0;
+        int step = 1;
+        while (offset < buffer.length) {
+            int n = Math.min(buffer.length - offset, 97 * step);
+            suppressor.process(buffer, offset, n);
+            offset += n;
+            step = step % 7 + 1;
+        }
+        float[] out = new float[input.length];
+        System.arraycopy(buffer, latency, out, 0, out.length);
+        return out;
+    }
+
+    private static float[] addNoise(float[] clean, double rms, long seed) {
+        Random random = new Random(seed);
+        float[] noisy = new float[clean.length];
+        for (int i = 0; i < clean.length; i++) {
+            noisy[i] = (float) (clean[i] + rms * random.nextGaussian());
+        }
+        return noisy;
+    }
+
+    private static double snrDb(float[] clean, float[] signal, int from, int to) {
+        double signalEnergy = 0;
+        double errorEnergy = 0;
+        for (int i = from; i < to; i++) {
+            signalEnergy += clean[i] * clean[i];
+            double error = signal[i] - clean[i];
+            errorEnergy += error * error;
+        }
+        return 10 * Math.log10(signalEnergy / errorEnergy);
+    }
+
+    private static double energyDb(float[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return 10 * Math.log10(sum / (to - from));
+    }
+}
@@ -0,0 +1,54 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PcmDurationTracker} 的JVM单元测试
+ */
+public class PcmDurationTrackerTest {
+
+    @Test
+    public void countsWholeFramesOnly() {
+        PcmDurationTracker tracker = new PcmDurationTracker(44100, 2, 3000);
+        tracker.addBytes(4410 * 4 + 3);
+        assertEquals(4410, tracker.getFrames());
+        assertEquals(100, tracker.getDurationMillis());
+        assertEquals(100000, tracker.getDurationMicros());
+
+        // 不完整的帧留到下次累加
+        tracker.addBytes(1);
+        assertEquals(4411, tracker.getFrames());
+    }
+
+    @Test
+    public void longRecordingsDoNotOverflow() {
+        // 10小时的录音，按 int 毫秒计算会溢出
+        PcmDurationTracker tracker = new PcmDurationTracker(48000, 1, 0);
+        tracker.addFrames(48000L * 3600 * 10);
+        assertEquals(36000000L, tracker.getDurationMillis());
+        assertEquals(36000000000L, tracker.getDurationMicros());
+    }
+
+    @Test
+    public void minimumIsFrameAccurate() {
+        PcmDurationTracker tracker = new PcmDurationTracker(16000, 1, 3000);
+        assertEquals(48000, tracker.getMinFrames());
+        assertEquals(96000, tracker.getMinBytes());
+
+        tracker.addFrames(47999);
+        assertFalse(tracker.hasReachedMinimum());
+        tracker.addFrames(1);
+        assertTrue(tracker.hasReachedMinimum());
+
+        tracker.reset();
+        assertEquals(0, tracker.getFrames());
+        assertFalse(tracker.hasReachedMinimum());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRate() {
+        new PcmDurationTracker(0, 1, 3000);
+    }
+}
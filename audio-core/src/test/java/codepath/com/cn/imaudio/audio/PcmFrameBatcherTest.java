@@ -0,0 +1,98 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PcmFrameBatcher} 的JVM单元测试
+ */
+public class PcmFrameBatcherTest {
+
+    @Test
+    public void frameBytesForAac() {
+        assertEquals(2048, new PcmFrameBatcher(44100, 1, PcmFrameBatcher.AAC_SAMPLES_PER_FRAME)
+                .getFrameBytes());
+        assertEquals(4096, new PcmFrameBatcher(44100, 2, PcmFrameBatcher.AAC_SAMPLES_PER_FRAME)
+                .getFrameBytes());
+    }
+
+    @Test
+    public void batchesArbitraryChunksIntoFrames() {
+        PcmFrameBatcher batcher = new PcmFrameBatcher(8000, 1, 4);
+        ByteBuffer frame = ByteBuffer.allocate(64);
+        int frames = 0;
+        int expected = 0;
+
+        // 3、5、7 字节的数据块拼成 8 字节的帧
+        for (int chunkBytes : new int[]{3, 5, 7, 3, 6}) {
+            ByteBuffer chunk = ByteBuffer.allocate(chunkBytes);
+            for (int i = 0; i < chunkBytes; i++) {
+                chunk.put(i, (byte) expected++);
+            }
+
+            while (chunk.hasRemaining()) {
+                batcher.transfer(chunk, frame);
+                if (batcher.isFrameComplete()) {
+                    assertEquals(8, frame.position());
+                    for (int i = 0; i < 8; i++) {
+                        assertEquals(frames * 8 + i, frame.get(i));
+                    }
+                    assertEquals(frames * 4 * 1000000L / 8000, batcher.submitFrame());
+                    frame.clear();
+                    frames++;
+                }
+            }
+        }
+
+        assertEquals(3, frames);
+        assertEquals(0, batcher.getPendingBytes());
+        assertEquals(12, batcher.getSubmittedSamples());
+    }
+
+    @Test
+    public void transferIsBoundedByDestination() {
+        PcmFrameBatcher batcher = new PcmFrameBatcher(8000, 1, 16);
+        ByteBuffer src = ByteBuffer.allocate(32);
+        ByteBuffer dst = ByteBuffer.allocate(10);
+
+        assertEquals(10, batcher.transfer(src, dst));
+        assertEquals(22, src.remaining());
+        assertEquals(32, src.limit());
+        assertEquals(0, batcher.transfer(src, dst));
+    }
+
+    @Test
+    public void partialLastFrameAdvancesTimestamp() {
+        PcmFrameBatcher batcher = new PcmFrameBatcher(44100, 1, PcmFrameBatcher.AAC_SAMPLES_PER_FRAME);
+        ByteBuffer dst = ByteBuffer.allocate(batcher.getFrameBytes());
+
+        batcher.transfer(ByteBuffer.allocate(2048), dst);
+        assertEquals(0, batcher.submitFrame());
+        dst.clear();
+        batcher.transfer(ByteBuffer.allocate(100), dst);
+        assertFalse(batcher.isFrameComplete());
+        assertEquals(23219, batcher.submitFrame());
+        assertEquals(1024 + 50, batcher.getSubmittedSamples());
+    }
+
+    @Test
+    public void timestampsDoNotDrift() {
+        PcmFrameBatcher batcher = new PcmFrameBatcher(44100, 1, PcmFrameBatcher.AAC_SAMPLES_PER_FRAME);
+        ByteBuffer src = ByteBuffer.allocate(batcher.getFrameBytes());
+        ByteBuffer dst = ByteBuffer.allocate(batcher.getFrameBytes());
+
+        // 一小时的帧
+        int frames = 44100 * 3600 / 1024;
+        for (int i = 0; i < frames; i++) {
+            src.clear();
+            dst.clear();
+            batcher.transfer(src, dst);
+            batcher.submitFrame();
+        }
+
+        assertEquals((long) frames * 1024 * 1000000L / 44100, batcher.getPresentationTimeUs());
+    }
+}
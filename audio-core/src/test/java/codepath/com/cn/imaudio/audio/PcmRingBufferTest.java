@@ -0,0 +1,172 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PcmRingBuffer} 的JVM单元测试，包括生产者/消费者并发压力测试
+ */
+public class PcmRingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwoSlotCount() {
+        new PcmRingBuffer(3, 16);
+    }
+
+    @Test
+    public void deliversFramesInOrder() {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 8);
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer slot = ring.claim();
+            slot.put(0, (byte) i);
+            ring.publish(i + 1);
+        }
+        assertEquals(3, ring.size());
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer slot = ring.peek();
+            assertNotNull(slot);
+            assertTrue(slot.isDirect());
+            assertEquals(i, slot.get(0));
+            assertEquals(0, slot.position());
+            assertEquals(i + 1, slot.remaining());
+            assertEquals(i + 1, ring.peekLength());
+            ring.release();
+        }
+        assertNull(ring.peek());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void countsOverrunWhenFull() {
+        PcmRingBuffer ring = new PcmRingBuffer(2, 8);
+
+        ring.claim().put(0, (byte) 1);
+        ring.publish(8);
+        ring.claim().put(0, (byte) 2);
+        ring.publish(8);
+
+        // 环满，本帧被丢弃
+        ring.claim().put(0, (byte) 3);
+        ring.publish(5);
+
+        assertEquals(1, ring.getOverrunCount());
+        assertEquals(5, ring.getDroppedBytes());
+        assertEquals(2, ring.getHighWaterMark());
+        assertEquals(1, ring.peek().get(0));
+        ring.release();
+
+        // 腾出空间后可以继续写入
+        ring.claim().put(0, (byte) 4);
+        ring.publish(8);
+        assertEquals(2, ring.peek().get(0));
+        ring.release();
+        assertEquals(4, ring.peek().get(0));
+        ring.release();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void takesSlotsFromPool() {
+        DirectBufferPool pool = new DirectBufferPool(6, 32);
+        PcmRingBuffer ring = new PcmRingBuffer(pool, 4);
+
+        assertEquals(1, pool.available());
+        assertEquals(32, ring.getSlotBytes());
+        assertEquals(32, ring.claim().remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallPool() {
+        new PcmRingBuffer(new DirectBufferPool(4, 32), 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseOnEmptyFails() {
+        new PcmRingBuffer(2, 8).release();
+    }
+
+    @Test
+    public void resetClearsState() {
+        PcmRingBuffer ring = new PcmRingBuffer(2, 8);
+        ring.claim();
+        ring.publish(1);
+        ring.close();
+
+        ring.reset();
+
+        assertTrue(ring.isEmpty());
+        assertFalse(ring.isClosed());
+        assertEquals(0, ring.getOverrunCount());
+        assertEquals(0, ring.getHighWaterMark());
+    }
+
+    @Test(timeout = 30000)
+    public void producerAndConsumerStress() throws Exception {
+        final int frames = 200000;
+        final PcmRingBuffer ring = new PcmRingBuffer(16, 64);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] consumed = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long expected = 0;
+                try {
+                    while (true) {
+                        boolean closed = ring.isClosed();
+                        ByteBuffer slot = ring.peek();
+                        if (slot == null) {
+                            if (closed) {
+                                break;
+                            }
+                            Thread.yield();
+                            continue;
+                        }
+
+                        int length = ring.peekLength();
+                        long sequence = slot.getLong(0);
+                        // 被丢弃的帧造成跳号，但顺序不能乱
+                        if (sequence < expected) {
+                            throw new AssertionError("out of order: " + sequence + " < " + expected);
+                        }
+                        for (int i = 8; i < length; i++) {
+                            if (slot.get(i) != (byte) (sequence + i)) {
+                                throw new AssertionError("corrupted frame " + sequence);
+                            }
+                        }
+                        expected = sequence + 1;
+                        consumed[0]++;
+                        ring.release();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        consumer.start();
+
+        for (long sequence = 0; sequence < frames; sequence++) {
+            ByteBuffer slot = ring.claim();
+            slot.putLong(0, sequence);
+            int length = 8 + (int) (sequence % 57);
+            for (int i = 8; i < length; i++) {
+                slot.put(i, (byte) (sequence + i));
+            }
+            ring.publish(length);
+        }
+        ring.close();
+        consumer.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(frames, consumed[0] + ring.getOverrunCount());
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PipelineMetrics} 和 {@link LatencyHistogram} 的JVM单元测试
+ */
+public class PipelineMetricsTest {
+
+    @Test
+    public void bucketsArePowersOfTwoMicros() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(11, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(2048, LatencyHistogram.upperBoundMicros(11));
+    }
+
+    @Test
+    public void percentilesUseBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] buckets = new long[LatencyHistogram.BUCKET_COUNT];
+        histogram.copyTo(buckets);
+        assertEquals(-1, LatencyHistogram.percentileMicros(buckets, 50));
+
+        // 99个约1ms的样本和1个约20ms的样本
+        for (int i = 0; i < 99; i++) {
+            histogram.recordNanos(1000000);
+        }
+        histogram.recordNanos(20000000);
+        assertEquals(100, histogram.getCount());
+        long sum = histogram.copyTo(buckets);
+        assertEquals(99 * 1000 + 20000, sum);
+        assertEquals(1024, LatencyHistogram.percentileMicros(buckets, 50));
+        assertEquals(1024, LatencyHistogram.percentileMicros(buckets, 99));
+        assertEquals(32768, LatencyHistogram.percentileMicros(buckets, 100));
+
+        histogram.recordNanos(-5);
+        assertEquals(101, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void snapshotDifferenceCoversOneSession() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.add(PipelineMetrics.Counter.BYTES_CAPTURED, 1000);
+        metrics.record(PipelineMetrics.Timer.CAPTURE_READ, 5000000);
+        PipelineMetrics.Snapshot before = metrics.snapshot();
+
+        metrics.add(PipelineMetrics.Counter.BYTES_CAPTURED, 300);
+        metrics.increment(PipelineMetrics.Counter.SHORT_READS);
+        metrics.record(PipelineMetrics.Timer.CAPTURE_READ, 100000);
+        metrics.record(PipelineMetrics.Timer.CAPTURE_READ, 300000);
+        PipelineMetrics.Snapshot session = metrics.snapshot().minus(before);
+
+        assertEquals(1300, metrics.get(PipelineMetrics.Counter.BYTES_CAPTURED));
+        assertEquals(300, session.get(PipelineMetrics.Counter.BYTES_CAPTURED));
+        assertEquals(1, session.get(PipelineMetrics.Counter.SHORT_READS));
+        assertEquals(0, session.get(PipelineMetrics.Counter.OVERRUNS));
+        assertEquals(2, session.getCount(PipelineMetrics.Timer.CAPTURE_READ));
+        assertEquals(200, session.getMeanMicros(PipelineMetrics.Timer.CAPTURE_READ));
+        assertEquals(512, session.getPercentileMicros(PipelineMetrics.Timer.CAPTURE_READ, 100));
+        assertEquals(-1, session.getMeanMicros(PipelineMetrics.Timer.PLAYBACK_WRITE));
+
+        // 快照不随之后的记录变化
+        metrics.increment(PipelineMetrics.Counter.SHORT_READS);
+        assertEquals(0, before.get(PipelineMetrics.Counter.SHORT_READS));
+    }
+
+    @Test
+    public void summaryListsOnlyNonZeroEntries() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.add(PipelineMetrics.Counter.UNDERRUNS, 2);
+        metrics.record(PipelineMetrics.Timer.PLAYBACK_WRITE, 3000000);
+        String summary = metrics.snapshot().toString();
+        assertTrue(summary, summary.contains("underruns: 2"));
+        assertTrue(summary, summary.contains("playback_write: n=1, mean=3.0ms, p50<4.1ms"));
+        assertFalse(summary, summary.contains("overruns"));
+        assertFalse(summary, summary.contains("capture_read"));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        metrics.increment(PipelineMetrics.Counter.BYTES_PLAYED);
+                        metrics.record(PipelineMetrics.Timer.PLAYBACK_WRITE, i * 1000L);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(threads * perThread, snapshot.get(PipelineMetrics.Counter.BYTES_PLAYED));
+        assertEquals(threads * perThread, snapshot.getCount(PipelineMetrics.Timer.PLAYBACK_WRITE));
+    }
+}
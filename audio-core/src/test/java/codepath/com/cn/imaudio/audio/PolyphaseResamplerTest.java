@@ -0,0 +1,290 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PolyphaseResampler}、{@link ChannelMixer}、{@link FormatConverter} 和 {@link ResamplingPcmSource}
+ * 的JVM单元测试
+ *
+ * 音质以与理想信号（按输出采样率直接生成的正弦波）相比的信噪比衡量，跳过开头和结尾滤波器未填满的部分。
+ */
+public class PolyphaseResamplerTest {
+
+    private static final double AMPLITUDE = 16000;
+
+    @Test
+    public void downsampleVoiceToWideband() {
+        // 16位量化本身的信噪比约 90dB；5kHz 接近通带边缘
+        for (int frequency : new int[]{100, 1000, 5000}) {
+            double snr = sineSnr(44100, 16000, frequency);
+            assertTrue(frequency + "Hz snr " + snr, snr > 80);
+        }
+    }
+
+    @Test
+    public void upsampleWidebandToNative() {
+        assertTrue(sineSnr(16000, 48000, 1000) > 80);
+        assertTrue(sineSnr(16000, 44100, 3000) > 80);
+    }
+
+    @Test
+    public void rejectsAliasesAboveTargetNyquist() {
+        // 10kHz 高于 16kHz 的奈奎斯特频率，不能折叠为 6kHz
+        short[] out = resample(sine(44100, 10000, 44100), 44100, 16000);
+        double rms = rms(out, 1000, out.length - 1000);
+        assertTrue("alias rms " + rms, 20 * Math.log10(rms / (AMPLITUDE / Math.sqrt(2))) < -60);
+    }
+
+    @Test
+    public void outputLengthMatchesDuration() {
+        for (int frames : new int[]{1, 441, 1000, 44100}) {
+            short[] out = resample(new short[frames], 44100, 16000);
+            assertEquals((frames * 16000L + 44099) / 44100, out.length);
+        }
+        assertEquals(44100, resample(new short[16000], 16000, 44100).length);
+    }
+
+    @Test
+    public void chunkSizeDoesNotChangeOutput() {
+        short[] input = sine(44100, 440, 10000);
+        short[] whole = resample(input, 44100, 16000);
+
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000, 1);
+        ByteBuffer out = allocate(resampler.getMaxOutputFrames(input.length) + resampler.getMaxFlushFrames());
+        float[] frame = new float[1];
+        for (int i = 0; i < input.length; i++) {
+            frame[0] = input[i];
+            resampler.push(frame, out);
+        }
+        resampler.flush(out);
+        assertArrayEquals(whole, toShorts(out));
+
+        // reset 之后与新建的结果一致
+        resampler.reset();
+        out.clear();
+        for (int i = 0; i < input.length; i++) {
+            frame[0] = input[i];
+            resampler.push(frame, out);
+        }
+        resampler.flush(out);
+        assertArrayEquals(whole, toShorts(out));
+    }
+
+    @Test
+    public void dcGainIsUnity() {
+        short[] input = new short[4410];
+        Arrays.fill(input, (short) 10000);
+        short[] out = resample(input, 44100, 16000);
+        for (int i = 200; i < out.length - 200; i++) {
+            assertEquals(10000, out[i], 2);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHugeRatio() {
+        new PolyphaseResampler(44101, 16000, 1);
+    }
+
+    @Test
+    public void mixerDownmixesAndDuplicates() {
+        ByteBuffer stereo = allocate(2);
+        stereo.putShort(0, (short) 1000).putShort(2, (short) -3000);
+        float[] mono = new float[1];
+        new ChannelMixer(2, 1).mix(stereo, 0, mono);
+        assertEquals(-1000, mono[0], 0);
+
+        float[] both = new float[2];
+        new ChannelMixer(1, 2).mix(stereo, 2, both);
+        assertEquals(-3000, both[0], 0);
+        assertEquals(-3000, both[1], 0);
+    }
+
+    @Test
+    public void converterMixesThenResamplesInBlocks() {
+        // 立体声 44.1kHz，左右声道相同，转换为 16kHz 单声道
+        short[] mono = sine(44100, 1000, 44100);
+        ByteBuffer in = allocate(mono.length * 2);
+        for (short sample : mono) {
+            in.putShort(sample).putShort(sample);
+        }
+        in.flip();
+
+        FormatConverter converter = new FormatConverter(new PcmFormat(44100, 2),
+                PcmFormat.VOICE_WIDEBAND, 1000);
+        ByteBuffer collected = allocate(20000);
+        while (in.remaining() >= 4) {
+            collected.put(converter.convert(in));
+        }
+        collected.put(converter.flush());
+
+        short[] out = toShorts(collected);
+        assertArrayEquals(resample(mono, 44100, 16000), out);
+    }
+
+    @Test
+    public void converterWithSameRateOnlyMixes() {
+        ByteBuffer in = allocate(4);
+        in.putShort((short) 100).putShort((short) 300).putShort((short) -100).putShort((short) -300);
+        in.flip();
+        FormatConverter converter = new FormatConverter(new PcmFormat(16000, 2),
+                PcmFormat.VOICE_WIDEBAND, 16);
+        ByteBuffer out = converter.convert(in);
+        assertEquals(4, out.remaining());
+        assertEquals(200, out.getShort(0));
+        assertEquals(-200, out.getShort(2));
+        assertFalse(converter.flush().hasRemaining());
+    }
+
+    @Test
+    public void resamplingSourceConvertsAndSeeks() throws IOException {
+        short[] voice = sine(16000, 1000, 16000);
+        ResamplingPcmSource source = new ResamplingPcmSource(new ArraySource(voice, 16000),
+                new PcmFormat(48000, 1));
+        assertEquals(48000, source.getSampleRateHz());
+        assertEquals(48000, source.getFrameCount());
+
+        // 数据块大小与内部转换的块大小无关
+        ByteBuffer collected = allocate(48000);
+        ByteBuffer chunk;
+        while ((chunk = source.nextChunk(1000)) != null) {
+            assertTrue(chunk.remaining() <= 1000);
+            collected.put(chunk);
+        }
+        assertArrayEquals(resample(voice, 16000, 48000), toShorts(collected));
+        assertEquals(48000, source.getPositionFrames());
+
+        source.seekToFrame(24000);
+        assertEquals(24000, source.getPositionFrames());
+        assertNotNull(source.nextChunk(2));
+        source.seekToFrame(100000);
+        assertEquals(48000, source.getPositionFrames());
+        assertNull(source.nextChunk(1024));
+        source.close();
+    }
+
+    /**
+     * 输入1秒的正弦波，与输出采样率下的理想正弦波比较
+     */
+    private static double sineSnr(int inRate, int outRate, int frequency) {
+        short[] out = resample(sine(inRate, frequency, inRate), inRate, outRate);
+        short[] reference = sine(outRate, frequency, outRate);
+        assertEquals(reference.length, out.length);
+
+        // 滤波器两端各约 16 个低采样率周期未填满
+        int margin = outRate / 50;
+        double signal = 0;
+        double noise = 0;
+        for (int i = margin; i < out.length - margin; i++) {
+            signal += (double) reference[i] * reference[i];
+            double error = out[i] - reference[i];
+            noise += error * error;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1e-9));
+    }
+
+    static short[] resample(short[] input, int inRate, int outRate) {
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, outRate, 1);
+        ByteBuffer out = allocate(resampler.getMaxOutputFrames(input.length) + resampler.getMaxFlushFrames());
+        float[] frame = new float[1];
+        for (short sample : input) {
+            frame[0] = sample;
+            resampler.push(frame, out);
+        }
+        resampler.flush(out);
+        return toShorts(out);
+    }
+
+    static short[] sine(int rate, double frequency, int frames) {
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / rate));
+        }
+        return samples;
+    }
+
+    private static double rms(short[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += (double) samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    /**
+     * 内存中的单声道PCM
+     */
+    private static final class ArraySource implements PcmSource {
+
+        private final ByteBuffer mData;
+        private final int mRate;
+
+        ArraySource(short[] samples, int rate) {
+            mData = allocate(samples.length);
+            mData.asShortBuffer().put(samples);
+            mRate = rate;
+        }
+
+        @Override
+        public int getFrameBytes() {
+            return 2;
+        }
+
+        @Override
+        public int getSampleRateHz() {
+            return mRate;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return mData.capacity() / 2;
+        }
+
+        @Override
+        public long getPositionFrames() {
+            return mData.position() / 2;
+        }
+
+        @Override
+        public void seekToFrame(long frame) {
+            mData.limit(mData.capacity());
+            mData.position((int) Math.max(0, Math.min(frame, getFrameCount())) * 2);
+        }
+
+        @Override
+        public ByteBuffer nextChunk(int maxBytes) {
+            mData.limit(mData.capacity());
+            int length = Math.min(maxBytes & ~1, mData.remaining());
+            if (length == 0) {
+                return null;
+            }
+            ByteBuffer chunk = mData.slice().order(ByteOrder.LITTLE_ENDIAN);
+            chunk.limit(length);
+            mData.position(mData.position() + length);
+            return chunk;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static ByteBuffer allocate(int frames) {
+        return ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static short[] toShorts(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        data.flip();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        short[] samples = new short[data.remaining() / 2];
+        data.asShortBuffer().get(samples);
+        return samples;
+    }
+}
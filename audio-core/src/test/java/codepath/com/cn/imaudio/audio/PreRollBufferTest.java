@@ -0,0 +1,103 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PreRollBuffer} 的JVM单元测试
+ */
+public class PreRollBufferTest {
+
+    @Test
+    public void singleViewBeforeWrap() {
+        PreRollBuffer buffer = new PreRollBuffer(16, 2);
+        ByteBuffer[] views = new ByteBuffer[2];
+        assertEquals(0, buffer.snapshot(views));
+
+        buffer.write(sequence(0, 6));
+        assertEquals(6, buffer.size());
+        assertEquals(1, buffer.snapshot(views));
+        assertContent(views, 1, 0, 6);
+    }
+
+    @Test
+    public void wrapKeepsLatestInOrder() {
+        PreRollBuffer buffer = new PreRollBuffer(16, 2);
+        buffer.write(sequence(0, 10));
+        buffer.write(sequence(10, 10));
+
+        ByteBuffer[] views = new ByteBuffer[2];
+        assertEquals(16, buffer.size());
+        assertEquals(20, buffer.getTotalBytes());
+        assertEquals(2, buffer.snapshot(views));
+        // 最旧的4字节被覆盖
+        assertContent(views, 2, 4, 16);
+    }
+
+    @Test
+    public void oversizedWriteKeepsTail() {
+        PreRollBuffer buffer = new PreRollBuffer(16, 2);
+        buffer.write(sequence(0, 4));
+        ByteBuffer pcm = sequence(4, 40);
+        buffer.write(pcm);
+        assertEquals(pcm.limit(), pcm.position());
+
+        ByteBuffer[] views = new ByteBuffer[2];
+        int count = buffer.snapshot(views);
+        assertContent(views, count, 28, 16);
+    }
+
+    @Test
+    public void clearEmptiesButKeepsCapacity() {
+        PreRollBuffer buffer = new PreRollBuffer(17, 2);
+        assertEquals(16, buffer.capacity());
+
+        buffer.write(sequence(0, 12));
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.snapshot(new ByteBuffer[2]));
+
+        buffer.write(sequence(50, 4));
+        ByteBuffer[] views = new ByteBuffer[2];
+        assertEquals(1, buffer.snapshot(views));
+        assertContent(views, 1, 50, 4);
+    }
+
+    @Test
+    public void durationIsFrameAligned() {
+        PreRollBuffer buffer = PreRollBuffer.forDuration(44100, 2, 500);
+        assertEquals(22050 * 4, buffer.capacity());
+        assertEquals(4, buffer.getFrameBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityBelowOneFrame() {
+        new PreRollBuffer(1, 2);
+    }
+
+    private static ByteBuffer sequence(int first, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) (first + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 依次读取各个视图，内容应为从 first 开始连续的 length 个字节
+     */
+    private static void assertContent(ByteBuffer[] views, int count, int first, int length) {
+        int expected = first;
+        for (int v = 0; v < count; v++) {
+            ByteBuffer view = views[v];
+            for (int i = view.position(); i < view.limit(); i++) {
+                assertEquals((byte) expected++, view.get(i));
+            }
+        }
+        assertEquals(first + length, expected);
+    }
+}
@@ -0,0 +1,82 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link RealFft} 的JVM单元测试，与直接按定义计算的DFT比较
+ */
+public class RealFftTest {
+
+    @Test
+    public void forwardMatchesNaiveDft() {
+        int[] sizes = {4, 8, 64, 512};
+        Random random = new Random(11);
+        for (int size : sizes) {
+            float[] x = new float[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = (float) random.nextGaussian();
+            }
+            float[] data = x.clone();
+            new RealFft(size).forward(data);
+
+            double tolerance = 1e-4 * size;
+            for (int k = 0; k <= size / 2; k++) {
+                double re = 0;
+                double im = 0;
+                for (int n = 0; n < size; n++) {
+                    double angle = -2 * Math.PI * k * n / size;
+                    re += x[n] * Math.cos(angle);
+                    im += x[n] * Math.sin(angle);
+                }
+                if (k == 0) {
+                    assertEquals("size " + size, re, data[0], tolerance);
+                } else if (k == size / 2) {
+                    assertEquals("size " + size, re, data[1], tolerance);
+                } else {
+                    assertEquals("size " + size + " bin " + k, re, data[2 * k], tolerance);
+                    assertEquals("size " + size + " bin " + k, im, data[2 * k + 1], tolerance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void inverseRestoresInput() {
+        Random random = new Random(5);
+        RealFft fft = new RealFft(1024);
+        float[] x = new float[1024];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = (float) random.nextGaussian();
+        }
+        float[] data = x.clone();
+        for (int round = 0; round < 10; round++) {
+            fft.forward(data);
+            fft.inverse(data);
+        }
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(x[i], data[i], 1e-4);
+        }
+    }
+
+    @Test
+    public void sineLandsInItsBin() {
+        float[] data = new float[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) Math.cos(2 * Math.PI * 10 * i / data.length);
+        }
+        new RealFft(256).forward(data);
+        assertEquals(128, data[20], 1e-3);
+        assertEquals(0, data[21], 1e-3);
+        assertEquals(0, data[22], 1e-3);
+        assertEquals(0, data[0], 1e-3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwo() {
+        new RealFft(384);
+    }
+}
@@ -0,0 +1,221 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link TaskLane} 的JVM单元测试
+ */
+public class TaskLaneTest {
+
+    private final List<TaskLane> mLanes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (TaskLane lane : mLanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runsTasksInSubmissionOrder() throws Exception {
+        TaskLane lane = newLane("control");
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        // 第一个任务阻塞，其余的全部排队
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                await(gate);
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            lane.submit(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                }
+            });
+        }
+        gate.countDown();
+        lane.shutdown();
+        assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(100, order.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void tasksNeverOverlap() throws Exception {
+        TaskLane lane = newLane("control");
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(lane.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (running.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    Thread.yield();
+                    running.decrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    public void blockedLaneDoesNotDelayOtherLanes() throws Exception {
+        TaskLane capture = newLane("capture");
+        TaskLane control = newLane("control");
+        final CountDownLatch captureRunning = new CountDownLatch(1);
+        final CountDownLatch stopCapture = new CountDownLatch(1);
+
+        // 模拟阻塞的采集循环
+        capture.execute(new Runnable() {
+            @Override
+            public void run() {
+                captureRunning.countDown();
+                await(stopCapture);
+            }
+        });
+        assertTrue(captureRunning.await(5, TimeUnit.SECONDS));
+
+        Future<String> result = control.submit(Executors.callable(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, "done"));
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+
+        stopCapture.countDown();
+    }
+
+    @Test
+    public void reportsQueueDepthAndLatency() throws Exception {
+        TaskLane lane = newLane("io");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        assertEquals(-1, lane.getWaitMicros(50));
+
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(gate);
+            }
+        });
+        // 工作线程取走第一个任务之后再排队，排队数和阻塞时长才是确定的
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        assertEquals(5, lane.getQueueDepth());
+        assertTrue(lane.getMaxQueueDepth() >= 5);
+
+        Thread.sleep(20);
+        gate.countDown();
+        lane.shutdown();
+        assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(0, lane.getQueueDepth());
+        assertEquals(6, lane.getCompletedTaskCount());
+        // 排在阻塞任务之后的任务至少等待了 20ms
+        assertTrue(lane.getWaitMicros(100) >= 20000);
+        assertTrue(lane.getRunMicros(100) >= 20000);
+
+        lane.resetStats();
+        assertEquals(-1, lane.getWaitMicros(50));
+        assertEquals(0, lane.getMaxQueueDepth());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopLane() throws Exception {
+        TaskLane lane = newLane("control");
+        Future<?> failed = lane.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("recorder not prepared");
+            }
+        });
+        Future<String> next = lane.submit(Executors.callable(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, "next"));
+
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        assertTrue(failed.isDone());
+    }
+
+    @Test
+    public void reportsFailureOfUnreadFuture() throws Exception {
+        TaskLane lane = newLane("io");
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        lane.setFailureListener(new TaskLane.FailureListener() {
+            @Override
+            public void onTaskFailed(TaskLane failedLane, Throwable error) {
+                errors.add(error);
+            }
+        });
+
+        // 提交后不读取 Future
+        lane.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("store not opened");
+            }
+        });
+        lane.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        lane.shutdown();
+        assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(1, lane.getFailedTaskCount());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+        assertTrue(lane.toString().contains("failed=1"));
+    }
+
+    private TaskLane newLane(String name) {
+        TaskLane lane = new TaskLane(name, Executors.defaultThreadFactory());
+        mLanes.add(lane);
+        return lane;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link VoiceActivityDetector} 与 {@link SilenceTrimmer} 的JVM单元测试，使用合成信号
+ */
+public class VoiceActivityDetectorTest {
+
+    private static final int RATE = 16000;
+    private static final int VAD_WINDOW_FRAMES = RATE * VoiceActivityDetector.WINDOW_MILLIS / 1000;
+
+    private Signal mSignal;
+
+    @Before
+    public void setUp() {
+        mSignal = new Signal(RATE);
+    }
+
+    @Test
+    public void backgroundNoiseIsNotSpeech() {
+        mSignal.noise(3000, 300);
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, 1, 200);
+        assertEquals(0, speechWindows(vad, mSignal.toBuffer()));
+        assertEquals(-41, vad.getNoiseFloorDbfs(), 3);
+    }
+
+    @Test
+    public void voicedBurstIsDetectedWithHangover() {
+        mSignal.noise(1000, 100).tone(500, 200, 8000).noise(1000, 100);
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, 1, 200);
+        boolean[] decisions = decisions(vad, mSignal.toBuffer());
+
+        // 语音开始后2个窗口内检测到
+        assertFalse(decisions[99]);
+        assertTrue(decisions[101]);
+        assertTrue(decisions[149]);
+        // 语音结束后 hangover 200ms 内仍为语音，之后恢复静音
+        assertTrue(decisions[150 + 15]);
+        assertFalse(decisions[150 + 25]);
+        assertFalse(decisions[decisions.length - 1]);
+    }
+
+    @Test
+    public void quietFricativeIsDetectedByZeroCrossings() {
+        // 背景为低频嗡声（过零率低），"s"音为能量只高约6dB的高频噪声
+        mSignal.tone(1000, 50, 300).hiss(300, 600).tone(1000, 50, 300);
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, 1, 0);
+        boolean[] decisions = decisions(vad, mSignal.toBuffer());
+        assertTrue(decisions[115]);
+        assertFalse(decisions[90]);
+        assertFalse(decisions[decisions.length - 1]);
+    }
+
+    @Test
+    public void singleClickDoesNotStartSpeech() {
+        mSignal.noise(500, 100).tone(10, 1000, 20000).noise(500, 100);
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, 1, 200);
+        assertEquals(0, speechWindows(vad, mSignal.toBuffer()));
+    }
+
+    @Test
+    public void trimmerDropsLeadingAndTrailingSilence() throws Exception {
+        mSignal.noise(2000, 100).tone(1000, 200, 8000).noise(2000, 100);
+        CollectingSink sink = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink,
+                new VoiceActivityDetector(RATE, 1, 200), RATE, 1, 300, 1000, true);
+        writeInChunks(trimmer, mSignal.toBuffer(), 1234);
+        trimmer.close();
+
+        assertTrue(trimmer.hasSpeech());
+        assertTrue(sink.closed);
+        assertEquals(5000, trimmer.getInputMillis(), 1);
+        // 300ms 前置 + 1s 语音 + 200ms hangover
+        assertEquals(1500, trimmer.getOutputMillis(), 30);
+        assertEquals(1700, trimmer.getLeadingTrimmedMillis(), 30);
+        assertEquals(1000, trimmer.getTrailingTrimmedMillis(), 30);
+        assertEquals(trimmer.getInputMillis() - trimmer.getOutputMillis(), trimmer.getTrimmedMillis(), 2);
+        assertEquals(trimmer.getOutputMillis(), sink.bytes / 2 * 1000 / RATE, 1);
+    }
+
+    @Test
+    public void trimmerKeepsSpeechSamplesInOrder() throws Exception {
+        mSignal.noise(1000, 100).ramp(500).noise(1000, 100);
+        CollectingSink sink = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink,
+                new VoiceActivityDetector(RATE, 1, 0), RATE, 1, 100, 0, true);
+        writeInChunks(trimmer, mSignal.toBuffer(), 778);
+        trimmer.close();
+
+        // 完整的斜坡信号按原顺序出现在输出中，之前是100ms的前置数据，之后只有窗口粒度的少量噪声
+        ByteBuffer out = sink.toBuffer();
+        int start = 0;
+        while (start < out.limit() && out.getShort(start) != 5000) {
+            start += 2;
+        }
+        assertEquals(2 * RATE / 10, start, 2 * 2 * VAD_WINDOW_FRAMES);
+        for (int i = 0; i < 8000; i++) {
+            assertEquals(5000 + i * Signal.RAMP_STEP, out.getShort(start + i * 2));
+        }
+        assertTrue(out.limit() - start - 8000 * 2 < 2 * 2 * VAD_WINDOW_FRAMES);
+    }
+
+    @Test
+    public void longPausesAreCompressed() throws Exception {
+        mSignal.noise(500, 100).tone(500, 200, 8000).noise(3000, 100)
+                .tone(500, 200, 8000).noise(500, 100);
+        CollectingSink sink = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink,
+                new VoiceActivityDetector(RATE, 1, 100), RATE, 1, 0, 500, true);
+        writeInChunks(trimmer, mSignal.toBuffer(), 4096);
+        trimmer.close();
+
+        // 3s 的停顿中 100ms 为 hangover，其余缩短为 500ms
+        assertEquals(2400, trimmer.getCompressedPauseMillis(), 30);
+        assertEquals(500 + 100 + 500 + 500 + 100, trimmer.getOutputMillis(), 40);
+    }
+
+    @Test
+    public void pausesAreKeptWhenCompressionDisabled() throws Exception {
+        mSignal.noise(500, 100).tone(500, 200, 8000).noise(3000, 100)
+                .tone(500, 200, 8000).noise(500, 100);
+        CollectingSink sink = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink,
+                new VoiceActivityDetector(RATE, 1, 100), RATE, 1, 0, 500, false);
+        writeInChunks(trimmer, mSignal.toBuffer(), 4096);
+        trimmer.close();
+
+        assertEquals(0, trimmer.getCompressedPauseMillis());
+        assertEquals(500 + 3000 + 500 + 100, trimmer.getOutputMillis(), 40);
+    }
+
+    @Test
+    public void silenceOnlyProducesNoOutput() throws Exception {
+        mSignal.noise(2000, 100);
+        CollectingSink sink = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink,
+                new VoiceActivityDetector(RATE, 1, 200), RATE, 1, 300, 1000, true);
+        writeInChunks(trimmer, mSignal.toBuffer(), 2048);
+        trimmer.close();
+
+        assertFalse(trimmer.hasSpeech());
+        assertEquals(0, sink.bytes);
+        assertEquals(2000, trimmer.getLeadingTrimmedMillis(), 1);
+    }
+
+    private static int speechWindows(VoiceActivityDetector vad, ByteBuffer pcm) {
+        int count = 0;
+        for (boolean speech : decisions(vad, pcm)) {
+            if (speech) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean[] decisions(VoiceActivityDetector vad, ByteBuffer pcm) {
+        int window = vad.getWindowFrames();
+        boolean[] decisions = new boolean[pcm.remaining() / 2 / window];
+        for (int i = 0; i < decisions.length; i++) {
+            decisions[i] = vad.process(pcm, i * window * 2, window);
+        }
+        return decisions;
+    }
+
+    private static void writeInChunks(PcmSink sink, ByteBuffer pcm, int chunkBytes) throws Exception {
+        while (pcm.hasRemaining()) {
+            ByteBuffer chunk = pcm.duplicate();
+            chunk.limit(Math.min(pcm.limit(), pcm.position() + chunkBytes));
+            pcm.position(chunk.limit());
+            sink.write(chunk);
+            assertFalse(chunk.hasRemaining());
+        }
+    }
+
+    /**
+     * 合成测试信号，各段按毫秒拼接
+     */
+    static final class Signal {
+
+        static final int RAMP_STEP = 3;
+
+        private final int mRate;
+        private final Random mRandom = new Random(7);
+        private short[] mSamples = new short[0];
+        private int mCount;
+
+        Signal(int rate) {
+            mRate = rate;
+        }
+
+        /** 高斯白噪声 */
+        Signal noise(int millis, double rms) {
+            int n = grow(millis);
+            for (int i = 0; i < n; i++) {
+                append(rms * mRandom.nextGaussian());
+            }
+            return this;
+        }
+
+        /** 正弦波，模拟浊音 */
+        Signal tone(int millis, double hz, double amplitude) {
+            int n = grow(millis);
+            for (int i = 0; i < n; i++) {
+                append(amplitude * Math.sin(2 * Math.PI * hz * i / mRate));
+            }
+            return this;
+        }
+
+        /** 一阶差分的白噪声（高通），模拟清辅音 */
+        Signal hiss(int millis, double rms) {
+            int n = grow(millis);
+            double previous = 0;
+            for (int i = 0; i < n; i++) {
+                double white = rms * mRandom.nextGaussian();
+                append((white - previous) / Math.sqrt(2));
+                previous = white;
+            }
+            return this;
+        }
+
+        /** 从5000开始每个采样递增 RAMP_STEP 的斜坡（最长约600ms），用于检查数据顺序 */
+        Signal ramp(int millis) {
+            int n = grow(millis);
+            for (int i = 0; i < n; i++) {
+                append(5000 + i * RAMP_STEP);
+            }
+            return this;
+        }
+
+        private int grow(int millis) {
+            int n = mRate * millis / 1000;
+            if (mCount + n > mSamples.length) {
+                short[] grown = new short[(mCount + n) * 2];
+                System.arraycopy(mSamples, 0, grown, 0, mCount);
+                mSamples = grown;
+            }
+            return n;
+        }
+
+        private void append(double sample) {
+            mSamples[mCount++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+
+        ByteBuffer toBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(mCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < mCount; i++) {
+                buffer.putShort(mSamples[i]);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static final class CollectingSink implements PcmSink {
+
+        private final java.io.ByteArrayOutputStream mOut = new java.io.ByteArrayOutputStream();
+        long bytes;
+        boolean closed;
+
+        @Override
+        public void write(ByteBuffer pcm) {
+            while (pcm.hasRemaining()) {
+                mOut.write(pcm.get());
+                bytes++;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(mOut.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link WavFileWriter} 和 {@link WavHeader} 的JVM单元测试
+ */
+public class WavFileWriterTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("writer", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writesCanonicalHeaderAndPatchesSizes() throws IOException {
+        WavFileWriter writer = new WavFileWriter(mFile, WavHeader.pcm(44100, 1, 16));
+        writer.write(samples(1000));
+        writer.write(samples(24));
+        assertEquals(2048, writer.getDataBytes());
+        assertEquals(mFile.length(), writer.getFileBytes());
+        writer.close();
+
+        assertEquals(44 + 2048, mFile.length());
+        ByteBuffer header = readBytes(mFile, 0, 44);
+        assertEquals("RIFF", ascii(header, 0));
+        assertEquals(36 + 2048, header.getInt(4));
+        assertEquals("WAVE", ascii(header, 8));
+        assertEquals("fmt ", ascii(header, 12));
+        assertEquals(16, header.getInt(16));
+        assertEquals(1, header.getShort(20));
+        assertEquals(1, header.getShort(22));
+        assertEquals(44100, header.getInt(24));
+        assertEquals(88200, header.getInt(28));
+        assertEquals(2, header.getShort(32));
+        assertEquals(16, header.getShort(34));
+        assertEquals("data", ascii(header, 36));
+        assertEquals(2048, header.getInt(40));
+    }
+
+    @Test
+    public void payloadIsWrittenVerbatim() throws IOException {
+        WavFileWriter writer = new WavFileWriter(mFile, WavHeader.pcm(16000, 2, 16));
+        writer.write(samples(8));
+        writer.close();
+
+        ByteBuffer payload = readBytes(mFile, 44, 16);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, payload.getShort(i * 2));
+        }
+    }
+
+    @Test
+    public void headerRoundTrip() throws IOException {
+        WavFileWriter writer = new WavFileWriter(mFile, WavHeader.pcm(22050, 2, 16));
+        writer.write(samples(100));
+        writer.close();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            WavHeader header = WavHeader.read(raf.getChannel());
+            assertEquals(WavHeader.FORMAT_PCM, header.getFormatTag());
+            assertEquals(22050, header.getSampleRateHz());
+            assertEquals(2, header.getChannelCount());
+            assertEquals(16, header.getBitsPerSample());
+            assertEquals(4, header.getBlockAlign());
+            assertEquals(44, header.getDataOffset());
+            assertEquals(200, header.getDataBytes());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void repairsFileLeftOpenByCrash() throws IOException {
+        // 模拟进程被杀死：数据已写入，但没有调用close()修正文件头
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.getChannel().write(WavHeader.pcm(44100, 1, 16).toByteBuffer(0));
+            raf.getChannel().write(samples(500));
+            // 末尾不完整的一帧
+            raf.write(7);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(WavFileWriter.repair(mFile));
+
+        ByteBuffer header = readBytes(mFile, 0, 44);
+        assertEquals(36 + 1000, header.getInt(4));
+        assertEquals(1000, header.getInt(40));
+        // 数据没有被改写
+        assertEquals(44 + 1001, mFile.length());
+
+        // 已经正确的文件不再修改
+        assertFalse(WavFileWriter.repair(mFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void repairRejectsNonWavFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.write(new byte[64]);
+        } finally {
+            raf.close();
+        }
+
+        WavFileWriter.repair(mFile);
+    }
+
+    @Test
+    public void readerSkipsUnknownChunks() throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(12 + 24 + 8 + 3 + 1 + 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        file.put("RIFF".getBytes("US-ASCII")).putInt(file.capacity() - 8).put("WAVE".getBytes("US-ASCII"));
+        file.put("fmt ".getBytes("US-ASCII")).putInt(16)
+                .putShort((short) 1).putShort((short) 1).putInt(8000).putInt(16000)
+                .putShort((short) 2).putShort((short) 16);
+        // 奇数长度的未知块，后跟一个填充字节
+        file.put("LIST".getBytes("US-ASCII")).putInt(3).put(new byte[4]);
+        file.put("data".getBytes("US-ASCII")).putInt(4).putInt(0x12345678);
+        file.flip();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.getChannel().write(file);
+            WavHeader header = WavHeader.read(raf.getChannel());
+            assertEquals(8000, header.getSampleRateHz());
+            assertEquals(56, header.getDataOffset());
+            assertEquals(4, header.getDataBytes());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void mappedSourceOpensWav() throws IOException {
+        WavFileWriter writer = new WavFileWriter(mFile, WavHeader.pcm(44100, 1, 16));
+        writer.write(samples(10));
+        writer.close();
+
+        MappedPcmSource source = MappedPcmSource.openWav(mFile);
+        try {
+            assertEquals(10, source.getFrameCount());
+            source.seekToFrame(3);
+            ByteBuffer chunk = source.nextChunk(2);
+            assertEquals(3, chunk.getShort(chunk.position()));
+        } finally {
+            source.close();
+        }
+    }
+
+    private static ByteBuffer samples(int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort((short) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer readBytes(File file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.getChannel().read(buffer, position);
+        } finally {
+            raf.close();
+        }
+        return buffer;
+    }
+
+    private static String ascii(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes);
+    }
+}
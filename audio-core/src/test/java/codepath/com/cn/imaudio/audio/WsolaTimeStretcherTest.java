@@ -0,0 +1,246 @@
+package codepath.com.cn.imaudio.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link WsolaTimeStretcher} 和 {@link TimeStretchPcmSource} 的JVM单元测试
+ */
+public class WsolaTimeStretcherTest {
+
+    private static final int RATE = 16000;
+    private static final int BLOCK_FRAMES = 333;
+
+    @Test
+    public void outputLengthFollowsSpeed() {
+        short[] input = voiceLike(RATE, 3 * RATE, 1);
+        for (float speed : new float[]{0.75f, 1f, 1.5f, 2f, 3f}) {
+            short[] output = stretch(input, RATE, 1, speed);
+            double expected = input.length / speed;
+            // 首尾各差不超过一个片段
+            assertEquals("speed " + speed, expected, output.length,
+                    RATE * WsolaTimeStretcher.SEGMENT_MILLIS / 1000.0);
+        }
+    }
+
+    @Test
+    public void normalSpeedReproducesInput() {
+        short[] input = voiceLike(RATE, RATE, 1);
+        short[] output = stretch(input, RATE, 1, 1f);
+        int compared = Math.min(input.length, output.length) - RATE / 10;
+        long maxError = 0;
+        for (int i = 0; i < compared; i++) {
+            maxError = Math.max(maxError, Math.abs(input[i] - output[i]));
+        }
+        // 1倍速时每个片段都接在自然延续上，交叉淡化的两边相同
+        assertTrue("max error " + maxError, maxError <= 1);
+    }
+
+    @Test
+    public void pitchIsPreserved() {
+        for (int rate : new int[]{RATE, 48000}) {
+            short[] input = sine(rate, 2 * rate, 220);
+            for (float speed : new float[]{1.5f, 2f}) {
+                short[] output = stretch(input, rate, 1, speed);
+                assertEquals(rate + "Hz speed " + speed, 220, frequency(output, rate), 2.0);
+            }
+        }
+    }
+
+    @Test
+    public void noClicksAtSegmentBoundaries() {
+        short[] input = sine(RATE, 2 * RATE, 300);
+        short[] output = stretch(input, RATE, 1, 1.5f);
+        // 正弦的相邻采样之差不超过 2π·f/fs·A，拼接处相位连续时也一样
+        double maxStep = 2 * Math.PI * 300 / RATE * 10000 * 1.1;
+        for (int i = 1; i < output.length; i++) {
+            assertTrue("click at " + i, Math.abs(output[i] - output[i - 1]) <= maxStep);
+        }
+        // 幅度保持
+        assertEquals(10000 / Math.sqrt(2), rms(output, RATE / 10, output.length - RATE / 10), 300);
+    }
+
+    @Test
+    public void stereoChannelsStayAligned() {
+        short[] input = voiceLike(RATE, RATE, 2);
+        short[] output = stretch(input, RATE, 2, 2f);
+        assertEquals(0, output.length % 2);
+        // 两个声道的内容相同，输出也应相同
+        for (int i = 0; i < output.length; i += 2) {
+            assertEquals(output[i], output[i + 1]);
+        }
+    }
+
+    @Test
+    public void sourceKeepsMediaPositionAndSeeksExactly() throws Exception {
+        short[] input = voiceLike(RATE, 2 * RATE, 1);
+        TimeStretchPcmSource source = new TimeStretchPcmSource(new ShortArraySource(input, RATE, 1));
+        source.setSpeed(2f);
+        assertEquals(input.length, source.getFrameCount());
+
+        int outputFrames = 0;
+        ByteBuffer chunk;
+        while ((chunk = source.nextChunk(1024)) != null) {
+            outputFrames += chunk.remaining() / 2;
+        }
+        assertEquals(input.length / 2, outputFrames, RATE * WsolaTimeStretcher.SEGMENT_MILLIS / 1000);
+        assertEquals(input.length, source.getPositionFrames());
+
+        // 定位之后的第一个采样就是目标采样
+        source.seekToFrame(12345);
+        assertEquals(12345, source.getPositionFrames());
+        chunk = source.nextChunk(1024);
+        assertEquals(input[12345], chunk.order(ByteOrder.LITTLE_ENDIAN).getShort(chunk.position()));
+
+        // 1倍速时直接输出源的数据
+        source.setSpeed(1f);
+        source.seekToFrame(100);
+        chunk = source.nextChunk(20);
+        assertEquals(input[100], chunk.getShort(chunk.position()));
+        assertEquals(110, source.getPositionFrames());
+    }
+
+    static short[] stretch(short[] input, int rate, int channels, float speed) {
+        WsolaTimeStretcher stretcher = new WsolaTimeStretcher(rate, channels);
+        stretcher.setSpeed(speed);
+        ShortBuffer out = ShortBuffer.allocate((int) (input.length / speed) + rate);
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_FRAMES * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        int frames = input.length / channels;
+        for (int f = 0; f < frames; f += BLOCK_FRAMES) {
+            int n = Math.min(BLOCK_FRAMES, frames - f);
+            block.clear();
+            block.asShortBuffer().put(input, f * channels, n * channels);
+            block.limit(n * channels * 2);
+            out.put(stretcher.process(block).asShortBuffer());
+        }
+        out.put(stretcher.flush().asShortBuffer());
+        short[] result = new short[out.position()];
+        out.flip();
+        out.get(result);
+        return result;
+    }
+
+    static short[] sine(int rate, int frames, double hz) {
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) (10000 * Math.sin(2 * Math.PI * hz * i / rate));
+        }
+        return samples;
+    }
+
+    /**
+     * 基频变化、带谐波的合成浊音，声道内容相同
+     */
+    static short[] voiceLike(int rate, int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double f0 = 140 + 40 * Math.sin(2 * Math.PI * 1.5 * i / rate);
+            phase += 2 * Math.PI * f0 / rate;
+            double v = 0;
+            for (int h = 1; h <= 6; h++) {
+                v += Math.sin(h * phase) / h;
+            }
+            short s = (short) (6000 * v);
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = s;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 按过零点估计频率，忽略首尾
+     */
+    private static double frequency(short[] samples, int rate) {
+        int from = rate / 10;
+        int to = samples.length - rate / 10;
+        int crossings = 0;
+        int first = -1;
+        int last = -1;
+        for (int i = from + 1; i < to; i++) {
+            if (samples[i - 1] < 0 && samples[i] >= 0) {
+                if (first < 0) {
+                    first = i;
+                } else {
+                    crossings++;
+                }
+                last = i;
+            }
+        }
+        return crossings * (double) rate / (last - first);
+    }
+
+    private static double rms(short[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += (double) samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    /**
+     * 内存中的PCM
+     */
+    static final class ShortArraySource implements PcmSource {
+
+        private final ByteBuffer mData;
+        private final int mRate;
+        private final int mFrameBytes;
+
+        ShortArraySource(short[] samples, int rate, int channels) {
+            mData = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            mData.asShortBuffer().put(samples);
+            mRate = rate;
+            mFrameBytes = channels * 2;
+        }
+
+        @Override
+        public int getFrameBytes() {
+            return mFrameBytes;
+        }
+
+        @Override
+        public int getSampleRateHz() {
+            return mRate;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return mData.capacity() / mFrameBytes;
+        }
+
+        @Override
+        public long getPositionFrames() {
+            return mData.position() / mFrameBytes;
+        }
+
+        @Override
+        public void seekToFrame(long frame) {
+            mData.limit(mData.capacity());
+            mData.position((int) Math.max(0, Math.min(frame, getFrameCount())) * mFrameBytes);
+        }
+
+        @Override
+        public ByteBuffer nextChunk(int maxBytes) {
+            mData.limit(mData.capacity());
+            int length = Math.min(maxBytes - maxBytes % mFrameBytes, mData.remaining());
+            if (length <= 0) {
+                return null;
+            }
+            ByteBuffer chunk = mData.slice().order(ByteOrder.LITTLE_ENDIAN);
+            chunk.limit(length);
+            mData.position(mData.position() + length);
+            return chunk;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
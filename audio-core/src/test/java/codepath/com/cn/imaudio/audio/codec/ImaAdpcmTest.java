@@ -0,0 +1,130 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ImaAdpcm} 的JVM单元测试
+ */
+public class ImaAdpcmTest {
+
+    @Test
+    public void samplesPerBlockMatchesWavConvention() {
+        assertEquals(505, ImaAdpcm.samplesPerBlock(256, 1));
+        assertEquals(505, ImaAdpcm.samplesPerBlock(512, 2));
+        assertEquals(2041, ImaAdpcm.samplesPerBlock(1024, 1));
+        assertEquals(1024, ImaAdpcm.blockAlignFor(44100, 1));
+        assertEquals(256, ImaAdpcm.blockAlignFor(8000, 1));
+        assertEquals(1024, ImaAdpcm.blockAlignFor(22050, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnalignedBlock() {
+        new ImaAdpcm(2, 260);
+    }
+
+    @Test
+    public void blockHeaderHoldsFirstSampleAndIndex() {
+        ImaAdpcm codec = new ImaAdpcm(1, 256);
+        short[] pcm = sine(codec.getSamplesPerBlock(), 1, 440, 8000, 8000);
+        pcm[0] = -1234;
+        ByteBuffer block = ByteBuffer.allocate(256);
+
+        codec.encodeBlock(pcm, 0, block, 0);
+        assertEquals(-1234, (short) ((block.get(0) & 0xFF) | block.get(1) << 8));
+        assertEquals(0, block.get(2));
+        assertEquals(0, block.get(3));
+
+        // 第二个块的步长索引延续第一个块结束时的值
+        codec.encodeBlock(pcm, 0, block, 0);
+        assertTrue(block.get(2) > 0);
+    }
+
+    @Test
+    public void monoRoundTripKeepsSpeechBandSnr() {
+        ImaAdpcm codec = new ImaAdpcm(1, 1024);
+        int samples = codec.getSamplesPerBlock() * 4;
+        short[] pcm = sine(samples, 1, 440, 10000, 44100);
+        short[] decoded = roundTrip(codec, pcm);
+
+        assertEquals(pcm[0], decoded[0]);
+        assertTrue("snr " + snr(pcm, decoded), snr(pcm, decoded) > 25);
+    }
+
+    @Test
+    public void stereoChannelsAreIndependent() {
+        ImaAdpcm codec = new ImaAdpcm(2, 512);
+        int frames = codec.getSamplesPerBlock() * 3;
+        short[] pcm = new short[frames * 2];
+        short[] left = sine(frames, 1, 300, 12000, 16000);
+        for (int i = 0; i < frames; i++) {
+            // 右声道静音
+            pcm[i * 2] = left[i];
+        }
+        short[] decoded = roundTrip(codec, pcm);
+
+        short[] decodedLeft = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            decodedLeft[i] = decoded[i * 2];
+            assertTrue(Math.abs(decoded[i * 2 + 1]) <= 8);
+        }
+        assertTrue(snr(left, decodedLeft) > 25);
+    }
+
+    @Test
+    public void fullScaleSquareWaveDoesNotOverflow() {
+        ImaAdpcm codec = new ImaAdpcm(1, 256);
+        short[] pcm = new short[codec.getSamplesPerBlock() * 2];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (i / 20) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        short[] decoded = roundTrip(codec, pcm);
+
+        // 稳态下解码结果跟随方波的极性，钳位后不会反向溢出
+        for (int i = pcm.length / 2; i < pcm.length; i++) {
+            if (i % 20 == 19) {
+                assertEquals(pcm[i] > 0, decoded[i] > 0);
+            }
+        }
+    }
+
+    private static short[] roundTrip(ImaAdpcm codec, short[] pcm) {
+        int blockSamples = codec.getSamplesPerBlock() * codec.getChannelCount();
+        int blocks = pcm.length / blockSamples;
+        ByteBuffer encoded = ByteBuffer.allocate(blocks * codec.getBlockAlign());
+        for (int b = 0; b < blocks; b++) {
+            codec.encodeBlock(pcm, b * blockSamples, encoded, b * codec.getBlockAlign());
+        }
+
+        short[] decoded = new short[pcm.length];
+        for (int b = 0; b < blocks; b++) {
+            codec.decodeBlock(encoded, b * codec.getBlockAlign(), decoded, b * blockSamples);
+        }
+        return decoded;
+    }
+
+    static short[] sine(int frames, int channels, double hz, double amplitude, int sampleRateHz) {
+        short[] pcm = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (amplitude * Math.sin(2 * Math.PI * hz * i / sampleRateHz));
+            for (int ch = 0; ch < channels; ch++) {
+                pcm[i * channels + ch] = sample;
+            }
+        }
+        return pcm;
+    }
+
+    static double snr(short[] reference, short[] actual) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < reference.length; i++) {
+            signal += (double) reference[i] * reference[i];
+            double diff = reference[i] - actual[i];
+            noise += diff * diff;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+}
@@ -0,0 +1,187 @@
+package codepath.com.cn.imaudio.audio.codec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import codepath.com.cn.imaudio.audio.FileSink;
+import codepath.com.cn.imaudio.audio.MappedPcmSource;
+import codepath.com.cn.imaudio.audio.PcmSink;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.WavFileWriter;
+import codepath.com.cn.imaudio.audio.WavHeader;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ImaAdpcmWavWriter}、{@link ImaAdpcmWavSource} 与 {@link AudioCodecRegistry} 的JVM单元测试
+ */
+public class ImaAdpcmWavTest {
+
+    private File mFile;
+    private AudioCodecRegistry mRegistry;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("adpcm", ".wav");
+        mRegistry = new AudioCodecRegistry()
+                .register(new PcmWavCodec())
+                .register(new ImaAdpcmCodec());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writerProducesCompressedWavWithFact() throws IOException {
+        short[] pcm = ImaAdpcmTest.sine(5000, 1, 440, 8000, 44100);
+        PcmSink sink = mRegistry.get(ImaAdpcmCodec.NAME).newEncoder(mFile, 44100, 1);
+        writeInChunks(sink, pcm, 333);
+        // 未满的最后一块还没有写入文件
+        assertEquals(mFile.length(), ((FileSink) sink).getFileBytes());
+        sink.close();
+
+        WavHeader header = WavHeader.read(mFile);
+        assertEquals(WavHeader.FORMAT_IMA_ADPCM, header.getFormatTag());
+        assertEquals(4, header.getBitsPerSample());
+        assertEquals(1024, header.getBlockAlign());
+        assertEquals(2041, header.getSamplesPerBlock());
+        assertEquals(60, header.getDataOffset());
+        // 5000个采样需要3个块，最后一块补齐
+        assertEquals(3 * 1024, header.getDataBytes());
+        assertEquals(5000, header.getFactSamples());
+        assertEquals(60 + 3 * 1024, mFile.length());
+        // 约为PCM的1/4
+        assertTrue(header.getDataBytes() * 3 < pcm.length * 2);
+    }
+
+    @Test
+    public void decoderRoundTripAndSeek() throws IOException {
+        short[] pcm = ImaAdpcmTest.sine(5000, 1, 440, 8000, 44100);
+        PcmSink sink = new ImaAdpcmWavWriter(mFile, 44100, 1);
+        writeInChunks(sink, pcm, 4096);
+        sink.close();
+
+        AudioCodec codec = mRegistry.findDecoder(mFile);
+        assertEquals(ImaAdpcmCodec.NAME, codec.getName());
+        PcmSource source = codec.newDecoder(mFile);
+        try {
+            assertEquals(5000, source.getFrameCount());
+            assertEquals(2, source.getFrameBytes());
+            short[] decoded = readAll(source, 5000);
+            assertNull(source.nextChunk(4096));
+            assertTrue(ImaAdpcmTest.snr(pcm, decoded) > 25);
+
+            // 定位到第二个块的开头，得到块头中保存的原始采样
+            source.seekToFrame(2041);
+            ByteBuffer chunk = source.nextChunk(2);
+            assertEquals(pcm[2041], chunk.getShort(chunk.position()));
+            assertEquals(2042, source.getPositionFrames());
+
+            source.seekToFrame(4990);
+            assertEquals(20, source.nextChunk(4096).remaining());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void repairCountsWholeBlocksAfterCrash() throws IOException {
+        // 模拟进程被杀死：写了两个完整的块和半个块，没有调用close()
+        WavHeader header = WavHeader.imaAdpcm(8000, 1, 256, ImaAdpcm.samplesPerBlock(256, 1));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.getChannel().write(header.toByteBuffer(0));
+            raf.write(new byte[256 * 2 + 100]);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(WavFileWriter.repair(mFile));
+        WavHeader repaired = WavHeader.read(mFile);
+        assertEquals(512, repaired.getDataBytes());
+        assertEquals(2 * 505, repaired.getFactSamples());
+        assertFalse(WavFileWriter.repair(mFile));
+
+        PcmSource source = ImaAdpcmWavSource.open(mFile);
+        try {
+            assertEquals(2 * 505, source.getFrameCount());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void registryPicksDecoderByFormat() throws IOException {
+        PcmSink sink = mRegistry.get(PcmWavCodec.NAME).newEncoder(mFile, 16000, 1);
+        writeInChunks(sink, new short[100], 100);
+        sink.close();
+
+        assertEquals(PcmWavCodec.NAME, mRegistry.findDecoder(mFile).getName());
+        assertFalse(mRegistry.get(ImaAdpcmCodec.NAME).canDecode(mFile));
+        PcmSource source = mRegistry.findDecoder(mFile).newDecoder(mFile);
+        try {
+            assertTrue(source instanceof MappedPcmSource);
+            assertEquals(100, source.getFrameCount());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void registryIgnoresUnknownFiles() throws IOException {
+        assertNull(mRegistry.findDecoder(mFile));
+        assertNull(mRegistry.findDecoder(new File(mFile.getParentFile(), "voice.pcm")));
+        assertEquals(2, mRegistry.getCodecs().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registryRejectsDuplicateName() {
+        mRegistry.register(new ImaAdpcmCodec());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registryRejectsUnknownName() {
+        mRegistry.get("opus");
+    }
+
+    @Test(expected = IOException.class)
+    public void adpcmDecoderRejectsPcmWav() throws IOException {
+        PcmSink sink = new PcmWavCodec().newEncoder(mFile, 16000, 1);
+        sink.close();
+        ImaAdpcmWavSource.open(mFile);
+    }
+
+    private static void writeInChunks(PcmSink sink, short[] pcm, int chunkSamples) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < pcm.length; offset += chunkSamples) {
+            buffer.clear();
+            int end = Math.min(offset + chunkSamples, pcm.length);
+            for (int i = offset; i < end; i++) {
+                buffer.putShort(pcm[i]);
+            }
+            buffer.flip();
+            sink.write(buffer);
+        }
+    }
+
+    private static short[] readAll(PcmSource source, int frames) {
+        short[] pcm = new short[frames];
+        int count = 0;
+        ByteBuffer chunk;
+        while ((chunk = source.nextChunk(4096)) != null) {
+            while (chunk.hasRemaining()) {
+                pcm[count++] = chunk.getShort();
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,302 @@
+package codepath.com.cn.imaudio.audio.transcode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import codepath.com.cn.imaudio.audio.PcmFormat;
+import codepath.com.cn.imaudio.audio.PcmSource;
+import codepath.com.cn.imaudio.audio.codec.AudioCodec;
+import codepath.com.cn.imaudio.audio.codec.ImaAdpcmCodec;
+import codepath.com.cn.imaudio.audio.codec.PcmWavCodec;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link BatchTranscoder}、{@link TranscodeJournal} 和 {@link StealingTaskQueues} 的JVM单元测试
+ */
+public class BatchTranscoderTest {
+
+    private static final PcmFormat IN = PcmFormat.CD_MONO;
+    private static final PcmFormat OUT = PcmFormat.VOICE_WIDEBAND;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("transcode", "");
+        mDirectory.delete();
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void transcodesAllFilesInParallel() throws Exception {
+        int[] millis = {3000, 500, 1200, 2500, 800, 1700, 2000};
+        for (int i = 0; i < millis.length; i++) {
+            writeTone(new File(mDirectory, "rec" + i + ".pcm"), millis[i], 3000);
+        }
+
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        BatchTranscoder transcoder = newTranscoder(new ImaAdpcmCodec(), 3);
+        transcoder.setListener(new BatchTranscoder.Listener() {
+            @Override
+            public void onFileTranscoded(File source, File output, long durationMillis) {
+                done.add(output.getName());
+            }
+
+            @Override
+            public void onFileFailed(File source, Exception e) {
+                fail(source + ": " + e);
+            }
+        });
+        File journal = new File(mDirectory, ".journal");
+        BatchTranscoder.Report report = transcoder.run(
+                BatchTranscoder.listFiles(mDirectory, ".pcm"), journal);
+
+        assertEquals(millis.length, report.getTotalFiles());
+        assertEquals(millis.length, report.getTranscodedFiles());
+        assertEquals(0, report.getFailedFiles());
+        assertEquals(11700, report.getAudioMillis());
+        assertTrue(report.getRealtimeFactor() > 0);
+        assertEquals(millis.length, done.size());
+        assertTrue(BatchTranscoder.listFiles(mDirectory, ".pcm").isEmpty());
+        assertFalse(journal.exists());
+
+        AudioCodec codec = new ImaAdpcmCodec();
+        for (int i = 0; i < millis.length; i++) {
+            PcmSource decoded = codec.newDecoder(new File(mDirectory, "rec" + i + ".wav"));
+            try {
+                assertEquals(OUT.getSampleRateHz(), decoded.getSampleRateHz());
+                long expected = (long) millis[i] * OUT.getSampleRateHz() / 1000;
+                // ADPCM 按块编码，最后一块补齐
+                assertEquals(expected, decoded.getFrameCount(), 1024);
+            } finally {
+                decoded.close();
+            }
+        }
+    }
+
+    @Test
+    public void normalizesPeakWithBoundedGain() throws Exception {
+        writeTone(new File(mDirectory, "quiet.pcm"), 1000, 3000);
+        writeTone(new File(mDirectory, "medium.pcm"), 1000, 20000);
+        writeTone(new File(mDirectory, "loud.pcm"), 1000, 32000);
+
+        newTranscoder(new PcmWavCodec(), 2).run(BatchTranscoder.listFiles(mDirectory, ".pcm"),
+                new File(mDirectory, ".journal"));
+
+        // 最多放大4倍；否则放大到 -1dBFS；已超过的不衰减
+        assertEquals(12000, peakOf(new File(mDirectory, "quiet.wav")), 400);
+        assertEquals(29205, peakOf(new File(mDirectory, "medium.wav")), 600);
+        assertEquals(32000, peakOf(new File(mDirectory, "loud.wav")), 600);
+        assertEquals(1 << 12, BatchTranscoder.gainFor(0));
+    }
+
+    @Test
+    public void resumesFromJournalAfterBeingKilled() throws Exception {
+        writeTone(new File(mDirectory, "a.pcm"), 1000, 3000);
+        writeTone(new File(mDirectory, "b.pcm"), 1000, 3000);
+        // 上一次运行记入了 a 之后、改名之前被杀死；b 的记录只写了一半
+        File journalFile = new File(mDirectory, ".journal");
+        writeBytes(journalFile, "a.pcm\ta.wav\nb.pcm\tb.w".getBytes("UTF-8"));
+        writeBytes(new File(mDirectory, "a.wav" + BatchTranscoder.PART_SUFFIX), new byte[]{1, 2, 3});
+        writeBytes(new File(mDirectory, "b.wav" + BatchTranscoder.PART_SUFFIX), new byte[]{4});
+
+        BatchTranscoder.Report report = newTranscoder(new PcmWavCodec(), 2).run(
+                BatchTranscoder.listFiles(mDirectory, ".pcm"), journalFile);
+
+        assertEquals(1, report.getResumedFiles());
+        assertEquals(1, report.getTranscodedFiles());
+        // a 没有重新转码，只是改名
+        assertEquals(3, new File(mDirectory, "a.wav").length());
+        assertTrue(new File(mDirectory, "b.wav").length() > 1000);
+        assertFalse(new File(mDirectory, "a.pcm").exists());
+        assertFalse(new File(mDirectory, "b.wav" + BatchTranscoder.PART_SUFFIX).exists());
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void failureKeepsSourceAndJournal() throws Exception {
+        writeTone(new File(mDirectory, "good.pcm"), 500, 3000);
+        // 无法映射的“文件”
+        assertTrue(new File(mDirectory, "bad.pcm").mkdir());
+        // 与已有文件重名时加序号
+        writeBytes(new File(mDirectory, "good.wav"), new byte[]{1});
+
+        final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+        BatchTranscoder transcoder = newTranscoder(new PcmWavCodec(), 2);
+        transcoder.setListener(new BatchTranscoder.Listener() {
+            @Override
+            public void onFileTranscoded(File source, File output, long durationMillis) {
+            }
+
+            @Override
+            public void onFileFailed(File source, Exception e) {
+                failed.add(source);
+            }
+        });
+        File journalFile = new File(mDirectory, ".journal");
+        BatchTranscoder.Report report = transcoder.run(
+                BatchTranscoder.listFiles(mDirectory, ".pcm"), journalFile);
+
+        assertEquals(1, report.getFailedFiles());
+        assertEquals(1, report.getTranscodedFiles());
+        assertEquals(Collections.singletonList(new File(mDirectory, "bad.pcm")), failed);
+        assertTrue(new File(mDirectory, "good-1.wav").exists());
+        assertEquals(1, new File(mDirectory, "good.wav").length());
+        assertEquals("good-1.wav", new TranscodeJournal(journalFile).getTarget("good.pcm"));
+        assertFalse(new File(mDirectory, "bad.wav" + BatchTranscoder.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void choosesSourcesByContentAndKeepsContainerFiles() throws Exception {
+        // 旧版本 MediaRecorder 的 MPEG-4/AAC 录音用的是 .pcm 扩展名，流式录音的裸PCM用的是 .m4a
+        byte[] mp4 = new byte[4096];
+        byte[] boxHeader = {0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'p', '4', '2'};
+        System.arraycopy(boxHeader, 0, mp4, 0, boxHeader.length);
+        File aac = new File(mDirectory, "old.pcm");
+        writeBytes(aac, mp4);
+        File riff = new File(mDirectory, "new.m4a");
+        writeBytes(riff, "RIFF\0\0\0\0WAVE".getBytes("US-ASCII"));
+        File legacy = new File(mDirectory, "legacy.m4a");
+        writeTone(legacy, 500, 3000);
+
+        List<File> sources = BatchTranscoder.listRawPcmFiles(mDirectory, ".m4a", ".pcm");
+        assertEquals(Collections.singletonList(legacy), sources);
+
+        // 即使被传给转码器也不转码、不删除
+        List<File> all = new ArrayList<>(sources);
+        all.add(aac);
+        final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+        BatchTranscoder transcoder = newTranscoder(new PcmWavCodec(), 2);
+        transcoder.setListener(new BatchTranscoder.Listener() {
+            @Override
+            public void onFileTranscoded(File source, File output, long durationMillis) {
+            }
+
+            @Override
+            public void onFileFailed(File source, Exception e) {
+                failed.add(source);
+            }
+        });
+        BatchTranscoder.Report report = transcoder.run(all, new File(mDirectory, ".journal"));
+
+        assertEquals(1, report.getTranscodedFiles());
+        assertEquals(Collections.singletonList(aac), failed);
+        assertFalse(legacy.exists());
+        assertTrue(new File(mDirectory, "legacy.wav").exists());
+        assertTrue(aac.exists());
+        assertEquals(mp4.length, aac.length());
+        assertFalse(new File(mDirectory, "old.wav").exists());
+        assertTrue(riff.exists());
+    }
+
+    @Test
+    public void stealingQueuesHandOutEachTaskOnce() throws InterruptedException {
+        final int workers = 4;
+        final int tasks = 1000;
+        final StealingTaskQueues<Integer> queues = new StealingTaskQueues<>(workers);
+        for (int i = 0; i < tasks; i++) {
+            queues.add(i);
+        }
+        // 线程0先取完自己的，再从其他队列的尾部窃取
+        for (int i = 0; i < tasks / workers; i++) {
+            assertEquals(Integer.valueOf(i * workers), queues.take(0));
+        }
+        assertEquals(Integer.valueOf(tasks - workers + 1), queues.take(0));
+        assertEquals(1, queues.getStealCount());
+
+        final int[] seen = new int[tasks];
+        seen[tasks - workers + 1]++;
+        for (int i = 0; i < tasks / workers; i++) {
+            seen[i * workers]++;
+        }
+        final CountDownLatch done = new CountDownLatch(workers);
+        for (int w = 0; w < workers; w++) {
+            final int worker = w;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Integer task;
+                    while ((task = queues.take(worker)) != null) {
+                        synchronized (seen) {
+                            seen[task]++;
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        for (int i = 0; i < tasks; i++) {
+            assertEquals("task " + i, 1, seen[i]);
+        }
+    }
+
+    private static BatchTranscoder newTranscoder(AudioCodec codec, int parallelism) {
+        return new BatchTranscoder(codec, IN, OUT, parallelism, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * 写入 440Hz 正弦波的裸PCM文件
+     */
+    static void writeTone(File file, int millis, int amplitude) throws IOException {
+        int frames = IN.getSampleRateHz() * millis / 1000;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            pcm.putShort((short) (amplitude * Math.sin(2 * Math.PI * 440 * i / IN.getSampleRateHz())));
+        }
+        writeBytes(file, pcm.array());
+    }
+
+    private static int peakOf(File wavFile) throws IOException {
+        PcmSource source = new PcmWavCodec().newDecoder(wavFile);
+        try {
+            int peak = 0;
+            ByteBuffer chunk;
+            while ((chunk = source.nextChunk(4096)) != null) {
+                while (chunk.remaining() >= 2) {
+                    peak = Math.max(peak, Math.abs(chunk.getShort()));
+                }
+            }
+            return peak;
+        } finally {
+            source.close();
+        }
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}